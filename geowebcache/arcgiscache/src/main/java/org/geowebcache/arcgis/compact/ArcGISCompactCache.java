@@ -1,102 +1,182 @@
-package org.geowebcache.arcgis.compact;
-
-import org.geowebcache.io.Resource;
-
-import java.io.File;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
-/**
- * Abstract base class for ArcGIS compact caches.
- *
- * @author Bjoern Saxe
- */
-
-public abstract class ArcGISCompactCache {
-    protected static final String BUNDLX_EXT = ".bundlx";
-
-    protected static final String BUNDLE_EXT = ".bundle";
-
-    protected static final int BUNDLX_MAXIDX = 128;
-
-    protected String pathToCacheRoot = "";
-
-    /**
-     * Get Resource object for tile.
-     *
-     * @param zoom Zoom level.
-     * @param row  Row of tile.
-     * @param col  Column of tile.
-     * @return Resource object associated with tile image data if tile exists; null otherwise.
-     */
-    public abstract Resource getBundleFileResource(int zoom, int row, int col);
-
-    /**
-     * Build path to a bundle from zoom, col, and row without file extension.
-     *
-     * @param zoom Zoom levl
-     * @param row  Row
-     * @param col  Column
-     * @return String containing complete path without file extension in the form
-     * of .../Lzz/RrrrrCcccc with the number of c and r at least 4.
-     */
-    protected String buildBundleFilePath(int zoom, int row, int col) {
-        StringBuilder bundlePath = new StringBuilder(pathToCacheRoot);
-
-        int baseRow = (row / BUNDLX_MAXIDX) * BUNDLX_MAXIDX;
-        int baseCol = (col / BUNDLX_MAXIDX) * BUNDLX_MAXIDX;
-
-        String zoomStr = Integer.toString(zoom);
-        if (zoomStr.length() < 2)
-            zoomStr = "0" + zoomStr;
-
-        StringBuilder rowStr = new StringBuilder(Integer.toHexString(baseRow));
-        StringBuilder colStr = new StringBuilder(Integer.toHexString(baseCol));
-
-        // column and rows are at least 4 characters long
-        final int padding = 4;
-
-        while (colStr.length() < padding)
-            colStr.insert(0, "0");
-
-        while (rowStr.length() < padding)
-            rowStr.insert(0, "0");
-
-        bundlePath.append("L").append(zoomStr).append(File.separatorChar).append("R").append(rowStr)
-            .append("C").append(colStr);
-
-        return bundlePath.toString();
-    }
-
-    /**
-     * Read from a file that uses little endian byte order.
-     *
-     * @param filePath Path to file
-     * @param offset   Read at offset
-     * @param length   Read length bytes
-     * @return ByteBuffer that contains read bytes and has byte order set to little endian.
-     * The length of the byte buffer is multiple of 4, so getInt() and getLong() can be used
-     * even when fewer bytes are read.
-     */
-    protected ByteBuffer readFromLittleEndianFile(String filePath, long offset, int length) {
-        ByteBuffer result = null;
-
-        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
-            file.seek(offset);
-            // pad to multiples of 4 so we can use getInt() and getLong()
-            int padding = 4 - (length % 4);
-            byte data[] = new byte[length + padding];
-
-            if (file.read(data, 0, length) != length)
-                throw new IOException("not enough bytes read or reached end of file");
-
-            result = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
-        } catch (IOException e) {
-            System.err.println(e);
-        }
-
-        return result;
-    }
-}
+package org.geowebcache.arcgis.compact;
+
+import org.geowebcache.io.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Abstract base class for ArcGIS compact caches.
+ *
+ * @author Bjoern Saxe
+ */
+
+public abstract class ArcGISCompactCache {
+    protected static final String BUNDLX_EXT = ".bundlx";
+
+    protected static final String BUNDLE_EXT = ".bundle";
+
+    protected static final int BUNDLX_MAXIDX = 128;
+
+    protected String pathToCacheRoot = "";
+
+    /**
+     * Open bundle files, if the bundle index is memory mapped; null otherwise.
+     */
+    protected BundleFilePool bundleFiles;
+
+    /**
+     * Get Resource object for tile.
+     *
+     * @param zoom Zoom level.
+     * @param row  Row of tile.
+     * @param col  Column of tile.
+     * @return Resource object associated with tile image data if tile exists; null otherwise.
+     */
+    public abstract Resource getBundleFileResource(int zoom, int row, int col);
+
+    /**
+     * Memory map the bundle indexes and keep the most recently used bundle files open, instead of
+     * opening the files on every index lookup and tile read.
+     *
+     * @param maxOpenFiles Maximum number of bundle and bundle index files kept open.
+     */
+    protected void enableMemoryMappedIndex(int maxOpenFiles) {
+        bundleFiles = new BundleFilePool(maxOpenFiles);
+    }
+
+    /**
+     * Close the bundle files kept open, once their current readers are done. Files read afterwards
+     * are opened again.
+     */
+    public void close() {
+        if (bundleFiles != null)
+            bundleFiles.clear();
+    }
+
+    /**
+     * Create the resource for the image data of a tile.
+     */
+    protected Resource createResource(String pathToBundleFile, long offset, int size) {
+        if (bundleFiles != null)
+            return new BundleFileResource(bundleFiles, pathToBundleFile, offset, size);
+        return new BundleFileResource(pathToBundleFile, offset, size);
+    }
+
+    /**
+     * Build path to a bundle from zoom, col, and row without file extension.
+     *
+     * @param zoom Zoom levl
+     * @param row  Row
+     * @param col  Column
+     * @return String containing complete path without file extension in the form
+     * of .../Lzz/RrrrrCcccc with the number of c and r at least 4.
+     */
+    protected String buildBundleFilePath(int zoom, int row, int col) {
+        StringBuilder bundlePath = new StringBuilder(pathToCacheRoot);
+
+        int baseRow = (row / BUNDLX_MAXIDX) * BUNDLX_MAXIDX;
+        int baseCol = (col / BUNDLX_MAXIDX) * BUNDLX_MAXIDX;
+
+        String zoomStr = Integer.toString(zoom);
+        if (zoomStr.length() < 2)
+            zoomStr = "0" + zoomStr;
+
+        StringBuilder rowStr = new StringBuilder(Integer.toHexString(baseRow));
+        StringBuilder colStr = new StringBuilder(Integer.toHexString(baseCol));
+
+        // column and rows are at least 4 characters long
+        final int padding = 4;
+
+        while (colStr.length() < padding)
+            colStr.insert(0, "0");
+
+        while (rowStr.length() < padding)
+            rowStr.insert(0, "0");
+
+        bundlePath.append("L").append(zoomStr).append(File.separatorChar).append("R").append(rowStr)
+            .append("C").append(colStr);
+
+        return bundlePath.toString();
+    }
+
+    /**
+     * Read from a file that uses little endian byte order.
+     *
+     * @param filePath Path to file
+     * @param offset   Read at offset
+     * @param length   Read length bytes
+     * @return ByteBuffer that contains read bytes and has byte order set to little endian.
+     * The length of the byte buffer is multiple of 4, so getInt() and getLong() can be used
+     * even when fewer bytes are read.
+     */
+    protected ByteBuffer readFromLittleEndianFile(String filePath, long offset, int length) {
+        ByteBuffer result = null;
+
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            file.seek(offset);
+            // pad to multiples of 4 so we can use getInt() and getLong()
+            int padding = 4 - (length % 4);
+            byte data[] = new byte[length + padding];
+
+            if (file.read(data, 0, length) != length)
+                throw new IOException("not enough bytes read or reached end of file");
+
+            result = littleEndian(data);
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Read from the index region at the start of a file through the pool of open files.
+     *
+     * @param filePath    Path to file
+     * @param indexLength Length of the index region
+     * @param offset      Read at offset
+     * @param length      Read length bytes
+     * @return ByteBuffer like {@link #readFromLittleEndianFile(String, long, int)}, null if the
+     * file does not exist or can't be read.
+     */
+    protected ByteBuffer readFromIndex(String filePath, long indexLength, long offset,
+        int length) {
+        BundleFilePool.BundleFile file = null;
+        try {
+            file = bundleFiles.acquire(filePath);
+            return file.readIndex(indexLength, offset, length);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (file != null)
+                file.release();
+        }
+    }
+
+    /**
+     * Read from a file through the pool of open files.
+     *
+     * @return ByteBuffer like {@link #readFromLittleEndianFile(String, long, int)}, null if the
+     * file does not exist or can't be read.
+     */
+    protected ByteBuffer readFromPooledFile(String filePath, long offset, int length) {
+        BundleFilePool.BundleFile file = null;
+        try {
+            file = bundleFiles.acquire(filePath);
+            return file.read(offset, length);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (file != null)
+                file.release();
+        }
+    }
+
+    static ByteBuffer littleEndian(byte[] data) {
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
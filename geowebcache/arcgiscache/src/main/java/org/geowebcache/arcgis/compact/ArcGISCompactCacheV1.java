@@ -23,6 +23,9 @@ import java.nio.ByteBuffer;
 public class ArcGISCompactCacheV1 extends ArcGISCompactCache {
     private static final int COMPACT_CACHE_HEADER_LENGTH = 16;
 
+    private static final int BUNDLX_LENGTH = COMPACT_CACHE_HEADER_LENGTH
+        + BUNDLX_MAXIDX * BUNDLX_MAXIDX * 5 + 16;
+
     private BundlxCache indexCache;
 
     /**
@@ -32,12 +35,25 @@ public class ArcGISCompactCacheV1 extends ArcGISCompactCache {
      *                        directories for zoom levels (named "Lxx").
      */
     public ArcGISCompactCacheV1(String pathToCacheRoot) {
+        this(pathToCacheRoot, false);
+    }
+
+    /**
+     * Constructs new ArcGIS 10.0-10.2 compact cache.
+     *
+     * @param pathToCacheRoot   Path to compact cache directory (usually ".../_alllayers/"). Path must contain
+     *                          directories for zoom levels (named "Lxx").
+     * @param memoryMappedIndex Memory map the .bundlx files and keep the most recently used bundles open.
+     */
+    public ArcGISCompactCacheV1(String pathToCacheRoot, boolean memoryMappedIndex) {
         if (pathToCacheRoot.endsWith("" + File.separatorChar))
             this.pathToCacheRoot = pathToCacheRoot;
         else
             this.pathToCacheRoot = pathToCacheRoot + File.separatorChar;
 
         indexCache = new BundlxCache(10000);
+        if (memoryMappedIndex)
+            enableMemoryMappedIndex(BundleFilePool.DEFAULT_MAX_OPEN_FILES);
     }
 
     @Override public Resource getBundleFileResource(int zoom, int row, int col) {
@@ -51,23 +67,40 @@ public class ArcGISCompactCacheV1 extends ArcGISCompactCache {
 
         if ((entry = indexCache.get(key)) != null) {
             if (entry.size > 0)
-                res = new BundleFileResource(entry.pathToBundleFile, entry.offset, entry.size);
+                res = createResource(entry.pathToBundleFile, entry.offset, entry.size);
         } else {
 
             String basePath = buildBundleFilePath(zoom, row, col);
             String pathToBundlxFile = basePath + BUNDLX_EXT;
             String pathToBundleFile = basePath + BUNDLE_EXT;
 
-            if (!(new File(pathToBundleFile)).exists() || !(new File(pathToBundlxFile)).exists())
-                return null;
-
-            long tileOffset = readTileStartOffset(pathToBundlxFile, row, col);
-            int tileSize = readTileSize(pathToBundleFile, tileOffset);
+            long tileOffset;
+            int tileSize;
+            if (bundleFiles != null) {
+                // missing files fail to open, no need to check they exist
+                ByteBuffer idxBytes = readFromIndex(pathToBundlxFile, BUNDLX_LENGTH,
+                    indexOffset(row, col), 5);
+                if (idxBytes == null)
+                    return null;
+                tileOffset = idxBytes.getLong();
+
+                ByteBuffer sizeBytes = readFromPooledFile(pathToBundleFile, tileOffset, 4);
+                if (sizeBytes == null)
+                    return null;
+                tileSize = sizeBytes.getInt();
+            } else {
+                if (!(new File(pathToBundleFile)).exists() || !(new File(pathToBundlxFile))
+                    .exists())
+                    return null;
+
+                tileOffset = readTileStartOffset(pathToBundlxFile, row, col);
+                tileSize = readTileSize(pathToBundleFile, tileOffset);
+            }
 
             tileOffset += 4;
 
             if (tileSize > 0)
-                res = new BundleFileResource(pathToBundleFile, tileOffset, tileSize);
+                res = createResource(pathToBundleFile, tileOffset, tileSize);
 
             entry = new BundlxCache.CacheEntry(pathToBundleFile, tileOffset, tileSize);
 
@@ -78,14 +111,17 @@ public class ArcGISCompactCacheV1 extends ArcGISCompactCache {
     }
 
     private long readTileStartOffset(String bundlxFile, int row, int col) {
-        int index = BUNDLX_MAXIDX * (col % BUNDLX_MAXIDX) + (row % BUNDLX_MAXIDX);
-
-        ByteBuffer idxBytes = readFromLittleEndianFile(bundlxFile,
-            (index * 5) + COMPACT_CACHE_HEADER_LENGTH, 5);
+        ByteBuffer idxBytes = readFromLittleEndianFile(bundlxFile, indexOffset(row, col), 5);
 
         return idxBytes.getLong();
     }
 
+    private long indexOffset(int row, int col) {
+        int index = BUNDLX_MAXIDX * (col % BUNDLX_MAXIDX) + (row % BUNDLX_MAXIDX);
+
+        return (index * 5) + COMPACT_CACHE_HEADER_LENGTH;
+    }
+
     private int readTileSize(String bundlxFile, long offset) {
         ByteBuffer tileSize = readFromLittleEndianFile(bundlxFile, offset, 4);
 
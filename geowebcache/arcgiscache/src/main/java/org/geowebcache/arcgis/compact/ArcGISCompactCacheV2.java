@@ -23,6 +23,9 @@ import java.nio.ByteOrder;
 public class ArcGISCompactCacheV2 extends ArcGISCompactCache {
     private static final int COMPACT_CACHE_HEADER_LENGTH = 64;
 
+    private static final int INDEX_LENGTH = COMPACT_CACHE_HEADER_LENGTH
+        + BUNDLX_MAXIDX * BUNDLX_MAXIDX * 8;
+
     private BundlxCache indexCache;
 
     /**
@@ -32,12 +35,26 @@ public class ArcGISCompactCacheV2 extends ArcGISCompactCache {
      *                        directories for zoom levels (named "Lxx").
      */
     public ArcGISCompactCacheV2(String pathToCacheRoot) {
+        this(pathToCacheRoot, false);
+    }
+
+    /**
+     * Constructs new ArcGIS 10.3 compact cache.
+     *
+     * @param pathToCacheRoot   Path to compact cache directory (usually ".../_alllayers/"). Path must contain
+     *                          directories for zoom levels (named "Lxx").
+     * @param memoryMappedIndex Memory map the index of the .bundle files and keep the most recently used
+     *                          bundles open.
+     */
+    public ArcGISCompactCacheV2(String pathToCacheRoot, boolean memoryMappedIndex) {
         if (pathToCacheRoot.endsWith("" + File.separatorChar))
             this.pathToCacheRoot = pathToCacheRoot;
         else
             this.pathToCacheRoot = pathToCacheRoot + File.separatorChar;
 
         indexCache = new BundlxCache(10000);
+        if (memoryMappedIndex)
+            enableMemoryMappedIndex(BundleFilePool.DEFAULT_MAX_OPEN_FILES);
     }
 
     @Override public Resource getBundleFileResource(int zoom, int row, int col) {
@@ -51,19 +68,22 @@ public class ArcGISCompactCacheV2 extends ArcGISCompactCache {
 
         if ((entry = indexCache.get(key)) != null) {
             if (entry.size > 0)
-                res = new BundleFileResource(entry.pathToBundleFile, entry.offset, entry.size);
+                res = createResource(entry.pathToBundleFile, entry.offset, entry.size);
         } else {
 
             String basePath = buildBundleFilePath(zoom, row, col);
             String pathToBundleFile = basePath + BUNDLE_EXT;
 
-            if (!(new File(pathToBundleFile)).exists())
+            // with the memory mapped index missing files fail to open, no need to check they exist
+            if (bundleFiles == null && !(new File(pathToBundleFile)).exists())
                 return null;
 
             entry = createCacheEntry(pathToBundleFile, row, col);
+            if (entry == null)
+                return null;
 
             if (entry.size > 0)
-                res = new BundleFileResource(pathToBundleFile, entry.offset, entry.size);
+                res = createResource(pathToBundleFile, entry.offset, entry.size);
 
             indexCache.put(key, entry);
         }
@@ -76,8 +96,16 @@ public class ArcGISCompactCacheV2 extends ArcGISCompactCache {
         int index = BUNDLX_MAXIDX * (row % BUNDLX_MAXIDX) + (col % BUNDLX_MAXIDX);
 
         // to save one addtional read, we read all 8 bytes in one read
-        ByteBuffer offsetAndSize = readFromLittleEndianFile(bundleFile,
-            (index * 8) + COMPACT_CACHE_HEADER_LENGTH, 8);
+        ByteBuffer offsetAndSize;
+        if (bundleFiles != null)
+            offsetAndSize = readFromIndex(bundleFile, INDEX_LENGTH,
+                (index * 8) + COMPACT_CACHE_HEADER_LENGTH, 8);
+        else
+            offsetAndSize = readFromLittleEndianFile(bundleFile,
+                (index * 8) + COMPACT_CACHE_HEADER_LENGTH, 8);
+
+        if (offsetAndSize == null)
+            return null;
 
         byte[] offsetBytes = new byte[8];
         byte[] sizeBytes = new byte[4];
@@ -0,0 +1,167 @@
+package org.geowebcache.arcgis.compact;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Keeps the most recently used bundle and bundle index files open, so that reading a tile does not
+ * open any file.
+ *
+ * The open channels are shared between threads, which is safe as only positional reads are used.
+ * The index region of each file is memory mapped the first time it's read. Files evicted from the
+ * pool are closed once the last reader {@link BundleFile#release() releases} them.
+ */
+
+class BundleFilePool {
+    private static final Log log = LogFactory.getLog(BundleFilePool.class);
+
+    static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+    private final LoadingCache<String, BundleFile> files;
+
+    /**
+     * @param maxOpenFiles Maximum number of files kept open. When the pool is full opening a new
+     *                     file closes the least recently used one.
+     */
+    BundleFilePool(int maxOpenFiles) {
+        files = CacheBuilder.newBuilder().maximumSize(maxOpenFiles)
+            .removalListener(new RemovalListener<String, BundleFile>() {
+                @Override public void onRemoval(RemovalNotification<String, BundleFile> n) {
+                    n.getValue().release();
+                }
+            }).build(new CacheLoader<String, BundleFile>() {
+                @Override public BundleFile load(String path) throws IOException {
+                    return new BundleFile(path);
+                }
+            });
+    }
+
+    /**
+     * Get an open file from the pool, opening it if needed. The caller has to
+     * {@link BundleFile#release()} it when done.
+     *
+     * @param path Path to the file.
+     * @return The open file.
+     * @throws IOException if the file does not exist or cannot be opened.
+     */
+    BundleFile acquire(String path) throws IOException {
+        while (true) {
+            BundleFile file;
+            try {
+                file = files.get(path);
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+            // retaining fails only if the file was just evicted and closed, get it again
+            if (file.retain())
+                return file;
+        }
+    }
+
+    /**
+     * Closes all the files once their current readers release them.
+     */
+    void clear() {
+        files.invalidateAll();
+    }
+
+    static class BundleFile {
+        private final String path;
+
+        private final FileChannel channel;
+
+        // one reference is held by the pool itself
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private volatile MappedByteBuffer index;
+
+        BundleFile(String path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        }
+
+        FileChannel getChannel() {
+            return channel;
+        }
+
+        boolean retain() {
+            for (int count = references.get(); count > 0; count = references.get()) {
+                if (references.compareAndSet(count, count + 1))
+                    return true;
+            }
+            return false;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.debug("Error closing " + path, e);
+                }
+            }
+        }
+
+        /**
+         * Read from the memory mapped index region at the start of the file, mapping it if needed.
+         *
+         * @param indexLength Length of the index region, the region ends at the end of the file
+         *                    if the file is shorter.
+         * @param offset      Read at offset.
+         * @param length      Read length bytes.
+         * @return ByteBuffer padded like {@link ArcGISCompactCache#readFromLittleEndianFile}, or
+         * null if the index region is shorter than offset + length.
+         */
+        ByteBuffer readIndex(long indexLength, long offset, int length) throws IOException {
+            MappedByteBuffer mapped = index;
+            if (mapped == null) {
+                synchronized (this) {
+                    if ((mapped = index) == null) {
+                        long size = Math.min(indexLength, channel.size());
+                        index = mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    }
+                }
+            }
+            if (offset + length > mapped.capacity())
+                return null;
+
+            byte data[] = new byte[length + 4 - (length % 4)];
+            // absolute reads on a duplicate, the mapped buffer position is shared
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) offset);
+            view.get(data, 0, length);
+            return ArcGISCompactCache.littleEndian(data);
+        }
+
+        /**
+         * Read from the file with a positional read.
+         */
+        ByteBuffer read(long offset, int length) throws IOException {
+            byte data[] = new byte[length + 4 - (length % 4)];
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0)
+                    throw new IOException("not enough bytes read or reached end of file");
+            }
+            return ArcGISCompactCache.littleEndian(data);
+        }
+    }
+}
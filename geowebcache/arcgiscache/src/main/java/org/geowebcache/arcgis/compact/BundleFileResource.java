@@ -1,92 +1,133 @@
-package org.geowebcache.arcgis.compact;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
-
-import org.geowebcache.io.Resource;
-
-/**
- *
- * @author Bjoern Saxe
- *
- */
-
-public class BundleFileResource implements Resource {
-    private final String bundleFilePath;
-
-    private final long tileOffset;
-
-    private final int tileSize;
-
-    public BundleFileResource(String bundleFilePath, long tileOffset, int tileSize) {
-        this.bundleFilePath = bundleFilePath;
-        this.tileOffset = tileOffset;
-        this.tileSize = tileSize;
-    }
-
-    /**
-     * @see org.geowebcache.io.Resource#getSize()
-     */
-    public long getSize() {
-        return tileSize;
-    }
-
-    /**
-     * @see org.geowebcache.io.Resource#transferTo()
-     */
-    public long transferTo(WritableByteChannel target) throws IOException {
-        try (FileChannel in = new FileInputStream(new File(bundleFilePath)).getChannel()) {
-            final long size = tileSize;
-            long written = 0;
-            while ((written += in.transferTo(tileOffset + written, size, target)) < size)
-                ;
-            return size;
-        }
-    }
-
-    /**
-     * Not supported for ArcGIS caches as they are read only.
-     *
-     * @see org.geowebcache.io.Resource#transferFrom()
-     */
-    public long transferFrom(ReadableByteChannel channel) throws IOException {
-        // unsupported
-        return 0;
-    }
-
-    /**
-     * @see org.geowebcache.io.Resource#getInputStream()
-     */
-    public InputStream getInputStream() throws IOException {
-        FileInputStream fis = new FileInputStream(bundleFilePath);
-        fis.skip(tileOffset);
-
-        return fis;
-    }
-
-    /**
-     * Not supported for ArcGIS caches as they are read only.
-     *
-     * @see org.geowebcache.io.Resource#getOutputStream()
-     */
-    public OutputStream getOutputStream() throws IOException {
-        // unsupported
-        return null;
-    }
-
-    /**
-     * @see org.geowebcache.io.Resource#getLastModified()
-     */
-    public long getLastModified() {
-        File f = new File(bundleFilePath);
-
-        return f.lastModified();
-    }
-
+package org.geowebcache.arcgis.compact;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.geowebcache.io.Resource;
+
+/**
+ *
+ * @author Bjoern Saxe
+ *
+ */
+
+public class BundleFileResource implements Resource {
+    private final String bundleFilePath;
+
+    private final long tileOffset;
+
+    private final int tileSize;
+
+    private final BundleFilePool bundleFiles;
+
+    public BundleFileResource(String bundleFilePath, long tileOffset, int tileSize) {
+        this(null, bundleFilePath, tileOffset, tileSize);
+    }
+
+    /**
+     * Resource read through the pool of open bundle files instead of opening the bundle file.
+     */
+    BundleFileResource(BundleFilePool bundleFiles, String bundleFilePath, long tileOffset,
+        int tileSize) {
+        this.bundleFiles = bundleFiles;
+        this.bundleFilePath = bundleFilePath;
+        this.tileOffset = tileOffset;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @see org.geowebcache.io.Resource#getSize()
+     */
+    public long getSize() {
+        return tileSize;
+    }
+
+    /**
+     * @see org.geowebcache.io.Resource#transferTo()
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        if (bundleFiles != null) {
+            BundleFilePool.BundleFile file = bundleFiles.acquire(bundleFilePath);
+            try {
+                // positional transfers, the channel is shared with other readers
+                FileChannel in = file.getChannel();
+                long written = 0;
+                while (written < tileSize) {
+                    long transferred = in.transferTo(tileOffset + written, tileSize - written,
+                        target);
+                    // no progress, the bundle file is shorter than the index says
+                    if (transferred <= 0)
+                        throw new IOException("not enough bytes read or reached end of file");
+                    written += transferred;
+                }
+                return tileSize;
+            } finally {
+                file.release();
+            }
+        }
+        try (FileChannel in = new FileInputStream(new File(bundleFilePath)).getChannel()) {
+            final long size = tileSize;
+            long written = 0;
+            while ((written += in.transferTo(tileOffset + written, size, target)) < size)
+                ;
+            return size;
+        }
+    }
+
+    /**
+     * Not supported for ArcGIS caches as they are read only.
+     *
+     * @see org.geowebcache.io.Resource#transferFrom()
+     */
+    public long transferFrom(ReadableByteChannel channel) throws IOException {
+        // unsupported
+        return 0;
+    }
+
+    /**
+     * @see org.geowebcache.io.Resource#getInputStream()
+     */
+    public InputStream getInputStream() throws IOException {
+        if (bundleFiles != null) {
+            BundleFilePool.BundleFile file = bundleFiles.acquire(bundleFilePath);
+            try {
+                ByteBuffer data = file.read(tileOffset, tileSize);
+                return new ByteArrayInputStream(data.array(), 0, tileSize);
+            } finally {
+                file.release();
+            }
+        }
+        FileInputStream fis = new FileInputStream(bundleFilePath);
+        fis.skip(tileOffset);
+
+        return fis;
+    }
+
+    /**
+     * Not supported for ArcGIS caches as they are read only.
+     *
+     * @see org.geowebcache.io.Resource#getOutputStream()
+     */
+    public OutputStream getOutputStream() throws IOException {
+        // unsupported
+        return null;
+    }
+
+    /**
+     * @see org.geowebcache.io.Resource#getLastModified()
+     */
+    public long getLastModified() {
+        File f = new File(bundleFilePath);
+
+        return f.lastModified();
+    }
+
 }
\ No newline at end of file
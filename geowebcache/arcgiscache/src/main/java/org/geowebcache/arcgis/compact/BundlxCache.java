@@ -9,6 +9,8 @@ import com.google.common.cache.CacheBuilder;
  * Zoom, row, and column of the tile are used as key. Entries contain the path to the .bundle file,
  * the size of the tile and the offset of the image data inside the .bundle file.
  *
+ * Thread safe, the underlying cache handles concurrent access without a global lock.
+ *
  * @author Bjoern Saxe
  */
 
@@ -82,7 +84,7 @@ public class BundlxCache {
      * @param key Key.
      * @return Returns the entry. Returns null if the key has a null value or if the key has no entry.
      */
-    public synchronized CacheEntry get(CacheKey key) {
+    public CacheEntry get(CacheKey key) {
         return indexCache.getIfPresent(key);
     }
 
@@ -92,7 +94,7 @@ public class BundlxCache {
      * @param key the key to add.
      * @param entry the entry to add.
      */
-    public synchronized void put(CacheKey key, CacheEntry entry) {
+    public void put(CacheKey key, CacheEntry entry) {
         indexCache.put(key, entry);
     }
 
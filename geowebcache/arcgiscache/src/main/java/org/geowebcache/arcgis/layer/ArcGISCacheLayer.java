@@ -59,6 +59,12 @@ public class ArcGISCacheLayer extends AbstractTileLayer {
      */
     private Boolean hexZoom;
 
+    /**
+     * Optional, configure whether the compact cache bundle indexes should be memory mapped, keeping
+     * the most recently used bundle files open. If not provided defaults to false
+     */
+    private Boolean memoryMappedIndex;
+
     private transient CacheInfo cacheInfo;
 
     private transient BoundingBox layerBounds;
@@ -116,6 +122,14 @@ public class ArcGISCacheLayer extends AbstractTileLayer {
         this.hexZoom = hexZoom;
     }
 
+    public boolean isMemoryMappedIndex() {
+        return memoryMappedIndex;
+    }
+
+    public void setMemoryMappedIndex(boolean memoryMappedIndex) {
+        this.memoryMappedIndex = memoryMappedIndex;
+    }
+
     /**
      * @return {@code true} if success. Note this method's return type should be void. It's not
      * checked anywhere
@@ -142,6 +156,11 @@ public class ArcGISCacheLayer extends AbstractTileLayer {
         if (this.hexZoom == null) {
             this.hexZoom = false;
         }
+        if (this.memoryMappedIndex == null) {
+            this.memoryMappedIndex = false;
+        }
+        // the bundle files kept open by a previous initialization
+        dispose();
         try {
             CacheInfoPersister tilingSchemeLoader = new CacheInfoPersister();
             cacheInfo = tilingSchemeLoader.load(new FileReader(tilingScheme));
@@ -163,10 +182,10 @@ public class ArcGISCacheLayer extends AbstractTileLayer {
 
                 if (storageFormat.equals(CacheStorageInfo.COMPACT_FORMAT_CODE)) {
                     log.info(getName() + " uses compact format (ArcGIS 10.0 - 10.2)");
-                    compactCache = new ArcGISCompactCacheV1(pathToCacheRoot);
+                    compactCache = new ArcGISCompactCacheV1(pathToCacheRoot, memoryMappedIndex);
                 } else if (storageFormat.equals(CacheStorageInfo.COMPACT_FORMAT_CODE_V2)) {
                     log.info(getName() + " uses compact format (ArcGIS 10.3)");
-                    compactCache = new ArcGISCompactCacheV2(pathToCacheRoot);
+                    compactCache = new ArcGISCompactCacheV2(pathToCacheRoot, memoryMappedIndex);
                 }
             }
         } catch (FileNotFoundException e) {
@@ -223,6 +242,16 @@ public class ArcGISCacheLayer extends AbstractTileLayer {
         return subsets;
     }
 
+    /**
+     * Closes the bundle files kept open when {@link #isMemoryMappedIndex() memoryMappedIndex} is
+     * enabled.
+     */
+    @Override public void dispose() {
+        if (compactCache != null) {
+            compactCache.close();
+        }
+    }
+
     /**
      * @see org.geowebcache.layer.TileLayer#getTile(org.geowebcache.conveyor.ConveyorTile)
      */
@@ -0,0 +1,92 @@
+package org.geowebcache.arcgis.compact;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.geowebcache.io.Resource;
+
+/**
+ * Measures how many tiles per second are read from the 10.3 test compact cache, with and without
+ * the memory mapped bundle index, by several threads requesting random tiles.
+ *
+ * Each worker starts over with a new cache {@link #ROUNDS} times, so that the index lookups are
+ * measured along with the tile reads.
+ */
+final class ArcGISCompactCachePerf {
+
+    // number of threads reading tiles
+    final static int WORKERS = 8;
+
+    // number of tiles read per worker
+    final static int TILES = 200000;
+
+    // number of times each worker starts over with an empty index cache
+    final static int ROUNDS = 20;
+
+    // tiles of the test cache, zoom, min row, max row, min col, max col
+    final static int[][] LEVELS = { { 4, 5, 6, 2, 5 }, { 5, 10, 13, 4, 10 } };
+
+    public static void main(String[] args) throws Exception {
+        String path = getCachePath();
+
+        run("warm up", path, false);
+        run("warm up", path, true);
+        run("opening files", path, false);
+        run("memory mapped index", path, true);
+    }
+
+    private static String getCachePath() throws Exception {
+        URL url = ArcGISCompactCachePerf.class.getResource("/compactcacheV2/_alllayers/");
+        return url.toURI().getPath();
+    }
+
+    private static void run(String name, final String path, final boolean memoryMapped)
+        throws Exception {
+        final WritableByteChannel sink = Channels.newChannel(new OutputStream() {
+            @Override public void write(int b) {
+            }
+
+            @Override public void write(byte[] b, int off, int len) {
+            }
+        });
+        Callable<Long> worker = new Callable<Long>() {
+            @Override public Long call() throws IOException {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                ArcGISCompactCache cache = null;
+                long bytes = 0;
+                for (int i = 0; i < TILES; i++) {
+                    if (i % (TILES / ROUNDS) == 0)
+                        cache = new ArcGISCompactCacheV2(path, memoryMapped);
+                    int[] level = LEVELS[random.nextInt(LEVELS.length)];
+                    int row = level[1] + random.nextInt(1 + level[2] - level[1]);
+                    int col = level[3] + random.nextInt(1 + level[4] - level[3]);
+                    Resource tile = cache.getBundleFileResource(level[0], row, col);
+                    if (tile != null)
+                        bytes += tile.transferTo(sink);
+                }
+                return bytes;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+        long start = System.nanoTime();
+        Future<?>[] results = new Future<?>[WORKERS];
+        for (int i = 0; i < WORKERS; i++)
+            results[i] = executor.submit(worker);
+        for (Future<?> result : results)
+            result.get();
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        System.out.println(String.format("%s: %f tiles per second", name,
+            (double) WORKERS * TILES / elapsed * 1000000000));
+    }
+}
@@ -56,6 +56,9 @@ import org.geowebcache.io.Resource;
 import org.geowebcache.layer.BadTileException;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.layer.wms.BackendAdmissionController;
+import org.geowebcache.layer.wms.BackendAdmissionController.Priority;
+import org.geowebcache.layer.wms.WMSLayer;
 import org.geowebcache.mime.ImageMime;
 import org.geowebcache.service.HttpErrorCodeException;
 import org.geowebcache.service.OWSException;
@@ -475,6 +478,7 @@ public class GeoWebCacheDispatcher extends AbstractController {
         if(storageBroker != null){
             appendInternalCacheStats(str);
         }
+        appendBackendAdmissionStats(str);
         str.append("</body></html>\n");
 
         writePage(response, 200, str.toString());
@@ -787,4 +791,55 @@ public class GeoWebCacheDispatcher extends AbstractController {
         // Append to the homepage HTML
         strGlobal.append(str);
     }
+
+    /**
+     * This method appends the queue depth and wait times of the backend admission controllers of
+     * the WMS layers that issued requests to their backend
+     * 
+     * @param str
+     */
+    private void appendBackendAdmissionStats(StringBuilder str) {
+        if (tileLayerDispatcher == null) {
+            return;
+        }
+        StringBuilder rows = new StringBuilder();
+        for (TileLayer layer : tileLayerDispatcher.getLayerList()) {
+            if (!(layer instanceof WMSLayer)) {
+                continue;
+            }
+            BackendAdmissionController.Statistics stats = ((WMSLayer) layer)
+                    .getAdmissionController().getStatistics();
+            if (stats.getAdmittedCount(Priority.INTERACTIVE) == 0
+                    && stats.getAdmittedCount(Priority.SEED) == 0) {
+                continue;
+            }
+            long p95 = stats.getInteractiveLatencyP95();
+            rows.append("<tr><td>").append(ServletUtils.disableHTMLTags(layer.getName()))
+                    .append("</td>");
+            for (Priority priority : Priority.values()) {
+                rows.append("<td>").append(stats.getInFlight(priority)).append(" / ")
+                        .append(stats.getQueueDepth(priority)).append("</td>");
+                rows.append("<td>")
+                        .append(Math.round(stats.getAverageWaitTime(priority) * 10) / 10d)
+                        .append(" / ").append(stats.getMaxWaitTime(priority)).append(" ms</td>");
+            }
+            rows.append("<td>").append(stats.getSeedLimit()).append(" of ")
+                    .append(stats.getMaxConcurrency()).append("</td>");
+            rows.append("<td>").append(p95 >= 0 ? p95 + " ms" : "No data").append("</td></tr>\n");
+        }
+        if (rows.length() == 0) {
+            return;
+        }
+        str.append("<h3>Backend Request Admission</h3>\n");
+        str.append("<table border=\"0\" cellspacing=\"5\" class=\"stats\">");
+        str.append("<tr><th scope=\"col\">Layer</th>");
+        str.append("<th scope=\"col\">Interactive running / queued</th>");
+        str.append("<th scope=\"col\">Interactive wait avg / max</th>");
+        str.append("<th scope=\"col\">Seed running / queued</th>");
+        str.append("<th scope=\"col\">Seed wait avg / max</th>");
+        str.append("<th scope=\"col\">Seed slots</th>");
+        str.append("<th scope=\"col\">Interactive p95 latency</th></tr>\n");
+        str.append(rows);
+        str.append("</table>\n");
+    }
 }
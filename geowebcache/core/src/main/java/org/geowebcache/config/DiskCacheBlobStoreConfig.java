@@ -0,0 +1,143 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.config;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.locks.LockProvider;
+import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.blobstore.disk.DiskCacheBlobStore;
+
+/**
+ * Configuration and factory for {@link DiskCacheBlobStore}, a local disk cache in front of the
+ * blob store configured as its {@link #getStore() store}.
+ *
+ * @see BlobStoreConfig
+ */
+public class DiskCacheBlobStoreConfig extends BlobStoreConfig {
+
+    private static final long serialVersionUID = 2236412954468379127L;
+
+    private String cacheDirectory;
+
+    private Integer maxCacheSize;
+
+    private Integer fillThreads;
+
+    private BlobStoreConfig store;
+
+    public DiskCacheBlobStoreConfig() {
+        super();
+    }
+
+    public DiskCacheBlobStoreConfig(String id) {
+        super(id);
+    }
+
+    /**
+     * @return the directory where the local copies of the tiles are kept
+     */
+    public String getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public void setCacheDirectory(String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @return the maximum size of the local copies, in megabytes, or {@code null} for the default
+     *         of 1024
+     */
+    public Integer getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    public void setMaxCacheSize(Integer maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * @return the number of threads writing the local copies, or {@code null} for the default of
+     *         2
+     */
+    public Integer getFillThreads() {
+        return fillThreads;
+    }
+
+    public void setFillThreads(Integer fillThreads) {
+        this.fillThreads = fillThreads;
+    }
+
+    /**
+     * @return the configuration of the blob store whose tiles are cached
+     */
+    public BlobStoreConfig getStore() {
+        return store;
+    }
+
+    public void setStore(BlobStoreConfig store) {
+        this.store = store;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder("DiskCacheBlobStore[id:").append(getId()).append(", enabled:")
+                .append(isEnabled()).append(", cacheDirectory:").append(cacheDirectory)
+                .append(", maxCacheSize:").append(maxCacheSize).append(", store:").append(store)
+                .append(']').toString();
+    }
+
+    @Override
+    public BlobStore createInstance(TileLayerDispatcher layers, LockProvider lockProvider)
+            throws StorageException {
+        checkState(getId() != null, "id not set");
+        checkState(isEnabled(),
+                "Can't call DiskCacheBlobStoreConfig.createInstance() is blob store is not enabled");
+        checkState(cacheDirectory != null, "cacheDirectory not provided");
+        checkState(store != null, "store not provided");
+        checkState(maxCacheSize == null || maxCacheSize > 0,
+                "maxCacheSize must be a positive integer: %s", maxCacheSize);
+        checkState(fillThreads == null || fillThreads > 0,
+                "fillThreads must be a positive integer: %s", fillThreads);
+
+        // the cached store is only reachable through this one
+        BlobStoreConfig storeConfig = (BlobStoreConfig) store.clone();
+        if (storeConfig.getId() == null) {
+            storeConfig.setId(getId() + "_store");
+        }
+        storeConfig.setEnabled(true);
+        BlobStore cached = storeConfig.createInstance(layers, lockProvider);
+
+        long maxSize = maxCacheSize == null ? DiskCacheBlobStore.DEFAULT_MAX_SIZE
+                : maxCacheSize * 1024L * 1024L;
+        int threads = fillThreads == null ? DiskCacheBlobStore.DEFAULT_FILL_THREADS : fillThreads;
+        try {
+            return new DiskCacheBlobStore(cached, new File(cacheDirectory), maxSize, threads);
+        } catch (StorageException | RuntimeException e) {
+            cached.destroy();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getLocation() {
+        return cacheDirectory + " in front of " + (store == null ? null : store.getLocation());
+    }
+}
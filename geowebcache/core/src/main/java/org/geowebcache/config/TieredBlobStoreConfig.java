@@ -0,0 +1,165 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.config;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.locks.LockProvider;
+import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.blobstore.tiered.TieredBlobStore;
+
+/**
+ * Configuration and factory for {@link TieredBlobStore}, spreading the tiles over a fast
+ * {@link #getHotStore() hot store} and a cheap {@link #getColdStore() cold store}.
+ *
+ * @see BlobStoreConfig
+ */
+public class TieredBlobStoreConfig extends BlobStoreConfig {
+
+    private static final long serialVersionUID = -4316260370183622807L;
+
+    private BlobStoreConfig hotStore;
+
+    private BlobStoreConfig coldStore;
+
+    private Integer hotMaxSize;
+
+    private Integer migrationThreads;
+
+    public TieredBlobStoreConfig() {
+        super();
+    }
+
+    public TieredBlobStoreConfig(String id) {
+        super(id);
+    }
+
+    /**
+     * @return the configuration of the blob store holding the recently used tiles, a
+     *         {@link FileBlobStoreConfig}
+     */
+    public BlobStoreConfig getHotStore() {
+        return hotStore;
+    }
+
+    public void setHotStore(BlobStoreConfig hotStore) {
+        this.hotStore = hotStore;
+    }
+
+    /**
+     * @return the configuration of the blob store holding the other tiles
+     */
+    public BlobStoreConfig getColdStore() {
+        return coldStore;
+    }
+
+    public void setColdStore(BlobStoreConfig coldStore) {
+        this.coldStore = coldStore;
+    }
+
+    /**
+     * @return the maximum size of the tiles in the hot store, in megabytes, or {@code null} for
+     *         the default of 1024
+     */
+    public Integer getHotMaxSize() {
+        return hotMaxSize;
+    }
+
+    public void setHotMaxSize(Integer hotMaxSize) {
+        this.hotMaxSize = hotMaxSize;
+    }
+
+    /**
+     * @return the number of threads moving tiles between the stores, or {@code null} for the
+     *         default of 2
+     */
+    public Integer getMigrationThreads() {
+        return migrationThreads;
+    }
+
+    public void setMigrationThreads(Integer migrationThreads) {
+        this.migrationThreads = migrationThreads;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder("TieredBlobStore[id:").append(getId()).append(", enabled:")
+                .append(isEnabled()).append(", hotMaxSize:").append(hotMaxSize)
+                .append(", hotStore:").append(hotStore).append(", coldStore:").append(coldStore)
+                .append(']').toString();
+    }
+
+    @Override
+    public BlobStore createInstance(TileLayerDispatcher layers, LockProvider lockProvider)
+            throws StorageException {
+        checkState(getId() != null, "id not set");
+        checkState(isEnabled(),
+                "Can't call TieredBlobStoreConfig.createInstance() is blob store is not enabled");
+        checkState(hotStore != null, "hotStore not provided");
+        // the tiles left in the hot store by a previous run are found by scanning its directory
+        checkState(hotStore instanceof FileBlobStoreConfig, "hotStore must be a FileBlobStore: %s",
+                hotStore);
+        checkState(coldStore != null, "coldStore not provided");
+        checkState(hotMaxSize == null || hotMaxSize > 0,
+                "hotMaxSize must be a positive integer: %s", hotMaxSize);
+        checkState(migrationThreads == null || migrationThreads > 0,
+                "migrationThreads must be a positive integer: %s", migrationThreads);
+
+        // the tiers are only reachable through this store
+        BlobStore hot = createTier(hotStore, "_hot", layers, lockProvider);
+        BlobStore cold;
+        try {
+            cold = createTier(coldStore, "_cold", layers, lockProvider);
+        } catch (StorageException | RuntimeException e) {
+            hot.destroy();
+            throw e;
+        }
+
+        long maxSize = hotMaxSize == null ? TieredBlobStore.DEFAULT_HOT_MAX_SIZE
+                : hotMaxSize * 1024L * 1024L;
+        int threads = migrationThreads == null ? TieredBlobStore.DEFAULT_MIGRATION_THREADS
+                : migrationThreads;
+        try {
+            TieredBlobStore store = new TieredBlobStore(hot, cold, maxSize, threads);
+            store.trackHotTiles(new File(((FileBlobStoreConfig) hotStore).getBaseDirectory()),
+                    layers);
+            return store;
+        } catch (RuntimeException e) {
+            hot.destroy();
+            cold.destroy();
+            throw e;
+        }
+    }
+
+    private BlobStore createTier(BlobStoreConfig tier, String idSuffix,
+            TileLayerDispatcher layers, LockProvider lockProvider) throws StorageException {
+        BlobStoreConfig tierConfig = (BlobStoreConfig) tier.clone();
+        if (tierConfig.getId() == null) {
+            tierConfig.setId(getId() + idSuffix);
+        }
+        tierConfig.setEnabled(true);
+        return tierConfig.createInstance(layers, lockProvider);
+    }
+
+    @Override
+    public String getLocation() {
+        return (hotStore == null ? null : hotStore.getLocation()) + " in front of "
+                + (coldStore == null ? null : coldStore.getLocation());
+    }
+}
@@ -451,6 +451,8 @@ public class XMLConfiguration implements Configuration, InitializingBean {
 
         xs.alias("blobStores", new ArrayList<BlobStoreConfig>().getClass());
         xs.alias("FileBlobStore", FileBlobStoreConfig.class);
+        xs.alias("DiskCacheBlobStore", DiskCacheBlobStoreConfig.class);
+        xs.alias("TieredBlobStore", TieredBlobStoreConfig.class);
         xs.aliasAttribute(BlobStoreConfig.class, "_default", "default");
 
         // These two are for 1.1.x compatibility
@@ -596,6 +598,9 @@ public class XMLConfiguration implements Configuration, InitializingBean {
         initialize(tl);
         gwcConfig.getLayers().add(tl);
         updateLayers();
+        if (previous != tl) {
+            previous.dispose();
+        }
     }
 
     /**
@@ -612,7 +617,7 @@ public class XMLConfiguration implements Configuration, InitializingBean {
         removed = gwcConfig.getLayers().remove(tileLayer);
         if (removed) {
             updateLayers();
-            
+            tileLayer.dispose();
         }
         return removed;
     }
@@ -859,7 +864,16 @@ public class XMLConfiguration implements Configuration, InitializingBean {
         this.gridSetBroker = gridSetBroker;
 
         if (this.reloadConfigOnInit && resourceProvider.hasInput()) {
+            GeoWebCacheConfiguration previous = this.gwcConfig;
             this.gwcConfig = loadConfiguration();
+            // the reloaded layers are new instances
+            if (previous != null && previous.getLayers() != null) {
+                for (TileLayer layer : previous.getLayers()) {
+                    if (layer != null) {
+                        layer.dispose();
+                    }
+                }
+            }
         }
 
         log.info("Initializing GridSets from " + getIdentifier());
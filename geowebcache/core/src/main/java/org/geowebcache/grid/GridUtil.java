@@ -4,6 +4,68 @@ import java.util.List;
 
 public class GridUtil {
 
+    /**
+     * Half the width of the spherical mercator world, in meters
+     */
+    private static final double MERCATOR_HALF_WORLD = 20037508.342789244;
+
+    /**
+     * Resolution of the first spherical mercator level, with 256 pixels tiles
+     */
+    private static final double MERCATOR_RESOLUTION = 2 * MERCATOR_HALF_WORLD / 256;
+
+    /**
+     * Latitude of the spherical mercator world edges
+     */
+    private static final double MERCATOR_MAX_LATITUDE = 85.0511287798066;
+
+    /**
+     * @return whether the grid set has the CRS, bounds, tile size and resolutions of the spherical
+     *         mercator tiling used by TMS, XYZ and MBTiles tiles, starting with the whole world in
+     *         a single 256x256 tile and halving the resolution at each level
+     */
+    public static boolean isWebMercatorCompatible(final GridSet gridSet) {
+        if (!SRS.getEPSG3857().equals(gridSet.getSrs()) || gridSet.getTileWidth() != 256
+                || gridSet.getTileHeight() != 256) {
+            return false;
+        }
+        BoundingBox extent = gridSet.getOriginalExtent();
+        // within a meter, gridsets round the world bounds to the centimeter
+        if (Math.abs(extent.getMinX() + MERCATOR_HALF_WORLD) > 1
+                || Math.abs(extent.getMinY() + MERCATOR_HALF_WORLD) > 1
+                || Math.abs(extent.getMaxX() - MERCATOR_HALF_WORLD) > 1
+                || Math.abs(extent.getMaxY() - MERCATOR_HALF_WORLD) > 1) {
+            return false;
+        }
+        for (int z = 0; z < gridSet.getNumLevels(); z++) {
+            double expected = MERCATOR_RESOLUTION / (1L << z);
+            if (Math.abs(gridSet.getGrid(z).getResolution() - expected) > expected * 1e-6) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param bounds longitude and latitude bounds, as in the MBTiles {@code bounds} metadata
+     * @return the bounds in spherical mercator, latitudes beyond the mercator world clamped to it
+     */
+    public static BoundingBox toWebMercator(final BoundingBox bounds) {
+        return new BoundingBox(longitudeToMercator(bounds.getMinX()),
+                latitudeToMercator(bounds.getMinY()), longitudeToMercator(bounds.getMaxX()),
+                latitudeToMercator(bounds.getMaxY()));
+    }
+
+    private static double longitudeToMercator(double longitude) {
+        return longitude * MERCATOR_HALF_WORLD / 180;
+    }
+
+    private static double latitudeToMercator(double latitude) {
+        double clamped = Math.max(-MERCATOR_MAX_LATITUDE, Math.min(MERCATOR_MAX_LATITUDE, latitude));
+        return Math.log(Math.tan(Math.PI / 4 + Math.toRadians(clamped) / 2)) * MERCATOR_HALF_WORLD
+                / Math.PI;
+    }
+
     /**
      * @param reqBounds
      * @param crsMatchingGridSubsets
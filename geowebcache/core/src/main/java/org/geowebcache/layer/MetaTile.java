@@ -16,9 +16,14 @@
  */
 package org.geowebcache.layer;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.ParameterBlock;
 import java.io.IOException;
@@ -356,6 +361,31 @@ public class MetaTile implements TileResponseReceiver {
      * @throws IOException
      */
     public boolean writeTileToStream(final int tileIdx, Resource target) throws IOException {
+        return writeTileToStream(tileIdx, target, (ImageMime) responseFormat, formatModifier,
+                null);
+    }
+
+    /**
+     * Outputs one tile from the internal array of tiles to a provided stream, encoded in a format
+     * other than the one the meta tile was requested in. This allows a single meta tile to be
+     * encoded in several formats.
+     * 
+     * @param tileIdx
+     *            the index of the tile relative to the internal array
+     * @param target
+     *            the outputstream
+     * @param format
+     *            the format to encode the tile in
+     * @param formatModifier
+     *            the format modifier for {@code format}, may be {@code null}
+     * @param background
+     *            if not {@code null} and {@code format} can't encode an alpha channel, translucent
+     *            tiles are flattened over this color
+     * @return true if no error was encountered
+     * @throws IOException
+     */
+    public boolean writeTileToStream(final int tileIdx, Resource target, final ImageMime format,
+            final FormatModifier formatModifier, final Color background) throws IOException {
         if (tiles == null) {
             return false;
         }
@@ -369,14 +399,18 @@ public class MetaTile implements TileResponseReceiver {
         RenderedImage tile = createTile(tileRegion.x, tileRegion.y, tileRegion.width,
                 tileRegion.height);
         disposeLater(tile);
+        if (background != null && !format.supportsAlphaChannel()
+                && tile.getColorModel().hasAlpha()) {
+            tile = flatten(tile, background);
+        }
         
         // TODO should we recycle the writers ?
         // GR: it'd be only a 2% perf gain according to profile
-        ImageWriter writer = ((ImageMime) responseFormat).getImageWriter(tile);
+        ImageWriter writer = format.getImageWriter(tile);
         ImageWriteParam param = writer.getDefaultWriteParam();
         tile = preprocessForWriter(tile, writer);
 
-        if (this.formatModifier != null) {
+        if (formatModifier != null) {
             param = formatModifier.adjustImageWriteParam(param);
         }
         OutputStream outputStream = target.getOutputStream();
@@ -393,6 +427,21 @@ public class MetaTile implements TileResponseReceiver {
         return true;
     }
 
+    private RenderedImage flatten(RenderedImage ri, Color background) {
+        BufferedImage flat = new BufferedImage(ri.getWidth(), ri.getHeight(),
+                BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = flat.createGraphics();
+        try {
+            graphics.setColor(background);
+            graphics.fillRect(0, 0, flat.getWidth(), flat.getHeight());
+            graphics.drawRenderedImage(ri,
+                    AffineTransform.getTranslateInstance(-ri.getMinX(), -ri.getMinY()));
+        } finally {
+            graphics.dispose();
+        }
+        return flat;
+    }
+
     private RenderedImage preprocessForWriter(RenderedImage ri, ImageWriter writer) {
         if(ri.getColorModel().hasAlpha() && ri.getSampleModel().getNumBands() == 4 && isJpegWriter(writer)) {
             final int[] bands = new int[3];
@@ -496,6 +545,40 @@ public class MetaTile implements TileResponseReceiver {
         return metaGridCov;
     }
 
+    /**
+     * Checks whether all the pixels of a tile have the same value, as a blank or fully transparent
+     * tile does
+     * 
+     * @param tileIdx
+     *            the index of the tile relative to the internal array
+     */
+    public boolean isTileUniform(final int tileIdx) {
+        if (tiles == null || metaTileImage == null) {
+            return false;
+        }
+        Rectangle tileRegion = new Rectangle(tiles[tileIdx]);
+        tileRegion.translate(metaTileImage.getMinX(), metaTileImage.getMinY());
+        Raster raster = metaTileImage.getData(tileRegion);
+        final int bands = raster.getNumBands();
+        // fully transparent pixels are all the same, whatever their color
+        final int alphaBand = metaTileImage.getColorModel().hasAlpha()
+                && !(metaTileImage.getColorModel() instanceof IndexColorModel) ? bands - 1 : -1;
+        int[] first = raster.getPixel(raster.getMinX(), raster.getMinY(), new int[bands]);
+        int[] pixel = new int[bands];
+        for (int y = raster.getMinY(); y < raster.getMinY() + raster.getHeight(); y++) {
+            for (int x = raster.getMinX(); x < raster.getMinX() + raster.getWidth(); x++) {
+                raster.getPixel(x, y, pixel);
+                if (alphaBand >= 0 && pixel[alphaBand] == 0 && first[alphaBand] == 0) {
+                    continue;
+                }
+                if (!Arrays.equals(first, pixel)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     public long[][] getTilesGridPositions() {
         return tilesGridPositions;
     }
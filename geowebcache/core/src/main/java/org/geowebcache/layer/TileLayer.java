@@ -16,6 +16,7 @@
  */
 package org.geowebcache.layer;
 
+import java.awt.Color;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -51,6 +52,7 @@ import org.geowebcache.layer.meta.LayerMetaInformation;
 import org.geowebcache.layer.meta.MetadataURL;
 import org.geowebcache.layer.updatesource.UpdateSourceDefinition;
 import org.geowebcache.mime.FormatModifier;
+import org.geowebcache.mime.ImageMime;
 import org.geowebcache.mime.MimeType;
 import org.geowebcache.storage.StorageException;
 import org.geowebcache.storage.TileObject;
@@ -218,6 +220,37 @@ public abstract class TileLayer {
     public abstract void seedTile(ConveyorTile tile, boolean tryCache) throws GeoWebCacheException,
             IOException;
 
+    /**
+     * Seeds a tile in its own format and in a number of additional formats.
+     * <p>
+     * This default implementation seeds each format in turn, layers able to encode the same
+     * rendering in several formats should override it to request the backend only once.
+     * </p>
+     * 
+     * @param tile
+     * @param tryCache
+     * @param additionalFormats
+     *            formats to seed besides the tile's own one
+     * @throws GeoWebCacheException
+     * @throws IOException
+     */
+    public void seedTile(ConveyorTile tile, boolean tryCache, List<MimeType> additionalFormats)
+            throws GeoWebCacheException, IOException {
+        seedTile(tile, tryCache);
+        for (MimeType format : additionalFormats) {
+            seedTile(copyTile(tile, format), tryCache);
+        }
+    }
+
+    /**
+     * @return a new conveyor tile for the same location and parameters as {@code tile}, in another
+     *         format
+     */
+    protected ConveyorTile copyTile(ConveyorTile tile, MimeType format) {
+        return new ConveyorTile(tile.getStorageBroker(), tile.getLayerId(), tile.getGridSetId(),
+                tile.getTileIndex(), format, tile.getFullParameters(), null, null);
+    }
+
     /**
      * This is a more direct way of requesting a tile without invoking metatiling, and should not be
      * used in general. The method was exposed to let the KML service traverse the tree ahead of the
@@ -342,6 +375,13 @@ public abstract class TileLayer {
      */
     public abstract boolean initialize(GridSetBroker gridSetBroker);
 
+    /**
+     * Releases the resources held by the layer, once its configuration removed it or replaced it
+     * by a new instance. Does nothing by default.
+     */
+    public void dispose() {
+    }
+
     /**
      * This method is deprecated, as a layer may be configured for more than one gridset with the
      * same SRS.
@@ -722,4 +762,60 @@ public abstract class TileLayer {
             }
         }
     }
+
+    /**
+     * Loops over the gridPositions, encodes each tile in the given format and saves it to the
+     * cache. Unlike {@link #saveTiles(MetaTile, ConveyorTile, long)} the meta tile may have been
+     * requested in a different format, and no tile is handed back to {@code tileProto}.
+     * 
+     * @param metaTile
+     * @param tileProto
+     *            the tile whose format, grid set and parameters are used to store the tiles
+     * @param background
+     *            color translucent tiles are flattened over when {@code tileProto}'s format has no
+     *            alpha channel, may be {@code null}
+     * @param requestTime
+     */
+    protected void saveTilesAs(MetaTile metaTile, ConveyorTile tileProto, Color background,
+            long requestTime) throws GeoWebCacheException {
+
+        final long[][] gridPositions = metaTile.getTilesGridPositions();
+        final GridSubset gridSubset = getGridSubset(tileProto.getGridSetId());
+        final int zoomLevel = (int) tileProto.getTileIndex()[2];
+        if (this.getExpireCache(zoomLevel) == GWCVars.CACHE_DISABLE_CACHE) {
+            return;
+        }
+
+        final ImageMime format = (ImageMime) tileProto.getMimeType();
+        final FormatModifier formatModifier = getFormatModifier(format);
+        for (int i = 0; i < gridPositions.length; i++) {
+            final long[] gridPos = gridPositions[i];
+            if (!gridSubset.covers(gridPos)) {
+                // edge tile outside coverage, do not store it
+                continue;
+            }
+            Resource resource = getImageBuffer(WMS_BUFFER);
+            try {
+                if (!metaTile.writeTileToStream(i, resource, format, formatModifier, background)) {
+                    log.error("metaTile.writeTileToStream returned false, no tiles saved");
+                    continue;
+                }
+            } catch (IOException ioe) {
+                log.error("Unable to write image tile to " + "ByteArrayOutputStream: "
+                        + ioe.getMessage());
+                continue;
+            }
+
+            long[] idx = { gridPos[0], gridPos[1], gridPos[2] };
+            TileObject tile = TileObject.createCompleteTileObject(this.getName(), idx,
+                    tileProto.getGridSetId(), format.getFormat(), tileProto.getParameters(),
+                    resource);
+            tile.setCreated(requestTime);
+            try {
+                tileProto.getStorageBroker().put(tile);
+            } catch (StorageException e) {
+                throw new GeoWebCacheException(e);
+            }
+        }
+    }
 }
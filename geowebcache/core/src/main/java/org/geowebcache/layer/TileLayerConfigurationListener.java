@@ -0,0 +1,34 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer;
+
+import java.util.EventListener;
+
+/**
+ * Told by the {@link TileLayerDispatcher} about the layers added, modified or removed through it,
+ * for components keeping information derived from the layers' configuration.
+ */
+public interface TileLayerConfigurationListener extends EventListener {
+
+    /**
+     * Called after the layer has been added, modified or removed
+     */
+    void layerChanged(String layerName);
+
+    /**
+     * Called after the configurations have been reloaded or added, any layer may have changed
+     */
+    void layersReloaded();
+}
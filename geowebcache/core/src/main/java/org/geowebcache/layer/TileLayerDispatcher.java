@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -52,6 +53,9 @@ public class TileLayerDispatcher implements DisposableBean {
 
     private ServiceInformation serviceInformation;
 
+    private final List<TileLayerConfigurationListener> configurationListeners =
+            new CopyOnWriteArrayList<TileLayerConfigurationListener>();
+
     /**
      * @deprecated use {@link #TileLayerDispatcher(GridSetBroker)} instead, configurations are
      *             loaded from the application context, this {@code config} parameter will be
@@ -73,6 +77,30 @@ public class TileLayerDispatcher implements DisposableBean {
         List<Configuration> newList = new ArrayList<Configuration>(configs);
         newList.add(config);
         this.configs = newList;
+        fireLayersReloaded();
+    }
+
+    /**
+     * Adds a listener told about the layers added, modified or removed through this dispatcher
+     */
+    public void addConfigurationListener(TileLayerConfigurationListener listener) {
+        configurationListeners.add(listener);
+    }
+
+    public boolean removeConfigurationListener(TileLayerConfigurationListener listener) {
+        return configurationListeners.remove(listener);
+    }
+
+    private void fireLayerChanged(String layerName) {
+        for (TileLayerConfigurationListener listener : configurationListeners) {
+            listener.layerChanged(layerName);
+        }
+    }
+
+    private void fireLayersReloaded() {
+        for (TileLayerConfigurationListener listener : configurationListeners) {
+            listener.layersReloaded();
+        }
     }
 
     public boolean layerExists(final String layerName) {
@@ -119,6 +147,7 @@ public class TileLayerDispatcher implements DisposableBean {
         List<Configuration> extensions = GeoWebCacheExtensions.extensions(Configuration.class);
         this.configs = new ArrayList<Configuration>(extensions);
         initialize();
+        fireLayersReloaded();
     }
 
     public int getLayerCount() {
@@ -235,6 +264,7 @@ public class TileLayerDispatcher implements DisposableBean {
             throws IllegalArgumentException {
         for (Configuration config : configs) {
             if (config.removeLayer(layerName)) {
+                fireLayerChanged(layerName);
                 return config;
             }
         }
@@ -257,6 +287,7 @@ public class TileLayerDispatcher implements DisposableBean {
         for (Configuration c : configs) {
             if (c.canSave(tl)) {
                 c.addLayer(tl);
+                fireLayerChanged(tl.getName());
                 return c;
             }
         }
@@ -273,6 +304,7 @@ public class TileLayerDispatcher implements DisposableBean {
     public synchronized Configuration modify(final TileLayer tl) throws IllegalArgumentException {
         Configuration config = getConfiguration(tl);
         config.modifyLayer(tl);
+        fireLayerChanged(tl.getName());
         return config;
     }
 
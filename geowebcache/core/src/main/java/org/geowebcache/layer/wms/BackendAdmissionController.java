@@ -0,0 +1,488 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer.wms;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheExtensions;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+/**
+ * Controls how many requests a layer issues to its backend at the same time, and who gets to go
+ * next when the backend is saturated.
+ * <p>
+ * Interactive tile misses and seeding requests wait in separate queues. Free backend slots are
+ * handed out by weighted round robin between the two queues, so seeding can't starve interactive
+ * requests. On top of that, the number of slots seeding may hold at once is adjusted from the 95th
+ * percentile latency of the last interactive requests: it is halved whenever the percentile goes
+ * above the target latency, and grows back one slot at a time once it is below it again.
+ * </p>
+ * The following environment variables can be used to tune the controller, they are looked up
+ * through {@link GeoWebCacheExtensions#getProperty(String)}:
+ * <ul>
+ * <li>{@code GWC_BACKEND_INTERACTIVE_WEIGHT}: number of interactive requests admitted for each
+ * {@code GWC_BACKEND_SEED_WEIGHT} seed requests when both are waiting. Defaults to {@code 4};
+ * <li>{@code GWC_BACKEND_SEED_WEIGHT}: see above, defaults to {@code 1};
+ * <li>{@code GWC_BACKEND_INTERACTIVE_LATENCY_TARGET}: the interactive 95th percentile latency, in
+ * milliseconds, above which seeding gets throttled. Use {@code 0} to disable throttling. Defaults
+ * to {@code 3000}.
+ * </ul>
+ */
+public class BackendAdmissionController {
+
+    private static Log log = LogFactory.getLog(BackendAdmissionController.class);
+
+    static final String GWC_BACKEND_INTERACTIVE_WEIGHT = "GWC_BACKEND_INTERACTIVE_WEIGHT";
+
+    static final String GWC_BACKEND_SEED_WEIGHT = "GWC_BACKEND_SEED_WEIGHT";
+
+    static final String GWC_BACKEND_INTERACTIVE_LATENCY_TARGET = "GWC_BACKEND_INTERACTIVE_LATENCY_TARGET";
+
+    /**
+     * Number of interactive latency samples the percentile is computed over
+     */
+    static final int LATENCY_WINDOW = 128;
+
+    /**
+     * Number of new interactive samples between two adjustments of the seed limit
+     */
+    static final int ADJUST_INTERVAL = 16;
+
+    /**
+     * How long without interactive requests before seeding gets all the slots back, in
+     * milliseconds
+     */
+    static final long IDLE_RECOVERY_TIME = 10000;
+
+    /**
+     * The kind of work a backend request is issued for
+     */
+    public static enum Priority {
+        INTERACTIVE, SEED
+    };
+
+    /**
+     * A backend slot granted by {@link BackendAdmissionController#acquire(Priority)}, to be handed
+     * back through {@link BackendAdmissionController#release(Permit)} once the request is done
+     */
+    public static final class Permit {
+
+        private final Priority priority;
+
+        private final long enqueuedAt;
+
+        private long admittedAt;
+
+        private boolean admitted;
+
+        private boolean released;
+
+        private Condition condition;
+
+        private Permit(Priority priority, long enqueuedAt) {
+            this.priority = priority;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return time spent waiting in the queue, in nanoseconds
+         */
+        public long getWaitTime() {
+            return admittedAt - enqueuedAt;
+        }
+    }
+
+    /**
+     * Point in time copy of the controller metrics
+     */
+    public static final class Statistics {
+
+        private final int maxConcurrency;
+
+        private final int seedLimit;
+
+        private final int interactiveInFlight;
+
+        private final int seedInFlight;
+
+        private final int interactiveQueueDepth;
+
+        private final int seedQueueDepth;
+
+        private final long interactiveAdmitted;
+
+        private final long seedAdmitted;
+
+        private final long interactiveWaitTime;
+
+        private final long seedWaitTime;
+
+        private final long interactiveMaxWaitTime;
+
+        private final long seedMaxWaitTime;
+
+        private final long interactiveLatencyP95;
+
+        Statistics(BackendAdmissionController c) {
+            this.maxConcurrency = c.maxConcurrency;
+            this.seedLimit = c.seedLimit;
+            this.interactiveInFlight = c.inFlight - c.seedInFlight;
+            this.seedInFlight = c.seedInFlight;
+            this.interactiveQueueDepth = c.interactiveQueue.size();
+            this.seedQueueDepth = c.seedQueue.size();
+            this.interactiveAdmitted = c.admitted[Priority.INTERACTIVE.ordinal()];
+            this.seedAdmitted = c.admitted[Priority.SEED.ordinal()];
+            this.interactiveWaitTime = c.waitTime[Priority.INTERACTIVE.ordinal()];
+            this.seedWaitTime = c.waitTime[Priority.SEED.ordinal()];
+            this.interactiveMaxWaitTime = c.maxWaitTime[Priority.INTERACTIVE.ordinal()];
+            this.seedMaxWaitTime = c.maxWaitTime[Priority.SEED.ordinal()];
+            this.interactiveLatencyP95 = c.latencyPercentile(95);
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        /**
+         * @return the number of backend slots seeding is currently allowed to hold
+         */
+        public int getSeedLimit() {
+            return seedLimit;
+        }
+
+        public int getInFlight(Priority priority) {
+            return priority == Priority.SEED ? seedInFlight : interactiveInFlight;
+        }
+
+        public int getQueueDepth(Priority priority) {
+            return priority == Priority.SEED ? seedQueueDepth : interactiveQueueDepth;
+        }
+
+        public long getAdmittedCount(Priority priority) {
+            return priority == Priority.SEED ? seedAdmitted : interactiveAdmitted;
+        }
+
+        /**
+         * @return the average queue wait time in milliseconds, or {@code 0} if nothing was admitted
+         *         yet
+         */
+        public double getAverageWaitTime(Priority priority) {
+            long count = getAdmittedCount(priority);
+            long total = priority == Priority.SEED ? seedWaitTime : interactiveWaitTime;
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(total) / (1000d * count);
+        }
+
+        /**
+         * @return the longest queue wait time in milliseconds
+         */
+        public long getMaxWaitTime(Priority priority) {
+            return TimeUnit.NANOSECONDS.toMillis(priority == Priority.SEED ? seedMaxWaitTime
+                    : interactiveMaxWaitTime);
+        }
+
+        /**
+         * @return the 95th percentile of the recent interactive request latencies in milliseconds,
+         *         or {@code -1} if there are no samples
+         */
+        public long getInteractiveLatencyP95() {
+            return interactiveLatencyP95;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Deque<Permit> interactiveQueue = new ArrayDeque<Permit>();
+
+    private final Deque<Permit> seedQueue = new ArrayDeque<Permit>();
+
+    private final Ticker ticker;
+
+    private final int maxConcurrency;
+
+    private final int interactiveWeight;
+
+    private final int seedWeight;
+
+    private final long latencyTarget;
+
+    private int seedLimit;
+
+    private int inFlight;
+
+    private int seedInFlight;
+
+    private int interactiveCredits;
+
+    private int seedCredits;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+
+    private int latencyCount;
+
+    private int latencyPos;
+
+    private int samplesSinceAdjust;
+
+    private long lastInteractive;
+
+    private final long[] admitted = new long[Priority.values().length];
+
+    private final long[] waitTime = new long[Priority.values().length];
+
+    private final long[] maxWaitTime = new long[Priority.values().length];
+
+    /**
+     * @param maxConcurrency maximum number of requests in flight to the backend
+     */
+    public BackendAdmissionController(int maxConcurrency) {
+        this(maxConcurrency, intProperty(GWC_BACKEND_INTERACTIVE_WEIGHT, 4), intProperty(
+                GWC_BACKEND_SEED_WEIGHT, 1), intProperty(GWC_BACKEND_INTERACTIVE_LATENCY_TARGET,
+                3000), Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    BackendAdmissionController(int maxConcurrency, int interactiveWeight, int seedWeight,
+            long latencyTarget, Ticker ticker) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1: "
+                    + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.interactiveWeight = Math.max(1, interactiveWeight);
+        this.seedWeight = Math.max(1, seedWeight);
+        this.latencyTarget = TimeUnit.MILLISECONDS.toNanos(latencyTarget);
+        this.seedLimit = maxConcurrency;
+        this.ticker = ticker;
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = GeoWebCacheExtensions.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid environment parameter for " + name + ": '" + value
+                    + "'. Using default value: " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Blocks until a backend slot is available for the given kind of request
+     *
+     * @return the permit to be handed back to {@link #release(Permit)}
+     */
+    public Permit acquire(Priority priority) throws InterruptedException {
+        lock.lock();
+        try {
+            final long now = ticker.read();
+            Permit permit = new Permit(priority, now);
+            if (priority == Priority.INTERACTIVE) {
+                lastInteractive = now;
+            }
+            recoverIfIdle(now);
+            Deque<Permit> queue = queue(priority);
+            if (queue.isEmpty() && canAdmit(priority)) {
+                admit(permit, now);
+                return permit;
+            }
+            permit.condition = lock.newCondition();
+            queue.addLast(permit);
+            try {
+                while (!permit.admitted) {
+                    permit.condition.await();
+                }
+            } catch (InterruptedException e) {
+                if (permit.admitted) {
+                    releaseInternal(permit);
+                } else {
+                    queue.remove(permit);
+                }
+                throw e;
+            }
+            return permit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands back a backend slot and wakes up the next waiting request, if any
+     */
+    public void release(Permit permit) {
+        lock.lock();
+        try {
+            releaseInternal(permit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Statistics getStatistics() {
+        lock.lock();
+        try {
+            return new Statistics(this);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseInternal(Permit permit) {
+        if (permit.released) {
+            return;
+        }
+        permit.released = true;
+        inFlight--;
+        final long now = ticker.read();
+        if (permit.priority == Priority.SEED) {
+            seedInFlight--;
+        } else {
+            recordLatency(now - permit.enqueuedAt);
+            lastInteractive = now;
+        }
+        dispatch();
+    }
+
+    private Deque<Permit> queue(Priority priority) {
+        return priority == Priority.SEED ? seedQueue : interactiveQueue;
+    }
+
+    private boolean canAdmit(Priority priority) {
+        if (inFlight >= maxConcurrency) {
+            return false;
+        }
+        if (priority == Priority.SEED) {
+            return seedInFlight < seedLimit && interactiveQueue.isEmpty();
+        }
+        return true;
+    }
+
+    private void admit(Permit permit, long now) {
+        permit.admitted = true;
+        permit.admittedAt = now;
+        inFlight++;
+        if (permit.priority == Priority.SEED) {
+            seedInFlight++;
+        }
+        int idx = permit.priority.ordinal();
+        long wait = now - permit.enqueuedAt;
+        admitted[idx]++;
+        waitTime[idx] += wait;
+        maxWaitTime[idx] = Math.max(maxWaitTime[idx], wait);
+    }
+
+    /**
+     * Grants free slots to the waiting requests, alternating between queues according to their
+     * weights
+     */
+    private void dispatch() {
+        final long now = ticker.read();
+        recoverIfIdle(now);
+        while (inFlight < maxConcurrency) {
+            Permit next = next();
+            if (next == null) {
+                break;
+            }
+            admit(next, now);
+            next.condition.signal();
+        }
+    }
+
+    private Permit next() {
+        final boolean seedReady = !seedQueue.isEmpty() && seedInFlight < seedLimit;
+        if (interactiveQueue.isEmpty()) {
+            return seedReady ? seedQueue.pollFirst() : null;
+        }
+        if (!seedReady) {
+            return interactiveQueue.pollFirst();
+        }
+        if (interactiveCredits <= 0 && seedCredits <= 0) {
+            interactiveCredits = interactiveWeight;
+            seedCredits = seedWeight;
+        }
+        if (interactiveCredits > 0) {
+            interactiveCredits--;
+            return interactiveQueue.pollFirst();
+        }
+        seedCredits--;
+        return seedQueue.pollFirst();
+    }
+
+    private void recordLatency(long latency) {
+        latencies[latencyPos] = latency;
+        latencyPos = (latencyPos + 1) % LATENCY_WINDOW;
+        latencyCount = Math.min(LATENCY_WINDOW, latencyCount + 1);
+        if (++samplesSinceAdjust >= ADJUST_INTERVAL) {
+            samplesSinceAdjust = 0;
+            adjustSeedLimit();
+        }
+    }
+
+    private void adjustSeedLimit() {
+        if (latencyTarget <= 0) {
+            return;
+        }
+        final long p95 = TimeUnit.MILLISECONDS.toNanos(latencyPercentile(95));
+        final int previous = seedLimit;
+        if (p95 > latencyTarget) {
+            seedLimit = Math.max(1, seedLimit / 2);
+        } else if (seedLimit < maxConcurrency) {
+            seedLimit++;
+        }
+        if (previous != seedLimit && log.isDebugEnabled()) {
+            log.debug("Interactive p95 latency is " + TimeUnit.NANOSECONDS.toMillis(p95)
+                    + "ms, seed concurrency limit changed from " + previous + " to " + seedLimit);
+        }
+    }
+
+    /**
+     * Gives seeding all the slots back if no interactive request came in for a while, there's no
+     * point in throttling it based on stale samples
+     */
+    private void recoverIfIdle(long now) {
+        if (seedLimit < maxConcurrency && inFlight == seedInFlight && interactiveQueue.isEmpty()
+                && now - lastInteractive > TimeUnit.MILLISECONDS.toNanos(IDLE_RECOVERY_TIME)) {
+            seedLimit = maxConcurrency;
+            latencyCount = 0;
+            latencyPos = 0;
+            samplesSinceAdjust = 0;
+        }
+    }
+
+    private long latencyPercentile(int percentile) {
+        if (latencyCount == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int idx = (int) Math.ceil(percentile / 100d * latencyCount) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, idx)]);
+    }
+}
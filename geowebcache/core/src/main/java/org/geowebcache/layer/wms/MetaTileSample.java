@@ -0,0 +1,76 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer.wms;
+
+/**
+ * What requesting and encoding a meta tile cost, as measured by
+ * {@link WMSLayer#sampleMetaTile(org.geowebcache.conveyor.ConveyorTile, org.geowebcache.storage.TileRange)}
+ */
+public final class MetaTileSample {
+
+    private final long backendNanos;
+
+    private final long encodeNanos;
+
+    private final long tiles;
+
+    private final long uniformTiles;
+
+    private final long bytes;
+
+    public MetaTileSample(long backendNanos, long encodeNanos, long tiles, long uniformTiles,
+            long bytes) {
+        this.backendNanos = backendNanos;
+        this.encodeNanos = encodeNanos;
+        this.tiles = tiles;
+        this.uniformTiles = uniformTiles;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return the time spent waiting for the backend to render the meta tile, in nanoseconds
+     */
+    public long getBackendNanos() {
+        return backendNanos;
+    }
+
+    /**
+     * @return the time spent decoding the meta tile and encoding its tiles, in nanoseconds
+     */
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /**
+     * @return the number of tiles encoded, those of the meta tile in the sampled range
+     */
+    public long getTiles() {
+        return tiles;
+    }
+
+    /**
+     * @return the number of encoded tiles of a single color
+     */
+    public long getUniformTiles() {
+        return uniformTiles;
+    }
+
+    /**
+     * @return the total size of the encoded tiles
+     */
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -17,6 +17,7 @@
 
 package org.geowebcache.layer.wms;
 
+import java.awt.Color;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -53,11 +54,15 @@ import org.geowebcache.layer.ExpirationRule;
 import org.geowebcache.layer.ProxyLayer;
 import org.geowebcache.layer.meta.LayerMetaInformation;
 import org.geowebcache.layer.meta.MetadataURL;
+import org.geowebcache.layer.wms.BackendAdmissionController.Permit;
+import org.geowebcache.layer.wms.BackendAdmissionController.Priority;
 import org.geowebcache.locks.LockProvider;
 import org.geowebcache.locks.LockProvider.Lock;
 import org.geowebcache.mime.FormatModifier;
+import org.geowebcache.mime.ImageMime;
 import org.geowebcache.mime.MimeType;
 import org.geowebcache.mime.XMLMime;
+import org.geowebcache.storage.TileRange;
 import org.geowebcache.util.GWCVars;
 
 /**
@@ -121,6 +126,8 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
 
     private transient LockProvider lockProvider;
 
+    private transient volatile BackendAdmissionController admissionController;
+
     private LegendsRawInfo legends;
 
     WMSLayer() {
@@ -304,9 +311,9 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
             if (tryCacheFetch(tile)) {
                 returnTile = finalizeTile(tile);
             } else if (mime.supportsTiling()) { // Okay, so we need to go to the backend
-                returnTile = getMetatilingReponse(tile, true);
+                returnTile = getMetatilingReponse(tile, true, Priority.INTERACTIVE);
             } else {
-                returnTile = getNonMetatilingReponse(tile, true);
+                returnTile = getNonMetatilingReponse(tile, true, Priority.INTERACTIVE);
             }
         } finally {
             cleanUpThreadLocals();
@@ -326,10 +333,242 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
         if (gridSubset.shouldCacheAtZoom(tile.getTileIndex()[2])) {
             if (tile.getMimeType().supportsTiling()
                     && (metaWidthHeight[0] > 1 || metaWidthHeight[1] > 1)) {
-                getMetatilingReponse(tile, tryCache);
+                getMetatilingReponse(tile, tryCache, Priority.SEED);
+            } else {
+                getNonMetatilingReponse(tile, tryCache, Priority.SEED);
+            }
+        }
+    }
+
+    /**
+     * Seeds a tile in several formats out of a single backend request: the meta tile is requested
+     * in a lossless format and each of its tiles is encoded in every target format. Formats whose
+     * format modifiers change the backend request (transparency, background color or palette) are
+     * seeded separately.
+     */
+    @Override
+    public void seedTile(ConveyorTile tile, boolean tryCache, List<MimeType> additionalFormats)
+            throws GeoWebCacheException, IOException {
+        if (additionalFormats.isEmpty() || !canEncodeFromMetaTile(tile.getMimeType())) {
+            super.seedTile(tile, tryCache, additionalFormats);
+            return;
+        }
+        GridSubset gridSubset = getGridSubset(tile.getGridSetId());
+        if (!gridSubset.shouldCacheAtZoom(tile.getTileIndex()[2])) {
+            return;
+        }
+
+        final Map<String, String> template = getWMSRequestTemplate(tile.getMimeType(),
+                RequestType.MAP);
+        List<ConveyorTile> shared = new ArrayList<ConveyorTile>();
+        shared.add(tile);
+        List<MimeType> separate = new ArrayList<MimeType>();
+        for (MimeType format : additionalFormats) {
+            if (canEncodeFromMetaTile(format)
+                    && template.equals(getWMSRequestTemplate(format, RequestType.MAP))) {
+                shared.add(copyTile(tile, format));
             } else {
-                getNonMetatilingReponse(tile, tryCache);
+                separate.add(format);
+            }
+        }
+
+        MimeType renderFormat = getLosslessFormat(shared);
+        if (shared.size() > 1
+                && template.equals(getWMSRequestTemplate(renderFormat, RequestType.MAP))) {
+            getMultiFormatMetatilingResponse(shared, renderFormat, tryCache);
+        } else {
+            for (ConveyorTile formatTile : shared) {
+                seedTile(formatTile, tryCache);
+            }
+        }
+        for (MimeType format : separate) {
+            seedTile(copyTile(tile, format), tryCache);
+        }
+    }
+
+    /**
+     * @return the color opaque formats are painted over, as the backend would for a WMS request
+     *         in an opaque format
+     */
+    private static Color getFlatteningColor(String bgColor) {
+        if (bgColor != null) {
+            try {
+                return Color.decode(bgColor);
+            } catch (NumberFormatException e) {
+                log.debug("Unable to parse background color " + bgColor + ", using white");
+            }
+        }
+        return Color.WHITE;
+    }
+
+    /**
+     * Requests a meta tile and encodes its tiles without storing anything, to measure what seeding
+     * it costs.
+     * 
+     * @param tile
+     *            the tile whose meta tile is sampled
+     * @param range
+     *            only the tiles of the meta tile in this range are encoded
+     * @return the measures, or {@code null} if the tile's format can't be sampled
+     * @throws GeoWebCacheException
+     */
+    public MetaTileSample sampleMetaTile(ConveyorTile tile, TileRange range) throws GeoWebCacheException {
+        MimeType mimeType = tile.getMimeType();
+        if (!(mimeType instanceof ImageMime) || !mimeType.supportsTiling()) {
+            return null;
+        }
+        GridSubset gridSubset = subSets.get(tile.getGridSetId());
+        Map<String, String> fullParameters = tile.getFullParameters();
+        if (fullParameters.isEmpty()) {
+            fullParameters = getDefaultParameterFilters();
+        }
+        WMSMetaTile metaTile = new WMSMetaTile(this, gridSubset, mimeType,
+                getFormatModifier(mimeType), tile.getTileIndex(), metaWidthHeight[0],
+                metaWidthHeight[1], fullParameters);
+        try {
+            ByteArrayResource buffer = getImageBuffer(WMS_BUFFER);
+            long backendTime = System.nanoTime();
+            BackendAdmissionController admission = getAdmissionController();
+            Permit permit = acquireBackend(admission, Priority.SEED);
+            try {
+                sourceHelper.makeRequest(metaTile, buffer);
+            } finally {
+                admission.release(permit);
+            }
+            backendTime = System.nanoTime() - backendTime;
+            if (metaTile.getError()) {
+                throw new GeoWebCacheException("Empty metatile, error message: "
+                        + metaTile.getErrorMessage());
+            }
+
+            // decoding the meta tile is part of the encoding cost
+            long encodeTime = System.nanoTime();
+            metaTile.setImageBytes(buffer);
+            encodeTime = System.nanoTime() - encodeTime;
+            long tiles = 0;
+            long uniformTiles = 0;
+            long bytes = 0;
+            final long[][] gridPositions = metaTile.getTilesGridPositions();
+            for (int i = 0; i < gridPositions.length; i++) {
+                if (!gridSubset.covers(gridPositions[i]) || !range.contains(gridPositions[i])) {
+                    continue;
+                }
+                ByteArrayResource target = getImageBuffer(WMS_BUFFER2);
+                long start = System.nanoTime();
+                try {
+                    metaTile.writeTileToStream(i, target);
+                } catch (IOException e) {
+                    throw new GeoWebCacheException(e);
+                }
+                encodeTime += System.nanoTime() - start;
+                tiles++;
+                bytes += target.getSize();
+                if (metaTile.isTileUniform(i)) {
+                    uniformTiles++;
+                }
+            }
+            return new MetaTileSample(backendTime, encodeTime, tiles, uniformTiles, bytes);
+        } finally {
+            metaTile.dispose();
+        }
+    }
+
+    private boolean canEncodeFromMetaTile(MimeType format) {
+        return format instanceof ImageMime && format.supportsTiling()
+                && (metaWidthHeight[0] > 1 || metaWidthHeight[1] > 1);
+    }
+
+    /**
+     * @return the first lossless format among the tiles', or PNG if there is none
+     */
+    private static MimeType getLosslessFormat(List<ConveyorTile> tiles) {
+        for (ConveyorTile tile : tiles) {
+            MimeType format = tile.getMimeType();
+            if (format == ImageMime.png || format == ImageMime.png24
+                    || format == ImageMime.png_24 || format == ImageMime.tiff) {
+                return format;
+            }
+        }
+        return ImageMime.png;
+    }
+
+    /**
+     * Requests a single meta tile in {@code renderFormat} and stores its tiles in the format of
+     * each of {@code tiles}, all of them for the same location and parameters.
+     * 
+     * @param tiles
+     *            the tiles to seed, the first one is used to build the request
+     * @param renderFormat
+     *            the format to request the meta tile in
+     * @param tryCache
+     *            whether to skip formats that are already cached
+     * @throws GeoWebCacheException
+     */
+    private void getMultiFormatMetatilingResponse(List<ConveyorTile> tiles,
+            MimeType renderFormat, boolean tryCache) throws GeoWebCacheException {
+
+        final ConveyorTile tile = tiles.get(0);
+        GridSubset gridSubset = subSets.get(tile.getGridSetId());
+
+        Map<String, String> fullParameters = tile.getFullParameters();
+        if (fullParameters.isEmpty()) {
+            fullParameters = getDefaultParameterFilters();
+        }
+        WMSMetaTile metaTile = new WMSMetaTile(this, gridSubset, renderFormat, null,
+                tile.getTileIndex(), metaWidthHeight[0], metaWidthHeight[1], fullParameters);
+
+        String metaKey = buildLockKey(tile, metaTile);
+        Lock lock = null;
+        try {
+            lock = lockProvider.getLock(metaKey);
+            List<ConveyorTile> missing = tiles;
+            if (tryCache) {
+                missing = new ArrayList<ConveyorTile>();
+                for (ConveyorTile formatTile : tiles) {
+                    if (!tryCacheFetch(formatTile)) {
+                        missing.add(formatTile);
+                    }
+                }
+                if (missing.isEmpty()) {
+                    return;
+                }
+            }
+
+            ByteArrayResource buffer = getImageBuffer(WMS_BUFFER);
+
+            if (saveExpirationHeaders) {
+                metaTile.setExpiresHeader(GWCVars.CACHE_USE_WMS_BACKEND_VALUE);
+            }
+            long requestTime = System.currentTimeMillis();
+            BackendAdmissionController admission = getAdmissionController();
+            Permit permit = acquireBackend(admission, Priority.SEED);
+            try {
+                sourceHelper.makeRequest(metaTile, buffer);
+            } finally {
+                admission.release(permit);
+            }
+
+            if (metaTile.getError()) {
+                throw new GeoWebCacheException("Empty metatile, error message: "
+                        + metaTile.getErrorMessage());
+            }
+
+            if (saveExpirationHeaders) {
+                // Converting to seconds
+                saveExpirationInformation((int) (tile.getExpiresHeader() / 1000));
+            }
+
+            metaTile.setImageBytes(buffer);
+
+            Color background = getFlatteningColor(metaTile.getWMSParams().get("BGCOLOR"));
+            for (ConveyorTile formatTile : missing) {
+                saveTilesAs(metaTile, formatTile, background, requestTime);
+            }
+        } finally {
+            if (lock != null) {
+                lock.release();
             }
+            metaTile.dispose();
         }
     }
 
@@ -340,10 +579,12 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
      *            the Tile with all the information
      * @param tryCache
      *            whether to try the cache, or seed
+     * @param priority
+     *            whether the request comes from a client or from seeding
      * @throws GeoWebCacheException
      */
-    private ConveyorTile getMetatilingReponse(ConveyorTile tile, boolean tryCache)
-            throws GeoWebCacheException {
+    private ConveyorTile getMetatilingReponse(ConveyorTile tile, boolean tryCache,
+            Priority priority) throws GeoWebCacheException {
 
         // int idx = this.getSRSIndex(tile.getSRS());
         long[] gridLoc = tile.getTileIndex();
@@ -390,7 +631,13 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
                 metaTile.setExpiresHeader(GWCVars.CACHE_USE_WMS_BACKEND_VALUE);
             }
             long requestTime = System.currentTimeMillis();
-            sourceHelper.makeRequest(metaTile, buffer);
+            BackendAdmissionController admission = getAdmissionController();
+            Permit permit = acquireBackend(admission, priority);
+            try {
+                sourceHelper.makeRequest(metaTile, buffer);
+            } finally {
+                admission.release(permit);
+            }
 
             if (metaTile.getError()) {
                 throw new GeoWebCacheException("Empty metatile, error message: "
@@ -449,10 +696,12 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
      *            the Tile with all the information
      * @param tryCache
      *            whether to try the cache, or seed
+     * @param priority
+     *            whether the request comes from a client or from seeding
      * @throws GeoWebCacheException
      */
-    private ConveyorTile getNonMetatilingReponse(ConveyorTile tile, boolean tryCache)
-            throws GeoWebCacheException {
+    private ConveyorTile getNonMetatilingReponse(ConveyorTile tile, boolean tryCache,
+            Priority priority) throws GeoWebCacheException {
         // String debugHeadersStr = null;
         long[] gridLoc = tile.getTileIndex();
 
@@ -475,7 +724,7 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
                 tile.setExpiresHeader(GWCVars.CACHE_USE_WMS_BACKEND_VALUE);
             }
 
-            tile = doNonMetatilingRequest(tile);
+            tile = doNonMetatilingRequest(tile, priority);
 
             if (tile.getStatus() > 299
                     || this.getExpireCache((int) gridLoc[2]) != GWCVars.CACHE_DISABLE_CACHE) {
@@ -511,10 +760,21 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
     }
 
     public ConveyorTile doNonMetatilingRequest(ConveyorTile tile) throws GeoWebCacheException {
+        return doNonMetatilingRequest(tile, Priority.INTERACTIVE);
+    }
+
+    private ConveyorTile doNonMetatilingRequest(ConveyorTile tile, Priority priority)
+            throws GeoWebCacheException {
         tile.setTileLayer(this);
 
         ByteArrayResource buffer = getImageBuffer(WMS_BUFFER);
-        sourceHelper.makeRequest(tile, buffer);
+        BackendAdmissionController admission = getAdmissionController();
+        Permit permit = acquireBackend(admission, priority);
+        try {
+            sourceHelper.makeRequest(tile, buffer);
+        } finally {
+            admission.release(permit);
+        }
 
         if (tile.getError() || buffer.getSize() == 0) {
             throw new GeoWebCacheException("Empty tile, error message: " + tile.getErrorMessage());
@@ -524,6 +784,19 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
         return tile;
     }
 
+    /**
+     * Waits for the admission controller to grant a backend slot
+     */
+    private Permit acquireBackend(BackendAdmissionController admission, Priority priority)
+            throws GeoWebCacheException {
+        try {
+            return admission.acquire(priority);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoWebCacheException("Interrupted while waiting for a backend request slot");
+        }
+    }
+
     private ConveyorTile finalizeTile(ConveyorTile tile) {
         if (tile.getStatus() == 0 && !tile.getError()) {
             tile.setStatus(200);
@@ -737,6 +1010,25 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
         return sourceHelper;
     }
 
+    /**
+     * The controller arbitrating backend requests between interactive tile misses and seeding,
+     * allows up to {@code concurrency} requests in flight to the backend.
+     */
+    public BackendAdmissionController getAdmissionController() {
+        BackendAdmissionController controller = admissionController;
+        if (controller == null) {
+            synchronized (this) {
+                controller = admissionController;
+                if (controller == null) {
+                    controller = new BackendAdmissionController(concurrency == null ? 32
+                            : concurrency);
+                    admissionController = controller;
+                }
+            }
+        }
+        return controller;
+    }
+
     public void setVersion(String version) {
         this.wmsVersion = version;
     }
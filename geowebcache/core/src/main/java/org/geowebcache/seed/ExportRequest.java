@@ -0,0 +1,163 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import java.util.Map;
+
+import org.geowebcache.grid.BoundingBox;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * A request to export the cached tiles of a layer to a tile package file, see
+ * {@link TileBreeder#export(ExportRequest)}.
+ * <p>
+ * Only the tiles already in the cache are exported, missing ones are skipped rather than rendered.
+ * </p>
+ */
+@XStreamAlias("exportRequest")
+public class ExportRequest {
+
+    static final int DEFAULT_THREAD_COUNT = 4;
+
+    private String name;
+
+    private String gridSetId;
+
+    private BoundingBox bounds;
+
+    private Integer zoomStart;
+
+    private Integer zoomStop;
+
+    private String format;
+
+    private Map<String, String> parameters;
+
+    private Integer threadCount;
+
+    private String packageFormat;
+
+    private String output;
+
+    private Boolean deduplicate;
+
+    public ExportRequest() {
+        // for XStream
+    }
+
+    /**
+     * @param layerName name of the tile layer
+     * @param gridSetId the grid set to export, or {@code null} for the layer's first one
+     * @param bounds the exported area, or {@code null} for the whole grid subset
+     * @param zoomStart the first zoom level to export
+     * @param zoomStop the last zoom level to export
+     * @param format the MIME format to export, or {@code null} for the layer's first one
+     * @param packageFormat the {@link TilePackageFormat} name, or {@code null} for zip
+     * @param output the package file path relative to the export directory, or {@code null} for a
+     *        new uniquely named file
+     */
+    public ExportRequest(String layerName, String gridSetId, BoundingBox bounds, int zoomStart,
+            int zoomStop, String format, String packageFormat, String output) {
+        this.name = layerName;
+        this.gridSetId = gridSetId;
+        this.bounds = bounds;
+        this.zoomStart = zoomStart;
+        this.zoomStop = zoomStop;
+        this.format = format;
+        this.packageFormat = packageFormat;
+        this.output = output;
+    }
+
+    public String getLayerName() {
+        return name;
+    }
+
+    public void setLayerName(String layerName) {
+        this.name = layerName;
+    }
+
+    public String getGridSetId() {
+        return gridSetId;
+    }
+
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return the first zoom level to export, or {@code null} for the grid subset's first one
+     */
+    public Integer getZoomStart() {
+        return zoomStart;
+    }
+
+    /**
+     * @return the last zoom level to export, or {@code null} for the grid subset's last one
+     */
+    public Integer getZoomStop() {
+        return zoomStop;
+    }
+
+    public String getMimeFormat() {
+        return format;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(Map<String, String> parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return the number of threads reading tiles from the cache, {@code 4} by default
+     */
+    public int getThreadCount() {
+        return threadCount == null || threadCount < 1 ? DEFAULT_THREAD_COUNT : threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return the name of the {@link TilePackageFormat} to export to, {@code zip} by default
+     */
+    public String getPackageFormat() {
+        return packageFormat == null ? ZipTilePackageFormat.NAME : packageFormat;
+    }
+
+    /**
+     * @return the package file path relative to the export directory, or {@code null} to export to
+     *         a new uniquely named file
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * @return whether identical tiles should be stored once in the package, {@code false} by
+     *         default
+     */
+    public boolean isDeduplicate() {
+        return deduplicate != null && deduplicate;
+    }
+
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+}
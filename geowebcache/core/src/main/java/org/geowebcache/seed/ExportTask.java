@@ -0,0 +1,221 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+import org.geowebcache.storage.TileRangeIterator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A GWCTask exporting the cached tiles of a range to a tile package file.
+ * <p>
+ * Tiles are read from the storage broker by several threads and handed over to the task's own
+ * thread, which writes them to the package in batches. Tiles missing from the cache are skipped.
+ * The task creates the package file itself and refuses to run if it already exists, so the only
+ * file it deletes when the export fails or is terminated is the one it created.
+ * </p>
+ */
+public class ExportTask extends GWCTask {
+    private static final Log log = LogFactory.getLog(ExportTask.class);
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final StorageBroker storageBroker;
+
+    private final TileRange tr;
+
+    private final TileLayer tl;
+
+    private final TilePackageFormat packageFormat;
+
+    private final File output;
+
+    private final int readerCount;
+
+    private final boolean deduplicate;
+
+    @VisibleForTesting
+    int batchSize = DEFAULT_BATCH_SIZE;
+
+    private volatile ExecutorService readers;
+
+    ExportTask(StorageBroker sb, TileRange tr, TileLayer tl, TilePackageFormat packageFormat,
+            File output, int readerCount, boolean deduplicate) {
+        this.storageBroker = sb;
+        this.tr = tr;
+        this.tl = tl;
+        this.packageFormat = packageFormat;
+        this.output = output;
+        this.readerCount = readerCount;
+        this.deduplicate = deduplicate;
+
+        super.parsedType = GWCTask.TYPE.EXPORT;
+        super.layerName = tl.getName();
+        super.state = GWCTask.STATE.READY;
+    }
+
+    /**
+     * @return the package file the tiles are exported to
+     */
+    public File getOutput() {
+        return output;
+    }
+
+    @Override
+    protected void doActionInternal() throws GeoWebCacheException, InterruptedException {
+        super.state = GWCTask.STATE.RUNNING;
+        checkInterrupted();
+
+        final long startTime = System.currentTimeMillis();
+        super.tilesTotal = tr.tileCount();
+        super.tilesDone = 0;
+        log.info("Exporting " + tilesTotal + " tiles of layer " + layerName + " to " + output);
+
+        final TileRangeIterator trIter = new TileRangeIterator(tr, new int[] { 1, 1 });
+        final BlockingQueue<TileObject> queue = new ArrayBlockingQueue<TileObject>(2 * batchSize);
+        final AtomicLong visited = new AtomicLong();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        try {
+            if (!output.createNewFile()) {
+                super.state = GWCTask.STATE.DEAD;
+                throw new GeoWebCacheException("Export output " + output + " already exists");
+            }
+        } catch (IOException e) {
+            super.state = GWCTask.STATE.DEAD;
+            throw new GeoWebCacheException("Can't create export output " + output, e);
+        }
+
+        readers = Executors.newFixedThreadPool(readerCount, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("GWC Export Reader " + taskId + "-%d").build());
+        for (int i = 0; i < readerCount; i++) {
+            readers.execute(() -> read(trIter, queue, visited, failure));
+        }
+        readers.shutdown();
+
+        long exported = 0;
+        boolean complete = false;
+        try {
+            try (TilePackageWriter writer = packageFormat.createWriter(output, tl, tr,
+                    deduplicate)) {
+                List<TileObject> batch = new ArrayList<TileObject>(batchSize);
+                while (!terminate && failure.get() == null) {
+                    checkInterrupted();
+                    // checked before polling so no tile queued by a finishing reader is missed
+                    final boolean readersDone = readers.isTerminated();
+                    TileObject tile = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (tile != null) {
+                        batch.add(tile);
+                        queue.drainTo(batch, batchSize - batch.size());
+                    }
+                    final boolean drained = readersDone && tile == null;
+                    if (batch.size() >= batchSize || (drained && !batch.isEmpty())) {
+                        writer.write(batch);
+                        exported += batch.size();
+                        batch.clear();
+                    }
+                    updateStatusInfo(visited.get(), startTime);
+                    if (drained) {
+                        complete = true;
+                        break;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            readers.shutdownNow();
+            if (!complete) {
+                output.delete();
+            }
+        }
+
+        if (failure.get() != null) {
+            super.state = GWCTask.STATE.DEAD;
+            throw new GeoWebCacheException("Export of layer " + layerName + " to " + output
+                    + " failed: " + failure.get().getMessage(), failure.get());
+        }
+        if (this.terminate) {
+            log.info("Export of layer " + layerName + " was terminated after " + tilesDone
+                    + " tiles");
+        } else {
+            log.info("Exported " + exported + " tiles of layer " + layerName + " to " + output
+                    + " in " + timeSpent + " seconds");
+            super.state = GWCTask.STATE.DONE;
+        }
+    }
+
+    /**
+     * Reads the range's tiles until the iterator is exhausted, queueing the cached ones
+     */
+    private void read(TileRangeIterator trIter, BlockingQueue<TileObject> queue,
+            AtomicLong visited, AtomicReference<Exception> failure) {
+        final String gridSetId = tr.getGridSetId();
+        final String format = tr.getMimeType().getFormat();
+        try {
+            long[] gridLoc;
+            while (!terminate && failure.get() == null
+                    && (gridLoc = trIter.nextMetaGridLocation(new long[3])) != null) {
+                TileObject tile = TileObject.createQueryTileObject(layerName, gridLoc, gridSetId,
+                        format, tr.getParameters());
+                if (storageBroker.get(tile)) {
+                    queue.put(tile);
+                }
+                visited.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private void updateStatusInfo(long tilesCount, long startTime) {
+        this.tilesDone = tilesCount;
+        this.timeSpent = (System.currentTimeMillis() - startTime) / 1000;
+        if (tilesCount > 0) {
+            long timeTotal = Math.round((double) timeSpent * tilesTotal / tilesCount);
+            this.timeRemaining = timeTotal - timeSpent;
+        }
+    }
+
+    @Override
+    protected void dispose() {
+        ExecutorService readers = this.readers;
+        if (readers != null) {
+            readers.shutdownNow();
+        }
+    }
+}
@@ -30,7 +30,7 @@ public abstract class GWCTask {
     private static final Log log = LogFactory.getLog(GWCTask.class);
 
     public static enum TYPE {
-        UNSET, SEED, RESEED, TRUNCATE
+        UNSET, SEED, RESEED, TRUNCATE, EXPORT, IMPORT
     };
 
     public static enum STATE {
@@ -43,6 +43,11 @@ public abstract class GWCTask {
      */
     protected AtomicInteger sharedThreadCount = new AtomicInteger();
 
+    /**
+     * Type of the task run by each thread, while it runs it
+     */
+    private static final ThreadLocal<TYPE> CURRENT_TYPE = new ThreadLocal<TYPE>();
+
     protected int threadOffset = 0;
 
     long taskId = -1;
@@ -72,9 +77,11 @@ public abstract class GWCTask {
     public final void doAction() throws GeoWebCacheException, InterruptedException {
         this.sharedThreadCount.incrementAndGet();
         this.groupStartTime = System.currentTimeMillis();
+        CURRENT_TYPE.set(parsedType);
         try {
             doActionInternal();
         } finally {
+            CURRENT_TYPE.remove();
             dispose();
             int membersRemaining = this.sharedThreadCount.decrementAndGet();
             if (0 == membersRemaining) {
@@ -87,6 +94,14 @@ public abstract class GWCTask {
 
     protected abstract void dispose();
 
+    /**
+     * @return the type of the task the calling thread is running, or {@code null} if it isn't
+     *         running one; lets the storage layers tell seeding writes from interactive ones
+     */
+    public static TYPE currentType() {
+        return CURRENT_TYPE.get();
+    }
+
     /**
      * Extension point for subclasses to do what they do
      */
@@ -0,0 +1,120 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import java.util.Map;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * A request to import the tiles of a tile package file into the cache of a layer, see
+ * {@link TileBreeder#importTiles(ImportRequest)}.
+ * <p>
+ * The package tiles must be aligned with the requested grid set, those outside of the layer's grid
+ * subset are skipped.
+ * </p>
+ */
+@XStreamAlias("importRequest")
+public class ImportRequest {
+
+    static final int DEFAULT_THREAD_COUNT = 4;
+
+    private String name;
+
+    private String gridSetId;
+
+    private String format;
+
+    private Map<String, String> parameters;
+
+    private Integer threadCount;
+
+    private String packageFormat;
+
+    private String input;
+
+    public ImportRequest() {
+        // for XStream
+    }
+
+    /**
+     * @param layerName name of the tile layer
+     * @param gridSetId the grid set the package tiles are in, or {@code null} for the layer's
+     *        first one, only allowed for package formats that
+     *        {@link TilePackageFormat#declaresGridSet() declare their grid set}
+     * @param format the MIME format of the package tiles, or {@code null} for the layer's first one
+     * @param packageFormat the {@link TilePackageFormat} name, or {@code null} to pick it from the
+     *        input file extension
+     * @param input the package file path on the server
+     */
+    public ImportRequest(String layerName, String gridSetId, String format, String packageFormat,
+            String input) {
+        this.name = layerName;
+        this.gridSetId = gridSetId;
+        this.format = format;
+        this.packageFormat = packageFormat;
+        this.input = input;
+    }
+
+    public String getLayerName() {
+        return name;
+    }
+
+    public void setLayerName(String layerName) {
+        this.name = layerName;
+    }
+
+    public String getGridSetId() {
+        return gridSetId;
+    }
+
+    public String getMimeFormat() {
+        return format;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(Map<String, String> parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return the number of threads storing tiles, {@code 4} by default
+     */
+    public int getThreadCount() {
+        return threadCount == null || threadCount < 1 ? DEFAULT_THREAD_COUNT : threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return the name of the {@link TilePackageFormat} to import from, or {@code null} to pick
+     *         the one whose file extension matches the input file
+     */
+    public String getPackageFormat() {
+        return packageFormat;
+    }
+
+    /**
+     * @return the package file path on the server
+     */
+    public String getInput() {
+        return input;
+    }
+}
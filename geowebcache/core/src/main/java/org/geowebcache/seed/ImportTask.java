@@ -0,0 +1,225 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.grid.Grid;
+import org.geowebcache.grid.GridSet;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A GWCTask importing the tiles of a tile package file into the cache.
+ * <p>
+ * The package is read sequentially by the task's own thread, and each batch of tiles is handed
+ * over to one of several threads storing it with {@link StorageBroker#putAll(List)}, so blob stores
+ * can write it in a single transaction and notify the disk quota of the whole batch at once.
+ * </p>
+ * <p>
+ * Packages declaring their grid, like MBTiles ones, are checked against the grid subset before
+ * reading any tile. A tile whose index lies outside of the grid set levels aborts the import, as
+ * the package was obviously rendered for another grid set. Tiles outside of the layer's grid
+ * subset are skipped.
+ * </p>
+ */
+public class ImportTask extends GWCTask {
+    private static final Log log = LogFactory.getLog(ImportTask.class);
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final StorageBroker storageBroker;
+
+    private final TileRange tr;
+
+    private final TileLayer tl;
+
+    private final TilePackageFormat packageFormat;
+
+    private final File input;
+
+    private final int writerCount;
+
+    @VisibleForTesting
+    int batchSize = DEFAULT_BATCH_SIZE;
+
+    private volatile ExecutorService writers;
+
+    private long skipped;
+
+    ImportTask(StorageBroker sb, TileRange tr, TileLayer tl, TilePackageFormat packageFormat,
+            File input, int writerCount) {
+        this.storageBroker = sb;
+        this.tr = tr;
+        this.tl = tl;
+        this.packageFormat = packageFormat;
+        this.input = input;
+        this.writerCount = writerCount;
+
+        super.parsedType = GWCTask.TYPE.IMPORT;
+        super.layerName = tl.getName();
+        super.state = GWCTask.STATE.READY;
+    }
+
+    /**
+     * @return the package file the tiles are imported from
+     */
+    public File getInput() {
+        return input;
+    }
+
+    /**
+     * @return the number of package tiles skipped so far because they are outside of the layer's
+     *         grid subset
+     */
+    public long getTilesSkipped() {
+        return skipped;
+    }
+
+    @Override
+    protected void doActionInternal() throws GeoWebCacheException, InterruptedException {
+        super.state = GWCTask.STATE.RUNNING;
+        checkInterrupted();
+
+        final long startTime = System.currentTimeMillis();
+        final GridSubset gridSubset = tl.getGridSubset(tr.getGridSetId());
+        final GridSet gridSet = gridSubset.getGridSet();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        // bounds the batches read ahead of the writers
+        final Semaphore pending = new Semaphore(2 * writerCount);
+
+        writers = Executors.newFixedThreadPool(writerCount, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("GWC Import Writer " + taskId + "-%d").build());
+        long read = 0;
+        try (TilePackageReader reader = packageFormat.createReader(input, tl, tr)) {
+            reader.checkGridSubset(gridSubset);
+            super.tilesTotal = reader.getTileCount();
+            super.tilesDone = 0;
+            log.info("Importing tiles from " + input + " into layer " + layerName);
+
+            List<TileObject> batch;
+            while (!terminate && failure.get() == null
+                    && !(batch = reader.read(batchSize)).isEmpty()) {
+                checkInterrupted();
+                read += batch.size();
+                final List<TileObject> accepted = accept(batch, gridSet);
+                skipped += batch.size() - accepted.size();
+                if (!accepted.isEmpty()) {
+                    pending.acquire();
+                    writers.execute(() -> {
+                        try {
+                            storageBroker.putAll(accepted);
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            pending.release();
+                        }
+                    });
+                }
+                updateStatusInfo(read, startTime);
+            }
+            writers.shutdown();
+            while (!writers.awaitTermination(1, TimeUnit.SECONDS)) {
+                checkInterrupted();
+            }
+        } catch (IOException e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            writers.shutdownNow();
+        }
+
+        if (failure.get() != null) {
+            super.state = GWCTask.STATE.DEAD;
+            throw new GeoWebCacheException("Import of " + input + " into layer " + layerName
+                    + " failed: " + failure.get().getMessage(), failure.get());
+        }
+        if (this.terminate) {
+            log.info("Import into layer " + layerName + " was terminated after " + tilesDone
+                    + " tiles");
+        } else {
+            updateStatusInfo(read, startTime);
+            log.info("Imported " + (read - skipped) + " tiles from " + input + " into layer "
+                    + layerName + " in " + timeSpent + " seconds, skipped " + skipped
+                    + " tiles outside of the grid subset");
+            super.state = GWCTask.STATE.DONE;
+        }
+    }
+
+    /**
+     * @return the tiles within the import range
+     * @throws GeoWebCacheException if a tile doesn't fit the grid set
+     */
+    private List<TileObject> accept(List<TileObject> tiles, GridSet gridSet)
+            throws GeoWebCacheException {
+        List<TileObject> accepted = new ArrayList<TileObject>(tiles.size());
+        for (TileObject tile : tiles) {
+            long[] xyz = tile.getXYZ();
+            if (!isAligned(xyz, gridSet)) {
+                super.state = GWCTask.STATE.DEAD;
+                throw new GeoWebCacheException("Tile " + Arrays.toString(xyz) + " of " + input
+                        + " is not aligned with grid set " + gridSet.getName() + " of layer "
+                        + layerName);
+            }
+            if (tr.contains(xyz)) {
+                accepted.add(tile);
+            }
+        }
+        return accepted;
+    }
+
+    private static boolean isAligned(long[] xyz, GridSet gridSet) {
+        if (xyz[2] < 0 || xyz[2] >= gridSet.getNumLevels()) {
+            return false;
+        }
+        Grid grid = gridSet.getGrid((int) xyz[2]);
+        return xyz[0] >= 0 && xyz[0] < grid.getNumTilesWide() && xyz[1] >= 0
+                && xyz[1] < grid.getNumTilesHigh();
+    }
+
+    private void updateStatusInfo(long tilesCount, long startTime) {
+        this.tilesDone = tilesCount;
+        this.timeSpent = (System.currentTimeMillis() - startTime) / 1000;
+        if (tilesCount > 0 && tilesTotal > 0) {
+            long timeTotal = Math.round((double) timeSpent * tilesTotal / tilesCount);
+            this.timeRemaining = timeTotal - timeSpent;
+        }
+    }
+
+    @Override
+    protected void dispose() {
+        ExecutorService writers = this.writers;
+        if (writers != null) {
+            writers.shutdownNow();
+        }
+    }
+}
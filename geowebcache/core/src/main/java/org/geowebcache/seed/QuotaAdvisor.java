@@ -0,0 +1,32 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+/**
+ * Extension point telling {@link SeedEstimator} how much disk space a layer may still use before
+ * its tiles start being evicted.
+ * <p>
+ * Implementations are looked up in the application context, the lowest available space wins.
+ * </p>
+ */
+public interface QuotaAdvisor {
+
+    /**
+     * @param layerName
+     *            the layer about to be seeded
+     * @return the number of bytes the layer may still use, or {@code null} if it's not limited
+     */
+    Long getAvailableBytes(String layerName);
+}
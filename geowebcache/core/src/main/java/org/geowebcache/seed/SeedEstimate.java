@@ -0,0 +1,233 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geowebcache.layer.wms.MetaTileSample;
+
+/**
+ * The projected cost of a seed request, extrapolated by {@link SeedEstimator} from a few sampled
+ * meta tiles per zoom level.
+ */
+public class SeedEstimate {
+
+    /**
+     * The projected cost of seeding a single zoom level
+     */
+    public static class Level {
+
+        private int zoom;
+
+        private long tiles;
+
+        private long metaTiles;
+
+        private int sampledMetaTiles;
+
+        private long sampledTiles;
+
+        private double backendMillisPerMetaTile;
+
+        private double encodeMillisPerTile;
+
+        private double bytesPerTile;
+
+        private double emptyTileRatio;
+
+        private long projectedBytes;
+
+        private long projectedMillis;
+
+        Level(int zoom, long tiles, long metaTiles) {
+            this.zoom = zoom;
+            this.tiles = tiles;
+            this.metaTiles = metaTiles;
+        }
+
+        /**
+         * Aggregates the measures of the sampled meta tiles and extrapolates them to the whole
+         * level
+         */
+        void setSamples(List<MetaTileSample> samples) {
+            long backendNanos = 0;
+            long encodeNanos = 0;
+            long uniform = 0;
+            long bytes = 0;
+            sampledMetaTiles = samples.size();
+            sampledTiles = 0;
+            for (MetaTileSample sample : samples) {
+                backendNanos += sample.getBackendNanos();
+                encodeNanos += sample.getEncodeNanos();
+                sampledTiles += sample.getTiles();
+                uniform += sample.getUniformTiles();
+                bytes += sample.getBytes();
+            }
+            if (sampledMetaTiles > 0) {
+                backendMillisPerMetaTile = backendNanos / 1e6 / sampledMetaTiles;
+            }
+            if (sampledTiles > 0) {
+                encodeMillisPerTile = encodeNanos / 1e6 / sampledTiles;
+                bytesPerTile = (double) bytes / sampledTiles;
+                emptyTileRatio = (double) uniform / sampledTiles;
+            }
+            projectedBytes = (long) Math.ceil(bytesPerTile * tiles);
+            projectedMillis = (long) Math.ceil(backendMillisPerMetaTile * metaTiles
+                    + encodeMillisPerTile * tiles);
+        }
+
+        public int getZoom() {
+            return zoom;
+        }
+
+        /**
+         * @return the number of tiles to seed at this level, or {@code -1} if unknown
+         */
+        public long getTiles() {
+            return tiles;
+        }
+
+        /**
+         * @return the estimated number of meta tiles to request at this level
+         */
+        public long getMetaTiles() {
+            return metaTiles;
+        }
+
+        public int getSampledMetaTiles() {
+            return sampledMetaTiles;
+        }
+
+        public long getSampledTiles() {
+            return sampledTiles;
+        }
+
+        public double getBackendMillisPerMetaTile() {
+            return backendMillisPerMetaTile;
+        }
+
+        public double getEncodeMillisPerTile() {
+            return encodeMillisPerTile;
+        }
+
+        public double getBytesPerTile() {
+            return bytesPerTile;
+        }
+
+        /**
+         * @return the ratio of sampled tiles that are blank or fully transparent
+         */
+        public double getEmptyTileRatio() {
+            return emptyTileRatio;
+        }
+
+        public long getProjectedBytes() {
+            return projectedBytes;
+        }
+
+        /**
+         * @return the projected single threaded seeding time of this level
+         */
+        public long getProjectedMillis() {
+            return projectedMillis;
+        }
+    }
+
+    private String layerName;
+
+    private String gridSetId;
+
+    private String format;
+
+    private List<Level> levels = new ArrayList<Level>();
+
+    private long tiles;
+
+    private long projectedBytes;
+
+    private long projectedMillis;
+
+    private Long availableBytes;
+
+    private boolean quotaExceeded;
+
+    SeedEstimate(String layerName, String gridSetId, String format) {
+        this.layerName = layerName;
+        this.gridSetId = gridSetId;
+        this.format = format;
+    }
+
+    void addLevel(Level level) {
+        levels.add(level);
+        if (level.tiles > 0) {
+            tiles += level.tiles;
+        }
+        projectedBytes += level.projectedBytes;
+        projectedMillis += level.projectedMillis;
+    }
+
+    void setAvailableBytes(Long availableBytes) {
+        this.availableBytes = availableBytes;
+        this.quotaExceeded = availableBytes != null && projectedBytes > availableBytes;
+    }
+
+    public String getLayerName() {
+        return layerName;
+    }
+
+    public String getGridSetId() {
+        return gridSetId;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public List<Level> getLevels() {
+        return levels;
+    }
+
+    public long getTiles() {
+        return tiles;
+    }
+
+    public long getProjectedBytes() {
+        return projectedBytes;
+    }
+
+    /**
+     * @return the projected single threaded seeding time, divide by the number of seeding threads
+     *         for a rough wall clock time
+     */
+    public long getProjectedMillis() {
+        return projectedMillis;
+    }
+
+    /**
+     * @return the disk space left to the layer by the disk quota, or {@code null} if it's not
+     *         limited
+     */
+    public Long getAvailableBytes() {
+        return availableBytes;
+    }
+
+    /**
+     * @return whether seeding is projected to use more than {@link #getAvailableBytes()}
+     */
+    public boolean isQuotaExceeded() {
+        return quotaExceeded;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.layer.wms.MetaTileSample;
+import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.storage.TileRange;
+
+/**
+ * Dry runs a seed request: renders and encodes a few meta tiles per zoom level without storing
+ * them, and extrapolates the backend time, encoding time and disk usage of the whole request.
+ * <p>
+ * Only {@link WMSLayer WMS layers} are sampled, other layers get tile counts only. The projected
+ * disk usage is checked against the space the registered {@link QuotaAdvisor}s leave to the layer.
+ * </p>
+ */
+public class SeedEstimator {
+
+    private static Log log = LogFactory.getLog(SeedEstimator.class);
+
+    /**
+     * How many random positions are tried per requested sample before giving up on a sparse range
+     */
+    static final int ATTEMPTS_PER_SAMPLE = 20;
+
+    private final TileBreeder breeder;
+
+    private final List<QuotaAdvisor> quotaAdvisors;
+
+    /**
+     * Creates an estimator checking projections against the {@link QuotaAdvisor}s found in the
+     * application context
+     */
+    public SeedEstimator(TileBreeder breeder) {
+        this(breeder, GeoWebCacheExtensions.extensions(QuotaAdvisor.class));
+    }
+
+    public SeedEstimator(TileBreeder breeder, List<QuotaAdvisor> quotaAdvisors) {
+        this.breeder = breeder;
+        this.quotaAdvisors = quotaAdvisors;
+    }
+
+    /**
+     * @param layerName
+     *            the layer to seed
+     * @param req
+     *            the seed request, only its first format is estimated
+     * @param samples
+     *            how many meta tiles to sample per zoom level
+     * @throws IllegalArgumentException
+     *             if the request is invalid
+     */
+    public SeedEstimate estimate(final String layerName, final SeedRequest req, final int samples)
+            throws GeoWebCacheException {
+        if (samples < 0) {
+            throw new IllegalArgumentException("The number of samples can't be negative");
+        }
+        final TileLayer tl = breeder.findTileLayer(layerName);
+        final TileRange tr = TileBreeder.createTileRange(req, tl);
+        final int[] metaFactors = tl.getMetaTilingFactors();
+
+        SeedEstimate estimate = new SeedEstimate(layerName, tr.getGridSetId(), tr.getMimeType()
+                .getFormat());
+        for (int z = tr.getZoomStart(); z <= tr.getZoomStop(); z++) {
+            final long[] bounds = tr.rangeBounds(z);
+            if (bounds == null) {
+                continue;
+            }
+            final long tiles = tr.tileCount(z);
+            SeedEstimate.Level level = new SeedEstimate.Level(z, tiles, metaTileCount(bounds,
+                    tiles, metaFactors));
+            if (tl instanceof WMSLayer && tiles > 0) {
+                level.setSamples(sample((WMSLayer) tl, tr, z, samples));
+            } else {
+                level.setSamples(new ArrayList<MetaTileSample>());
+            }
+            estimate.addLevel(level);
+        }
+        estimate.setAvailableBytes(getAvailableBytes(layerName));
+        return estimate;
+    }
+
+    /**
+     * Counts the meta tiles covering the range bounds, scaled down by the ratio of tiles actually in
+     * range when the range is not a rectangle
+     */
+    static long metaTileCount(final long[] bounds, final long tiles, final int[] metaFactors) {
+        final long width = 1 + bounds[2] - bounds[0];
+        final long height = 1 + bounds[3] - bounds[1];
+        // meta tiles are aligned on multiples of the meta tiling factors
+        long metaTiles = (1 + bounds[2] / metaFactors[0] - bounds[0] / metaFactors[0])
+                * (1 + bounds[3] / metaFactors[1] - bounds[1] / metaFactors[1]);
+        if (tiles >= 0 && tiles < width * height) {
+            metaTiles = (long) Math.ceil((double) metaTiles * tiles / (width * height));
+        }
+        return metaTiles;
+    }
+
+    private List<MetaTileSample> sample(final WMSLayer layer, final TileRange tr, final int z,
+            final int samples) throws GeoWebCacheException {
+        final long[] bounds = tr.rangeBounds(z);
+        final int[] metaFactors = layer.getMetaTilingFactors();
+        final Map<String, String> parameters = tr.getParameters();
+        // the same positions for the same request, so estimates can be compared
+        final Random random = new Random(z);
+
+        List<MetaTileSample> results = new ArrayList<MetaTileSample>();
+        Set<List<Long>> sampled = new HashSet<List<Long>>();
+        for (int attempt = 0; attempt < samples * ATTEMPTS_PER_SAMPLE
+                && results.size() < samples; attempt++) {
+            long x = bounds[0] + (long) (random.nextDouble() * (1 + bounds[2] - bounds[0]));
+            long y = bounds[1] + (long) (random.nextDouble() * (1 + bounds[3] - bounds[1]));
+            if (!tr.contains(x, y, z)) {
+                continue;
+            }
+            x -= x % metaFactors[0];
+            y -= y % metaFactors[1];
+            if (!sampled.add(Arrays.asList(x, y))) {
+                continue;
+            }
+            ConveyorTile tile = new ConveyorTile(breeder.getStorageBroker(), layer.getName(),
+                    tr.getGridSetId(), new long[] { x, y, z }, tr.getMimeType(), parameters,
+                    null, null);
+            MetaTileSample result = layer.sampleMetaTile(tile, tr);
+            if (result == null) {
+                // format can't be sampled, no point in trying other positions
+                break;
+            }
+            results.add(result);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Sampled " + results.size() + " meta tiles of layer " + layer.getName()
+                    + " at zoom level " + z);
+        }
+        return results;
+    }
+
+    private Long getAvailableBytes(final String layerName) {
+        Long available = null;
+        for (QuotaAdvisor advisor : quotaAdvisors) {
+            Long bytes = advisor.getAvailableBytes(layerName);
+            if (bytes != null && (available == null || bytes < available)) {
+                available = bytes;
+            }
+        }
+        return available;
+    }
+}
@@ -17,6 +17,8 @@
  */
 package org.geowebcache.seed;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -35,6 +37,8 @@ public class SeedRequest {
 
     private BoundingBox bounds = null;
 
+    private String geometry = null;
+
     private String gridSetId;
 
     private SRS srs;
@@ -47,6 +51,8 @@ public class SeedRequest {
 
     private String format = null;
 
+    private List<String> formats = null;
+
     private String type = null; //  TODO: This appears to do nothing as it is never changed from being null
 
     private TYPE enumType = null;
@@ -88,6 +94,35 @@ public class SeedRequest {
         this.parameters = parameters;
     }
 
+    /**
+     * Create a new SeedRequest limited to the tiles intersecting a geometry
+     * 
+     * @param geometry a WKT or GeoJSON polygonal geometry in the grid set's CRS, or {@code null}
+     * @see #SeedRequest(String, BoundingBox, String, int, int, int, String, TYPE, Map)
+     */
+    public SeedRequest(String layerName, BoundingBox bounds, String geometry, String gridSetId,
+            int threadCount, int zoomStart, int zoomStop, String mimeFormat, GWCTask.TYPE type,
+            Map<String, String> parameters) {
+        this(layerName, bounds, gridSetId, threadCount, zoomStart, zoomStop, mimeFormat, type,
+                parameters);
+        this.geometry = geometry;
+    }
+
+    /**
+     * Create a new SeedRequest for several formats at once
+     * 
+     * @param formats the MIME formats to seed besides {@code mimeFormat}, each meta tile is
+     *        requested once and encoded in every format
+     * @see #SeedRequest(String, BoundingBox, String, String, int, int, int, String, TYPE, Map)
+     */
+    public SeedRequest(String layerName, BoundingBox bounds, String geometry, String gridSetId,
+            int threadCount, int zoomStart, int zoomStop, String mimeFormat, List<String> formats,
+            GWCTask.TYPE type, Map<String, String> parameters) {
+        this(layerName, bounds, geometry, gridSetId, threadCount, zoomStart, zoomStop,
+                mimeFormat, type, parameters);
+        this.formats = formats;
+    }
+
     /**
      * Method returns the name of the tileLayer that was requested
      * 
@@ -106,6 +141,15 @@ public class SeedRequest {
         return this.bounds;
     }
 
+    /**
+     * Method gets the geometry limiting the requested region, if any
+     * 
+     * @return a WKT or GeoJSON polygonal geometry in the grid set's CRS, or {@code null}
+     */
+    public String getGeometry() {
+        return this.geometry;
+    }
+
     /**
      * Whether any request filters should be updated after this seed request completes.
      * 
@@ -119,6 +163,10 @@ public class SeedRequest {
         }
     }
 
+    public void setFilterUpdate(boolean filterUpdate) {
+        this.filterUpdate = filterUpdate;
+    }
+
     /**
      * Method returns the grid set id for this request
      * 
@@ -137,6 +185,19 @@ public class SeedRequest {
         return this.format;
     }
 
+    /**
+     * Method returns the additional MIME formats requested, if the request has no
+     * {@link #getMimeFormat() format} the first one is used in its place
+     * 
+     * @return the formats in String form, possibly empty
+     */
+    public List<String> getMimeFormats() {
+        if (this.formats == null) {
+            return Collections.emptyList();
+        }
+        return this.formats;
+    }
+
     /**
      * Used to handle 1.1.x-style seed requests
      * 
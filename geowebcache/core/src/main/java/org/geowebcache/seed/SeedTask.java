@@ -18,6 +18,7 @@
 package org.geowebcache.seed;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@ import org.geowebcache.conveyor.ConveyorTile;
 import org.geowebcache.filter.request.RequestFilter;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.mime.MimeType;
 import org.geowebcache.storage.StorageBroker;
 import org.geowebcache.storage.TileRange;
 import org.geowebcache.storage.TileRangeIterator;
@@ -61,6 +63,8 @@ class SeedTask extends GWCTask {
     private long totalFailuresBeforeAborting;
 
     private AtomicLong sharedFailureCounter;
+
+    private List<MimeType> additionalFormats = Collections.emptyList();
     
     @VisibleForTesting
     Sleeper sleeper = Thread::sleep;
@@ -115,8 +119,8 @@ class SeedTask extends GWCTask {
         TileRange tr = trIter.getTileRange();
 
         checkInterrupted();
-        // TODO move to TileRange object, or distinguish between thread and task
-        super.tilesTotal = tileCount(tr);
+        // TODO distinguish between thread and task
+        super.tilesTotal = tr.tileCount();
 
         final int metaTilingFactorX = tl.getMetaTilingFactors()[0];
         final int metaTilingFactorY = tl.getMetaTilingFactors()[1];
@@ -138,7 +142,11 @@ class SeedTask extends GWCTask {
             for (int fetchAttempt = 0; fetchAttempt <= tileFailureRetryCount; fetchAttempt++) {
                 try {
                     checkInterrupted();
-                    tl.seedTile(tile, tryCache);
+                    if (additionalFormats.isEmpty()) {
+                        tl.seedTile(tile, tryCache);
+                    } else {
+                        tl.seedTile(tile, tryCache, additionalFormats);
+                    }
                     break;// success, let it go
                 } catch (Exception e) {
                     // if GWC_SEED_RETRY_COUNT was not set then none of the settings have effect, in
@@ -223,39 +231,6 @@ class SeedTask extends GWCTask {
         return Thread.currentThread().getName();
     }
 
-    /**
-     * helper for counting the number of tiles
-     * 
-     * @param tr
-     * @return -1 if too many
-     */
-    private long tileCount(TileRange tr) {
-
-        final int startZoom = tr.getZoomStart();
-        final int stopZoom = tr.getZoomStop();
-
-        long count = 0;
-
-        for (int z = startZoom; z <= stopZoom; z++) {
-            long[] gridBounds = tr.rangeBounds(z);
-
-            final long minx = gridBounds[0];
-            final long maxx = gridBounds[2];
-            final long miny = gridBounds[1];
-            final long maxy = gridBounds[3];
-
-            long thisLevel = (1 + maxx - minx) * (1 + maxy - miny);
-
-            if (thisLevel > (Long.MAX_VALUE / 4) && z != stopZoom) {
-                return -1;
-            } else {
-                count += thisLevel;
-            }
-        }
-
-        return count;
-    }
-
     /**
      * Helper method to update the members tracking thread progress.
      * 
@@ -309,6 +284,14 @@ class SeedTask extends GWCTask {
         this.sharedFailureCounter = sharedFailureCounter;
     }
 
+    /**
+     * @param additionalFormats formats to encode each seeded meta tile in besides the tile range's
+     *        one
+     */
+    public void setAdditionalFormats(List<MimeType> additionalFormats) {
+        this.additionalFormats = additionalFormats;
+    }
+
     @Override
     protected void dispose() {
         if (tl instanceof WMSLayer) {
@@ -18,6 +18,9 @@
  */
 package org.geowebcache.seed;
 
+import java.awt.Shape;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -29,6 +32,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -39,6 +43,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.GeoWebCacheExtensions;
 import org.geowebcache.grid.BoundingBox;
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.grid.SRS;
@@ -48,10 +53,14 @@ import org.geowebcache.mime.MimeException;
 import org.geowebcache.mime.MimeType;
 import org.geowebcache.seed.GWCTask.STATE;
 import org.geowebcache.seed.GWCTask.TYPE;
+import org.geowebcache.storage.DiscontinuousTileRange;
+import org.geowebcache.storage.ShapeRasterMask;
 import org.geowebcache.storage.StorageBroker;
 import org.geowebcache.storage.TileRange;
 import org.geowebcache.storage.TileRangeIterator;
+import org.geowebcache.storage.TileRangeMask;
 import org.geowebcache.util.GWCVars;
+import org.geowebcache.util.GeometryParser;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanInitializationException;
 import org.springframework.context.ApplicationContext;
@@ -96,6 +105,11 @@ import org.springframework.context.ApplicationContextAware;
  * {@code export GWC_SEED_ABORT_LIMIT=2000; <your usual command to run GWC here>}
  * </ol>
  * </p>
+ * <p>
+ * Exported tile packages are written under the directory given by the {@code GWC_EXPORT_DIR}
+ * variable, established the same ways, which defaults to a {@code geowebcache-export} directory in
+ * the temporary directory.
+ * </p>
  * 
  * @author Gabriel Roldan, based on Marius Suta's and Arne Kepp's SeedRestlet
  */
@@ -106,6 +120,8 @@ public class TileBreeder implements ApplicationContextAware {
 
     private static final String GWC_SEED_RETRY_COUNT = "GWC_SEED_RETRY_COUNT";
 
+    private static final String GWC_EXPORT_DIR = "GWC_EXPORT_DIR";
+
     private static Log log = LogFactory.getLog(TileBreeder.class);
 
     private ThreadPoolExecutor threadPool;
@@ -130,6 +146,12 @@ public class TileBreeder implements ApplicationContextAware {
      */
     private long totalFailuresBeforeAborting = 1000;
 
+    /**
+     * The directory tile packages are exported to
+     */
+    private File exportDirectory = new File(System.getProperty("java.io.tmpdir"),
+            "geowebcache-export");
+
     private Map<Long, SubmittedTask> currentPool = new TreeMap<Long, SubmittedTask>();
 
     private AtomicLong currentId = new AtomicLong();
@@ -170,6 +192,18 @@ public class TileBreeder implements ApplicationContextAware {
         checkPositive(tileFailureRetryCount, GWC_SEED_RETRY_COUNT);
         checkPositive(tileFailureRetryWaitTime, GWC_SEED_RETRY_WAIT);
         checkPositive(totalFailuresBeforeAborting, GWC_SEED_ABORT_LIMIT);
+
+        String exportDir = GWCVars.findEnvVar(applicationContext, GWC_EXPORT_DIR);
+        if (exportDir != null) {
+            exportDirectory = new File(exportDir);
+        }
+    }
+
+    /**
+     * @param exportDirectory the directory tile packages are exported to
+     */
+    public void setExportDirectory(File exportDirectory) {
+        this.exportDirectory = exportDirectory;
     }
 
     @SuppressWarnings("serial")
@@ -208,13 +242,246 @@ public class TileBreeder implements ApplicationContextAware {
         TileLayer tl = findTileLayer(layerName);
 
         TileRange tr = createTileRange(sr, tl);
+        if (log.isInfoEnabled()) {
+            log.info(sr.getType() + " request for layer " + layerName + " covers "
+                    + tr.tileCount() + " tiles");
+        }
+        List<MimeType> additionalFormats = getAdditionalFormats(sr, tr);
+
+        if (sr.getType() == TYPE.TRUNCATE) {
+            // there is nothing to share between formats when truncating
+            dispatchTasks(createTasks(tr, tl, sr.getType(), sr.getThreadCount(),
+                    sr.getFilterUpdate()));
+            for (MimeType format : additionalFormats) {
+                TileRange formatRange = createTileRange(sr, tl, format);
+                dispatchTasks(createTasks(formatRange, tl, sr.getType(), sr.getThreadCount(),
+                        sr.getFilterUpdate()));
+            }
+            return;
+        }
 
         GWCTask[] tasks = createTasks(tr, tl, sr.getType(), sr.getThreadCount(),
-                sr.getFilterUpdate());
+                sr.getFilterUpdate(), additionalFormats);
 
         dispatchTasks(tasks);
     }
 
+    /**
+     * Create and dispatch a task exporting the cached tiles of a layer to a tile package file
+     * 
+     * @param req the export request
+     * @return the dispatched task, whose {@link ExportTask#getOutput() output} is the package file
+     * @throws IllegalArgumentException if the package format is unknown, or the output path is not
+     *         a new file inside the export directory
+     * @throws GeoWebCacheException if the layer or grid set are unknown or the package file can't
+     *         be created
+     */
+    public ExportTask export(final ExportRequest req) throws GeoWebCacheException {
+        TileLayer tl = findTileLayer(req.getLayerName());
+        TilePackageFormat packageFormat = getPackageFormat(req.getPackageFormat());
+        TileRange tr = createTileRange(req, tl);
+
+        File output = resolveExportOutput(req.getOutput(), packageFormat);
+        if (log.isInfoEnabled()) {
+            log.info("Export request for layer " + tl.getName() + " covers " + tr.tileCount()
+                    + " tiles, exporting to " + output);
+        }
+
+        ExportTask task = new ExportTask(storageBroker, tr, tl, packageFormat, output,
+                req.getThreadCount(), req.isDeduplicate());
+        task.setThreadInfo(new AtomicInteger(), 0);
+        dispatchTasks(new GWCTask[] { task });
+        return task;
+    }
+
+    /**
+     * Resolve the package file of an export inside the export directory.
+     * <p>
+     * The output comes from the request body, so it must be a relative path without {@code ..}
+     * segments, and it must not name an existing file: exports never overwrite or delete files
+     * they did not create.
+     * </p>
+     * 
+     * @param output the requested path relative to the export directory, or {@code null} for a
+     *        new uniquely named file
+     */
+    File resolveExportOutput(String output, TilePackageFormat packageFormat)
+            throws GeoWebCacheException {
+        if (output == null) {
+            output = "gwc-export-" + UUID.randomUUID() + "." + packageFormat.getFileExtension();
+        }
+        if (new File(output).isAbsolute()) {
+            throw new IllegalArgumentException("Export output " + output
+                    + " must be a path relative to the export directory");
+        }
+        for (String segment : output.split("[/\\\\]")) {
+            if ("..".equals(segment)) {
+                throw new IllegalArgumentException("Export output " + output
+                        + " must not contain '..'");
+            }
+        }
+        File file = new File(exportDirectory, output);
+        try {
+            // catches links pointing out of the export directory
+            String dir = exportDirectory.getCanonicalPath() + File.separator;
+            if (!file.getCanonicalPath().startsWith(dir)) {
+                throw new IllegalArgumentException("Export output " + output
+                        + " is outside the export directory");
+            }
+        } catch (IOException e) {
+            throw new GeoWebCacheException(e);
+        }
+        if (file.exists()) {
+            throw new IllegalArgumentException("Export output " + output + " already exists");
+        }
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new GeoWebCacheException("Can't create export directory " + parent);
+        }
+        return file;
+    }
+
+    /**
+     * Create and dispatch a task importing the tiles of a tile package file into the cache of a
+     * layer
+     * 
+     * @param req the import request
+     * @return the dispatched task
+     * @throws IllegalArgumentException if the package format is unknown or the input file doesn't
+     *         exist
+     * @throws GeoWebCacheException if the layer or grid set are unknown
+     */
+    public ImportTask importTiles(final ImportRequest req) throws GeoWebCacheException {
+        TileLayer tl = findTileLayer(req.getLayerName());
+        if (req.getInput() == null || !new File(req.getInput()).isFile()) {
+            throw new IllegalArgumentException("Tile package " + req.getInput()
+                    + " does not exist");
+        }
+        File input = new File(req.getInput());
+        TilePackageFormat packageFormat;
+        if (req.getPackageFormat() == null) {
+            packageFormat = getPackageFormat(input);
+        } else {
+            packageFormat = getPackageFormat(req.getPackageFormat());
+        }
+        if (req.getGridSetId() == null && !packageFormat.declaresGridSet()) {
+            throw new IllegalArgumentException("A gridSetId is required to import "
+                    + packageFormat.getName() + " packages, which don't declare their grid set");
+        }
+        TileRange tr = createTileRange(req, tl);
+        if (log.isInfoEnabled()) {
+            log.info("Import request for layer " + tl.getName() + " from " + input + " as "
+                    + packageFormat.getName());
+        }
+
+        ImportTask task = new ImportTask(storageBroker, tr, tl, packageFormat, input,
+                req.getThreadCount());
+        task.setThreadInfo(new AtomicInteger(), 0);
+        dispatchTasks(new GWCTask[] { task });
+        return task;
+    }
+
+    /**
+     * @return the package format whose file extension matches the file's one, zip if none does
+     */
+    TilePackageFormat getPackageFormat(File file) {
+        String name = file.getName().toLowerCase();
+        for (TilePackageFormat format : GeoWebCacheExtensions.extensions(TilePackageFormat.class)) {
+            if (name.endsWith("." + format.getFileExtension())) {
+                return format;
+            }
+        }
+        return new ZipTilePackageFormat();
+    }
+
+    /**
+     * @return the package format with the given name, looked up among the {@link TilePackageFormat}
+     *         extensions
+     * @throws IllegalArgumentException if there is no such format
+     */
+    TilePackageFormat getPackageFormat(String name) {
+        for (TilePackageFormat format : GeoWebCacheExtensions.extensions(TilePackageFormat.class)) {
+            if (format.getName().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        if (ZipTilePackageFormat.NAME.equalsIgnoreCase(name)) {
+            return new ZipTilePackageFormat();
+        }
+        throw new IllegalArgumentException("Unknown tile package format " + name);
+    }
+
+    /**
+     * Find the tile range for an export request, limited to the requested bounds rather than
+     * expanded to meta tiles as when seeding
+     */
+    static TileRange createTileRange(ExportRequest req, TileLayer tl)
+            throws GeoWebCacheException {
+        return createTileRange(tl, req.getGridSetId(), req.getMimeFormat(), req.getBounds(),
+                req.getZoomStart(), req.getZoomStop(), req.getParameters());
+    }
+
+    /**
+     * Find the tile range for an import request, the whole grid subset
+     */
+    static TileRange createTileRange(ImportRequest req, TileLayer tl)
+            throws GeoWebCacheException {
+        return createTileRange(tl, req.getGridSetId(), req.getMimeFormat(), null, null, null,
+                req.getParameters());
+    }
+
+    private static TileRange createTileRange(TileLayer tl, String gridSetId, String format,
+            BoundingBox bounds, Integer zoomStart, Integer zoomStop,
+            Map<String, String> parameters) throws GeoWebCacheException {
+        MimeType mimeType;
+        if (format == null) {
+            mimeType = tl.getMimeTypes().get(0);
+        } else {
+            try {
+                mimeType = MimeType.createFromFormat(format);
+            } catch (MimeException e) {
+                throw new IllegalArgumentException("Unknown format " + format, e);
+            }
+        }
+
+        if (gridSetId == null) {
+            gridSetId = tl.getGridSubsets().iterator().next();
+        }
+        GridSubset gridSubset = tl.getGridSubset(gridSetId);
+        if (gridSubset == null) {
+            throw new GeoWebCacheException("Unknown grid set " + gridSetId);
+        }
+
+        int start = zoomStart == null ? gridSubset.getZoomStart() : zoomStart;
+        int stop = zoomStop == null ? gridSubset.getZoomStop() : zoomStop;
+
+        long[][] coveredGridLevels = bounds == null ? gridSubset.getCoverages() : gridSubset
+                .getCoverageIntersections(bounds);
+
+        return new TileRange(tl.getName(), gridSetId, start, stop, coveredGridLevels, mimeType,
+                parameters);
+    }
+
+    /**
+     * @return the formats requested besides the tile range's one
+     * @throws IllegalArgumentException if a format is unknown
+     */
+    public static List<MimeType> getAdditionalFormats(SeedRequest req, TileRange tr) {
+        List<MimeType> formats = new ArrayList<MimeType>();
+        for (String format : req.getMimeFormats()) {
+            MimeType mimeType;
+            try {
+                mimeType = MimeType.createFromFormat(format);
+            } catch (MimeException e) {
+                throw new IllegalArgumentException("Unknown format " + format, e);
+            }
+            if (!mimeType.equals(tr.getMimeType()) && !formats.contains(mimeType)) {
+                formats.add(mimeType);
+            }
+        }
+        return formats;
+    }
+
     /**
      * Create tasks to manipulate the cache (Seed, truncate, etc)  They will still need to be dispatched.
      * 
@@ -246,6 +513,25 @@ public class TileBreeder implements ApplicationContextAware {
      */
     public GWCTask[] createTasks(TileRange tr, TileLayer tl, GWCTask.TYPE type, int threadCount,
             boolean filterUpdate) throws GeoWebCacheException {
+        return createTasks(tr, tl, type, threadCount, filterUpdate,
+                Collections.<MimeType> emptyList());
+    }
+
+    /**
+     * Create tasks to manipulate the cache (Seed, truncate, etc).  They will still need to be dispatched.
+     * 
+     * @param tr The range of tiles to work on.
+     * @param tl The layer to work on.  Overrides any layer specified on tr.
+     * @param type The type of task(s) to create
+     * @param threadCount The number of threads to use, forced to 1 if type is TRUNCATE
+     * @param filterUpdate // TODO: What does this do?
+     * @param additionalFormats Formats to seed from the same meta tiles besides the range's one,
+     *        ignored when truncating
+     * @return Array of tasks.  Will have length threadCount or 1.
+     * @throws GeoWebCacheException
+     */
+    public GWCTask[] createTasks(TileRange tr, TileLayer tl, GWCTask.TYPE type, int threadCount,
+            boolean filterUpdate, List<MimeType> additionalFormats) throws GeoWebCacheException {
 
         if (type == GWCTask.TYPE.TRUNCATE || threadCount < 1) {
             log.trace("Forcing thread count to 1");
@@ -265,6 +551,7 @@ public class TileBreeder implements ApplicationContextAware {
                 SeedTask task = (SeedTask) createSeedTask(type, trIter, tl, filterUpdate);
                 task.setFailurePolicy(tileFailureRetryCount, tileFailureRetryWaitTime,
                         totalFailuresBeforeAborting, failureCounter);
+                task.setAdditionalFormats(additionalFormats);
                 tasks[i] = task;
             }
             tasks[i].setThreadInfo(sharedThreadCount, i);
@@ -300,18 +587,23 @@ public class TileBreeder implements ApplicationContextAware {
 
     /**
      * Find the tile range for a Seed Request.
+     * <p>
+     * If the request carries a geometry the returned range is a {@link DiscontinuousTileRange}
+     * limited to the tiles intersecting it.
+     * </p>
      * @param req
      * @param tl 
      * @return
      * @throws GeoWebCacheException
+     * @throws IllegalArgumentException if the request geometry can't be parsed
      */
     public static TileRange createTileRange(SeedRequest req, TileLayer tl)
             throws GeoWebCacheException {
-        int zoomStart = req.getZoomStart().intValue();
-        int zoomStop = req.getZoomStop().intValue();
-
         MimeType mimeType = null;
         String format = req.getMimeFormat();
+        if (format == null && !req.getMimeFormats().isEmpty()) {
+            format = req.getMimeFormats().get(0);
+        }
         if (format == null) {
             mimeType = tl.getMimeTypes().get(0);
         } else {
@@ -321,6 +613,13 @@ public class TileBreeder implements ApplicationContextAware {
                 e4.printStackTrace();
             }
         }
+        return createTileRange(req, tl, mimeType);
+    }
+
+    private static TileRange createTileRange(SeedRequest req, TileLayer tl, MimeType mimeType)
+            throws GeoWebCacheException {
+        int zoomStart = req.getZoomStart().intValue();
+        int zoomStop = req.getZoomStop().intValue();
 
         String gridSetId = req.getGridSetId();
 
@@ -347,21 +646,30 @@ public class TileBreeder implements ApplicationContextAware {
             throw new GeoWebCacheException("Unknown grid set " + gridSetId);
         }
 
-        long[][] coveredGridLevels;
+        int[] metaTilingFactors = tl.getMetaTilingFactors();
+        String layerName = tl.getName();
+        Map<String, String> parameters = req.getParameters();
 
         BoundingBox bounds = req.getBounds();
+        String geometry = req.getGeometry();
+        if (geometry != null && !geometry.trim().isEmpty()) {
+            Shape shape = GeometryParser.parse(geometry);
+            TileRangeMask mask = new ShapeRasterMask(shape, gridSubset, bounds,
+                    metaTilingFactors, zoomStop);
+            return new DiscontinuousTileRange(layerName, gridSetId, zoomStart, zoomStop, mask,
+                    mimeType, parameters);
+        }
+
+        long[][] coveredGridLevels;
+
         if (bounds == null) {
             coveredGridLevels = gridSubset.getCoverages();
         } else {
             coveredGridLevels = gridSubset.getCoverageIntersections(bounds);
         }
 
-        int[] metaTilingFactors = tl.getMetaTilingFactors();
-
         coveredGridLevels = gridSubset.expandToMetaFactors(coveredGridLevels, metaTilingFactors);
 
-        String layerName = tl.getName();
-        Map<String, String> parameters = req.getParameters();
         return new TileRange(layerName, gridSetId, zoomStart, zoomStop, coveredGridLevels,
                 mimeType, parameters);
     }
@@ -0,0 +1,71 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.storage.TileRange;
+
+/**
+ * A file format tiles can be exported to with an {@link ExportRequest}, and imported from with an
+ * {@link ImportRequest}.
+ * <p>
+ * Implementations are looked up as application context beans by their {@link #getName() name},
+ * the {@link ZipTilePackageFormat zip} one is always available.
+ * </p>
+ */
+public interface TilePackageFormat {
+
+    /**
+     * @return the name export requests refer to this format with, e.g. {@code zip}
+     */
+    String getName();
+
+    /**
+     * @return the extension of the package files, without the dot
+     */
+    String getFileExtension();
+
+    /**
+     * @return whether the package files declare the grid set of their tiles, packages of formats
+     *         that don't are only imported into an explicitly requested grid set
+     */
+    boolean declaresGridSet();
+
+    /**
+     * Writes a new package file
+     * 
+     * @param output the package file, an empty file just created by the export task
+     * @param layer the exported layer
+     * @param range the exported tiles
+     * @param deduplicate whether identical tiles should be stored once, ignored by formats that
+     *        can't share the contents of several tiles
+     */
+    TilePackageWriter createWriter(File output, TileLayer layer, TileRange range,
+            boolean deduplicate) throws IOException;
+
+    /**
+     * Opens a package file for reading
+     * 
+     * @param input the package file
+     * @param layer the layer the tiles are imported into
+     * @param range the grid set, format and parameters of the imported tiles, which the read tiles
+     *        are created with
+     */
+    TilePackageReader createReader(File input, TileLayer layer, TileRange range)
+            throws IOException;
+}
@@ -0,0 +1,55 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.storage.TileObject;
+
+/**
+ * Reads the tiles of a tile package file sequentially, created by a {@link TilePackageFormat}.
+ * <p>
+ * Only used by the thread running the import.
+ * </p>
+ */
+public interface TilePackageReader extends Closeable {
+
+    /**
+     * @return the number of tiles in the package, or {@code -1} if it can't be known without
+     *         reading the whole package
+     */
+    long getTileCount() throws IOException;
+
+    /**
+     * Checks the package was made for the grid subset its tiles are imported into, comparing the
+     * CRS, bounds and resolutions the package declares with it. Packages that don't declare them
+     * accept any grid subset.
+     * 
+     * @throws IOException if the package tiles don't fit the grid subset
+     */
+    void checkGridSubset(GridSubset gridSubset) throws IOException;
+
+    /**
+     * Reads the next tiles, in no particular order. The grid locations are read as is from the
+     * package, so they may lie outside of the import range.
+     * 
+     * @param max the maximum number of tiles to read
+     * @return the read tiles, an empty list once the whole package was read
+     */
+    List<TileObject> read(int max) throws IOException;
+}
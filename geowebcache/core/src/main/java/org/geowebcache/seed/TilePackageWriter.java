@@ -0,0 +1,37 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import org.geowebcache.storage.TileObject;
+
+/**
+ * Writes the tiles of an export to a single tile package file, created by a
+ * {@link TilePackageFormat}.
+ * <p>
+ * Only used by the thread running the export, the package is complete once closed.
+ * </p>
+ */
+public interface TilePackageWriter extends Closeable {
+
+    /**
+     * Writes a batch of tiles, packages backed by a database should write each batch in a single
+     * transaction
+     */
+    void write(List<TileObject> tiles) throws IOException;
+}
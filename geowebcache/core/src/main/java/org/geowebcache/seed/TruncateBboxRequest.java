@@ -45,6 +45,11 @@ public class TruncateBboxRequest implements MassTruncateRequest {
     
     private BoundingBox bounds;
     
+    /**
+     * Optional WKT or GeoJSON polygonal geometry further limiting the truncated tiles
+     */
+    private String geometry;
+    
     private String gridSetId;
     
     public TruncateBboxRequest(String layerName, BoundingBox bounds, String gridSetId) {
@@ -53,6 +58,12 @@ public class TruncateBboxRequest implements MassTruncateRequest {
         this.bounds = bounds;
         this.gridSetId = gridSetId;
     }
+    
+    public TruncateBboxRequest(String layerName, BoundingBox bounds, String geometry,
+            String gridSetId) {
+        this(layerName, bounds, gridSetId);
+        this.geometry = geometry;
+    }
 
     @Override
     public boolean doTruncate(StorageBroker sb, TileBreeder breeder) throws StorageException, GeoWebCacheException {
@@ -68,7 +79,7 @@ public class TruncateBboxRequest implements MassTruncateRequest {
                 .flatMap(params->allFormats.stream()
                     .map(format->
                         // Create seed request for each combination of params and format
-                        new SeedRequest(layerName, bounds, gridSetId, 1, minZ, maxZ, 
+                        new SeedRequest(layerName, bounds, geometry, gridSetId, 1, minZ, maxZ, 
                                 format.getMimeType(), GWCTask.TYPE.TRUNCATE, params)))
                 .map(request->{
                     try {
@@ -46,6 +46,7 @@ class TruncateTask extends GWCTask {
 
         super.parsedType = GWCTask.TYPE.TRUNCATE;
         super.layerName = tl.getName();
+        super.tilesTotal = tr.tileCount();
     }
 
     @Override
@@ -0,0 +1,168 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+
+/**
+ * Exports tiles to a zip file in TMS layout, each tile being stored as {@code z/x/y.extension}
+ * with rows counted from the bottom of the grid as GeoWebCache does.
+ * <p>
+ * Tiles can't share their contents in a zip file, so {@code deduplicate} is ignored.
+ * </p>
+ * <p>
+ * Imported zip files are streamed, the tiles being read from the entries ending with
+ * {@code z/x/y.extension} whatever the directory they are in, other entries are ignored.
+ * </p>
+ */
+public class ZipTilePackageFormat implements TilePackageFormat {
+
+    public static final String NAME = "zip";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "zip";
+    }
+
+    /**
+     * @return {@code false}, the zip entries only tell the tile indexes
+     */
+    @Override
+    public boolean declaresGridSet() {
+        return false;
+    }
+
+    @Override
+    public TilePackageWriter createWriter(File output, TileLayer layer, TileRange range,
+            boolean deduplicate) throws IOException {
+        return new ZipTileWriter(output, range.getMimeType().getFileExtension());
+    }
+
+    @Override
+    public TilePackageReader createReader(File input, TileLayer layer, TileRange range)
+            throws IOException {
+        return new ZipTileReader(input, layer.getName(), range);
+    }
+
+    private static class ZipTileWriter implements TilePackageWriter {
+
+        private final ZipOutputStream zip;
+
+        private final WritableByteChannel channel;
+
+        private final String extension;
+
+        ZipTileWriter(File output, String extension) throws IOException {
+            this.zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+            this.channel = Channels.newChannel(zip);
+            this.extension = extension;
+        }
+
+        @Override
+        public void write(List<TileObject> tiles) throws IOException {
+            for (TileObject tile : tiles) {
+                long[] xyz = tile.getXYZ();
+                zip.putNextEntry(new ZipEntry(xyz[2] + "/" + xyz[0] + "/" + xyz[1] + "."
+                        + extension));
+                tile.getBlob().transferTo(channel);
+                zip.closeEntry();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    private static class ZipTileReader implements TilePackageReader {
+
+        private static final Pattern TILE_ENTRY = Pattern
+                .compile("(?:.*/)?(\\d+)/(\\d+)/(\\d+)\\.[^./]+");
+
+        private final ZipInputStream zip;
+
+        private final String layerName;
+
+        private final TileRange range;
+
+        ZipTileReader(File input, String layerName, TileRange range) throws IOException {
+            this.zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(input)));
+            this.layerName = layerName;
+            this.range = range;
+        }
+
+        @Override
+        public long getTileCount() {
+            return -1;
+        }
+
+        @Override
+        public void checkGridSubset(GridSubset gridSubset) {
+            // nothing declared, the tile indexes are checked as they are read
+        }
+
+        @Override
+        public List<TileObject> read(int max) throws IOException {
+            List<TileObject> tiles = new ArrayList<TileObject>(max);
+            ZipEntry entry;
+            while (tiles.size() < max && (entry = zip.getNextEntry()) != null) {
+                Matcher matcher = TILE_ENTRY.matcher(entry.getName());
+                if (entry.isDirectory() || !matcher.matches()) {
+                    continue;
+                }
+                long[] xyz = { Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3)),
+                        Long.parseLong(matcher.group(1)) };
+                Resource blob = new ByteArrayResource(IOUtils.toByteArray(zip));
+                tiles.add(TileObject.createCompleteTileObject(layerName, xyz,
+                        range.getGridSetId(), range.getMimeType().getFormat(),
+                        range.getParameters(), blob));
+            }
+            return tiles;
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+}
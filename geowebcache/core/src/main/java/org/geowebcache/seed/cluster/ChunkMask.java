@@ -0,0 +1,46 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed.cluster;
+
+import org.geowebcache.storage.TileRange;
+import org.geowebcache.storage.TileRangeMask;
+
+/**
+ * Limits a job's tile range to the rectangle of a {@link SeedChunk}
+ */
+class ChunkMask implements TileRangeMask {
+
+    private final TileRange jobRange;
+
+    private final long[] bounds;
+
+    ChunkMask(TileRange jobRange, SeedChunk chunk) {
+        this.jobRange = jobRange;
+        long[] jobBounds = jobRange.rangeBounds(chunk.getZoom());
+        long[] chunkBounds = chunk.getBounds();
+        this.bounds = new long[] { Math.max(jobBounds[0], chunkBounds[0]),
+                Math.max(jobBounds[1], chunkBounds[1]), Math.min(jobBounds[2], chunkBounds[2]),
+                Math.min(jobBounds[3], chunkBounds[3]), chunk.getZoom() };
+    }
+
+    public long[][] getGridCoverages() {
+        return new long[][] { bounds };
+    }
+
+    public boolean lookup(long x, long y, int z) {
+        return z == bounds[4] && x >= bounds[0] && x <= bounds[2] && y >= bounds[1]
+                && y <= bounds[3] && jobRange.contains(x, y, z);
+    }
+}
@@ -0,0 +1,532 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed.cluster;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.mime.MimeException;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.seed.GWCTask;
+import org.geowebcache.seed.GWCTask.TYPE;
+import org.geowebcache.seed.SeedRequest;
+import org.geowebcache.seed.TileBreeder;
+import org.geowebcache.storage.DiscontinuousTileRange;
+import org.geowebcache.storage.TileRange;
+import org.geowebcache.util.GWCVars;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Seeds across the nodes of a cluster: jobs are split in chunks of meta tiles published to a
+ * {@link JDBCSeedQueue}, and every node runs workers leasing chunks from the queue and seeding
+ * them with the regular {@link TileBreeder} tasks.
+ * <p>
+ * Cluster seeding is off unless a database is configured, with these environment variables:
+ * <ul>
+ * <li>{@code GWC_CLUSTER_SEED_JNDI}: the JNDI name of the data source, or</li>
+ * <li>{@code GWC_CLUSTER_SEED_JDBC_URL}, {@code GWC_CLUSTER_SEED_JDBC_DRIVER},
+ * {@code GWC_CLUSTER_SEED_JDBC_USER} and {@code GWC_CLUSTER_SEED_JDBC_PASSWORD}: the connection
+ * parameters of a pooled data source</li>
+ * <li>{@code GWC_CLUSTER_SEED_SCHEMA}: optional schema of the queue tables</li>
+ * <li>{@code GWC_CLUSTER_SEED_THREADS}: how many chunks this node seeds at once, defaults to 2, 0
+ * makes the node submit jobs without working on them</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Filter updates are not run at the end of cluster seed jobs, as no single node knows when the
+ * whole job is over.
+ * </p>
+ */
+public class ClusterSeeder implements ApplicationContextAware, InitializingBean, DisposableBean {
+
+    private static Log log = LogFactory.getLog(ClusterSeeder.class);
+
+    static final String GWC_CLUSTER_SEED_JNDI = "GWC_CLUSTER_SEED_JNDI";
+
+    static final String GWC_CLUSTER_SEED_JDBC_URL = "GWC_CLUSTER_SEED_JDBC_URL";
+
+    static final String GWC_CLUSTER_SEED_JDBC_DRIVER = "GWC_CLUSTER_SEED_JDBC_DRIVER";
+
+    static final String GWC_CLUSTER_SEED_JDBC_USER = "GWC_CLUSTER_SEED_JDBC_USER";
+
+    static final String GWC_CLUSTER_SEED_JDBC_PASSWORD = "GWC_CLUSTER_SEED_JDBC_PASSWORD";
+
+    static final String GWC_CLUSTER_SEED_SCHEMA = "GWC_CLUSTER_SEED_SCHEMA";
+
+    static final String GWC_CLUSTER_SEED_THREADS = "GWC_CLUSTER_SEED_THREADS";
+
+    private final TileBreeder breeder;
+
+    private JDBCSeedQueue queue;
+
+    private BasicDataSource ownedDataSource;
+
+    private String nodeId;
+
+    private int threads = 2;
+
+    private long leaseMillis = 60 * 1000;
+
+    private long pollMillis = 5 * 1000;
+
+    private int chunkMetaTiles = 8;
+
+    private int maxChunksPerLevel = 1024;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private ExecutorService workers;
+
+    private ScheduledExecutorService renewals;
+
+    private final Cache<String, JobContext> jobs = CacheBuilder.newBuilder().maximumSize(32)
+            .expireAfterAccess(10, TimeUnit.MINUTES).build();
+
+    /**
+     * What a node needs to seed the chunks of a job, built once per job
+     */
+    private static class JobContext {
+
+        final SeedJob job;
+
+        final TileLayer layer;
+
+        final TileRange range;
+
+        final List<MimeType> additionalFormats;
+
+        JobContext(SeedJob job, TileLayer layer, TileRange range, List<MimeType> additionalFormats) {
+            this.job = job;
+            this.layer = layer;
+            this.range = range;
+            this.additionalFormats = additionalFormats;
+        }
+    }
+
+    public ClusterSeeder(TileBreeder breeder) {
+        this.breeder = breeder;
+    }
+
+    public ClusterSeeder(TileBreeder breeder, JDBCSeedQueue queue) {
+        this.breeder = breeder;
+        this.queue = queue;
+    }
+
+    public void setApplicationContext(ApplicationContext context) throws BeansException {
+        if (queue != null) {
+            return;
+        }
+        DataSource dataSource = null;
+        String jndi = GWCVars.findEnvVar(context, GWC_CLUSTER_SEED_JNDI);
+        String url = GWCVars.findEnvVar(context, GWC_CLUSTER_SEED_JDBC_URL);
+        if (!Strings.isNullOrEmpty(jndi)) {
+            try {
+                dataSource = (DataSource) new InitialContext().lookup(jndi);
+            } catch (NamingException e) {
+                log.error("Cluster seeding disabled, could not look up " + jndi, e);
+                return;
+            }
+        } else if (!Strings.isNullOrEmpty(url)) {
+            ownedDataSource = new BasicDataSource();
+            ownedDataSource.setUrl(url);
+            ownedDataSource.setDriverClassName(GWCVars.findEnvVar(context,
+                    GWC_CLUSTER_SEED_JDBC_DRIVER));
+            ownedDataSource.setUsername(GWCVars.findEnvVar(context, GWC_CLUSTER_SEED_JDBC_USER));
+            ownedDataSource.setPassword(GWCVars.findEnvVar(context,
+                    GWC_CLUSTER_SEED_JDBC_PASSWORD));
+            dataSource = ownedDataSource;
+        } else {
+            log.debug("Cluster seeding disabled, no database configured");
+            return;
+        }
+        queue = new JDBCSeedQueue(dataSource, GWCVars.findEnvVar(context,
+                GWC_CLUSTER_SEED_SCHEMA));
+
+        String threadCount = GWCVars.findEnvVar(context, GWC_CLUSTER_SEED_THREADS);
+        if (threadCount != null) {
+            try {
+                threads = Integer.parseInt(threadCount);
+            } catch (NumberFormatException e) {
+                log.warn("Invalid environment parameter for " + GWC_CLUSTER_SEED_THREADS + ": '"
+                        + threadCount + "'. Using default value: " + threads);
+            }
+        }
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        if (queue == null) {
+            return;
+        }
+        queue.initialize();
+        start();
+    }
+
+    public void destroy() throws Exception {
+        stop();
+        if (ownedDataSource != null) {
+            ownedDataSource.close();
+        }
+    }
+
+    /**
+     * @return whether a queue is configured, if not jobs can't be submitted
+     */
+    public boolean isEnabled() {
+        return queue != null;
+    }
+
+    /**
+     * Starts the workers leasing chunks from the queue, if any are configured
+     */
+    public void start() {
+        if (queue == null || threads <= 0 || !running.compareAndSet(false, true)) {
+            return;
+        }
+        log.info("Cluster seeding node " + getNodeId() + " starting " + threads + " workers");
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("GWC cluster seeder %d").build());
+        for (int i = 0; i < threads; i++) {
+            workers.submit(new Runnable() {
+                public void run() {
+                    work();
+                }
+            });
+        }
+    }
+
+    public void stop() {
+        running.set(false);
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+        synchronized (this) {
+            if (renewals != null) {
+                renewals.shutdownNow();
+                renewals = null;
+            }
+        }
+    }
+
+    private void work() {
+        while (running.get() && !Thread.currentThread().isInterrupted()) {
+            try {
+                if (!runNext()) {
+                    Thread.sleep(pollMillis);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // most likely the database is unreachable, don't spin on it
+                log.error("Cluster seeding worker failed, retrying in " + pollMillis + "ms", e);
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits a seed request in chunks and publishes them to the queue
+     * 
+     * @return the id of the published job
+     * @throws IllegalArgumentException
+     *             if the request is invalid
+     * @throws IllegalStateException
+     *             if cluster seeding is not configured
+     */
+    public String submit(final String layerName, final SeedRequest req)
+            throws GeoWebCacheException {
+        if (queue == null) {
+            throw new IllegalStateException("Cluster seeding is not configured");
+        }
+        final TileLayer tl = breeder.findTileLayer(layerName);
+        final TileRange tr = TileBreeder.createTileRange(req, tl);
+        List<String> formats = new ArrayList<String>();
+        for (MimeType format : TileBreeder.getAdditionalFormats(req, tr)) {
+            formats.add(format.getFormat());
+        }
+        final TYPE type = req.getType() == null ? TYPE.SEED : req.getType();
+
+        final String jobId = UUID.randomUUID().toString();
+        SeedJob job = new SeedJob(jobId, layerName, tr.getGridSetId(), tr.getMimeType()
+                .getFormat(), formats, type, req.getParameters(), req.getBounds(),
+                req.getGeometry(), tr.getZoomStart(), tr.getZoomStop(), req.getFilterUpdate());
+        List<SeedChunk> chunks = split(jobId, tr, tl.getMetaTilingFactors(), chunkMetaTiles,
+                maxChunksPerLevel);
+        queue.publish(job, tr.tileCount(), chunks);
+        log.info("Published " + type + " job " + jobId + " for layer " + layerName + " in "
+                + chunks.size() + " chunks");
+        return jobId;
+    }
+
+    /**
+     * Splits a tile range in rectangles of about {@code chunkMetaTiles} by {@code chunkMetaTiles}
+     * meta tiles, growing them at deep levels so no level has more than {@code maxChunksPerLevel}
+     * chunks
+     */
+    static List<SeedChunk> split(String jobId, TileRange tr, int[] metaFactors,
+            int chunkMetaTiles, int maxChunksPerLevel) {
+        List<SeedChunk> chunks = new ArrayList<SeedChunk>();
+        int chunkNo = 0;
+        for (int z = tr.getZoomStart(); z <= tr.getZoomStop(); z++) {
+            final long[] bounds = tr.rangeBounds(z);
+            final long rectangle = (1 + bounds[2] - bounds[0]) * (1 + bounds[3] - bounds[1]);
+            final long levelTiles = tr.tileCount(z);
+            // discontinuous ranges only have part of the rectangle in range
+            final double density = levelTiles < 0 ? 1d : (double) levelTiles / rectangle;
+
+            // chunk origins on multiples of the chunk size keep chunks meta tile aligned
+            long sideX = (long) chunkMetaTiles * metaFactors[0];
+            long sideY = (long) chunkMetaTiles * metaFactors[1];
+            while ((1 + bounds[2] / sideX - bounds[0] / sideX)
+                    * (1 + bounds[3] / sideY - bounds[1] / sideY) > maxChunksPerLevel) {
+                sideX *= 2;
+                sideY *= 2;
+            }
+            for (long cy = bounds[1] / sideY; cy <= bounds[3] / sideY; cy++) {
+                for (long cx = bounds[0] / sideX; cx <= bounds[2] / sideX; cx++) {
+                    long[] chunkBounds = { Math.max(bounds[0], cx * sideX),
+                            Math.max(bounds[1], cy * sideY),
+                            Math.min(bounds[2], (cx + 1) * sideX - 1),
+                            Math.min(bounds[3], (cy + 1) * sideY - 1), z };
+                    long tiles = (long) Math.ceil((1 + chunkBounds[2] - chunkBounds[0])
+                            * (1 + chunkBounds[3] - chunkBounds[1]) * density);
+                    chunks.add(new SeedChunk(jobId, chunkNo++, chunkBounds, tiles, 0));
+                }
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Leases a chunk and seeds it on the calling thread, renewing the lease while it runs
+     * 
+     * @return {@code false} if there was no work available
+     */
+    public boolean runNext() throws InterruptedException {
+        final String owner = getNodeId();
+        final SeedChunk chunk = queue.lease(owner, leaseMillis);
+        if (chunk == null) {
+            return false;
+        }
+        final AtomicBoolean lost = new AtomicBoolean();
+        ScheduledFuture<?> renewal = null;
+        boolean success = false;
+        try {
+            JobContext context = getJobContext(chunk.getJobId());
+            if (context == null) {
+                // deleted while leasing
+                return true;
+            }
+            final List<GWCTask> tasks = createChunkTasks(context, chunk);
+
+            renewal = getRenewals().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        long tilesDone = 0;
+                        for (GWCTask task : tasks) {
+                            tilesDone += task.getTilesDone();
+                        }
+                        if (!queue.renew(chunk, owner, leaseMillis, tilesDone)) {
+                            log.info("Lost the lease on " + chunk + ", stopping");
+                            lost.set(true);
+                            for (GWCTask task : tasks) {
+                                task.terminateNicely();
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        // the lease may survive a transient failure, try again next time
+                        log.warn("Failed to renew the lease on " + chunk, e);
+                    }
+                }
+            }, leaseMillis / 4, leaseMillis / 4, TimeUnit.MILLISECONDS);
+
+            success = true;
+            for (GWCTask task : tasks) {
+                task.doAction();
+                if (task.getState() != GWCTask.STATE.DONE || lost.get()) {
+                    success = false;
+                    break;
+                }
+            }
+        } catch (GeoWebCacheException | IllegalArgumentException e) {
+            log.error("Failed to seed " + chunk + ", attempt " + chunk.getAttempts() + " of "
+                    + queue.getMaxAttempts(), e);
+        } finally {
+            if (renewal != null) {
+                renewal.cancel(false);
+            }
+            if (!lost.get()) {
+                if (success) {
+                    queue.complete(chunk, owner);
+                } else {
+                    queue.release(chunk, owner);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the tasks working on a chunk: a single one seeding all the job formats from the same
+     * meta tiles, or one per format when truncating, as {@link TileBreeder#seed} does
+     */
+    private List<GWCTask> createChunkTasks(JobContext context, SeedChunk chunk)
+            throws GeoWebCacheException {
+        final SeedJob job = context.job;
+        List<MimeType> formats = Collections.singletonList(context.range.getMimeType());
+        if (job.getType() == GWCTask.TYPE.TRUNCATE) {
+            formats = new ArrayList<MimeType>(formats);
+            formats.addAll(context.additionalFormats);
+        }
+        List<GWCTask> tasks = new ArrayList<GWCTask>(formats.size());
+        for (MimeType format : formats) {
+            TileRange chunkRange = new DiscontinuousTileRange(job.getLayerName(),
+                    context.range.getGridSetId(), chunk.getZoom(), chunk.getZoom(),
+                    new ChunkMask(context.range, chunk), format, context.range.getParameters());
+            tasks.add(breeder.createTasks(chunkRange, context.layer, job.getType(), 1, false,
+                    context.additionalFormats)[0]);
+        }
+        return tasks;
+    }
+
+    private JobContext getJobContext(final String jobId) throws GeoWebCacheException {
+        JobContext context = jobs.getIfPresent(jobId);
+        if (context == null) {
+            SeedJob job = queue.getJob(jobId);
+            if (job == null) {
+                return null;
+            }
+            TileLayer layer = breeder.findTileLayer(job.getLayerName());
+            SeedRequest request = job.toSeedRequest();
+            TileRange range = TileBreeder.createTileRange(request, layer);
+            List<MimeType> additionalFormats = new ArrayList<MimeType>();
+            for (String format : job.getFormats()) {
+                try {
+                    additionalFormats.add(MimeType.createFromFormat(format));
+                } catch (MimeException e) {
+                    throw new GeoWebCacheException(e);
+                }
+            }
+            context = new JobContext(job, layer, range, additionalFormats);
+            jobs.put(jobId, context);
+        }
+        return context;
+    }
+
+    private synchronized ScheduledExecutorService getRenewals() {
+        if (renewals == null) {
+            renewals = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("GWC cluster seed lease renewal").build());
+        }
+        return renewals;
+    }
+
+    /**
+     * @param layerName
+     *            the layer to get the jobs of, or {@code null} for all layers
+     */
+    public List<SeedJobStatus> getStatus(String layerName) {
+        if (queue == null) {
+            return new ArrayList<SeedJobStatus>();
+        }
+        return queue.getStatus(layerName);
+    }
+
+    /**
+     * @see JDBCSeedQueue#cancel(String)
+     */
+    public boolean cancel(String jobId) {
+        return queue != null && queue.cancel(jobId);
+    }
+
+    public synchronized String getNodeId() {
+        if (nodeId == null) {
+            String host;
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                host = "node";
+            }
+            // tells apart nodes sharing a host
+            nodeId = host + "-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets how long a chunk lease lasts, it's renewed every quarter of it while seeding
+     */
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Sets how long idle workers wait before polling the queue again
+     */
+    public void setPollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * Sets the chunk width and height, in meta tiles
+     */
+    public void setChunkMetaTiles(int chunkMetaTiles) {
+        this.chunkMetaTiles = chunkMetaTiles;
+    }
+
+    public void setMaxChunksPerLevel(int maxChunksPerLevel) {
+        this.maxChunksPerLevel = maxChunksPerLevel;
+    }
+}
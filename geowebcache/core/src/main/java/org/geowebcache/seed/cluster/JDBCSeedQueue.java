@@ -0,0 +1,498 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed.cluster;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.seed.GWCTask;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.DatabaseMetaDataCallback;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+/**
+ * A seed work queue shared by the nodes of a cluster through a database.
+ * <p>
+ * Jobs are split in {@link SeedChunk chunks} nodes lease for a limited time, and keep leased by
+ * renewing the lease while working on them. A chunk whose lease expires, because its node died or
+ * lost connectivity, is handed to the next node asking for work. Leasing is a conditional update
+ * on the chunk state and lease expiry, so it only relies on plain SQL. Only the table creation
+ * depends on the database, through a {@link SeedQueueDialect} picked from the database product name
+ * unless one is given.
+ * </p>
+ * <p>
+ * Lease expiry is compared to the clock of the node asking for work, node clocks are expected to
+ * be synchronized well within the lease duration.
+ * </p>
+ */
+public class JDBCSeedQueue {
+
+    private static Log log = LogFactory.getLog(JDBCSeedQueue.class);
+
+    static final String PENDING = "PENDING";
+
+    static final String LEASED = "LEASED";
+
+    static final String DONE = "DONE";
+
+    static final String FAILED = "FAILED";
+
+    /**
+     * How many candidate chunks to read at once when looking for one to lease
+     */
+    static final int LEASE_CANDIDATES = 16;
+
+    private final JdbcTemplate template;
+
+    private final String prefix;
+
+    private final String schema;
+
+    private SeedQueueDialect dialect;
+
+    private int maxAttempts = 3;
+
+    /**
+     * @param dataSource
+     *            the database shared by the cluster nodes
+     * @param schema
+     *            the schema holding the queue tables, or {@code null} for the default one
+     */
+    public JDBCSeedQueue(DataSource dataSource, String schema) {
+        this(dataSource, schema, null);
+    }
+
+    /**
+     * @param dataSource
+     *            the database shared by the cluster nodes
+     * @param schema
+     *            the schema holding the queue tables, or {@code null} for the default one
+     * @param dialect
+     *            the DDL of the queue tables, or {@code null} to pick it from the database product
+     *            name
+     */
+    public JDBCSeedQueue(DataSource dataSource, String schema, SeedQueueDialect dialect) {
+        this.template = new JdbcTemplate(dataSource);
+        this.schema = schema;
+        this.prefix = schema == null ? "" : schema + ".";
+        this.dialect = dialect;
+    }
+
+    /**
+     * Sets how many times a chunk is leased before giving up on it, whether the node working on it
+     * reported a failure or stopped renewing its lease
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Creates the queue tables if missing
+     */
+    public void initialize() {
+        if (dialect == null) {
+            dialect = SeedQueueDialect.forDatabase(getDatabaseProductName());
+        }
+        for (Map.Entry<String, List<String>> table : dialect.getTableCreationMap().entrySet()) {
+            if (!tableExists(table.getKey())) {
+                log.info("Creating seed queue table " + prefix + table.getKey());
+                for (String command : table.getValue()) {
+                    template.execute(command.replace("${schema}", prefix));
+                }
+            }
+        }
+    }
+
+    private String getDatabaseProductName() {
+        try {
+            return (String) JdbcUtils.extractDatabaseMetaData(template.getDataSource(),
+                    "getDatabaseProductName");
+        } catch (MetaDataAccessException e) {
+            log.warn("Could not find out the seed queue database, using the default DDL", e);
+            return null;
+        }
+    }
+
+    private boolean tableExists(final String tableName) {
+        try {
+            return (Boolean) JdbcUtils.extractDatabaseMetaData(template.getDataSource(),
+                    new DatabaseMetaDataCallback() {
+
+                        public Object processMetaData(DatabaseMetaData dbmd) throws SQLException,
+                                MetaDataAccessException {
+                            for (String name : new String[] { tableName.toLowerCase(), tableName }) {
+                                ResultSet rs = dbmd.getTables(null, schema, name, null);
+                                try {
+                                    if (rs.next()) {
+                                        return true;
+                                    }
+                                } finally {
+                                    rs.close();
+                                }
+                            }
+                            return false;
+                        }
+                    });
+        } catch (MetaDataAccessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Publishes a job and its chunks. The job row goes in last, so no node can lease a chunk of a
+     * partially published job.
+     */
+    public void publish(final SeedJob job, final long tilesTotal, final List<SeedChunk> chunks) {
+        template.batchUpdate("INSERT INTO " + prefix + "SEED_CHUNK (JOB_ID, CHUNK_NO, ZOOM, "
+                + "MIN_X, MIN_Y, MAX_X, MAX_Y, TILES, STATE, ATTEMPTS, TILES_DONE) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, '" + PENDING + "', 0, 0)",
+                new BatchPreparedStatementSetter() {
+
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        SeedChunk chunk = chunks.get(i);
+                        long[] bounds = chunk.getBounds();
+                        ps.setString(1, job.getJobId());
+                        ps.setInt(2, chunk.getChunkNo());
+                        ps.setInt(3, chunk.getZoom());
+                        ps.setLong(4, bounds[0]);
+                        ps.setLong(5, bounds[1]);
+                        ps.setLong(6, bounds[2]);
+                        ps.setLong(7, bounds[3]);
+                        ps.setLong(8, chunk.getTiles());
+                    }
+
+                    public int getBatchSize() {
+                        return chunks.size();
+                    }
+                });
+
+        final BoundingBox bounds = job.getBounds();
+        template.update("INSERT INTO " + prefix + "SEED_JOB (JOB_ID, LAYER_NAME, GRIDSET_ID, "
+                + "FORMAT, FORMATS, TYPE, PARAMETERS, MIN_X, MIN_Y, MAX_X, MAX_Y, GEOMETRY, "
+                + "ZOOM_START, ZOOM_STOP, FILTER_UPDATE, CANCELLED, CREATED, TILES) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, ?, ?)",
+                new PreparedStatementSetter() {
+
+                    public void setValues(PreparedStatement ps) throws SQLException {
+                        ps.setString(1, job.getJobId());
+                        ps.setString(2, job.getLayerName());
+                        ps.setString(3, job.getGridSetId());
+                        ps.setString(4, job.getFormat());
+                        ps.setString(5, joinFormats(job.getFormats()));
+                        ps.setString(6, job.getType().name());
+                        ps.setString(7, encodeParameters(job.getParameters()));
+                        if (bounds == null) {
+                            for (int i = 8; i <= 11; i++) {
+                                ps.setNull(i, Types.DOUBLE);
+                            }
+                        } else {
+                            ps.setDouble(8, bounds.getMinX());
+                            ps.setDouble(9, bounds.getMinY());
+                            ps.setDouble(10, bounds.getMaxX());
+                            ps.setDouble(11, bounds.getMaxY());
+                        }
+                        // a plain string binds to CLOB and TEXT columns alike
+                        ps.setString(12, job.getGeometry());
+                        ps.setInt(13, job.getZoomStart());
+                        ps.setInt(14, job.getZoomStop());
+                        ps.setInt(15, job.isFilterUpdate() ? 1 : 0);
+                        ps.setLong(16, System.currentTimeMillis());
+                        ps.setLong(17, tilesTotal);
+                    }
+                });
+    }
+
+    /**
+     * Leases the next available chunk, lowest zoom levels first
+     * 
+     * @param owner
+     *            identifies the node taking the lease
+     * @param leaseMillis
+     *            how long the lease lasts unless {@link #renew renewed}
+     * @return the leased chunk, or {@code null} if there is no work available
+     */
+    public SeedChunk lease(final String owner, final long leaseMillis) {
+        while (true) {
+            final long now = System.currentTimeMillis();
+            JdbcTemplate candidatesTemplate = new JdbcTemplate(template.getDataSource());
+            candidatesTemplate.setMaxRows(LEASE_CANDIDATES);
+            List<SeedChunk> candidates = candidatesTemplate.query("SELECT C.JOB_ID, C.CHUNK_NO, "
+                    + "C.ZOOM, C.MIN_X, C.MIN_Y, C.MAX_X, C.MAX_Y, C.TILES, C.ATTEMPTS FROM "
+                    + prefix + "SEED_CHUNK C, " + prefix + "SEED_JOB J "
+                    + "WHERE C.JOB_ID = J.JOB_ID AND J.CANCELLED = 0 AND (C.STATE = '" + PENDING
+                    + "' OR (C.STATE = '" + LEASED + "' AND C.LEASE_EXPIRES < ?)) "
+                    + "ORDER BY C.ZOOM, J.CREATED, C.CHUNK_NO", new Object[] { now },
+                    new RowMapper<SeedChunk>() {
+
+                        public SeedChunk mapRow(ResultSet rs, int rowNum) throws SQLException {
+                            return new SeedChunk(rs.getString(1), rs.getInt(2), new long[] {
+                                    rs.getLong(4), rs.getLong(5), rs.getLong(6), rs.getLong(7),
+                                    rs.getInt(3) }, rs.getLong(8), rs.getInt(9));
+                        }
+                    });
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            for (SeedChunk candidate : candidates) {
+                final String where = " WHERE JOB_ID = ? AND CHUNK_NO = ? AND ATTEMPTS = ? AND "
+                        + "(STATE = '" + PENDING + "' OR (STATE = '" + LEASED
+                        + "' AND LEASE_EXPIRES < ?))";
+                if (candidate.getAttempts() >= maxAttempts) {
+                    // its last node died on it
+                    int updated = template.update("UPDATE " + prefix + "SEED_CHUNK SET STATE = '"
+                            + FAILED + "', OWNER = NULL" + where, candidate.getJobId(),
+                            candidate.getChunkNo(), candidate.getAttempts(), now);
+                    if (updated > 0) {
+                        log.warn("Giving up on " + candidate + " after " + maxAttempts
+                                + " attempts");
+                    }
+                    continue;
+                }
+                int updated = template.update("UPDATE " + prefix + "SEED_CHUNK SET STATE = '"
+                        + LEASED + "', OWNER = ?, LEASE_EXPIRES = ?, ATTEMPTS = ATTEMPTS + 1"
+                        + where, owner, now + leaseMillis, candidate.getJobId(),
+                        candidate.getChunkNo(), candidate.getAttempts(), now);
+                if (updated > 0) {
+                    return new SeedChunk(candidate.getJobId(), candidate.getChunkNo(),
+                            candidate.getBounds(), candidate.getTiles(),
+                            candidate.getAttempts() + 1);
+                }
+                // another node got it first, try the next one
+            }
+        }
+    }
+
+    /**
+     * Extends the lease on a chunk and records its progress
+     * 
+     * @return {@code false} if the lease was lost, because it expired and another node took the
+     *         chunk, or because the job was cancelled; the caller should stop working on it
+     */
+    public boolean renew(SeedChunk chunk, String owner, long leaseMillis, long tilesDone) {
+        int updated = template.update("UPDATE " + prefix + "SEED_CHUNK SET LEASE_EXPIRES = ?, "
+                + "TILES_DONE = ? WHERE JOB_ID = ? AND CHUNK_NO = ? AND OWNER = ? AND STATE = '"
+                + LEASED + "' AND JOB_ID IN (SELECT JOB_ID FROM " + prefix
+                + "SEED_JOB WHERE CANCELLED = 0)", System.currentTimeMillis() + leaseMillis,
+                Math.max(0, tilesDone), chunk.getJobId(), chunk.getChunkNo(), owner);
+        return updated > 0;
+    }
+
+    /**
+     * Marks a leased chunk as done
+     */
+    public void complete(SeedChunk chunk, String owner) {
+        template.update("UPDATE " + prefix + "SEED_CHUNK SET STATE = '" + DONE + "', OWNER = NULL, "
+                + "LEASE_EXPIRES = NULL, TILES_DONE = TILES WHERE JOB_ID = ? AND CHUNK_NO = ? "
+                + "AND OWNER = ? AND STATE = '" + LEASED + "'", chunk.getJobId(),
+                chunk.getChunkNo(), owner);
+    }
+
+    /**
+     * Gives a leased chunk back to the queue after a failure, or fails it for good once it has been
+     * attempted {@link #getMaxAttempts() too many times}
+     */
+    public void release(SeedChunk chunk, String owner) {
+        String state = chunk.getAttempts() >= maxAttempts ? FAILED : PENDING;
+        template.update("UPDATE " + prefix + "SEED_CHUNK SET STATE = ?, OWNER = NULL, "
+                + "LEASE_EXPIRES = NULL, TILES_DONE = 0 WHERE JOB_ID = ? AND CHUNK_NO = ? "
+                + "AND OWNER = ? AND STATE = '" + LEASED + "'", state, chunk.getJobId(),
+                chunk.getChunkNo(), owner);
+    }
+
+    /**
+     * @return the job with the given id, or {@code null} if there's none
+     */
+    public SeedJob getJob(String jobId) {
+        List<SeedJob> jobs = template.query("SELECT JOB_ID, LAYER_NAME, GRIDSET_ID, FORMAT, "
+                + "FORMATS, TYPE, PARAMETERS, MIN_X, MIN_Y, MAX_X, MAX_Y, GEOMETRY, ZOOM_START, "
+                + "ZOOM_STOP, FILTER_UPDATE FROM " + prefix + "SEED_JOB WHERE JOB_ID = ?",
+                new Object[] { jobId }, new RowMapper<SeedJob>() {
+
+                    public SeedJob mapRow(ResultSet rs, int rowNum) throws SQLException {
+                        return readJob(rs);
+                    }
+                });
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    private static SeedJob readJob(ResultSet rs) throws SQLException {
+        BoundingBox bounds = null;
+        double minX = rs.getDouble(8);
+        if (!rs.wasNull()) {
+            bounds = new BoundingBox(minX, rs.getDouble(9), rs.getDouble(10), rs.getDouble(11));
+        }
+        return new SeedJob(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                splitFormats(rs.getString(5)), GWCTask.TYPE.valueOf(rs.getString(6)),
+                decodeParameters(rs.getString(7)), bounds, rs.getString(12), rs.getInt(13),
+                rs.getInt(14), rs.getInt(15) != 0);
+    }
+
+    /**
+     * Returns the progress of the jobs in the queue, oldest first
+     * 
+     * @param layerName
+     *            the layer to get the jobs of, or {@code null} for all layers
+     */
+    public List<SeedJobStatus> getStatus(String layerName) {
+        final Map<String, SeedJobStatus> statuses = new LinkedHashMap<String, SeedJobStatus>();
+        String jobFilter = layerName == null ? "" : " WHERE LAYER_NAME = ?";
+        Object[] args = layerName == null ? new Object[0] : new Object[] { layerName };
+        template.query("SELECT JOB_ID, LAYER_NAME, GRIDSET_ID, FORMAT, FORMATS, TYPE, "
+                + "PARAMETERS, MIN_X, MIN_Y, MAX_X, MAX_Y, NULL, ZOOM_START, ZOOM_STOP, "
+                + "FILTER_UPDATE, CREATED, CANCELLED, TILES FROM " + prefix + "SEED_JOB"
+                + jobFilter + " ORDER BY CREATED", args, new RowCallbackHandler() {
+
+            public void processRow(ResultSet rs) throws SQLException {
+                SeedJob job = readJob(rs);
+                statuses.put(job.getJobId(), new SeedJobStatus(job, rs.getLong(16),
+                        rs.getInt(17) != 0, rs.getLong(18)));
+            }
+        });
+        if (statuses.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String chunkFilter = layerName == null ? "" : " WHERE JOB_ID IN (SELECT JOB_ID FROM "
+                + prefix + "SEED_JOB WHERE LAYER_NAME = ?)";
+        template.query("SELECT JOB_ID, STATE, COUNT(*), SUM(TILES), SUM(TILES_DONE) FROM "
+                + prefix + "SEED_CHUNK" + chunkFilter + " GROUP BY JOB_ID, STATE", args,
+                new RowCallbackHandler() {
+
+                    public void processRow(ResultSet rs) throws SQLException {
+                        SeedJobStatus status = statuses.get(rs.getString(1));
+                        if (status != null) {
+                            status.addChunks(rs.getString(2), rs.getInt(3), rs.getLong(4),
+                                    rs.getLong(5));
+                        }
+                    }
+                });
+        for (SeedJobStatus status : statuses.values()) {
+            status.resolveState();
+        }
+        return new ArrayList<SeedJobStatus>(statuses.values());
+    }
+
+    /**
+     * Cancels a job, nodes stop working on its chunks at their next lease renewal
+     * 
+     * @return {@code false} if there is no such job
+     */
+    public boolean cancel(String jobId) {
+        return template.update("UPDATE " + prefix + "SEED_JOB SET CANCELLED = 1 WHERE JOB_ID = ?",
+                jobId) > 0;
+    }
+
+    /**
+     * Removes a job and its chunks from the queue
+     * 
+     * @return {@code false} if there is no such job
+     */
+    public boolean delete(String jobId) {
+        // job first, so nobody leases chunks of a half deleted job
+        int deleted = template.update("DELETE FROM " + prefix + "SEED_JOB WHERE JOB_ID = ?",
+                jobId);
+        template.update("DELETE FROM " + prefix + "SEED_CHUNK WHERE JOB_ID = ?", jobId);
+        return deleted > 0;
+    }
+
+    static String joinFormats(List<String> formats) {
+        if (formats == null || formats.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String format : formats) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(format);
+        }
+        return sb.toString();
+    }
+
+    static List<String> splitFormats(String formats) {
+        if (formats == null || formats.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(formats.split(","));
+    }
+
+    static String encodeParameters(Map<String, String> parameters) {
+        if (parameters == null || parameters.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        try {
+            // sorted, so equal parameters encode equally
+            for (Map.Entry<String, String> e : new TreeMap<String, String>(parameters).entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append('&');
+                }
+                sb.append(URLEncoder.encode(e.getKey(), "UTF-8")).append('=');
+                if (e.getValue() != null) {
+                    sb.append(URLEncoder.encode(e.getValue(), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        if (sb.length() > SeedQueueDialect.PARAMETERS_SIZE) {
+            throw new IllegalArgumentException("Parameters too long to be queued: " + sb);
+        }
+        return sb.toString();
+    }
+
+    static Map<String, String> decodeParameters(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> parameters = new TreeMap<String, String>();
+        try {
+            for (String kvp : encoded.split("&")) {
+                int idx = kvp.indexOf('=');
+                parameters.put(URLDecoder.decode(kvp.substring(0, idx), "UTF-8"),
+                        URLDecoder.decode(kvp.substring(idx + 1), "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed.cluster;
+
+/**
+ * A rectangle of meta tiles of a single zoom level of a {@link SeedJob}, the unit of work nodes
+ * lease from the {@link JDBCSeedQueue}
+ */
+public class SeedChunk {
+
+    private final String jobId;
+
+    private final int chunkNo;
+
+    private final long[] bounds;
+
+    private final long tiles;
+
+    private final int attempts;
+
+    /**
+     * @param bounds
+     *            the chunk's grid coverage, as {@code minx, miny, maxx, maxy, z}
+     * @param tiles
+     *            the estimated number of tiles of the job in the chunk
+     * @param attempts
+     *            how many times the chunk has been leased, this one included
+     */
+    public SeedChunk(String jobId, int chunkNo, long[] bounds, long tiles, int attempts) {
+        this.jobId = jobId;
+        this.chunkNo = chunkNo;
+        this.bounds = bounds;
+        this.tiles = tiles;
+        this.attempts = attempts;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public int getChunkNo() {
+        return chunkNo;
+    }
+
+    public int getZoom() {
+        return (int) bounds[4];
+    }
+
+    public long[] getBounds() {
+        return bounds;
+    }
+
+    public long getTiles() {
+        return tiles;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "SeedChunk[" + jobId + "#" + chunkNo + ", z" + bounds[4] + " " + bounds[0] + ","
+                + bounds[1] + " - " + bounds[2] + "," + bounds[3] + "]";
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed.cluster;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.seed.GWCTask;
+import org.geowebcache.seed.SeedRequest;
+
+/**
+ * A seed request published to the {@link JDBCSeedQueue}, with the grid set and format already
+ * resolved so every node builds the same tile range out of it.
+ */
+public class SeedJob {
+
+    private final String jobId;
+
+    private final String layerName;
+
+    private final String gridSetId;
+
+    private final String format;
+
+    private final List<String> formats;
+
+    private final GWCTask.TYPE type;
+
+    private final Map<String, String> parameters;
+
+    private final BoundingBox bounds;
+
+    private final String geometry;
+
+    private final int zoomStart;
+
+    private final int zoomStop;
+
+    private final boolean filterUpdate;
+
+    public SeedJob(String jobId, String layerName, String gridSetId, String format,
+            List<String> formats, GWCTask.TYPE type, Map<String, String> parameters,
+            BoundingBox bounds, String geometry, int zoomStart, int zoomStop, boolean filterUpdate) {
+        this.jobId = jobId;
+        this.layerName = layerName;
+        this.gridSetId = gridSetId;
+        this.format = format;
+        this.formats = formats == null ? Collections.<String> emptyList() : formats;
+        this.type = type;
+        this.parameters = parameters == null ? Collections.<String, String> emptyMap()
+                : parameters;
+        this.bounds = bounds;
+        this.geometry = geometry;
+        this.zoomStart = zoomStart;
+        this.zoomStop = zoomStop;
+        this.filterUpdate = filterUpdate;
+    }
+
+    /**
+     * @return the request a node seeds its chunks of the job from
+     */
+    public SeedRequest toSeedRequest() {
+        SeedRequest request = new SeedRequest(layerName, bounds, geometry, gridSetId, 1,
+                zoomStart, zoomStop, format, formats, type, parameters);
+        request.setFilterUpdate(filterUpdate);
+        return request;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getLayerName() {
+        return layerName;
+    }
+
+    public String getGridSetId() {
+        return gridSetId;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public List<String> getFormats() {
+        return formats;
+    }
+
+    public GWCTask.TYPE getType() {
+        return type;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+
+    public String getGeometry() {
+        return geometry;
+    }
+
+    public int getZoomStart() {
+        return zoomStart;
+    }
+
+    public int getZoomStop() {
+        return zoomStop;
+    }
+
+    public boolean isFilterUpdate() {
+        return filterUpdate;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed.cluster;
+
+/**
+ * Progress of a {@link SeedJob} aggregated over all the nodes working on it
+ */
+public class SeedJobStatus {
+
+    public static enum State {
+        PENDING, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private String jobId;
+
+    private String layerName;
+
+    private String type;
+
+    private int zoomStart;
+
+    private int zoomStop;
+
+    private long created;
+
+    private State state;
+
+    private int chunks;
+
+    private int chunksPending;
+
+    private int chunksLeased;
+
+    private int chunksDone;
+
+    private int chunksFailed;
+
+    private long tilesTotal;
+
+    private long tilesDone;
+
+    SeedJobStatus(SeedJob job, long created, boolean cancelled, long tilesTotal) {
+        this.jobId = job.getJobId();
+        this.layerName = job.getLayerName();
+        this.type = job.getType().name();
+        this.zoomStart = job.getZoomStart();
+        this.zoomStop = job.getZoomStop();
+        this.created = created;
+        this.tilesTotal = tilesTotal;
+        this.state = cancelled ? State.CANCELLED : null;
+    }
+
+    void addChunks(String chunkState, int count, long tiles, long tilesDone) {
+        chunks += count;
+        if (JDBCSeedQueue.DONE.equals(chunkState)) {
+            chunksDone += count;
+            // a finished chunk is finished, however many tiles its estimate was off by
+            this.tilesDone += tiles;
+        } else {
+            if (JDBCSeedQueue.PENDING.equals(chunkState)) {
+                chunksPending += count;
+            } else if (JDBCSeedQueue.LEASED.equals(chunkState)) {
+                chunksLeased += count;
+            } else if (JDBCSeedQueue.FAILED.equals(chunkState)) {
+                chunksFailed += count;
+            }
+            this.tilesDone += Math.min(tiles, tilesDone);
+        }
+    }
+
+    void resolveState() {
+        if (state == State.CANCELLED) {
+            return;
+        }
+        if (chunksPending + chunksLeased > 0) {
+            state = chunksLeased > 0 || chunksDone + chunksFailed > 0 ? State.RUNNING
+                    : State.PENDING;
+        } else {
+            state = chunksFailed > 0 ? State.FAILED : State.DONE;
+        }
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getLayerName() {
+        return layerName;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getZoomStart() {
+        return zoomStart;
+    }
+
+    public int getZoomStop() {
+        return zoomStop;
+    }
+
+    /**
+     * @return the job submission time, in milliseconds since the epoch
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public int getChunksPending() {
+        return chunksPending;
+    }
+
+    /**
+     * @return the number of chunks a node is working on
+     */
+    public int getChunksLeased() {
+        return chunksLeased;
+    }
+
+    public int getChunksDone() {
+        return chunksDone;
+    }
+
+    /**
+     * @return the number of chunks given up on after too many failed attempts
+     */
+    public int getChunksFailed() {
+        return chunksFailed;
+    }
+
+    /**
+     * @return the number of tiles in the job, or {@code -1} if too many to count
+     */
+    public long getTilesTotal() {
+        return tilesTotal;
+    }
+
+    /**
+     * @return an estimate of the tiles processed so far
+     */
+    public long getTilesDone() {
+        return tilesDone;
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed.cluster;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The DDL of the {@link JDBCSeedQueue} tables, using types available in H2 and most databases;
+ * subclasses override the types of the databases that lack some of them.
+ * <p>
+ * Only the table creation differs between databases, the queue statements are plain SQL and its
+ * values are bound with {@code setString}, {@code setLong} and the like.
+ * </p>
+ */
+public class SeedQueueDialect {
+
+    // size guesses: the layer name, gridset id and format sizes match the quota store ones, the
+    // encoded parameters fit in the longest VARCHAR Oracle allows
+    static final int LAYER_NAME_SIZE = 128;
+
+    static final int GRIDSET_ID_SIZE = 32;
+
+    static final int FORMAT_SIZE = 64;
+
+    static final int FORMATS_SIZE = 1024;
+
+    static final int PARAMETERS_SIZE = 4000;
+
+    /**
+     * @return the dialect for the database with the given product name, as reported by the JDBC
+     *         driver, or the default one if it's none of the known ones
+     */
+    public static SeedQueueDialect forDatabase(String productName) {
+        String name = productName == null ? "" : productName.toLowerCase();
+        if (name.contains("postgres")) {
+            return new PostgreSQLSeedQueueDialect();
+        } else if (name.contains("oracle")) {
+            return new OracleSeedQueueDialect();
+        }
+        return new SeedQueueDialect();
+    }
+
+    /**
+     * @return the type of the columns holding tile counts, indexes and times
+     */
+    protected String longType() {
+        return "BIGINT";
+    }
+
+    /**
+     * @return the type of the unbounded text columns, such as the WKT or GeoJSON seed geometry
+     */
+    protected String textType() {
+        return "CLOB";
+    }
+
+    /**
+     * @return the type of the text columns of bounded length
+     */
+    protected String varcharType(int size) {
+        return "VARCHAR(" + size + ")";
+    }
+
+    /**
+     * @return the commands creating each of the queue tables, by table name, with a
+     *         {@code ${schema}} placeholder for the schema prefix
+     */
+    public Map<String, List<String>> getTableCreationMap() {
+        Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+        map.put("SEED_JOB", Arrays.asList( //
+                "CREATE TABLE ${schema}SEED_JOB (\n" + //
+                        "  JOB_ID " + varcharType(36) + " PRIMARY KEY,\n" + //
+                        "  LAYER_NAME " + varcharType(LAYER_NAME_SIZE) + " NOT NULL,\n" + //
+                        "  GRIDSET_ID " + varcharType(GRIDSET_ID_SIZE) + " NOT NULL,\n" + //
+                        "  FORMAT " + varcharType(FORMAT_SIZE) + " NOT NULL,\n" + //
+                        "  FORMATS " + varcharType(FORMATS_SIZE) + ",\n" + //
+                        "  TYPE " + varcharType(16) + " NOT NULL,\n" + //
+                        "  PARAMETERS " + varcharType(PARAMETERS_SIZE) + ",\n" + //
+                        "  MIN_X DOUBLE PRECISION,\n" + //
+                        "  MIN_Y DOUBLE PRECISION,\n" + //
+                        "  MAX_X DOUBLE PRECISION,\n" + //
+                        "  MAX_Y DOUBLE PRECISION,\n" + //
+                        "  GEOMETRY " + textType() + ",\n" + //
+                        "  ZOOM_START INTEGER NOT NULL,\n" + //
+                        "  ZOOM_STOP INTEGER NOT NULL,\n" + //
+                        "  FILTER_UPDATE SMALLINT NOT NULL,\n" + //
+                        "  CANCELLED SMALLINT NOT NULL,\n" + //
+                        "  CREATED " + longType() + " NOT NULL,\n" + //
+                        "  TILES " + longType() + " NOT NULL\n" + //
+                        ")", //
+                "CREATE INDEX SEED_JOB_LAYER ON ${schema}SEED_JOB(LAYER_NAME)"));
+        map.put("SEED_CHUNK", Arrays.asList( //
+                "CREATE TABLE ${schema}SEED_CHUNK (\n" + //
+                        "  JOB_ID " + varcharType(36) + " NOT NULL,\n" + //
+                        "  CHUNK_NO INTEGER NOT NULL,\n" + //
+                        "  ZOOM INTEGER NOT NULL,\n" + //
+                        "  MIN_X " + longType() + " NOT NULL,\n" + //
+                        "  MIN_Y " + longType() + " NOT NULL,\n" + //
+                        "  MAX_X " + longType() + " NOT NULL,\n" + //
+                        "  MAX_Y " + longType() + " NOT NULL,\n" + //
+                        "  TILES " + longType() + " NOT NULL,\n" + //
+                        "  STATE " + varcharType(8) + " NOT NULL,\n" + //
+                        "  OWNER " + varcharType(128) + ",\n" + //
+                        "  LEASE_EXPIRES " + longType() + ",\n" + //
+                        "  ATTEMPTS INTEGER NOT NULL,\n" + //
+                        "  TILES_DONE " + longType() + " NOT NULL,\n" + //
+                        "  PRIMARY KEY (JOB_ID, CHUNK_NO)\n" + //
+                        ")", //
+                "CREATE INDEX SEED_CHUNK_STATE ON ${schema}SEED_CHUNK(STATE, ZOOM)"));
+        return map;
+    }
+}
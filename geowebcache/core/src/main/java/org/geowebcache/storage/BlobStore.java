@@ -121,6 +121,24 @@ public interface BlobStore {
      */
     public void put(TileObject obj) throws StorageException;
 
+    /**
+     * Store a batch of blobs, as when bulk loading tiles.
+     * <p>
+     * Stores that can should write the batch more efficiently than one tile at a time, e.g. in a
+     * single transaction, and notify the new tiles to the listeners with a single
+     * {@link BlobStoreListener#tilesStored(List) tilesStored} event. The default implementation
+     * stores each tile with {@link #put(TileObject)}.
+     * </p>
+     * 
+     * @param tiles the tiles to store, possibly of several layers
+     * @throws StorageException
+     */
+    public default void putAll(List<TileObject> tiles) throws StorageException {
+        for (TileObject tile : tiles) {
+            put(tile);
+        }
+    }
+
     /**
      * Wipes the entire storage. Should only be invoked during testing.
      * 
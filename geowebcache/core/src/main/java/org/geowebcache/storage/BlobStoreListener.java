@@ -14,6 +14,8 @@
  */
 package org.geowebcache.storage;
 
+import java.util.List;
+
 import org.geowebcache.grid.GridSet;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.mime.MimeType;
@@ -45,6 +47,27 @@ public interface BlobStoreListener {
     void tileStored(String layerName, String gridSetId, String blobFormat, String parametersId,
             long x, long y, int z, long blobSize);
 
+    /**
+     * Notifies that the blob store stored a batch of new tiles, as when bulk loading tiles with
+     * {@link BlobStore#putAll(List)}.
+     * <p>
+     * Listeners doing some work per event, like queueing disk quota updates, should override it to
+     * handle the batch at once. The default implementation calls
+     * {@link #tileStored(String, String, String, String, long, long, int, long) tileStored} for
+     * each tile.
+     * </p>
+     * 
+     * @param tiles the stored tiles, whose {@link TileObject#getBlobSize() blob size} is the
+     *        actual storage size they use in the blob store's backend storage
+     */
+    default void tilesStored(List<TileObject> tiles) {
+        for (TileObject tile : tiles) {
+            final long[] xyz = tile.getXYZ();
+            tileStored(tile.getLayerName(), tile.getGridSetId(), tile.getBlobFormat(),
+                    tile.getParametersId(), xyz[0], xyz[1], (int) xyz[2], tile.getBlobSize());
+        }
+    }
+
     /**
      * Notifies that the blob store has deleted a tile given by the method arguments.
      * 
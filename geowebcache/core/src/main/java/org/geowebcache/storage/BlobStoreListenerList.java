@@ -91,6 +91,19 @@ public final class BlobStoreListenerList {
                 (int) xyz[2], blobSize);
     }
     
+    /**
+     * Sends a single {@link BlobStoreListener#tilesStored(List) tilesStored} event for a batch of
+     * new tiles
+     */
+    public void sendTilesStored(final List<TileObject> tiles) {
+        if (tiles.isEmpty()) {
+            return;
+        }
+        listeners.forEach(listener->{
+            listener.tilesStored(tiles);
+        });
+    }
+
     public void sendTileUpdated(String layerName, String gridSetId, String blobFormat,
             String parametersId, long x, long y, int z, long blobSize, long oldSize) {
         listeners.forEach(listener->{
@@ -17,13 +17,20 @@
 
 package org.geowebcache.storage;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
@@ -36,6 +43,7 @@ import org.geowebcache.config.ConfigurationException;
 import org.geowebcache.config.FileBlobStoreConfig;
 import org.geowebcache.config.XMLConfiguration;
 import org.geowebcache.layer.TileLayer;
+import org.geowebcache.layer.TileLayerConfigurationListener;
 import org.geowebcache.layer.TileLayerDispatcher;
 import org.geowebcache.locks.LockProvider;
 import org.geowebcache.storage.blobstore.file.FileBlobStore;
@@ -58,6 +66,13 @@ import com.google.common.base.Throwables;
  * <p>
  * At construction time, {@link BlobStore} instances will be created for all
  * {@link BlobStoreConfig#isEnabled() enabled} configs.
+ * <p>
+ * The blob store of each layer is resolved once and remembered until the layer is changed through
+ * the {@link TileLayerDispatcher} or the blob stores are {@link #setBlobStores replaced}, so tile
+ * operations take no lock and don't look the layer up in every configuration. The blob stores are
+ * replaced as a whole: each operation uses either the old or the new ones, and the old ones are
+ * destroyed once the operations using them are done, or after {@link #RETIRE_TIMEOUT_MILLIS} at
+ * most.
  * 
  * @since 1.8
  */
@@ -67,8 +82,40 @@ public class CompositeBlobStore implements BlobStore {
 
     public static final String DEFAULT_STORE_DEFAULT_ID = "_DEFAULT_STORE_";
 
+    /**
+     * How long {@link #setBlobStores} waits for the operations running on the replaced blob stores
+     * before destroying them anyway
+     */
+    static final long RETIRE_TIMEOUT_MILLIS = 60000;
+
     @VisibleForTesting
-    Map<String, LiveStore> blobStores = new ConcurrentHashMap<>();
+    volatile Map<String, LiveStore> blobStores = new ConcurrentHashMap<>();
+
+    /**
+     * The blob store resolved for each layer, by layer name
+     */
+    private final ConcurrentMap<String, ResolvedStore> resolvedStores = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on every layer or blob store change, so that a store resolved before it isn't
+     * remembered
+     */
+    private final AtomicLong configChanges = new AtomicLong();
+
+    private final TileLayerConfigurationListener layerListener =
+            new TileLayerConfigurationListener() {
+        @Override
+        public void layerChanged(String layerName) {
+            configChanges.incrementAndGet();
+            resolvedStores.remove(layerName);
+        }
+
+        @Override
+        public void layersReloaded() {
+            configChanges.incrementAndGet();
+            resolvedStores.clear();
+        }
+    };
 
     private TileLayerDispatcher layers;
 
@@ -76,8 +123,6 @@ public class CompositeBlobStore implements BlobStore {
 
     private LockProvider lockProvider;
 
-    private final ReadWriteLock configLock = new ReentrantReadWriteLock();
-
     private final BlobStoreListenerList listeners = new BlobStoreListenerList();
 
     @VisibleForTesting
@@ -86,11 +131,75 @@ public class CompositeBlobStore implements BlobStore {
 
         BlobStore liveInstance;
 
+        /**
+         * Number of operations running on the live instance
+         */
+        private final AtomicInteger operations = new AtomicInteger();
+
+        private volatile boolean retired;
+
         public LiveStore(BlobStoreConfig config, @Nullable BlobStore store) {
             Preconditions.checkArgument(config.isEnabled() == (store != null));
             this.config = config;
             this.liveInstance = store;
         }
+
+        /**
+         * Registers an operation on the live instance, to be {@link #release() released} once
+         * done
+         * 
+         * @return {@code false} if the store has been replaced and can't be used anymore
+         */
+        boolean acquire() {
+            operations.incrementAndGet();
+            if (retired) {
+                operations.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        void release() {
+            operations.decrementAndGet();
+        }
+
+        /**
+         * Refuses new operations, the running ones keep going
+         */
+        void retire() {
+            retired = true;
+        }
+
+        boolean isIdle() {
+            return operations.get() == 0;
+        }
+    }
+
+    /**
+     * The blob store of a layer, valid as long as the blob stores are the ones it was resolved
+     * from and the layer still has the same name and blob store id
+     */
+    private static final class ResolvedStore {
+        final TileLayer layer;
+
+        final String blobStoreId;
+
+        final Map<String, LiveStore> blobStores;
+
+        final LiveStore store;
+
+        ResolvedStore(TileLayer layer, Map<String, LiveStore> blobStores, LiveStore store) {
+            this.layer = layer;
+            this.blobStoreId = layer.getBlobStoreId();
+            this.blobStores = blobStores;
+            this.store = store;
+        }
+
+        boolean isValid(String layerName, Map<String, LiveStore> currentStores) {
+            return blobStores == currentStores
+                    && Objects.equals(blobStoreId, layer.getBlobStoreId())
+                    && layerName.equals(layer.getName());
+        }
     }
 
     /**
@@ -119,36 +228,56 @@ public class CompositeBlobStore implements BlobStore {
         this.defaultStorageFinder = defaultStorageFinder;
         this.lockProvider = configuration.getLockProvider();
         this.blobStores = loadBlobStores(configuration.getBlobStores());
+        layers.addConfigurationListener(layerListener);
     }
 
     @Override
     public boolean delete(String layerName) throws StorageException {
-        return readFunctionUnsafe(()->store(layerName).delete(layerName));
+        return withStore(layerName, store -> store.delete(layerName));
     }
 
     @Override
     public boolean deleteByGridsetId(String layerName, String gridSetId) throws StorageException {
-        return readFunctionUnsafe(()->store(layerName).deleteByGridsetId(layerName, gridSetId));
+        return withStore(layerName, store -> store.deleteByGridsetId(layerName, gridSetId));
     }
 
     @Override
     public boolean delete(TileObject obj) throws StorageException {
-        return readFunctionUnsafe(()->store(obj.getLayerName()).delete(obj));
+        return withStore(obj.getLayerName(), store -> store.delete(obj));
     }
 
     @Override
     public boolean delete(TileRange obj) throws StorageException {
-        return readFunctionUnsafe(()->store(obj.getLayerName()).delete(obj));
+        return withStore(obj.getLayerName(), store -> store.delete(obj));
     }
 
     @Override
     public boolean get(TileObject obj) throws StorageException {
-        return readFunctionUnsafe(()->store(obj.getLayerName()).get(obj));
+        return withStore(obj.getLayerName(), store -> store.get(obj));
     }
 
     @Override
     public void put(TileObject obj) throws StorageException {
-        readActionUnsafe(()->store(obj.getLayerName()).put(obj));
+        withStore(obj.getLayerName(), store -> {
+            store.put(obj);
+            return null;
+        });
+    }
+
+    /**
+     * Hands each layer's tiles as a single batch to the layer's blob store
+     */
+    @Override
+    public void putAll(List<TileObject> tiles) throws StorageException {
+        Map<String, List<TileObject>> byLayer = tiles.stream().collect(
+                Collectors.groupingBy(TileObject::getLayerName, LinkedHashMap::new,
+                        Collectors.toList()));
+        for (Map.Entry<String, List<TileObject>> layerTiles : byLayer.entrySet()) {
+            withStore(layerTiles.getKey(), store -> {
+                store.putAll(layerTiles.getValue());
+                return null;
+            });
+        }
     }
 
     @Deprecated
@@ -159,6 +288,8 @@ public class CompositeBlobStore implements BlobStore {
 
     @Override
     public synchronized void destroy() {
+        layers.removeConfigurationListener(layerListener);
+        resolvedStores.clear();
         destroy(blobStores);
     }
 
@@ -179,7 +310,7 @@ public class CompositeBlobStore implements BlobStore {
      * Adds the listener to all enabled blob stores
      */
     @Override
-    public void addListener(BlobStoreListener listener) {
+    public synchronized void addListener(BlobStoreListener listener) {
         readAction(()->{
             this.listeners.addListener(listener);// save it for later in case setBlobStores is
             // called
@@ -195,7 +326,7 @@ public class CompositeBlobStore implements BlobStore {
      * Removes the listener from all the enabled blob stores
      */
     @Override
-    public boolean removeListener(BlobStoreListener listener) {
+    public synchronized boolean removeListener(BlobStoreListener listener) {
         return readFunction(()->{
             this.listeners.removeListener(listener);
             return blobStores.values().stream()
@@ -208,13 +339,10 @@ public class CompositeBlobStore implements BlobStore {
     
     @Override
     public boolean rename(String oldLayerName, String newLayerName) throws StorageException {
-        return readFunctionUnsafe(()->{
-            for (LiveStore bs : blobStores.values()) {
-                BlobStoreConfig config = bs.config;
-                if (config.isEnabled()) {
-                    if (bs.liveInstance.rename(oldLayerName, newLayerName)) {
-                        return true;
-                    }
+        return withStores(stores -> {
+            for (BlobStore store : stores) {
+                if (store.rename(oldLayerName, newLayerName)) {
+                    return true;
                 }
             }
             return false;
@@ -223,23 +351,80 @@ public class CompositeBlobStore implements BlobStore {
 
     @Override
     public String getLayerMetadata(String layerName, String key) {
-        return readFunction(()->store(layerName).getLayerMetadata(layerName, key));
+        return readFunction(() -> withStore(layerName,
+                store -> store.getLayerMetadata(layerName, key)));
     }
 
     @Override
     public void putLayerMetadata(String layerName, String key, String value) {
-        readAction(()->{
-            store(layerName).putLayerMetadata(layerName, key, value);
-        });
+        readAction(() -> withStore(layerName, store -> {
+            store.putLayerMetadata(layerName, key, value);
+            return null;
+        }));
     }
 
     @Override
     public boolean layerExists(String layerName) {
-        return readFunction(()->blobStores.values().stream()
-                .anyMatch(bs->bs.config.isEnabled() && bs.liveInstance.layerExists(layerName)));
+        return readFunction(() -> withStores(stores -> stores.stream().anyMatch(
+                store -> store.layerExists(layerName))));
+    }
+
+    /**
+     * Runs the function on the layer's blob store, making sure the store isn't destroyed by
+     * {@link #setBlobStores} while the function runs
+     */
+    private <T> T withStore(String layerName, StoreFunction<T> function) throws StorageException {
+        while (true) {
+            LiveStore store = store(layerName);
+            if (store.acquire()) {
+                try {
+                    return function.apply(store.liveInstance);
+                } finally {
+                    store.release();
+                }
+            }
+            // replaced since it was resolved, the next attempt resolves one of the new stores
+        }
     }
 
-    private BlobStore store(String layerId) throws StorageException {
+    /**
+     * Runs the function on all the enabled blob stores, making sure none of them is destroyed by
+     * {@link #setBlobStores} while the function runs
+     */
+    private <T> T withStores(StoresFunction<T> function) throws StorageException {
+        while (true) {
+            // the default store is also mapped by its own id
+            Set<LiveStore> enabled = new LinkedHashSet<>();
+            for (LiveStore store : blobStores.values()) {
+                if (store.config.isEnabled()) {
+                    enabled.add(store);
+                }
+            }
+            List<LiveStore> acquired = new ArrayList<>(enabled.size());
+            try {
+                for (LiveStore store : enabled) {
+                    if (!store.acquire()) {
+                        break;
+                    }
+                    acquired.add(store);
+                }
+                if (acquired.size() == enabled.size()) {
+                    List<BlobStore> stores = new ArrayList<>(acquired.size());
+                    for (LiveStore store : acquired) {
+                        stores.add(store.liveInstance);
+                    }
+                    return function.apply(stores);
+                }
+            } finally {
+                for (LiveStore store : acquired) {
+                    store.release();
+                }
+            }
+            // some were replaced in the meantime, try again with the new stores
+        }
+    }
+
+    private LiveStore store(String layerId) throws StorageException {
 
         LiveStore store;
         try {
@@ -252,7 +437,7 @@ public class CompositeBlobStore implements BlobStore {
                     + store.config.getId());
         }
 
-        return store.liveInstance;
+        return store;
     }
 
     /**
@@ -260,47 +445,94 @@ public class CompositeBlobStore implements BlobStore {
      * @throws GeoWebCacheException if the layer is not found
      */
     private LiveStore forLayer(String layerName) throws StorageException, GeoWebCacheException {
-        TileLayer layer;
-        try {
-            layer = layers.getTileLayer(layerName);
-        } catch (GeoWebCacheException e) {
-            throw e;
+        final Map<String, LiveStore> stores = this.blobStores;
+        ResolvedStore resolved = resolvedStores.get(layerName);
+        if (resolved != null && resolved.isValid(layerName, stores)) {
+            return resolved.store;
         }
+
+        final long changes = configChanges.get();
+        TileLayer layer = layers.getTileLayer(layerName);
         String storeId = layer.getBlobStoreId();
         LiveStore store;
         if (null == storeId) {
-            store = defaultStore();
+            store = defaultStore(stores);
         } else {
-            store = blobStores.get(storeId);
+            store = stores.get(storeId);
         }
         if (store == null) {
             throw new StorageException("No BlobStore with id '" + storeId + "' found");
         }
+
+        resolved = new ResolvedStore(layer, stores, store);
+        resolvedStores.put(layerName, resolved);
+        if (configChanges.get() != changes) {
+            // the layer or the blob stores changed while resolving, let the next call resolve again
+            resolvedStores.remove(layerName, resolved);
+        }
         return store;
     }
 
-    private LiveStore defaultStore() throws StorageException {
-        LiveStore store = blobStores.get(CompositeBlobStore.DEFAULT_STORE_DEFAULT_ID);
+    /**
+     * @return the live instance of the blob store with the given id, empty if there's no such
+     *         blob store or it's disabled
+     */
+    public Optional<BlobStore> getBlobStore(String blobStoreId) {
+        LiveStore store = blobStores.get(blobStoreId);
+        return Optional.ofNullable(store == null ? null : store.liveInstance);
+    }
+
+    private LiveStore defaultStore(Map<String, LiveStore> stores) throws StorageException {
+        LiveStore store = stores.get(CompositeBlobStore.DEFAULT_STORE_DEFAULT_ID);
         if (store == null) {
             throw new StorageException("No default BlobStore has been defined");
         }
         return store;
     }
 
-    public void setBlobStores(Iterable<? extends BlobStoreConfig> configs) throws StorageException,
-            ConfigurationException {
-        configLock.writeLock().lock();
+    /**
+     * Replaces the blob stores, the new ones are used by the operations started after the new
+     * stores are all created. The old ones are destroyed once the operations still using them are
+     * done, waiting for {@link #RETIRE_TIMEOUT_MILLIS} at most.
+     */
+    public synchronized void setBlobStores(Iterable<? extends BlobStoreConfig> configs)
+            throws StorageException, ConfigurationException {
+        Map<String, LiveStore> newStores = loadBlobStores(configs);
+        Map<String, LiveStore> oldStores = this.blobStores;
+        this.blobStores = newStores;
+        configChanges.incrementAndGet();
+        resolvedStores.clear();
+        retire(oldStores.values());
+    }
+
+    private void retire(Collection<LiveStore> oldStores) {
+        // the default store is also mapped by its own id
+        Set<LiveStore> retired = new LinkedHashSet<>();
+        for (LiveStore ls : oldStores) {
+            if (ls.liveInstance != null) {
+                ls.retire();
+                retired.add(ls);
+            }
+        }
+        final long deadline = System.currentTimeMillis() + RETIRE_TIMEOUT_MILLIS;
         try {
-            Map<String, LiveStore> newStores = loadBlobStores(configs);
-            Map<String, LiveStore> oldStores = this.blobStores;
-            this.blobStores = newStores;
-            for (LiveStore ls : oldStores.values()) {
-                if (ls.liveInstance != null) {
-                    ls.liveInstance.destroy();
+            while (!retired.stream().allMatch(LiveStore::isIdle)) {
+                if (System.currentTimeMillis() >= deadline) {
+                    log.warn("Destroying the replaced blob stores while still in use, after "
+                            + "waiting " + RETIRE_TIMEOUT_MILLIS + "ms for their operations");
+                    break;
                 }
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (LiveStore ls : retired) {
+            try {
+                ls.liveInstance.destroy();
+            } catch (Exception e) {
+                log.error("Error disposing BlobStore " + ls.config.getId(), e);
             }
-        } finally {
-            configLock.writeLock().unlock();
         }
     }
 
@@ -388,17 +620,17 @@ public class CompositeBlobStore implements BlobStore {
     @Override
     public boolean deleteByParametersId(String layerName, String parametersId)
             throws StorageException {
-        return readFunctionUnsafe(()->store(layerName).deleteByParametersId(layerName, parametersId));
+        return withStore(layerName, store -> store.deleteByParametersId(layerName, parametersId));
     }
     
     @Override
     public Set<Map<String, String>> getParameters(String layerName) {
-        return readFunction(()-> store(layerName).getParameters(layerName));
+        return readFunction(() -> withStore(layerName, store -> store.getParameters(layerName)));
     }
     
     @Override
     public Set<String> getParameterIds(String layerName) {
-        return readFunction(()->store(layerName).getParameterIds(layerName));
+        return readFunction(() -> withStore(layerName, store -> store.getParameterIds(layerName)));
     }
 
     @FunctionalInterface
@@ -409,34 +641,30 @@ public class CompositeBlobStore implements BlobStore {
     static interface StorageAccessor<T> {
         T get() throws StorageException;
     }
-    
-    
-    protected <T> T readFunctionUnsafe(StorageAccessor<T> function) throws StorageException {
-        configLock.readLock().lock();
-        try {
-            return function.get();
-        } finally {
-            configLock.readLock().unlock();
-        }
+    @FunctionalInterface
+    static interface StoreFunction<T> {
+        T apply(BlobStore store) throws StorageException;
     }
+    @FunctionalInterface
+    static interface StoresFunction<T> {
+        T apply(List<BlobStore> stores) throws StorageException;
+    }
+    
     
     protected <T> T readFunction(StorageAccessor<T> function) {
         try {
-            return readFunctionUnsafe(function);
+            return function.get();
         } catch (StorageException e) {
             throw Throwables.propagate(e);
         }
     }
     
-    protected void readActionUnsafe(StorageAction function) throws StorageException {
-        readFunctionUnsafe((StorageAccessor<Void>)()->{function.run();return null;});
-    }
-    
     protected void readAction(StorageAction function) {
         readFunction((StorageAccessor<Void>)()->{function.run();return null;});
     }
 
     public Map<String,Optional<Map<String, String>>> getParametersMapping(String layerName) {
-        return readFunction(()->store(layerName).getParametersMapping(layerName));
+        return readFunction(() -> withStore(layerName,
+                store -> store.getParametersMapping(layerName)));
     }
 }
@@ -17,6 +17,7 @@
  */
 package org.geowebcache.storage;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -94,6 +95,11 @@ public class DefaultStorageBroker implements StorageBroker {
         return true;
     }
 
+    @Override
+    public void putAll(List<TileObject> tiles) throws StorageException {
+        blobStore.putAll(tiles);
+    }
+
     public void destroy() {
         log.info("Destroying StorageBroker");
     }
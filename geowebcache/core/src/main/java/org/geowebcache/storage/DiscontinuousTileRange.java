@@ -60,4 +60,17 @@ public class DiscontinuousTileRange extends TileRange {
     public boolean contains(long[] idx) {
         return contains(idx[0], idx[1], (int) idx[2]);
     }
+
+    /**
+     * @return the number of tiles let through by the mask at zoom level {@code z} if the mask can
+     *         tell, the full rectangle's tile count otherwise
+     */
+    @Override
+    public long tileCount(final int z) {
+        long count = mask.tileCount(z);
+        if (count < 0) {
+            return super.tileCount(z);
+        }
+        return count;
+    }
 }
@@ -0,0 +1,277 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+
+/**
+ * A {@link TileRangeMask} built by rasterizing a polygonal {@link Shape} at each zoom level, where
+ * every pixel of a level's mask represents a tile.
+ * <p>
+ * The grid coverages are the grid subset coverages clipped to the shape's bounds (and optionally
+ * to a bounding box) and expanded to the meta tiling factors. A tile is set when the geometry
+ * intersects it, even if the geometry does not reach the tile center.
+ * </p>
+ * <p>
+ * Masks are only kept while they fit in {@link #MAX_MASK_PIXELS} pixels. Tiles at deeper levels
+ * are looked up on the last masked level by their spatial extent, and their count is estimated
+ * from the resolution ratio.
+ * </p>
+ */
+public class ShapeRasterMask implements TileRangeMask {
+
+    /**
+     * Maximum number of pixels of a single level mask, a 1 bit per pixel image of this size takes
+     * 2MB of heap
+     */
+    static final long MAX_MASK_PIXELS = 1L << 24;
+
+    private final GridSubset gridSubset;
+
+    private final int zoomStart;
+
+    private final int zoomStop;
+
+    private final int maxMaskLevel;
+
+    /**
+     * By level covered bounds, indexed by zoom level
+     */
+    private final long[][] coveredBounds;
+
+    /**
+     * By level masks, indexed by zoom level, {@code null} above {@link #maxMaskLevel}
+     */
+    private final BufferedImage[] byLevelMasks;
+
+    private final long[] tilesSet;
+
+    /**
+     * @param shape the area to mask, in the grid set's CRS
+     * @param gridSubset the grid subset to build the mask for
+     * @param bounds optional bounding box further limiting the masked area, may be {@code null}
+     * @param metaTilingFactors the layer's meta tiling factors the covered bounds are expanded to
+     * @param zoomStop the highest zoom level to build the mask for
+     */
+    public ShapeRasterMask(final Shape shape, final GridSubset gridSubset,
+            final BoundingBox bounds, final int[] metaTilingFactors, final int zoomStop) {
+        this(shape, gridSubset, bounds, metaTilingFactors, zoomStop, MAX_MASK_PIXELS);
+    }
+
+    ShapeRasterMask(Shape shape, final GridSubset gridSubset, final BoundingBox bounds,
+            final int[] metaTilingFactors, final int zoomStop, final long maxMaskPixels) {
+        this.gridSubset = gridSubset;
+        this.zoomStart = gridSubset.getZoomStart();
+        this.zoomStop = Math.min(zoomStop, gridSubset.getZoomStop());
+
+        if (bounds != null) {
+            Area clipped = new Area(shape);
+            clipped.intersect(new Area(new Rectangle2D.Double(bounds.getMinX(), bounds
+                    .getMinY(), bounds.getWidth(), bounds.getHeight())));
+            shape = clipped;
+        }
+        final Rectangle2D shapeBounds = shape.getBounds2D();
+        BoundingBox maskBounds = new BoundingBox(shapeBounds.getMinX(), shapeBounds.getMinY(),
+                shapeBounds.getMaxX(), shapeBounds.getMaxY());
+        final boolean empty = shapeBounds.isEmpty();
+
+        long[][] covered = new long[1 + this.zoomStop - zoomStart][];
+        for (int z = zoomStart; z <= this.zoomStop; z++) {
+            if (empty) {
+                // nothing to mask, a single tile with nothing set keeps iteration short
+                long[] cov = gridSubset.getCoverage(z);
+                covered[z - zoomStart] = new long[] { cov[0], cov[1], cov[0], cov[1], z };
+            } else {
+                covered[z - zoomStart] = gridSubset.getCoverageIntersection(z, maskBounds);
+            }
+        }
+        covered = gridSubset.expandToMetaFactors(covered, metaTilingFactors);
+
+        this.coveredBounds = new long[1 + this.zoomStop][];
+        this.byLevelMasks = new BufferedImage[1 + this.zoomStop];
+        this.tilesSet = new long[1 + this.zoomStop];
+
+        int lastMasked = zoomStart - 1;
+        for (int z = zoomStart; z <= this.zoomStop; z++) {
+            final long[] cov = covered[z - zoomStart];
+            coveredBounds[z] = cov;
+            final long width = 1 + cov[2] - cov[0];
+            final long height = 1 + cov[3] - cov[1];
+            if (lastMasked == z - 1 && width * height <= maxMaskPixels) {
+                BufferedImage mask = new BufferedImage((int) width, (int) height,
+                        BufferedImage.TYPE_BYTE_BINARY);
+                if (!empty) {
+                    draw(shape, mask, gridSubset.boundsFromRectangle(cov));
+                }
+                byLevelMasks[z] = mask;
+                tilesSet[z] = countSetPixels(mask);
+                lastMasked = z;
+            }
+        }
+        this.maxMaskLevel = lastMasked;
+    }
+
+    private static void draw(final Shape shape, final BufferedImage mask,
+            final BoundingBox maskBounds) {
+
+        final double scaleX = mask.getWidth() / maskBounds.getWidth();
+        final double scaleY = mask.getHeight() / maskBounds.getHeight();
+        // world to pixel, flipping the y axis
+        AffineTransform worldToPixel = new AffineTransform(scaleX, 0, 0, -scaleY, -scaleX
+                * maskBounds.getMinX(), scaleY * maskBounds.getMaxY());
+        Shape pixelShape = worldToPixel.createTransformedShape(shape);
+
+        // the fill sets the pixels whose center is inside the shape
+        render(pixelShape, mask, null);
+
+        // a 1.5px wide outline reaches every pixel the shape boundary crosses, plus a few it
+        // doesn't, check those candidates one by one
+        BufferedImage outline = new BufferedImage(mask.getWidth(), mask.getHeight(),
+                BufferedImage.TYPE_BYTE_BINARY);
+        render(pixelShape, outline, new BasicStroke(1.5f));
+
+        final WritableRaster maskRaster = mask.getRaster();
+        final Raster outlineRaster = outline.getRaster();
+        final byte[] outlineData = ((DataBufferByte) outlineRaster.getDataBuffer()).getData();
+        final int bytesPerRow = outlineData.length / outline.getHeight();
+        for (int y = 0; y < outline.getHeight(); y++) {
+            for (int i = 0; i < bytesPerRow; i++) {
+                if (outlineData[y * bytesPerRow + i] == 0) {
+                    continue;
+                }
+                final int maxX = Math.min(8 * (i + 1), outline.getWidth());
+                for (int x = 8 * i; x < maxX; x++) {
+                    if (outlineRaster.getSample(x, y, 0) != 0
+                            && maskRaster.getSample(x, y, 0) == 0
+                            && pixelShape.intersects(x, y, 1, 1)) {
+                        maskRaster.setSample(x, y, 0, 1);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void render(final Shape pixelShape, final BufferedImage image,
+            final BasicStroke stroke) {
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_OFF);
+            graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
+                    RenderingHints.VALUE_STROKE_PURE);
+            graphics.setColor(Color.WHITE);
+            if (stroke == null) {
+                graphics.fill(pixelShape);
+            } else {
+                graphics.setStroke(stroke);
+                graphics.draw(pixelShape);
+            }
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    private static long countSetPixels(final BufferedImage mask) {
+        // row padding bits are never drawn on, so all set bits are tiles
+        byte[] data = ((DataBufferByte) mask.getRaster().getDataBuffer()).getData();
+        long count = 0;
+        for (byte b : data) {
+            count += Integer.bitCount(b & 0xFF);
+        }
+        return count;
+    }
+
+    public long[][] getGridCoverages() {
+        long[][] coverages = new long[1 + zoomStop - zoomStart][];
+        System.arraycopy(coveredBounds, zoomStart, coverages, 0, coverages.length);
+        return coverages;
+    }
+
+    public boolean lookup(final long x, final long y, final int z) {
+        if (z < zoomStart || z > zoomStop) {
+            return false;
+        }
+        if (!inside(coveredBounds[z], x, y)) {
+            return false;
+        }
+        if (z <= maxMaskLevel) {
+            return isTileSet(x, y, z);
+        }
+        if (maxMaskLevel < zoomStart) {
+            // not even the top level could be masked, be conservative
+            return true;
+        }
+        // look up the tiles overlapping this one on the deepest masked level
+        BoundingBox tileBounds = gridSubset.boundsFromIndex(new long[] { x, y, z });
+        long[] parent = gridSubset.getCoverageIntersection(maxMaskLevel, tileBounds);
+        for (long py = parent[1]; py <= parent[3]; py++) {
+            for (long px = parent[0]; px <= parent[2]; px++) {
+                if (isTileSet(px, py, maxMaskLevel)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isTileSet(final long x, final long y, final int z) {
+        final long[] cov = coveredBounds[z];
+        if (!inside(cov, x, y)) {
+            return false;
+        }
+        final Raster raster = byLevelMasks[z].getRaster();
+        // tile y axis goes upwards, raster's downwards
+        int rasterX = (int) (x - cov[0]);
+        int rasterY = (raster.getHeight() - 1) - (int) (y - cov[1]);
+        return raster.getSample(rasterX, rasterY, 0) != 0;
+    }
+
+    private static boolean inside(final long[] cov, final long x, final long y) {
+        return x >= cov[0] && x <= cov[2] && y >= cov[1] && y <= cov[3];
+    }
+
+    /**
+     * Returns the number of tiles set at the given zoom level, exact up to the deepest masked level
+     * and estimated from the resolution ratio below it.
+     */
+    @Override
+    public long tileCount(final int z) {
+        if (z < zoomStart || z > zoomStop || maxMaskLevel < zoomStart) {
+            return -1;
+        }
+        if (z <= maxMaskLevel) {
+            return tilesSet[z];
+        }
+        final double[] resolutions = gridSubset.getResolutions();
+        final double ratio = resolutions[maxMaskLevel - zoomStart] / resolutions[z - zoomStart];
+        final long[] cov = coveredBounds[z];
+        final long rectangle = (1 + cov[2] - cov[0]) * (1 + cov[3] - cov[1]);
+        return Math.min(rectangle, (long) Math.ceil(tilesSet[maxMaskLevel] * ratio * ratio));
+    }
+}
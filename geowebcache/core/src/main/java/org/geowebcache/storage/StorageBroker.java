@@ -1,5 +1,6 @@
 package org.geowebcache.storage;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -72,6 +73,18 @@ public interface StorageBroker {
      */
     public abstract boolean put(TileObject tileObj) throws StorageException;
 
+    /**
+     * Puts a batch of TileObjects into storage
+     * @param tiles
+     * @throws StorageException
+     * @see BlobStore#putAll(List)
+     */
+    public default void putAll(List<TileObject> tiles) throws StorageException {
+        for (TileObject tile : tiles) {
+            put(tile);
+        }
+    }
+
     /**
      * Destroy method for Spring
      */
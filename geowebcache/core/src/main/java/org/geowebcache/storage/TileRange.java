@@ -157,6 +157,17 @@ public class TileRange {
         return parameters;
     }
 
+    /**
+     * @return the bounds of the zoom levels that have them, as {@code minx, miny, maxx, maxy, z},
+     *         or {@code null} if the range is unbounded
+     */
+    public long[][] getRangeBounds() {
+        if (null == rangeBounds) {
+            return null;
+        }
+        return rangeBounds.values().toArray(new long[rangeBounds.size()][]);
+    }
+
     public long[] rangeBounds(final int zoomLevel) {
         if (zoomLevel < zoomStart) {
             throw new IllegalArgumentException(zoomLevel + " < zoomStart (" + zoomStart + ")");
@@ -171,4 +182,40 @@ public class TileRange {
         }
         return zlevelBounds;
     }
+
+    /**
+     * @return the number of tiles in the range, or {@code -1} if it's unbounded or too big to count
+     */
+    public long tileCount() {
+        if (null == rangeBounds) {
+            return -1;
+        }
+        long count = 0;
+
+        for (int z = zoomStart; z <= zoomStop; z++) {
+            long thisLevel = tileCount(z);
+
+            if (thisLevel < 0 || (thisLevel > (Long.MAX_VALUE / 4) && z != zoomStop)) {
+                return -1;
+            } else {
+                count += thisLevel;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the number of tiles in the range at zoom level {@code z}
+     */
+    public long tileCount(final int z) {
+        long[] gridBounds = rangeBounds(z);
+
+        final long minx = gridBounds[0];
+        final long maxx = gridBounds[2];
+        final long miny = gridBounds[1];
+        final long maxy = gridBounds[3];
+
+        return (1 + maxx - minx) * (1 + maxy - miny);
+    }
 }
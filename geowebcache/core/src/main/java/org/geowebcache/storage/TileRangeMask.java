@@ -31,4 +31,12 @@ public interface TileRangeMask {
 
     public abstract boolean lookup(long x, long y, int z);
 
+    /**
+     * @return the number of tiles the mask lets through at zoom level {@code z}, or {@code -1} if
+     *         unknown
+     */
+    public default long tileCount(int z) {
+        return -1;
+    }
+
 }
\ No newline at end of file
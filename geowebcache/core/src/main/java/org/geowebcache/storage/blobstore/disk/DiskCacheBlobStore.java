@@ -0,0 +1,515 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.disk;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.filter.parameters.ParametersUtils;
+import org.geowebcache.io.Resource;
+import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.BlobStoreListener;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+import org.geowebcache.storage.blobstore.file.FileBlobStore;
+import org.geowebcache.storage.blobstore.memory.CacheStatistics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A {@link BlobStore} keeping a size bounded copy of the tiles read from another, usually remote,
+ * {@link BlobStore} on the local disk.
+ * <p>
+ * Tiles not found on the local disk are read from the wrapped store, and copied to the local disk
+ * in the background. Once the local copies reach the configured size, the least recently used
+ * ones are deleted. Tile writes and deletes go to the wrapped store, and discard the affected
+ * local copies both before and after the wrapped store call, so the local disk never serves a
+ * tile the wrapped store no longer has once the call returns. Listeners are registered with the
+ * wrapped store, so they're not told about the local copies.
+ * <p>
+ * The local copies are tracked in memory, so they don't survive a restart: the cache directory is
+ * emptied at startup. To guard against pointing it to a directory holding anything else, the
+ * directory must either be empty or have been created by this class.
+ */
+public class DiskCacheBlobStore implements BlobStore {
+
+    private static final Log log = LogFactory.getLog(DiskCacheBlobStore.class);
+
+    /**
+     * Marks a directory as owned by this class, and hence safe to empty at startup
+     */
+    static final String MARKER_FILE = ".gwc_disk_cache";
+
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+
+    public static final int DEFAULT_FILL_THREADS = 2;
+
+    /**
+     * Maximum number of local copies waiting to be written, more misses than this while the disk
+     * is busy are not copied
+     */
+    private static final int MAX_PENDING_FILLS = 1000;
+
+    private static final int STRIPES = 256;
+
+    private final BlobStore store;
+
+    private final FileBlobStore local;
+
+    private final long maxSize;
+
+    private final Executor fillExecutor;
+
+    /**
+     * Size of each local copy, by tile. Evicting an entry deletes the local copy.
+     */
+    private final Cache<CachedTile, Integer> index;
+
+    /**
+     * Incremented on every bulk invalidation, so that copies of tiles read before it are not kept
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Incremented on single tile invalidations, by tile hash, so that tile writes only discard
+     * the copies of tiles in the same stripe being written at the same time
+     */
+    private final AtomicLongArray stripeGenerations = new AtomicLongArray(STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param store the store to cache the tiles of
+     * @param cacheDirectory where to keep the local copies
+     * @param maxSize maximum size of the local copies, in bytes
+     * @param fillThreads number of threads writing the local copies
+     */
+    public DiskCacheBlobStore(BlobStore store, File cacheDirectory, long maxSize, int fillThreads)
+            throws StorageException {
+        this(store, cacheDirectory, maxSize, createFillExecutor(fillThreads));
+    }
+
+    @VisibleForTesting
+    DiskCacheBlobStore(BlobStore store, File cacheDirectory, long maxSize, Executor fillExecutor)
+            throws StorageException {
+        checkNotNull(store, "store");
+        checkNotNull(cacheDirectory, "cacheDirectory");
+        checkArgument(maxSize > 0, "maxSize must be positive: %s", maxSize);
+        this.store = store;
+        this.maxSize = maxSize;
+        this.fillExecutor = fillExecutor;
+        prepare(cacheDirectory);
+        this.local = new FileBlobStore(cacheDirectory.getAbsolutePath());
+        this.index = CacheBuilder.newBuilder().maximumWeight(maxSize)
+                .weigher(new Weigher<CachedTile, Integer>() {
+                    @Override
+                    public int weigh(CachedTile tile, Integer size) {
+                        return size;
+                    }
+                }).removalListener(new RemovalListener<CachedTile, Integer>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<CachedTile, Integer> notification) {
+                        // a replaced entry's file is the one just written
+                        if (notification.getCause() != RemovalCause.REPLACED) {
+                            deleteLocal(notification.getKey());
+                        }
+                    }
+                }).recordStats().build();
+    }
+
+    private static ExecutorService createFillExecutor(int fillThreads) {
+        checkArgument(fillThreads > 0, "fillThreads must be positive: %s", fillThreads);
+        return new ThreadPoolExecutor(fillThreads, fillThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_FILLS), new ThreadFactoryBuilder()
+                        .setDaemon(true).setNameFormat("GWC DiskCacheBlobStore fill thread-%d")
+                        .build(), new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Empties the cache directory, refusing to do so if it wasn't created by this class
+     */
+    private static void prepare(File cacheDirectory) throws StorageException {
+        File marker = new File(cacheDirectory, MARKER_FILE);
+        try {
+            if (cacheDirectory.isDirectory()) {
+                String[] contents = cacheDirectory.list();
+                if (contents != null && contents.length > 0 && !marker.exists()) {
+                    throw new StorageException(cacheDirectory
+                            + " is not empty and is not a disk cache directory, refusing to use it");
+                }
+                FileUtils.cleanDirectory(cacheDirectory);
+            } else {
+                FileUtils.forceMkdir(cacheDirectory);
+            }
+            FileUtils.touch(marker);
+        } catch (IOException e) {
+            throw new StorageException("Unable to prepare disk cache directory "
+                    + cacheDirectory, e);
+        }
+    }
+
+    /**
+     * @return the store whose tiles are cached
+     */
+    public BlobStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the hit and miss counts of the local copies, and their current and maximum size
+     */
+    public CacheStatistics getCacheStatistics() {
+        final long hitCount = hits.get();
+        final long missCount = misses.get();
+        final long requestCount = hitCount + missCount;
+        final long actualSize = actualSize();
+
+        CacheStatistics statistics = new CacheStatistics();
+        statistics.setHitCount(hitCount);
+        statistics.setMissCount(missCount);
+        statistics.setTotalCount(requestCount);
+        // rates and occupation as percentages, like the in memory cache statistics
+        statistics.setHitRate(requestCount == 0 ? 100 : (int) (100 * hitCount / requestCount));
+        statistics.setMissRate(100 - statistics.getHitRate());
+        statistics.setEvictionCount(index.stats().evictionCount());
+        statistics.setTotalSize(maxSize);
+        statistics.setActualSize(actualSize);
+        statistics.setCurrentMemoryOccupation(100d * actualSize / maxSize);
+        return statistics;
+    }
+
+    private long actualSize() {
+        long size = 0;
+        for (Integer tileSize : index.asMap().values()) {
+            size += tileSize;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean get(TileObject obj) throws StorageException {
+        final CachedTile tile = new CachedTile(obj);
+        if (index.getIfPresent(tile) != null) {
+            if (local.get(obj)) {
+                hits.incrementAndGet();
+                return true;
+            }
+            // deleted behind our back
+            index.invalidate(tile);
+        }
+        misses.incrementAndGet();
+
+        final long readGeneration = generation(tile);
+        final boolean found = store.get(obj);
+        if (found) {
+            final TileObject copy = TileObject.createCompleteTileObject(obj.getLayerName(),
+                    obj.getXYZ().clone(), obj.getGridSetId(), obj.getBlobFormat(),
+                    obj.getParameters(), obj.getBlob());
+            copy.setParametersId(tile.parametersId);
+            copy.setCreated(obj.getCreated());
+            fillExecutor.execute(() -> fill(tile, copy, readGeneration));
+        }
+        return found;
+    }
+
+    /**
+     * Writes the local copy of a tile read from the wrapped store, unless it was invalidated
+     * since it was read
+     */
+    private void fill(CachedTile tile, TileObject copy, long readGeneration) {
+        if (generation(tile) != readGeneration) {
+            return;
+        }
+        try {
+            final Resource blob = copy.getBlob();
+            final long size = blob.getSize();
+            if (size < 0 || size > Integer.MAX_VALUE) {
+                return;
+            }
+            local.put(copy);
+            index.put(tile, (int) size);
+            if (generation(tile) != readGeneration) {
+                index.invalidate(tile);
+            }
+        } catch (StorageException | RuntimeException e) {
+            log.warn("Unable to write local copy of tile " + tile, e);
+            deleteLocal(tile);
+        }
+    }
+
+    /**
+     * @return a value that changes whenever the local copy of the tile is invalidated
+     */
+    private long generation(CachedTile tile) {
+        return generation.get() + stripeGenerations.get(stripe(tile));
+    }
+
+    private static int stripe(CachedTile tile) {
+        return tile.hashCode() & (STRIPES - 1);
+    }
+
+    private void deleteLocal(CachedTile tile) {
+        try {
+            local.delete(tile.toTileObject());
+        } catch (StorageException | RuntimeException e) {
+            log.warn("Unable to delete local copy of tile " + tile, e);
+        }
+    }
+
+    /**
+     * Discards the local copies matching the filter, and any copy being written
+     */
+    private void invalidate(Predicate<CachedTile> filter) {
+        generation.incrementAndGet();
+        for (CachedTile tile : index.asMap().keySet()) {
+            if (filter.test(tile)) {
+                index.invalidate(tile);
+            }
+        }
+    }
+
+    private void invalidate(TileObject obj) {
+        CachedTile tile = new CachedTile(obj);
+        stripeGenerations.incrementAndGet(stripe(tile));
+        index.invalidate(tile);
+    }
+
+    /*
+     * Every write and delete invalidates the affected local copies both before and after the
+     * wrapped store call: a tile read from the wrapped store while the call runs may be the old
+     * one, and its copy must not survive the call.
+     */
+
+    @Override
+    public void put(TileObject obj) throws StorageException {
+        invalidate(obj);
+        try {
+            store.put(obj);
+        } finally {
+            invalidate(obj);
+        }
+    }
+
+    @Override
+    public boolean delete(TileObject obj) throws StorageException {
+        invalidate(obj);
+        try {
+            return store.delete(obj);
+        } finally {
+            invalidate(obj);
+        }
+    }
+
+    @Override
+    public boolean delete(final TileRange range) throws StorageException {
+        final String format = range.getMimeType().getFormat();
+        final String parametersId = range.getParametersId() == null ? ParametersUtils
+                .getId(range.getParameters()) : range.getParametersId();
+        return invalidating(tile -> tile.layerName.equals(range.getLayerName())
+                && tile.gridSetId.equals(range.getGridSetId()) && tile.format.equals(format)
+                && Objects.equals(tile.parametersId, parametersId) && range.contains(tile.xyz),
+                () -> store.delete(range));
+    }
+
+    @Override
+    public boolean delete(String layerName) throws StorageException {
+        return invalidating(tile -> tile.layerName.equals(layerName),
+                () -> store.delete(layerName));
+    }
+
+    @Override
+    public boolean deleteByGridsetId(String layerName, String gridSetId) throws StorageException {
+        return invalidating(
+                tile -> tile.layerName.equals(layerName) && tile.gridSetId.equals(gridSetId),
+                () -> store.deleteByGridsetId(layerName, gridSetId));
+    }
+
+    @Override
+    public boolean deleteByParametersId(String layerName, String parametersId)
+            throws StorageException {
+        return invalidating(tile -> tile.layerName.equals(layerName)
+                && Objects.equals(tile.parametersId, parametersId),
+                () -> store.deleteByParametersId(layerName, parametersId));
+    }
+
+    @Override
+    public boolean rename(String oldLayerName, String newLayerName) throws StorageException {
+        return invalidating(tile -> tile.layerName.equals(oldLayerName),
+                () -> store.rename(oldLayerName, newLayerName));
+    }
+
+    @Override
+    public void clear() throws StorageException {
+        invalidating(tile -> true, () -> {
+            store.clear();
+            return true;
+        });
+    }
+
+    /**
+     * A bulk operation on the wrapped store
+     */
+    @FunctionalInterface
+    private interface StoreOperation {
+        boolean run() throws StorageException;
+    }
+
+    /**
+     * Runs a bulk operation on the wrapped store, discarding the local copies matching the filter
+     * before and after it
+     */
+    private boolean invalidating(Predicate<CachedTile> filter, StoreOperation operation)
+            throws StorageException {
+        invalidate(filter);
+        try {
+            return operation.run();
+        } finally {
+            invalidate(filter);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (fillExecutor instanceof ExecutorService) {
+            ((ExecutorService) fillExecutor).shutdownNow();
+        }
+        index.invalidateAll();
+        local.destroy();
+        store.destroy();
+    }
+
+    @Override
+    public void addListener(BlobStoreListener listener) {
+        store.addListener(listener);
+    }
+
+    @Override
+    public boolean removeListener(BlobStoreListener listener) {
+        return store.removeListener(listener);
+    }
+
+    @Override
+    public String getLayerMetadata(String layerName, String key) {
+        return store.getLayerMetadata(layerName, key);
+    }
+
+    @Override
+    public void putLayerMetadata(String layerName, String key, String value) {
+        store.putLayerMetadata(layerName, key, value);
+    }
+
+    @Override
+    public boolean layerExists(String layerName) {
+        return store.layerExists(layerName);
+    }
+
+    @Override
+    public Set<Map<String, String>> getParameters(String layerName) throws StorageException {
+        return store.getParameters(layerName);
+    }
+
+    @Override
+    public Set<String> getParameterIds(String layerName) throws StorageException {
+        return store.getParameterIds(layerName);
+    }
+
+    @Override
+    public Map<String, Optional<Map<String, String>>> getParametersMapping(String layerName) {
+        return store.getParametersMapping(layerName);
+    }
+
+    /**
+     * Identity of a locally copied tile, holding what's needed to find its file
+     */
+    private static final class CachedTile {
+
+        final String layerName;
+
+        final String gridSetId;
+
+        final String format;
+
+        final String parametersId;
+
+        final long[] xyz;
+
+        CachedTile(TileObject obj) {
+            this.layerName = obj.getLayerName();
+            this.gridSetId = obj.getGridSetId();
+            this.format = obj.getBlobFormat();
+            this.parametersId = obj.getParametersId() == null ? ParametersUtils.getId(obj
+                    .getParameters()) : obj.getParametersId();
+            this.xyz = obj.getXYZ().clone();
+        }
+
+        TileObject toTileObject() {
+            TileObject obj = TileObject.createQueryTileObject(layerName, xyz.clone(), gridSetId,
+                    format, null);
+            obj.setParametersId(parametersId);
+            return obj;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CachedTile)) {
+                return false;
+            }
+            CachedTile t = (CachedTile) o;
+            return Arrays.equals(xyz, t.xyz) && layerName.equals(t.layerName)
+                    && gridSetId.equals(t.gridSetId) && format.equals(t.format)
+                    && Objects.equals(parametersId, t.parametersId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(layerName, gridSetId, format, parametersId, Arrays.hashCode(xyz));
+        }
+
+        @Override
+        public String toString() {
+            return layerName + "/" + gridSetId + "/" + format + "/" + parametersId + "/"
+                    + Arrays.toString(xyz);
+        }
+    }
+}
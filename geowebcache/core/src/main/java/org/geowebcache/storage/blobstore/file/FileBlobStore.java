@@ -36,7 +36,9 @@ import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -452,6 +454,45 @@ public class FileBlobStore implements BlobStore {
      * Store a tile.
      */
     public void put(TileObject stObj) throws StorageException {
+        final long oldSize = store(stObj);
+
+        /*
+         * This is important because listeners may be tracking tile existence
+         */
+        if (oldSize > 0) {
+            listeners.sendTileUpdated(stObj, padSize(oldSize));
+        } else {
+            listeners.sendTileStored(stObj);
+        }
+    }
+
+    /**
+     * Stores the tiles one after the other, but notifies all the new ones to the listeners with a
+     * single event
+     */
+    @Override
+    public void putAll(List<TileObject> tiles) throws StorageException {
+        List<TileObject> stored = new ArrayList<TileObject>(tiles.size());
+        try {
+            for (TileObject stObj : tiles) {
+                final long oldSize = store(stObj);
+                if (oldSize > 0) {
+                    listeners.sendTileUpdated(stObj, padSize(oldSize));
+                } else {
+                    stored.add(stObj);
+                }
+            }
+        } finally {
+            listeners.sendTilesStored(stored);
+        }
+    }
+
+    /**
+     * Writes the tile file, setting the tile blob size to the padded file size
+     * 
+     * @return the size of the replaced tile file, {@code 0} if the tile is new
+     */
+    private long store(TileObject stObj) throws StorageException {
         final File fh = getFileHandleTile(stObj, true);
         final long oldSize = fh.length();
         final boolean existed = oldSize > 0;
@@ -467,15 +508,8 @@ public class FileBlobStore implements BlobStore {
             }
         }
 
-        /*
-         * This is important because listeners may be tracking tile existence
-         */
         stObj.setBlobSize((int) padSize(stObj.getBlobSize()));
-        if (existed) {
-            listeners.sendTileUpdated(stObj, padSize(oldSize));
-        } else {
-            listeners.sendTileStored(stObj);
-        }
+        return oldSize;
     }
 
     private File getFileHandleTile(TileObject stObj, boolean create) throws StorageException {
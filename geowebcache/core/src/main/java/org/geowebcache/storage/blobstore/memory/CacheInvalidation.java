@@ -0,0 +1,174 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.memory;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+import org.geowebcache.mime.MimeException;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+
+/**
+ * Serializable description of the cached tiles to discard after a change to the wrapped blob
+ * store, sent over a {@link CacheInvalidationBus}.
+ * <p>
+ * Tile ranges are sent as their per zoom level bounds, so the mask of a
+ * {@link org.geowebcache.storage.DiscontinuousTileRange} is not sent and the receivers discard all
+ * the tiles within its bounds.
+ * </p>
+ */
+public class CacheInvalidation implements Serializable {
+
+    private static final long serialVersionUID = 5433213493498409768L;
+
+    /**
+     * The kind of invalidation
+     */
+    public static enum Type {
+        /** A single tile */
+        TILE,
+        /** The tiles in a tile range */
+        RANGE,
+        /** All the tiles of a layer */
+        LAYER,
+        /** All the cached tiles */
+        CLEAR
+    }
+
+    private final String origin;
+
+    private final Type type;
+
+    private String layerName;
+
+    private String gridSetId;
+
+    private String format;
+
+    private String parametersId;
+
+    private HashMap<String, String> parameters;
+
+    private long[] xyz;
+
+    private int zoomStart;
+
+    private int zoomStop;
+
+    private long[][] rangeBounds;
+
+    private CacheInvalidation(String origin, Type type) {
+        this.origin = origin;
+        this.type = type;
+    }
+
+    public static CacheInvalidation tile(String origin, TileObject tile) {
+        CacheInvalidation invalidation = new CacheInvalidation(origin, Type.TILE);
+        invalidation.layerName = tile.getLayerName();
+        invalidation.gridSetId = tile.getGridSetId();
+        invalidation.format = tile.getBlobFormat();
+        invalidation.parametersId = tile.getParametersId();
+        if (tile.getParameters() != null) {
+            invalidation.parameters = new HashMap<String, String>(tile.getParameters());
+        }
+        invalidation.xyz = tile.getXYZ().clone();
+        return invalidation;
+    }
+
+    public static CacheInvalidation range(String origin, TileRange range) {
+        CacheInvalidation invalidation = new CacheInvalidation(origin, Type.RANGE);
+        invalidation.layerName = range.getLayerName();
+        invalidation.gridSetId = range.getGridSetId();
+        invalidation.format = range.getMimeType() == null ? null : range.getMimeType().getFormat();
+        invalidation.parametersId = range.getParametersId();
+        if (range.getParameters() != null) {
+            invalidation.parameters = new HashMap<String, String>(range.getParameters());
+        }
+        invalidation.zoomStart = range.getZoomStart();
+        invalidation.zoomStop = range.getZoomStop();
+        invalidation.rangeBounds = range.getRangeBounds();
+        return invalidation;
+    }
+
+    public static CacheInvalidation layer(String origin, String layerName) {
+        CacheInvalidation invalidation = new CacheInvalidation(origin, Type.LAYER);
+        invalidation.layerName = layerName;
+        return invalidation;
+    }
+
+    public static CacheInvalidation clear(String origin) {
+        return new CacheInvalidation(origin, Type.CLEAR);
+    }
+
+    /**
+     * @return the identifier of the node that published the invalidation
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getLayerName() {
+        return layerName;
+    }
+
+    /**
+     * Discards the invalidated tiles from the given cache
+     * 
+     * @param cache
+     */
+    public void apply(CacheProvider cache) {
+        switch (type) {
+        case TILE:
+            TileObject tile = TileObject.createQueryTileObject(layerName, xyz, gridSetId, format,
+                    parameters);
+            tile.setParametersId(parametersId);
+            cache.removeTileObj(tile);
+            break;
+        case RANGE:
+            cache.removeTileRange(toTileRange());
+            break;
+        case LAYER:
+            cache.removeLayer(layerName);
+            break;
+        case CLEAR:
+            cache.clear();
+            break;
+        }
+    }
+
+    TileRange toTileRange() {
+        MimeType mimeType = null;
+        if (format != null) {
+            try {
+                mimeType = MimeType.createFromFormat(format);
+            } catch (MimeException e) {
+                // unknown here, the range will match all the formats
+            }
+        }
+        return new TileRange(layerName, gridSetId, zoomStart, zoomStop, rangeBounds, mimeType,
+                parameters, parametersId);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheInvalidation[" + type + ", origin:" + origin + ", layer:" + layerName + "]";
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.memory;
+
+/**
+ * Sends the {@link CacheInvalidation}s of a {@link MemoryBlobStore} to the other nodes of a
+ * cluster, so that their {@link CacheProvider}s stop serving the tiles that have been deleted or
+ * replaced. Only needed when each node has a cache of its own, like the {@link
+ * org.geowebcache.storage.blobstore.memory.guava.GuavaCacheProvider}.
+ * 
+ * @see InProcessCacheInvalidationBus
+ */
+public interface CacheInvalidationBus {
+
+    /**
+     * Sends an invalidation to all the listeners of the cluster. Delivery may be asynchronous.
+     * 
+     * @param invalidation
+     */
+    public void publish(CacheInvalidation invalidation);
+
+    /**
+     * Adds a listener receiving the invalidations published by any node
+     * 
+     * @param listener
+     */
+    public void addListener(CacheInvalidationListener listener);
+
+    /**
+     * Removes a listener
+     * 
+     * @param listener
+     * @return {@code true} if the listener was registered
+     */
+    public boolean removeListener(CacheInvalidationListener listener);
+}
@@ -0,0 +1,29 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.memory;
+
+/**
+ * Receives the {@link CacheInvalidation}s published on a {@link CacheInvalidationBus}
+ */
+public interface CacheInvalidationListener {
+
+    /**
+     * Called for each invalidation published on the bus, including the ones published by the
+     * listener owner.
+     * 
+     * @param invalidation
+     */
+    public void invalidate(CacheInvalidation invalidation);
+}
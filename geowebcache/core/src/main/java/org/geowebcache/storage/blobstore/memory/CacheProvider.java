@@ -17,6 +17,7 @@ package org.geowebcache.storage.blobstore.memory;
 import java.util.List;
 
 import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
 import org.geowebcache.storage.blobstore.memory.CacheConfiguration.EvictionPolicy;
 
 /**
@@ -54,6 +55,14 @@ public interface CacheProvider {
      */
     public void removeLayer(String layername);
 
+    /**
+     * Removes the {@link TileObject}s of the tile range from cache, leaving the other tiles of the
+     * layer cached. Implementations may remove more tiles than the range contains.
+     * 
+     * @param range
+     */
+    public void removeTileRange(TileRange range);
+
     /**
      * Removes all the cached {@link TileObject}s
      */
@@ -0,0 +1,53 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.memory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link CacheInvalidationBus} delivering the invalidations to the listeners of the same JVM, on
+ * the publishing thread. Useful for tests and for several {@link MemoryBlobStore}s sharing a JVM.
+ */
+public class InProcessCacheInvalidationBus implements CacheInvalidationBus {
+
+    private static final Log LOG = LogFactory.getLog(InProcessCacheInvalidationBus.class);
+
+    private final List<CacheInvalidationListener> listeners = new CopyOnWriteArrayList<CacheInvalidationListener>();
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        for (CacheInvalidationListener listener : listeners) {
+            try {
+                listener.invalidate(invalidation);
+            } catch (RuntimeException e) {
+                LOG.error("Error delivering " + invalidation, e);
+            }
+        }
+    }
+
+    @Override
+    public void addListener(CacheInvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean removeListener(CacheInvalidationListener listener) {
+        return listeners.remove(listener);
+    }
+}
@@ -20,6 +20,7 @@ import java.nio.channels.WritableByteChannel;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -50,6 +51,12 @@ import org.springframework.context.ApplicationContextAware;
  * caching. Caching is provided by an input {@link CacheProvider} object. It must be pointed out that this Blobstore has an asynchronous relation
  * with the underlying wrapped {@link BlobStore}. In fact, each operation on the wrapped {@link BlobStore} is scheduled in a queue and will be done
  * by an executor thread. Operations that require a boolean value will have to wait until previous tasks are completed. 
+ * <p>
+ * When each cluster node has a cache of its own, an optional {@link CacheInvalidationBus} sends the tiles removed or replaced by this node to the
+ * others, once the wrapped {@link BlobStore} has completed the operation, so that they do not keep serving them. Storing a new tile publishes
+ * nothing, as no node can have cached it: replacements are told apart by the
+ * {@link BlobStoreListener#tileUpdated(String, String, String, String, long, long, int, long, long) tileUpdated} events of the wrapped store.
+ * </p>
  * 
  * @author Nicola Lagomarsini Geosolutions
  */
@@ -85,6 +92,75 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
      */
     private final ReadLock componentsStateLock;
 
+    /** Identifier of this node in the published {@link CacheInvalidation}s */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /** Optional {@link CacheInvalidationBus} shared with the other cluster nodes */
+    private CacheInvalidationBus invalidationBus;
+
+    /** Applies the invalidations published by the other nodes to the cacheProvider */
+    private final CacheInvalidationListener invalidationListener = new CacheInvalidationListener() {
+
+        @Override
+        public void invalidate(CacheInvalidation invalidation) {
+            if (nodeId.equals(invalidation.getOrigin())) {
+                // Already applied
+                return;
+            }
+            componentsStateLock.lock();
+            try {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Applying " + invalidation);
+                }
+                invalidation.apply(cacheProvider);
+            } finally {
+                componentsStateLock.unlock();
+            }
+        }
+    };
+
+    /** Set by the replacementListener while the executor thread puts a tile in the wrapped store */
+    private final ThreadLocal<boolean[]> putReplaced = new ThreadLocal<>();
+
+    /** Tells a put whether it replaced an existing tile, registered on the wrapped store only while there is an invalidationBus */
+    private final BlobStoreListener replacementListener = new BlobStoreListener() {
+
+        @Override
+        public void tileUpdated(String layerName, String gridSetId, String blobFormat,
+                String parametersId, long x, long y, int z, long blobSize, long oldSize) {
+            boolean[] replaced = putReplaced.get();
+            if (replaced != null) {
+                replaced[0] = true;
+            }
+        }
+
+        @Override
+        public void tileStored(String layerName, String gridSetId, String blobFormat,
+                String parametersId, long x, long y, int z, long blobSize) {
+        }
+
+        @Override
+        public void tileDeleted(String layerName, String gridSetId, String blobFormat,
+                String parametersId, long x, long y, int z, long blobSize) {
+        }
+
+        @Override
+        public void layerDeleted(String layerName) {
+        }
+
+        @Override
+        public void layerRenamed(String oldLayerName, String newLayerName) {
+        }
+
+        @Override
+        public void gridSubsetDeleted(String layerName, String gridSetId) {
+        }
+
+        @Override
+        public void parametersDeleted(String layerName, String parametersId) {
+        }
+    };
+
     public MemoryBlobStore() {
         // Initialization of the various elements
         this.executorService = Executors.newFixedThreadPool(1);
@@ -119,6 +195,7 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
             cacheProvider.removeLayer(layerName);
             // Remove the layer. Wait other scheduled tasks
             boolean executed = executeBlobStoreTask(BlobStoreAction.DELETE_LAYER, store, layerName);
+            publish(CacheInvalidation.layer(nodeId, layerName));
             if (LOG.isDebugEnabled()) {
                 if (executed) {
                     LOG.debug("Delete Layer Task executed");
@@ -148,6 +225,7 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
             // Remove selected gridsets
             executorService.submit(new BlobStoreTask(store, BlobStoreAction.DELETE_GRIDSET,
                     layerName, gridSetId));
+            publish(CacheInvalidation.layer(nodeId, layerName));
             return true;
         } finally {
             componentsStateLock.unlock();
@@ -168,6 +246,7 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
                 LOG.debug("Scheduling removal of TileObject: " + obj);
             }
             executorService.submit(new BlobStoreTask(store, BlobStoreAction.DELETE_SINGLE, obj));
+            publish(CacheInvalidation.tile(nodeId, obj));
             return true;
         } finally {
             componentsStateLock.unlock();
@@ -183,8 +262,8 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
                         + ", min/max levels: " + "[" + obj.getZoomStart() + ", "
                         + obj.getZoomStop() + "], Gridset: " + obj.getGridSetId());
             }
-            // Remove layer for the cacheProvider
-            cacheProvider.removeLayer(obj.getLayerName());
+            // Remove the range tiles from the cacheProvider, keeping the others
+            cacheProvider.removeTileRange(obj);
             // Remove selected TileObject
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Scheduling removal of TileObjects for Layer: " + obj.getLayerName()
@@ -193,6 +272,7 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
             }
             // Remove selected TileRange
             executorService.submit(new BlobStoreTask(store, BlobStoreAction.DELETE_RANGE, obj));
+            publish(CacheInvalidation.range(nodeId, obj));
             return true;
         } finally {
             componentsStateLock.unlock();
@@ -263,8 +343,12 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Adding TileObject: " + obj + " to the wrapped blobstore");
             }
-            // Variable containing the execution result
-            executeBlobStoreTask(BlobStoreAction.PUT, store, obj);
+            if (invalidationBus == null) {
+                executeBlobStoreTask(BlobStoreAction.PUT, store, obj);
+            } else if (putReplacing(obj)) {
+                // The other nodes may have cached the previous version
+                publish(CacheInvalidation.tile(nodeId, obj));
+            }
         } finally {
             componentsStateLock.unlock();
         }
@@ -281,6 +365,7 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
             cacheProvider.clear();
             // Remove all the files
             executorService.submit(new BlobStoreTask(store, BlobStoreAction.CLEAR, ""));
+            publish(CacheInvalidation.clear(nodeId));
         } finally {
             componentsStateLock.unlock();
         }
@@ -293,6 +378,10 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Reset cache");
             }
+            // Stop receiving invalidations
+            if (invalidationBus != null) {
+                invalidationBus.removeListener(invalidationListener);
+            }
             // flush the cacheProvider
             cacheProvider.reset();
             // Remove all the files
@@ -351,6 +440,7 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
             // Variable containing the execution result
             boolean executed = executeBlobStoreTask(BlobStoreAction.RENAME, store, oldLayerName,
                     newLayerName);
+            publish(CacheInvalidation.clear(nodeId));
             return executed;
         } finally {
             componentsStateLock.unlock();
@@ -414,6 +504,10 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
             if (store == null) {
                 throw new NullPointerException("Input BlobStore cannot be null");
             }
+            if (invalidationBus != null) {
+                this.store.removeListener(replacementListener);
+                store.addListener(replacementListener);
+            }
             this.store = store;
         } finally {
             blobStoreStateLock.unlock();
@@ -456,6 +550,50 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
         }
     }
 
+    /**
+     * Setter for the {@link CacheInvalidationBus} shared with the other cluster nodes
+     * 
+     * @param invalidationBus the bus, or {@code null} to stop publishing and receiving invalidations
+     */
+    public void setInvalidationBus(CacheInvalidationBus invalidationBus) {
+        blobStoreStateLock.lock();
+        try {
+            if (this.invalidationBus != null) {
+                this.invalidationBus.removeListener(invalidationListener);
+                store.removeListener(replacementListener);
+            }
+            this.invalidationBus = invalidationBus;
+            if (invalidationBus != null) {
+                invalidationBus.addListener(invalidationListener);
+                store.addListener(replacementListener);
+            }
+        } finally {
+            blobStoreStateLock.unlock();
+        }
+    }
+
+    /**
+     * Publishes an invalidation on the {@link CacheInvalidationBus}, if any, once the tasks already scheduled on the wrapped {@link BlobStore} are
+     * completed. Publishing earlier would let the other nodes cache again the tiles being removed.
+     */
+    private void publish(final CacheInvalidation invalidation) {
+        final CacheInvalidationBus bus = invalidationBus;
+        if (bus == null) {
+            return;
+        }
+        executorService.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    bus.publish(invalidation);
+                } catch (RuntimeException e) {
+                    LOG.error("Unable to publish " + invalidation, e);
+                }
+            }
+        });
+    }
+
     /***
      * This method is used for converting a {@link TileObject} {@link Resource} into a {@link ByteArrayResource}.
      * 
@@ -583,6 +721,42 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
         }
     }
 
+    /**
+     * Puts the tile in the wrapped {@link BlobStore}, waiting for the scheduled tasks like {@link #executeBlobStoreTask}
+     * 
+     * @return whether the put replaced an existing tile
+     */
+    private boolean putReplacing(final TileObject obj) {
+        final BlobStore store = this.store;
+        Future<Boolean> future = executorService.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                boolean[] replaced = new boolean[1];
+                putReplaced.set(replaced);
+                try {
+                    store.put(obj);
+                } catch (StorageException s) {
+                    if (LOG.isErrorEnabled()) {
+                        LOG.error(s.getMessage(), s);
+                    }
+                } finally {
+                    putReplaced.remove();
+                }
+                return replaced[0];
+            }
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            if (LOG.isErrorEnabled()) {
+                LOG.error(e.getMessage(), e);
+            }
+            // Unknown outcome, the other nodes may have cached the previous version
+            return true;
+        }
+    }
+
     private boolean executeBlobStoreTask(BlobStoreAction action, BlobStore store, Object... objs) {
         Future<Boolean> future = executorService.submit(new BlobStoreTask(store, action, objs));
         // Variable containing the execution result
@@ -774,6 +948,7 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
             // Remove selected parameters
             executorService.submit(new BlobStoreTask(store, BlobStoreAction.DELETE_PARAMS_ID,
                     layerName, parametersId));
+            publish(CacheInvalidation.layer(nodeId, layerName));
             return true;
         } finally {
             componentsStateLock.unlock();
@@ -14,8 +14,10 @@
  */
 package org.geowebcache.storage.blobstore.memory.guava;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,12 +35,16 @@ import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.Logger;
+import org.geowebcache.filter.parameters.ParametersUtils;
+import org.geowebcache.mime.MimeType;
 import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
 import org.geowebcache.storage.blobstore.memory.CacheConfiguration;
 import org.geowebcache.storage.blobstore.memory.CacheConfiguration.EvictionPolicy;
 import org.geowebcache.storage.blobstore.memory.CacheProvider;
 import org.geowebcache.storage.blobstore.memory.CacheStatistics;
 
+import com.google.common.base.Objects;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheStats;
@@ -381,6 +387,71 @@ public class GuavaCacheProvider implements CacheProvider {
         }
     }
 
+    @Override
+    public void removeTileRange(TileRange range) {
+        // Check if the cache has already been configured
+        if (configured.get()) {
+            // Increment the number of current operations
+            // This behavior is used in order to wait
+            // the end of all the operations after setting
+            // the configured parameter to false
+            actualOperations.incrementAndGet();
+            try {
+                String layername = range.getLayerName();
+                // Check if the layer must be cached
+                if (layers.contains(layername)) {
+                    // The layer must not be cached
+                    return;
+                }
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Removing range of Layer: " + layername + " from cache");
+                }
+                // Only the layer tiles are checked, the removal listener updates the multimap
+                List<String> removed = new ArrayList<String>();
+                for (String key : multimap.getLayerTiles(layername)) {
+                    // Not counted as a cache hit
+                    TileObject obj = cache.asMap().get(key);
+                    if (obj != null && isInRange(obj, range)) {
+                        removed.add(key);
+                    }
+                }
+                cache.invalidateAll(removed);
+            } finally {
+                // Decrement the number of current operations.
+                actualOperations.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Checks if a cached {@link TileObject} belongs to the range, with the same rules used by the
+     * blob stores when deleting a range
+     */
+    static boolean isInRange(TileObject obj, TileRange range) {
+        if (range.getGridSetId() != null && !range.getGridSetId().equals(obj.getGridSetId())) {
+            return false;
+        }
+        MimeType mimeType = range.getMimeType();
+        if (mimeType != null && !mimeType.getFormat().equals(obj.getBlobFormat())) {
+            return false;
+        }
+        String parametersId = obj.getParametersId() != null ? obj.getParametersId()
+                : ParametersUtils.getId(obj.getParameters());
+        if (!Objects.equal(range.getParametersId(), parametersId)) {
+            return false;
+        }
+        long[] xyz = obj.getXYZ();
+        if (xyz[2] < range.getZoomStart() || xyz[2] > range.getZoomStop()) {
+            return false;
+        }
+        try {
+            return range.contains(xyz);
+        } catch (IllegalStateException e) {
+            // No bounds for the zoom level, nothing to remove there
+            return false;
+        }
+    }
+
     @Override
     public void clear() {
         // Check if the cache has already been configured
@@ -706,6 +777,25 @@ public class GuavaCacheProvider implements CacheProvider {
             }
         }
 
+        /**
+         * Returns a copy of the {@link TileObject} keys of a Layer
+         * 
+         * @param layer
+         * @return the keys associated to the Layer, empty if none
+         */
+        public Set<String> getLayerTiles(String layer) {
+            readLock.lock();
+            try {
+                Set<String> tileKeys = layerMap.get(layer);
+                if (tileKeys == null) {
+                    return Collections.emptySet();
+                }
+                return new HashSet<String>(tileKeys);
+            } finally {
+                readLock.unlock();
+            }
+        }
+
         /**
          * Removes a layer {@link Set} and returns it to the cache.
          * 
@@ -0,0 +1,166 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.tiered;
+
+import static org.geowebcache.storage.blobstore.file.FilePathUtils.filteredGridSetId;
+import static org.geowebcache.storage.blobstore.file.FilePathUtils.filteredLayerName;
+import static org.geowebcache.storage.blobstore.file.FilePathUtils.gridsetZoomLevelDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import org.geowebcache.io.FileResource;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.TileObject;
+
+/**
+ * Lists the tiles of a hot tier laid out like a
+ * {@link org.geowebcache.storage.blobstore.file.FileBlobStore}, i.e.
+ * {@code <root>/<layer>/<gridset>_<z>[_<parametersId>]/<hx>_<hy>/<x>_<y>.<extension>}.
+ * <p>
+ * The directory names are filtered, so the layer and grid set names are recovered from the
+ * configured layers; directories and files matching none of them are skipped.
+ */
+class HotTileScanner {
+
+    private final File root;
+
+    private final TileLayerDispatcher layers;
+
+    private final BlobStore hot;
+
+    /**
+     * @param root the base directory of the hot tier
+     * @param layers the configured layers
+     * @param hot the hot tier, asked for the parameters of each parameters id
+     */
+    HotTileScanner(File root, TileLayerDispatcher layers, BlobStore hot) {
+        this.root = root;
+        this.layers = layers;
+        this.hot = hot;
+    }
+
+    /**
+     * Calls the visitor with each tile found, its blob being the tile file
+     */
+    void scan(Consumer<TileObject> visitor) throws IOException {
+        for (TileLayer layer : layers.getLayerList()) {
+            final File layerDir = new File(root, filteredLayerName(layer.getName()));
+            if (!layerDir.isDirectory()) {
+                continue;
+            }
+            final Map<String, String> formats = new HashMap<>();
+            for (MimeType mimeType : layer.getMimeTypes()) {
+                formats.put(mimeType.getFileExtension(), mimeType.getFormat());
+            }
+            final Map<String, Optional<Map<String, String>>> parametersMapping = hot
+                    .getParametersMapping(layer.getName());
+            try (DirectoryStream<Path> zoomDirs = Files.newDirectoryStream(layerDir.toPath())) {
+                for (Path zoomDir : zoomDirs) {
+                    for (String gridSetId : layer.getGridSubsets()) {
+                        if (scanZoomDir(layer.getName(), gridSetId, zoomDir, formats,
+                                parametersMapping, visitor)) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the directory holds the tiles of a zoom level of the grid set
+     */
+    private boolean scanZoomDir(String layerName, String gridSetId, Path zoomDir,
+            Map<String, String> formats,
+            Map<String, Optional<Map<String, String>>> parametersMapping,
+            Consumer<TileObject> visitor) throws IOException {
+        final String dirName = zoomDir.getFileName().toString();
+        final String prefix = filteredGridSetId(gridSetId) + "_";
+        if (!dirName.startsWith(prefix) || !Files.isDirectory(zoomDir)) {
+            return false;
+        }
+        final String[] parts = dirName.substring(prefix.length()).split("_", 2);
+        final long z;
+        try {
+            z = Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        final String parametersId = parts.length == 2 ? parts[1] : null;
+        // rules out grid sets whose filtered name starts like this one's
+        if (!gridsetZoomLevelDir(gridSetId, z).equals(dirName.substring(0, prefix.length()
+                + parts[0].length()))) {
+            return false;
+        }
+        final Map<String, String> parameters = parametersId == null ? null : parametersMapping
+                .getOrDefault(parametersId, Optional.empty()).orElse(null);
+
+        try (DirectoryStream<Path> halfDirs = Files.newDirectoryStream(zoomDir)) {
+            for (Path halfDir : halfDirs) {
+                if (!Files.isDirectory(halfDir)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> tiles = Files.newDirectoryStream(halfDir)) {
+                    for (Path tile : tiles) {
+                        TileObject obj = parseTile(layerName, gridSetId, z, parametersId,
+                                parameters, formats, tile.toFile());
+                        if (obj != null) {
+                            visitor.accept(obj);
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static TileObject parseTile(String layerName, String gridSetId, long z,
+            String parametersId, Map<String, String> parameters, Map<String, String> formats,
+            File file) {
+        final String name = file.getName();
+        final int underscore = name.indexOf('_');
+        final int dot = name.lastIndexOf('.');
+        if (underscore < 0 || dot < underscore) {
+            return null;
+        }
+        final String format = formats.get(name.substring(dot + 1));
+        if (format == null) {
+            return null;
+        }
+        final long x;
+        final long y;
+        try {
+            x = Long.parseLong(name.substring(0, underscore));
+            y = Long.parseLong(name.substring(underscore + 1, dot));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        TileObject obj = TileObject.createCompleteTileObject(layerName, new long[] { x, y, z },
+                gridSetId, format, parameters, new FileResource(file));
+        obj.setParametersId(parametersId);
+        return obj;
+    }
+}
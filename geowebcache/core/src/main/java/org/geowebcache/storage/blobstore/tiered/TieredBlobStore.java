@@ -0,0 +1,746 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.tiered;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.filter.parameters.ParametersUtils;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.BlobStoreListener;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+import org.geowebcache.storage.blobstore.memory.CacheStatistics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A {@link BlobStore} spreading the tiles over a fast, size bounded, hot tier and a cheap cold
+ * tier, for example a {@link org.geowebcache.storage.blobstore.file.FileBlobStore} in front of
+ * an S3 or MBTiles blob store.
+ * <p>
+ * Each tile lives in one tier only. New tiles are written to the cold tier, and moved to the hot
+ * tier in the background when they are read. Once the hot tiles reach the configured size, the
+ * least recently used ones are moved back to the cold tier in the background. Tiles are moved
+ * with the tiers' own put and delete operations, so the listeners, registered with both tiers,
+ * are told about the moves like about any other write and the disk quota of each tier stays
+ * accurate.
+ * <p>
+ * The hot tiles are tracked in memory, so reads go straight to the tier holding the tile. The
+ * tiles left in the hot tier by a previous run are tracked again by {@link #trackHotTiles}, which
+ * scans the hot tier in the background; until it's done, reads fall back to the hot tier when a
+ * tile is missing from the cold one, and writes of untracked tiles delete the hot copy.
+ * <p>
+ * Promoting a tile deletes it from the cold tier. A cold tier shared by several nodes, each with
+ * its own hot tier, only keeps the tiles no node has promoted.
+ */
+public class TieredBlobStore implements BlobStore {
+
+    private static final Log log = LogFactory.getLog(TieredBlobStore.class);
+
+    public static final long DEFAULT_HOT_MAX_SIZE = 1024L * 1024 * 1024;
+
+    public static final int DEFAULT_MIGRATION_THREADS = 2;
+
+    /**
+     * Maximum number of migrations waiting to run, tiles read from the cold tier while there are
+     * more than this are not promoted. Demotions are always queued, the hot tier budget depends
+     * on them.
+     */
+    static final int MAX_PENDING_PROMOTIONS = 1000;
+
+    private static final int STRIPES = 1024;
+
+    private final BlobStore hot;
+
+    private final BlobStore cold;
+
+    private final long hotMaxSize;
+
+    private final Executor migrationExecutor;
+
+    /**
+     * Size of each hot tile, by tile. Evicting an entry demotes the tile.
+     */
+    private final Cache<TierTile, Integer> hotIndex;
+
+    /**
+     * Serializes the writes and moves of a tile
+     */
+    private final Striped<Lock> locks = Striped.lock(STRIPES);
+
+    /**
+     * Incremented on every bulk delete, so that tiles read before it are not moved
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Incremented on single tile writes and deletes, by tile hash, so that tiles read before
+     * them are not moved
+     */
+    private final AtomicLongArray stripeGenerations = new AtomicLongArray(STRIPES);
+
+    private final AtomicLong hotHits = new AtomicLong();
+
+    private final AtomicLong coldHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong promotions = new AtomicLong();
+
+    private final AtomicLong demotions = new AtomicLong();
+
+    /**
+     * Whether the hot tier may hold tiles that are not tracked
+     */
+    private volatile boolean scanning;
+
+    /**
+     * @param hot the fast tier
+     * @param cold the cheap tier
+     * @param hotMaxSize maximum size of the tiles in the hot tier, in bytes
+     * @param migrationThreads number of threads moving tiles between the tiers
+     */
+    public TieredBlobStore(BlobStore hot, BlobStore cold, long hotMaxSize, int migrationThreads) {
+        this(hot, cold, hotMaxSize, createMigrationExecutor(migrationThreads));
+    }
+
+    @VisibleForTesting
+    TieredBlobStore(BlobStore hot, BlobStore cold, long hotMaxSize, Executor migrationExecutor) {
+        checkNotNull(hot, "hot");
+        checkNotNull(cold, "cold");
+        checkArgument(hotMaxSize > 0, "hotMaxSize must be positive: %s", hotMaxSize);
+        this.hot = hot;
+        this.cold = cold;
+        this.hotMaxSize = hotMaxSize;
+        this.migrationExecutor = migrationExecutor;
+        this.hotIndex = CacheBuilder.newBuilder().maximumWeight(hotMaxSize)
+                .weigher(new Weigher<TierTile, Integer>() {
+                    @Override
+                    public int weigh(TierTile tile, Integer size) {
+                        return size;
+                    }
+                }).removalListener(new RemovalListener<TierTile, Integer>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<TierTile, Integer> notification) {
+                        // explicit removals are done by the operations moving or deleting the tile
+                        if (notification.getCause() == RemovalCause.SIZE) {
+                            TierTile tile = notification.getKey();
+                            long evictedGeneration = generation(tile);
+                            migrationExecutor.execute(() -> demote(tile, evictedGeneration));
+                        }
+                    }
+                }).recordStats().build();
+    }
+
+    private static ExecutorService createMigrationExecutor(int migrationThreads) {
+        checkArgument(migrationThreads > 0, "migrationThreads must be positive: %s",
+                migrationThreads);
+        return new ThreadPoolExecutor(migrationThreads, migrationThreads, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("GWC TieredBlobStore migration thread-%d").build());
+    }
+
+    /**
+     * @return the fast tier
+     */
+    public BlobStore getHotStore() {
+        return hot;
+    }
+
+    /**
+     * @return the cheap tier
+     */
+    public BlobStore getColdStore() {
+        return cold;
+    }
+
+    /**
+     * @return the number of tiles moved to the hot tier so far
+     */
+    public long getPromotionCount() {
+        return promotions.get();
+    }
+
+    /**
+     * @return the number of tiles moved to the cold tier so far
+     */
+    public long getDemotionCount() {
+        return demotions.get();
+    }
+
+    /**
+     * @return the hot tier statistics: tiles read from it are hits, the others are misses, and
+     *         the evictions are the tiles moved back to the cold tier
+     */
+    public CacheStatistics getCacheStatistics() {
+        final long hitCount = hotHits.get();
+        final long missCount = coldHits.get() + misses.get();
+        final long requestCount = hitCount + missCount;
+        final long actualSize = actualSize();
+
+        CacheStatistics statistics = new CacheStatistics();
+        statistics.setHitCount(hitCount);
+        statistics.setMissCount(missCount);
+        statistics.setTotalCount(requestCount);
+        // rates and occupation as percentages, like the in memory cache statistics
+        statistics.setHitRate(requestCount == 0 ? 100 : (int) (100 * hitCount / requestCount));
+        statistics.setMissRate(100 - statistics.getHitRate());
+        statistics.setEvictionCount(hotIndex.stats().evictionCount());
+        statistics.setTotalSize(hotMaxSize);
+        statistics.setActualSize(actualSize);
+        statistics.setCurrentMemoryOccupation(100d * actualSize / hotMaxSize);
+        return statistics;
+    }
+
+    /**
+     * Tracks the tiles left in the hot tier by a previous run, scanning it in the background.
+     * The tiles exceeding the hot tier size are moved to the cold tier as they are tracked.
+     * 
+     * @param hotDirectory the base directory of the hot tier, laid out like a
+     *        {@link org.geowebcache.storage.blobstore.file.FileBlobStore}
+     * @param layers the configured layers, whose tiles are looked for
+     */
+    public void trackHotTiles(File hotDirectory, TileLayerDispatcher layers) {
+        final HotTileScanner scanner = new HotTileScanner(hotDirectory, layers, hot);
+        scanning = true;
+        migrationExecutor.execute(() -> {
+            try {
+                scanner.scan(this::track);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to scan the hot tier " + hotDirectory
+                        + ", its untracked tiles are found as they are requested", e);
+                return;
+            }
+            scanning = false;
+        });
+    }
+
+    /**
+     * Tracks a tile found in the hot tier, unless it was deleted in the meantime
+     */
+    private void track(TileObject obj) {
+        final TierTile tile = new TierTile(obj);
+        final Lock lock = locks.get(tile);
+        lock.lock();
+        try {
+            final long bulkGeneration = generation.get();
+            final long size = obj.getBlob().getSize();
+            if (hotIndex.getIfPresent(tile) != null || size < 0 || size > Integer.MAX_VALUE) {
+                return;
+            }
+            hotIndex.put(tile, (int) size);
+            if (generation.get() != bulkGeneration) {
+                // may have been bulk deleted after its size was read
+                hotIndex.invalidate(tile);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long actualSize() {
+        long size = 0;
+        for (Integer tileSize : hotIndex.asMap().values()) {
+            size += tileSize;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean get(TileObject obj) throws StorageException {
+        final TierTile tile = new TierTile(obj);
+        if (hotIndex.getIfPresent(tile) != null) {
+            if (hot.get(obj)) {
+                hotHits.incrementAndGet();
+                return true;
+            }
+            // moved or deleted in the meantime
+            hotIndex.invalidate(tile);
+        }
+
+        final long readGeneration = generation(tile);
+        if (cold.get(obj)) {
+            coldHits.incrementAndGet();
+            schedulePromotion(tile, obj, readGeneration);
+            return true;
+        }
+        if (scanning && hot.get(obj)) {
+            // left in the hot tier by a previous run and not tracked yet
+            hotHits.incrementAndGet();
+            final long size = obj.getBlob().getSize();
+            if (size >= 0 && size <= Integer.MAX_VALUE && generation(tile) == readGeneration) {
+                hotIndex.put(tile, (int) size);
+            }
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    private void schedulePromotion(TierTile tile, TileObject obj, long readGeneration)
+            throws StorageException {
+        if (migrationExecutor instanceof ThreadPoolExecutor) {
+            BlockingQueue<Runnable> queue = ((ThreadPoolExecutor) migrationExecutor).getQueue();
+            if (queue.size() >= MAX_PENDING_PROMOTIONS) {
+                return;
+            }
+        }
+        final Resource blob = obj.getBlob();
+        if (blob.getSize() < 0 || blob.getSize() > Integer.MAX_VALUE) {
+            return;
+        }
+        // the caller reads the tile after the promotion may have deleted it from the cold tier
+        final Resource buffered;
+        try (InputStream in = blob.getInputStream()) {
+            buffered = new ByteArrayResource(IOUtils.toByteArray(in));
+        } catch (IOException e) {
+            throw new StorageException("Unable to read tile " + tile, e);
+        }
+        obj.setBlob(buffered);
+        final TileObject copy = TileObject.createCompleteTileObject(obj.getLayerName(),
+                obj.getXYZ().clone(), obj.getGridSetId(), obj.getBlobFormat(),
+                obj.getParameters(), buffered);
+        copy.setParametersId(tile.parametersId);
+        copy.setCreated(obj.getCreated());
+        migrationExecutor.execute(() -> promote(tile, copy, readGeneration));
+    }
+
+    /**
+     * Moves a tile read from the cold tier to the hot tier, unless it was written or deleted
+     * since it was read. Bulk deletes don't take the tile lock, so the tile is checked again
+     * after each write.
+     */
+    private void promote(TierTile tile, TileObject copy, long readGeneration) {
+        final Lock lock = locks.get(tile);
+        lock.lock();
+        try {
+            final long bulkGeneration = generation.get();
+            if (generation(tile) != readGeneration || hotIndex.getIfPresent(tile) != null) {
+                return;
+            }
+            hot.put(copy);
+            if (generation.get() != bulkGeneration) {
+                // bulk deleted while copied, the hot copy may have been written after the delete
+                deleteQuietly(hot, tile);
+                return;
+            }
+            cold.delete(tile.toTileObject());
+            // tracked last, a tile evicted right away is moved back to the cold tier
+            hotIndex.put(tile, (int) copy.getBlob().getSize());
+            if (generation.get() != bulkGeneration) {
+                // bulk deleted after the copy, which the delete removed, but maybe tracked after
+                // the delete stopped tracking it
+                hotIndex.invalidate(tile);
+                return;
+            }
+            promotions.incrementAndGet();
+        } catch (StorageException | RuntimeException e) {
+            log.warn("Unable to move tile " + tile + " to the hot tier", e);
+            hotIndex.invalidate(tile);
+            deleteQuietly(hot, tile);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves a tile evicted from the hot tier to the cold tier. A tile written or deleted since it
+     * was evicted is only deleted from the hot tier, as the cold tier has the current version.
+     * Like promotions, the tile is checked again after being written to the cold tier.
+     */
+    private void demote(TierTile tile, long evictedGeneration) {
+        final Lock lock = locks.get(tile);
+        lock.lock();
+        try {
+            final long bulkGeneration = generation.get();
+            if (hotIndex.getIfPresent(tile) != null) {
+                // promoted again in the meantime
+                return;
+            }
+            final TileObject obj = tile.toTileObject();
+            if (generation(tile) == evictedGeneration && hot.get(obj)) {
+                final TileObject copy = TileObject.createCompleteTileObject(tile.layerName,
+                        tile.xyz.clone(), tile.gridSetId, tile.format, tile.parameters,
+                        obj.getBlob());
+                copy.setParametersId(tile.parametersId);
+                copy.setCreated(obj.getCreated());
+                cold.put(copy);
+                if (generation.get() != bulkGeneration) {
+                    // bulk deleted while copied, the cold copy may have been written after the
+                    // delete
+                    deleteQuietly(cold, tile);
+                } else {
+                    demotions.incrementAndGet();
+                }
+            }
+            hot.delete(tile.toTileObject());
+        } catch (StorageException | RuntimeException e) {
+            log.warn("Unable to move tile " + tile + " to the cold tier", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a value that changes whenever the tile is written or deleted
+     */
+    private long generation(TierTile tile) {
+        return generation.get() + stripeGenerations.get(stripe(tile));
+    }
+
+    private static int stripe(TierTile tile) {
+        return tile.hashCode() & (STRIPES - 1);
+    }
+
+    private static void deleteQuietly(BlobStore store, TierTile tile) {
+        try {
+            store.delete(tile.toTileObject());
+        } catch (StorageException | RuntimeException e) {
+            log.warn("Unable to delete tile " + tile, e);
+        }
+    }
+
+    /**
+     * Stops tracking the hot tiles matching the filter, and cancels the pending moves of any tile
+     */
+    private void invalidate(Predicate<TierTile> filter) {
+        generation.incrementAndGet();
+        for (TierTile tile : hotIndex.asMap().keySet()) {
+            if (filter.test(tile)) {
+                hotIndex.invalidate(tile);
+            }
+        }
+    }
+
+    /**
+     * Runs a bulk operation of both tiers, stopping tracking the matching hot tiles before it, and
+     * again after it for those tracked by moves that raced with it
+     */
+    private boolean invalidating(Predicate<TierTile> filter, TierOperation operation)
+            throws StorageException {
+        invalidate(filter);
+        try {
+            return operation.run();
+        } finally {
+            invalidate(filter);
+        }
+    }
+
+    @FunctionalInterface
+    private interface TierOperation {
+        boolean run() throws StorageException;
+    }
+
+    /**
+     * Writes the tile to the tier it's in, new tiles go to the cold tier
+     */
+    @Override
+    public void put(TileObject obj) throws StorageException {
+        final TierTile tile = new TierTile(obj);
+        final Lock lock = locks.get(tile);
+        lock.lock();
+        try {
+            stripeGenerations.incrementAndGet(stripe(tile));
+            if (hotIndex.getIfPresent(tile) != null) {
+                hot.put(obj);
+                final long size = obj.getBlob().getSize();
+                if (size >= 0 && size <= Integer.MAX_VALUE) {
+                    hotIndex.put(tile, (int) size);
+                }
+            } else {
+                if (scanning) {
+                    // left in the hot tier by a previous run, it would hide the new version
+                    hot.delete(tile.toTileObject());
+                }
+                cold.put(obj);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(TileObject obj) throws StorageException {
+        final TierTile tile = new TierTile(obj);
+        final Lock lock = locks.get(tile);
+        lock.lock();
+        try {
+            stripeGenerations.incrementAndGet(stripe(tile));
+            hotIndex.invalidate(tile);
+            // the hot tier may hold a tile not tracked yet since a restart
+            boolean deleted = hot.delete(obj);
+            return cold.delete(obj) || deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(final TileRange range) throws StorageException {
+        final String format = range.getMimeType().getFormat();
+        final String parametersId = range.getParametersId() == null ? ParametersUtils
+                .getId(range.getParameters()) : range.getParametersId();
+        return invalidating(tile -> tile.layerName.equals(range.getLayerName())
+                && tile.gridSetId.equals(range.getGridSetId()) && tile.format.equals(format)
+                && Objects.equals(tile.parametersId, parametersId) && range.contains(tile.xyz),
+                () -> {
+                    boolean deleted = hot.delete(range);
+                    return cold.delete(range) || deleted;
+                });
+    }
+
+    @Override
+    public boolean delete(String layerName) throws StorageException {
+        return invalidating(tile -> tile.layerName.equals(layerName), () -> {
+            boolean deleted = hot.delete(layerName);
+            return cold.delete(layerName) || deleted;
+        });
+    }
+
+    @Override
+    public boolean deleteByGridsetId(String layerName, String gridSetId) throws StorageException {
+        return invalidating(
+                tile -> tile.layerName.equals(layerName) && tile.gridSetId.equals(gridSetId),
+                () -> {
+                    boolean deleted = hot.deleteByGridsetId(layerName, gridSetId);
+                    return cold.deleteByGridsetId(layerName, gridSetId) || deleted;
+                });
+    }
+
+    @Override
+    public boolean deleteByParametersId(String layerName, String parametersId)
+            throws StorageException {
+        return invalidating(tile -> tile.layerName.equals(layerName)
+                && Objects.equals(tile.parametersId, parametersId), () -> {
+            boolean deleted = hot.deleteByParametersId(layerName, parametersId);
+            return cold.deleteByParametersId(layerName, parametersId) || deleted;
+        });
+    }
+
+    /**
+     * Renames the layer in both tiers, the renamed hot tiles are tracked under the new name
+     */
+    @Override
+    public boolean rename(String oldLayerName, String newLayerName) throws StorageException {
+        final Map<TierTile, Integer> renamed = new HashMap<>();
+        for (Map.Entry<TierTile, Integer> entry : hotIndex.asMap().entrySet()) {
+            if (entry.getKey().layerName.equals(oldLayerName)) {
+                renamed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        final Predicate<TierTile> filter = tile -> tile.layerName.equals(oldLayerName);
+        invalidate(filter);
+        boolean hotRenamed = false;
+        try {
+            hotRenamed = hot.rename(oldLayerName, newLayerName);
+            return cold.rename(oldLayerName, newLayerName) || hotRenamed;
+        } finally {
+            invalidate(filter);
+            // tracked again under the name the hot tier keeps them with
+            for (Map.Entry<TierTile, Integer> entry : renamed.entrySet()) {
+                TierTile tile = hotRenamed ? entry.getKey().withLayerName(newLayerName) : entry
+                        .getKey();
+                hotIndex.put(tile, entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void clear() throws StorageException {
+        invalidating(tile -> true, () -> {
+            hot.clear();
+            cold.clear();
+            return true;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        if (migrationExecutor instanceof ExecutorService) {
+            ((ExecutorService) migrationExecutor).shutdownNow();
+        }
+        hot.destroy();
+        cold.destroy();
+    }
+
+    /**
+     * Adds the listener to both tiers, so it's told about the tiles moved between them
+     */
+    @Override
+    public void addListener(BlobStoreListener listener) {
+        hot.addListener(listener);
+        cold.addListener(listener);
+    }
+
+    @Override
+    public boolean removeListener(BlobStoreListener listener) {
+        boolean removed = hot.removeListener(listener);
+        return cold.removeListener(listener) || removed;
+    }
+
+    @Override
+    public String getLayerMetadata(String layerName, String key) {
+        return cold.getLayerMetadata(layerName, key);
+    }
+
+    @Override
+    public void putLayerMetadata(String layerName, String key, String value) {
+        cold.putLayerMetadata(layerName, key, value);
+    }
+
+    @Override
+    public boolean layerExists(String layerName) {
+        return cold.layerExists(layerName) || hot.layerExists(layerName);
+    }
+
+    @Override
+    public Set<Map<String, String>> getParameters(String layerName) throws StorageException {
+        Set<Map<String, String>> parameters = new HashSet<>(cold.getParameters(layerName));
+        parameters.addAll(hot.getParameters(layerName));
+        return parameters;
+    }
+
+    @Override
+    public Set<String> getParameterIds(String layerName) throws StorageException {
+        Set<String> parameterIds = new HashSet<>(cold.getParameterIds(layerName));
+        parameterIds.addAll(hot.getParameterIds(layerName));
+        return parameterIds;
+    }
+
+    @Override
+    public Map<String, Optional<Map<String, String>>> getParametersMapping(String layerName) {
+        Map<String, Optional<Map<String, String>>> mapping = new HashMap<>(
+                hot.getParametersMapping(layerName));
+        for (Map.Entry<String, Optional<Map<String, String>>> entry : cold.getParametersMapping(
+                layerName).entrySet()) {
+            // prefer the tier that knows the parameters of the id
+            if (entry.getValue().isPresent() || !mapping.containsKey(entry.getKey())) {
+                mapping.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * Identity of a tile, holding what's needed to find it in either tier
+     */
+    private static final class TierTile {
+
+        final String layerName;
+
+        final String gridSetId;
+
+        final String format;
+
+        final String parametersId;
+
+        final long[] xyz;
+
+        /**
+         * Not part of the identity, kept for the tier the tile is moved to
+         */
+        final Map<String, String> parameters;
+
+        private TierTile(TierTile tile, String layerName) {
+            this.layerName = layerName;
+            this.gridSetId = tile.gridSetId;
+            this.format = tile.format;
+            this.parametersId = tile.parametersId;
+            this.xyz = tile.xyz;
+            this.parameters = tile.parameters;
+        }
+
+        TierTile(TileObject obj) {
+            this.layerName = obj.getLayerName();
+            this.gridSetId = obj.getGridSetId();
+            this.format = obj.getBlobFormat();
+            this.parametersId = obj.getParametersId() == null ? ParametersUtils.getId(obj
+                    .getParameters()) : obj.getParametersId();
+            this.xyz = obj.getXYZ().clone();
+            this.parameters = obj.getParameters();
+        }
+
+        TierTile withLayerName(String layerName) {
+            return new TierTile(this, layerName);
+        }
+
+        TileObject toTileObject() {
+            TileObject obj = TileObject.createQueryTileObject(layerName, xyz.clone(), gridSetId,
+                    format, parameters);
+            obj.setParametersId(parametersId);
+            return obj;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TierTile)) {
+                return false;
+            }
+            TierTile t = (TierTile) o;
+            return Arrays.equals(xyz, t.xyz) && layerName.equals(t.layerName)
+                    && gridSetId.equals(t.gridSetId) && format.equals(t.format)
+                    && Objects.equals(parametersId, t.parametersId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(layerName, gridSetId, format, parametersId, Arrays.hashCode(xyz));
+        }
+
+        @Override
+        public String toString() {
+            return layerName + "/" + gridSetId + "/" + format + "/" + parametersId + "/"
+                    + Arrays.toString(xyz);
+        }
+    }
+}
@@ -0,0 +1,474 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.util;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses the polygonal geometries used to limit seed and truncate requests into Java2D shapes.
+ * <p>
+ * Both WKT ({@code POLYGON}, {@code MULTIPOLYGON}, with an optional {@code SRID=<code>;} prefix)
+ * and GeoJSON ({@code Polygon}, {@code MultiPolygon}, {@code GeometryCollection}, {@code Feature}
+ * and {@code FeatureCollection}) are accepted. Coordinates are taken as they are, no reprojection
+ * happens, so they are expected to be in the CRS of the grid set the request targets. The rings of
+ * each polygon are combined with the even-odd winding rule so that holes are preserved, and the
+ * polygons are then united, so that overlapping polygons don't cancel each other out.
+ * </p>
+ */
+public class GeometryParser {
+
+    private GeometryParser() {
+        // utility class
+    }
+
+    /**
+     * @param geometry a WKT or GeoJSON polygonal geometry
+     * @return the geometry as a shape, in the geometry's own coordinates
+     * @throws IllegalArgumentException if the geometry can't be parsed or is not polygonal
+     */
+    public static Path2D parse(final String geometry) throws IllegalArgumentException {
+        if (geometry == null || geometry.trim().isEmpty()) {
+            throw new IllegalArgumentException("No geometry provided");
+        }
+        String text = geometry.trim();
+        Area area = new Area();
+        if (text.startsWith("{")) {
+            Object json = new JsonReader(text).readValue();
+            addGeoJSON(json, area);
+        } else {
+            new WKTReader(text).read(area);
+        }
+        if (area.isEmpty()) {
+            throw new IllegalArgumentException("Geometry is empty: " + abbreviate(text));
+        }
+        return new Path2D.Double(area);
+    }
+
+    private static String abbreviate(String text) {
+        return text.length() > 64 ? text.substring(0, 64) + "..." : text;
+    }
+
+    private static Path2D newPolygon() {
+        return new Path2D.Double(Path2D.WIND_EVEN_ODD);
+    }
+
+    private static void addRing(List<double[]> ring, Path2D path) {
+        if (ring.size() < 3) {
+            throw new IllegalArgumentException("A polygon ring needs at least 3 points");
+        }
+        double[] first = ring.get(0);
+        path.moveTo(first[0], first[1]);
+        for (int i = 1; i < ring.size(); i++) {
+            double[] p = ring.get(i);
+            path.lineTo(p[0], p[1]);
+        }
+        path.closePath();
+    }
+
+    /*
+     * GeoJSON
+     */
+
+    @SuppressWarnings("unchecked")
+    private static void addGeoJSON(Object json, Area area) {
+        if (!(json instanceof Map)) {
+            throw new IllegalArgumentException("Expected a GeoJSON object");
+        }
+        Map<String, Object> object = (Map<String, Object>) json;
+        Object type = object.get("type");
+        if ("Polygon".equals(type)) {
+            addPolygon(object.get("coordinates"), area);
+        } else if ("MultiPolygon".equals(type)) {
+            for (Object polygon : asList(object.get("coordinates"))) {
+                addPolygon(polygon, area);
+            }
+        } else if ("GeometryCollection".equals(type)) {
+            for (Object member : asList(object.get("geometries"))) {
+                addGeoJSON(member, area);
+            }
+        } else if ("Feature".equals(type)) {
+            Object member = object.get("geometry");
+            if (member != null) {
+                addGeoJSON(member, area);
+            }
+        } else if ("FeatureCollection".equals(type)) {
+            for (Object member : asList(object.get("features"))) {
+                addGeoJSON(member, area);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported GeoJSON type " + type
+                    + ", only polygonal geometries can be used");
+        }
+    }
+
+    private static void addPolygon(Object coordinates, Area area) {
+        Path2D path = newPolygon();
+        for (Object ringCoordinates : asList(coordinates)) {
+            List<double[]> ring = new ArrayList<double[]>();
+            for (Object position : asList(ringCoordinates)) {
+                List<Object> ordinates = asList(position);
+                if (ordinates.size() < 2 || !(ordinates.get(0) instanceof Double)
+                        || !(ordinates.get(1) instanceof Double)) {
+                    throw new IllegalArgumentException("Invalid GeoJSON position: " + position);
+                }
+                ring.add(new double[] { (Double) ordinates.get(0), (Double) ordinates.get(1) });
+            }
+            addRing(ring, path);
+        }
+        area.add(new Area(path));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object value) {
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Expected a GeoJSON array but got " + value);
+        }
+        return (List<Object>) value;
+    }
+
+    /**
+     * Minimal JSON reader, returns {@link Map}, {@link List}, {@link String}, {@link Double},
+     * {@link Boolean} or {@code null} values
+     */
+    private static class JsonReader {
+
+        private final String text;
+
+        private int pos;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        Object readValue() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            char c = text.charAt(pos);
+            switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                expectWord("true");
+                return Boolean.TRUE;
+            case 'f':
+                expectWord("false");
+                return Boolean.FALSE;
+            case 'n':
+                expectWord("null");
+                return null;
+            default:
+                return readNumber();
+            }
+        }
+
+        private Map<String, Object> readObject() {
+            Map<String, Object> object = new LinkedHashMap<String, Object>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                object.put(key, readValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> readArray() {
+            List<Object> array = new ArrayList<Object>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(readValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return array;
+                }
+            }
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c == '\\') {
+                    if (pos >= text.length()) {
+                        break;
+                    }
+                    char escaped = text.charAt(pos++);
+                    switch (escaped) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Invalid unicode escape");
+                        }
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(escaped);
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private Double readNumber() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("Unexpected character '" + text.charAt(pos) + "'");
+            }
+            try {
+                return Double.valueOf(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("Invalid number " + text.substring(start, pos));
+            }
+        }
+
+        private void expectWord(String word) {
+            if (!text.startsWith(word, pos)) {
+                throw error("Expected " + word);
+            }
+            pos += word.length();
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private char peek() {
+            if (pos >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            return text.charAt(pos);
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid GeoJSON at position " + pos + ": "
+                    + message);
+        }
+    }
+
+    /*
+     * WKT
+     */
+
+    private static class WKTReader {
+
+        private final String text;
+
+        private int pos;
+
+        WKTReader(String text) {
+            if (text.toUpperCase(Locale.ENGLISH).startsWith("SRID=")) {
+                int semicolon = text.indexOf(';');
+                if (semicolon < 0) {
+                    throw new IllegalArgumentException("Invalid EWKT, missing ';' after SRID");
+                }
+                text = text.substring(semicolon + 1);
+            }
+            this.text = text;
+        }
+
+        void read(Area area) {
+            String type = readWord();
+            if ("POLYGON".equals(type)) {
+                if (!readEmpty()) {
+                    readPolygon(area);
+                }
+            } else if ("MULTIPOLYGON".equals(type)) {
+                if (!readEmpty()) {
+                    expect('(');
+                    do {
+                        readPolygon(area);
+                    } while (readComma());
+                    expect(')');
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported WKT geometry type " + type
+                        + ", only POLYGON and MULTIPOLYGON can be used");
+            }
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("Unexpected trailing content");
+            }
+        }
+
+        private void readPolygon(Area area) {
+            Path2D path = newPolygon();
+            expect('(');
+            do {
+                List<double[]> ring = new ArrayList<double[]>();
+                expect('(');
+                do {
+                    double x = readNumber();
+                    double y = readNumber();
+                    // skip Z and M ordinates
+                    skipWhitespace();
+                    while (pos < text.length() && text.charAt(pos) != ','
+                            && text.charAt(pos) != ')') {
+                        readNumber();
+                        skipWhitespace();
+                    }
+                    ring.add(new double[] { x, y });
+                } while (readComma());
+                expect(')');
+                addRing(ring, path);
+            } while (readComma());
+            expect(')');
+            area.add(new Area(path));
+        }
+
+        private String readWord() {
+            skipWhitespace();
+            int start = pos;
+            while (pos < text.length() && Character.isLetter(text.charAt(pos))) {
+                pos++;
+            }
+            String word = text.substring(start, pos).toUpperCase(Locale.ENGLISH);
+            // Z, M and ZM dimension markers
+            int mark = pos;
+            String dims = readDimensions();
+            if (dims == null) {
+                pos = mark;
+            }
+            return word;
+        }
+
+        private String readDimensions() {
+            skipWhitespace();
+            int start = pos;
+            while (pos < text.length() && Character.isLetter(text.charAt(pos))) {
+                pos++;
+            }
+            String dims = text.substring(start, pos).toUpperCase(Locale.ENGLISH);
+            if ("Z".equals(dims) || "M".equals(dims) || "ZM".equals(dims)) {
+                return dims;
+            }
+            return null;
+        }
+
+        private boolean readEmpty() {
+            skipWhitespace();
+            if (text.regionMatches(true, pos, "EMPTY", 0, 5)) {
+                pos += 5;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean readComma() {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == ',') {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private double readNumber() {
+            skipWhitespace();
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                return Double.parseDouble(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("Expected a number");
+            }
+        }
+
+        private void expect(char c) {
+            skipWhitespace();
+            if (pos >= text.length() || text.charAt(pos) != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid WKT at position " + pos + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.geowebcache.grid;
+
+import junit.framework.TestCase;
+
+public class GridUtilTest extends TestCase {
+
+    GridSetBroker gridSetBroker = new GridSetBroker(false, false);
+
+    public void testWebMercatorCompatible() throws Exception {
+        assertTrue(GridUtil.isWebMercatorCompatible(gridSetBroker.WORLD_EPSG3857));
+        assertTrue(GridUtil.isWebMercatorCompatible(new GridSetBroker(true, true).WORLD_EPSG3857));
+        assertFalse(GridUtil.isWebMercatorCompatible(gridSetBroker.WORLD_EPSG4326));
+
+        // right CRS and bounds, but 512 pixels tiles
+        GridSet bigTiles = GridSetFactory.createGridSet("bigTiles", SRS.getEPSG3857(),
+                BoundingBox.WORLD3857, false, 10, null, 0.00028, 512, 512, false);
+        assertFalse(GridUtil.isWebMercatorCompatible(bigTiles));
+
+        // right CRS and tile size, but only half the world
+        BoundingBox half = new BoundingBox(-20037508.34, -20037508.34, 0, 20037508.34);
+        GridSet halfWorld = GridSetFactory.createGridSet("halfWorld", SRS.getEPSG3857(), half,
+                false, 10, null, 0.00028, 256, 256, false);
+        assertFalse(GridUtil.isWebMercatorCompatible(halfWorld));
+    }
+
+    public void testToWebMercator() throws Exception {
+        BoundingBox world = GridUtil.toWebMercator(new BoundingBox(-180, -90, 180, 90));
+        assertEquals(-20037508.34, world.getMinX(), 0.01);
+        assertEquals(-20037508.34, world.getMinY(), 0.01);
+        assertEquals(20037508.34, world.getMaxX(), 0.01);
+        assertEquals(20037508.34, world.getMaxY(), 0.01);
+
+        BoundingBox origin = GridUtil.toWebMercator(new BoundingBox(0, 0, 1, 1));
+        assertEquals(0, origin.getMinY(), 1e-6);
+        assertEquals(111319.49, origin.getMaxX(), 0.01);
+        assertEquals(111325.14, origin.getMaxY(), 0.01);
+    }
+}
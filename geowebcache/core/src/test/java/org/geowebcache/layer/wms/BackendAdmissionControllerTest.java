@@ -0,0 +1,181 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer.wms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geowebcache.layer.wms.BackendAdmissionController.Permit;
+import org.geowebcache.layer.wms.BackendAdmissionController.Priority;
+import org.geowebcache.layer.wms.BackendAdmissionController.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class BackendAdmissionControllerTest {
+
+    private FakeTicker ticker;
+
+    private ExecutorService executor;
+
+    private static class FakeTicker extends Ticker {
+
+        final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        void advance(long millis) {
+            nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAdmitsUpToMaxConcurrency() throws Exception {
+        BackendAdmissionController controller = new BackendAdmissionController(2, 4, 1, 0, ticker);
+        Permit p1 = controller.acquire(Priority.SEED);
+        Permit p2 = controller.acquire(Priority.INTERACTIVE);
+
+        Future<Permit> waiting = executor.submit(() -> controller.acquire(Priority.INTERACTIVE));
+        awaitQueueDepth(controller, Priority.INTERACTIVE, 1);
+        assertFalse(waiting.isDone());
+
+        ticker.advance(50);
+        controller.release(p1);
+        Permit p3 = waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(50, TimeUnit.NANOSECONDS.toMillis(p3.getWaitTime()));
+
+        Statistics stats = controller.getStatistics();
+        assertEquals(2, stats.getInFlight(Priority.INTERACTIVE));
+        assertEquals(0, stats.getInFlight(Priority.SEED));
+        assertEquals(2, stats.getAdmittedCount(Priority.INTERACTIVE));
+        assertEquals(1, stats.getAdmittedCount(Priority.SEED));
+        assertEquals(50, stats.getMaxWaitTime(Priority.INTERACTIVE));
+
+        controller.release(p2);
+        controller.release(p3);
+        // releasing twice is a no-op
+        controller.release(p3);
+        assertEquals(0, controller.getStatistics().getInFlight(Priority.INTERACTIVE));
+    }
+
+    @Test
+    public void testInteractiveGoesFirst() throws Exception {
+        BackendAdmissionController controller = new BackendAdmissionController(1, 4, 1, 0, ticker);
+        Permit running = controller.acquire(Priority.SEED);
+
+        Future<Permit> seed = executor.submit(() -> controller.acquire(Priority.SEED));
+        awaitQueueDepth(controller, Priority.SEED, 1);
+        Future<Permit> interactive = executor.submit(() -> controller.acquire(Priority.INTERACTIVE));
+        awaitQueueDepth(controller, Priority.INTERACTIVE, 1);
+
+        controller.release(running);
+        Permit permit = interactive.get(5, TimeUnit.SECONDS);
+        assertEquals(Priority.INTERACTIVE, permit.getPriority());
+        assertFalse(seed.isDone());
+
+        controller.release(permit);
+        controller.release(seed.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSeedThrottledOnInteractiveLatency() throws Exception {
+        BackendAdmissionController controller = new BackendAdmissionController(8, 4, 1, 100,
+                ticker);
+        assertEquals(8, controller.getStatistics().getSeedLimit());
+
+        for (int i = 0; i < BackendAdmissionController.ADJUST_INTERVAL; i++) {
+            Permit p = controller.acquire(Priority.INTERACTIVE);
+            ticker.advance(500);
+            controller.release(p);
+        }
+        Statistics stats = controller.getStatistics();
+        assertEquals(4, stats.getSeedLimit());
+        assertEquals(500, stats.getInteractiveLatencyP95());
+
+        // seeding can't go over the reduced limit
+        Permit[] seeds = new Permit[4];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = controller.acquire(Priority.SEED);
+        }
+        Future<Permit> throttled = executor.submit(() -> controller.acquire(Priority.SEED));
+        awaitQueueDepth(controller, Priority.SEED, 1);
+        assertFalse(throttled.isDone());
+
+        // fast interactive requests let the limit grow back
+        for (int i = 0; i < BackendAdmissionController.LATENCY_WINDOW * 2; i++) {
+            Permit p = controller.acquire(Priority.INTERACTIVE);
+            ticker.advance(1);
+            controller.release(p);
+        }
+        assertTrue(controller.getStatistics().getSeedLimit() > 4);
+        Permit p = throttled.get(5, TimeUnit.SECONDS);
+        controller.release(p);
+        for (Permit seed : seeds) {
+            controller.release(seed);
+        }
+    }
+
+    @Test
+    public void testSeedLimitRecoversWhenIdle() throws Exception {
+        BackendAdmissionController controller = new BackendAdmissionController(8, 4, 1, 100,
+                ticker);
+        for (int i = 0; i < BackendAdmissionController.ADJUST_INTERVAL; i++) {
+            Permit p = controller.acquire(Priority.INTERACTIVE);
+            ticker.advance(500);
+            controller.release(p);
+        }
+        assertEquals(4, controller.getStatistics().getSeedLimit());
+
+        ticker.advance(BackendAdmissionController.IDLE_RECOVERY_TIME + 1);
+        controller.release(controller.acquire(Priority.SEED));
+        Statistics stats = controller.getStatistics();
+        assertEquals(8, stats.getSeedLimit());
+        assertEquals(-1, stats.getInteractiveLatencyP95());
+    }
+
+    private void awaitQueueDepth(BackendAdmissionController controller, Priority priority,
+            int depth) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if (controller.getStatistics().getQueueDepth(priority) == depth) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Queue depth for " + priority + " never reached " + depth);
+    }
+}
@@ -41,6 +41,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
@@ -149,6 +150,54 @@ public class WMSLayerTest extends TileLayerTest {
         lockProvider.clear();
     }
     
+    @Test
+    public void testSeedMultiFormatMetaTiled() throws Exception {
+        WMSLayer layer = createWMSLayer("image/jpeg");
+
+        final AtomicInteger requests = new AtomicInteger();
+        WMSSourceHelper mockSourceHelper = new MockWMSSourceHelper() {
+            @Override
+            protected void makeRequest(TileResponseReceiver tileRespRecv, WMSLayer layer,
+                    Map<String, String> wmsParams, MimeType expectedMimeType, Resource target)
+                    throws GeoWebCacheException {
+                requests.incrementAndGet();
+                // rendered once, in a lossless format
+                assertEquals("image/png", wmsParams.get("FORMAT"));
+                super.makeRequest(tileRespRecv, layer, wmsParams, expectedMimeType, target);
+            }
+        };
+        MockLockProvider lockProvider = new MockLockProvider();
+        layer.setSourceHelper(mockSourceHelper);
+        layer.setLockProvider(lockProvider);
+
+        final StorageBroker mockStorageBroker = EasyMock.createMock(StorageBroker.class);
+        Capture<TileObject> captured = new Capture<TileObject>(CaptureType.ALL);
+        expect(mockStorageBroker.put(EasyMock.capture(captured))).andReturn(true).anyTimes();
+        replay(mockStorageBroker);
+
+        long[] gridLoc = { 0, 0, 0 };// x, y, level
+        String gridSetId = gridSetBroker.WORLD_EPSG4326.getName();
+        ConveyorTile tile = new ConveyorTile(mockStorageBroker, layer.getName(), gridSetId,
+                gridLoc, ImageMime.jpeg, null, null, null);
+
+        layer.seedTile(tile, false, Arrays.<MimeType> asList(ImageMime.png, ImageMime.gif));
+
+        assertEquals(1, requests.get());
+        Set<String> formats = new HashSet<String>();
+        for (TileObject value : captured.getValues()) {
+            assertTrue(value.getBlob().getSize() > 0);
+            formats.add(value.getBlobFormat());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("image/jpeg", "image/png", "image/gif")),
+                formats);
+        // the two level 0 tiles in the layer coverage, in each format
+        assertEquals(6, captured.getValues().size());
+
+        verify(mockStorageBroker);
+        lockProvider.verify();
+        lockProvider.clear();
+    }
+
     @Test
     public void testSeedJpegPngMetaTiled() throws Exception {
         WMSLayer layer = createWMSLayer("image/vnd.jpeg-png");
@@ -0,0 +1,218 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import static org.geowebcache.TestHelpers.createWMSLayer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ExportTaskTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private WMSLayer layer;
+
+    private StorageBroker storageBroker;
+
+    @Before
+    public void setUp() throws Exception {
+        layer = createWMSLayer("image/png");
+        storageBroker = mock(StorageBroker.class);
+        // only the tiles in even columns are cached
+        when(storageBroker.get(any(TileObject.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                TileObject tile = (TileObject) invocation.getArguments()[0];
+                long[] xyz = tile.getXYZ();
+                if (xyz[0] % 2 != 0) {
+                    return false;
+                }
+                tile.setBlob(new ByteArrayResource(tileContents(xyz).getBytes("UTF-8")));
+                return true;
+            }
+        });
+    }
+
+    private static String tileContents(long[] xyz) {
+        return xyz[0] + "," + xyz[1] + "," + xyz[2];
+    }
+
+    private TileRange createRange(int zoomStart, int zoomStop) throws GeoWebCacheException {
+        ExportRequest req = new ExportRequest(layer.getName(), null, null, zoomStart, zoomStop,
+                null, null, null);
+        return TileBreeder.createTileRange(req, layer);
+    }
+
+    private ExportTask createTask(TileRange tr, File output) {
+        ExportTask task = new ExportTask(storageBroker, tr, layer, new ZipTilePackageFormat(),
+                output, 3, false);
+        task.setThreadInfo(new AtomicInteger(), 0);
+        task.batchSize = 5;
+        return task;
+    }
+
+    @Test
+    public void testExportZip() throws Exception {
+        TileRange tr = createRange(0, 3);
+        File output = new File(temp.getRoot(), "export.zip");
+        ExportTask task = createTask(tr, output);
+
+        task.doAction();
+
+        assertEquals(GWCTask.STATE.DONE, task.getState());
+        assertEquals(GWCTask.TYPE.EXPORT, task.getType());
+        assertEquals(tr.tileCount(), task.getTilesTotal());
+        assertEquals(tr.tileCount(), task.getTilesDone());
+
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int z = 0; z <= 3; z++) {
+            long[] bounds = tr.rangeBounds(z);
+            for (long x = bounds[0]; x <= bounds[2]; x++) {
+                for (long y = bounds[1]; y <= bounds[3]; y++) {
+                    if (x % 2 == 0) {
+                        expected.put(z + "/" + x + "/" + y + ".png",
+                                tileContents(new long[] { x, y, z }));
+                    }
+                }
+            }
+        }
+        assertFalse(expected.isEmpty());
+
+        Map<String, String> actual = new HashMap<String, String>();
+        try (ZipFile zip = new ZipFile(output)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                actual.put(entry.getName(), IOUtils.toString(zip.getInputStream(entry), "UTF-8"));
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testBoundsLimitRange() throws Exception {
+        ExportRequest req = new ExportRequest(layer.getName(), null, new BoundingBox(0, 20, 10,
+                25), 2, 4, "image/png", null, null);
+        TileRange tr = TileBreeder.createTileRange(req, layer);
+
+        assertEquals(2, tr.getZoomStart());
+        assertEquals(4, tr.getZoomStop());
+        assertTrue(tr.tileCount() < createRange(2, 4).tileCount());
+    }
+
+    @Test
+    public void testFailureDeletesPackage() throws Exception {
+        doThrow(new StorageException("broken")).when(storageBroker).get(any(TileObject.class));
+        File output = new File(temp.getRoot(), "export.zip");
+        ExportTask task = createTask(createRange(0, 2), output);
+
+        try {
+            task.doAction();
+            fail("Expected GeoWebCacheException");
+        } catch (GeoWebCacheException e) {
+            assertTrue(e.getMessage().contains("broken"));
+        }
+        assertEquals(GWCTask.STATE.DEAD, task.getState());
+        assertFalse(output.exists());
+    }
+
+    @Test
+    public void testExistingOutputIsNeitherOverwrittenNorDeleted() throws Exception {
+        File output = temp.newFile("geowebcache.xml");
+        FileUtils.writeStringToFile(output, "<gwcConfiguration/>", "UTF-8");
+        ExportTask task = createTask(createRange(0, 2), output);
+
+        try {
+            task.doAction();
+            fail("Expected GeoWebCacheException");
+        } catch (GeoWebCacheException e) {
+            assertTrue(e.getMessage().contains("already exists"));
+        }
+        assertEquals(GWCTask.STATE.DEAD, task.getState());
+        assertEquals("<gwcConfiguration/>", FileUtils.readFileToString(output, "UTF-8"));
+    }
+
+    @Test
+    public void testOutputResolvedInsideExportDirectory() throws Exception {
+        TileBreeder breeder = new TileBreeder();
+        File exportDir = temp.newFolder("export");
+        breeder.setExportDirectory(exportDir);
+        ZipTilePackageFormat zip = new ZipTilePackageFormat();
+
+        File output = breeder.resolveExportOutput("states/export.zip", zip);
+        assertEquals(new File(exportDir, "states/export.zip"), output);
+        assertTrue(output.getParentFile().isDirectory());
+        assertFalse(output.exists());
+
+        File generated = breeder.resolveExportOutput(null, zip);
+        assertEquals(exportDir, generated.getParentFile());
+        assertTrue(generated.getName().endsWith(".zip"));
+
+        File existing = new File(exportDir, "existing.zip");
+        assertTrue(existing.createNewFile());
+        String absolute = new File(temp.getRoot(), "export.zip").getAbsolutePath();
+        for (String invalid : new String[] { absolute, "../geowebcache.xml",
+                "states/../../geowebcache.xml", "existing.zip" }) {
+            try {
+                breeder.resolveExportOutput(invalid, zip);
+                fail("Expected IllegalArgumentException for " + invalid);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(invalid));
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownPackageFormat() throws Exception {
+        TileBreeder breeder = new TileBreeder();
+        assertTrue(breeder.getPackageFormat("ZIP") instanceof ZipTilePackageFormat);
+        try {
+            breeder.getPackageFormat("tar");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("tar"));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import static org.geowebcache.TestHelpers.createWMSLayer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ImportTaskTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private WMSLayer layer;
+
+    private StorageBroker storageBroker;
+
+    private Map<String, String> stored;
+
+    private AtomicInteger batches;
+
+    @Before
+    public void setUp() throws Exception {
+        layer = createWMSLayer("image/png");
+        stored = new ConcurrentHashMap<String, String>();
+        batches = new AtomicInteger();
+        storageBroker = mock(StorageBroker.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                batches.incrementAndGet();
+                for (Object o : (Iterable<?>) invocation.getArguments()[0]) {
+                    TileObject tile = (TileObject) o;
+                    long[] xyz = tile.getXYZ();
+                    stored.put(xyz[2] + "/" + xyz[0] + "/" + xyz[1],
+                            IOUtils.toString(tile.getBlob().getInputStream(), "UTF-8"));
+                }
+                return null;
+            }
+        }).when(storageBroker).putAll(anyListOf(TileObject.class));
+    }
+
+    private File createZip(long[]... tiles) throws Exception {
+        File zip = new File(temp.getRoot(), "import.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("metadata.json"));
+            out.write("{}".getBytes("UTF-8"));
+            out.closeEntry();
+            for (long[] xyz : tiles) {
+                out.putNextEntry(new ZipEntry("tiles/" + xyz[2] + "/" + xyz[0] + "/" + xyz[1]
+                        + ".png"));
+                out.write((xyz[0] + "," + xyz[1] + "," + xyz[2]).getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    private ImportTask createTask(TileRange tr, File input) {
+        ImportTask task = new ImportTask(storageBroker, tr, layer, new ZipTilePackageFormat(),
+                input, 2);
+        task.setThreadInfo(new AtomicInteger(), 0);
+        task.batchSize = 2;
+        return task;
+    }
+
+    @Test
+    public void testImportZip() throws Exception {
+        ImportRequest req = new ImportRequest(layer.getName(), null, null, null, null);
+        TileRange tr = TileBreeder.createTileRange(req, layer);
+        File input = createZip(new long[] { 0, 0, 0 }, new long[] { 1, 0, 0 },
+                new long[] { 1, 1, 1 }, new long[] { 2, 1, 1 }, new long[] { 3, 2, 2 });
+        ImportTask task = createTask(tr, input);
+
+        task.doAction();
+
+        assertEquals(GWCTask.STATE.DONE, task.getState());
+        assertEquals(GWCTask.TYPE.IMPORT, task.getType());
+        assertEquals(5, task.getTilesDone());
+        assertEquals(0, task.getTilesSkipped());
+        assertEquals(3, batches.get());
+        assertEquals(5, stored.size());
+        assertEquals("2,1,1", stored.get("1/2/1"));
+        assertEquals("3,2,2", stored.get("2/3/2"));
+    }
+
+    @Test
+    public void testSkipTilesOutsideGridSubset() throws Exception {
+        ImportRequest req = new ImportRequest(layer.getName(), null, null, null, null);
+        TileRange tr = TileBreeder.createTileRange(req, layer);
+        // aligned with the grid set, but outside of the layer's grid subset
+        File input = createZip(new long[] { 0, 0, 1 }, new long[] { 1, 0, 0 },
+                new long[] { 2, 1, 1 }, new long[] { 3, 0, 1 }, new long[] { 7, 3, 2 });
+        ImportTask task = createTask(tr, input);
+
+        task.doAction();
+
+        assertEquals(GWCTask.STATE.DONE, task.getState());
+        assertEquals(5, task.getTilesDone());
+        assertEquals(3, task.getTilesSkipped());
+        assertEquals(2, stored.size());
+        assertTrue(stored.containsKey("0/1/0"));
+        assertTrue(stored.containsKey("1/2/1"));
+    }
+
+    @Test
+    public void testMisalignedTileAbortsImport() throws Exception {
+        ImportRequest req = new ImportRequest(layer.getName(), null, null, null, null);
+        TileRange tr = TileBreeder.createTileRange(req, layer);
+        // EPSG:4326 is 2 tiles wide and 1 tile high at level 0
+        File input = createZip(new long[] { 0, 0, 0 }, new long[] { 0, 1, 0 });
+        ImportTask task = createTask(tr, input);
+
+        try {
+            task.doAction();
+            fail("Expected GeoWebCacheException");
+        } catch (GeoWebCacheException e) {
+            assertTrue(e.getMessage().contains("not aligned"));
+        }
+        assertEquals(GWCTask.STATE.DEAD, task.getState());
+    }
+
+    @Test
+    public void testGridSubsetCheckedBeforeImport() throws Exception {
+        ImportRequest req = new ImportRequest(layer.getName(), null, null, null, null);
+        TileRange tr = TileBreeder.createTileRange(req, layer);
+        TilePackageReader reader = mock(TilePackageReader.class);
+        doThrow(new IOException("not the package grid")).when(reader).checkGridSubset(
+                any(GridSubset.class));
+        TilePackageFormat packageFormat = mock(TilePackageFormat.class);
+        when(packageFormat.createReader(any(File.class), any(TileLayer.class),
+                any(TileRange.class))).thenReturn(reader);
+        ImportTask task = new ImportTask(storageBroker, tr, layer, packageFormat,
+                createZip(new long[] { 0, 0, 0 }), 2);
+        task.setThreadInfo(new AtomicInteger(), 0);
+
+        try {
+            task.doAction();
+            fail("Expected GeoWebCacheException");
+        } catch (GeoWebCacheException e) {
+            assertTrue(e.getMessage().contains("not the package grid"));
+        }
+        assertEquals(GWCTask.STATE.DEAD, task.getState());
+        verify(reader, never()).read(anyInt());
+    }
+
+    @Test
+    public void testZipImportRequiresGridSet() throws Exception {
+        TileLayerDispatcher layers = mock(TileLayerDispatcher.class);
+        when(layers.getTileLayer(layer.getName())).thenReturn(layer);
+        TileBreeder breeder = new TileBreeder();
+        breeder.setTileLayerDispatcher(layers);
+        File input = createZip(new long[] { 0, 0, 0 });
+
+        try {
+            breeder.importTiles(new ImportRequest(layer.getName(), null, null, null,
+                    input.getAbsolutePath()));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("gridSetId"));
+        }
+    }
+}
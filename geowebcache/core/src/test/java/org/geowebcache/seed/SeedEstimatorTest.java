@@ -0,0 +1,140 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.geowebcache.TestHelpers.createRequest;
+import static org.geowebcache.TestHelpers.createWMSLayer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.io.Resource;
+import org.geowebcache.layer.TileResponseReceiver;
+import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.seed.GWCTask.TYPE;
+import org.geowebcache.util.MockWMSSourceHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SeedEstimatorTest {
+
+    private WMSLayer layer;
+
+    private TileBreeder breeder;
+
+    private AtomicInteger requests;
+
+    @Before
+    public void setUp() throws Exception {
+        layer = createWMSLayer("image/png");
+        requests = new AtomicInteger();
+        layer.setSourceHelper(new MockWMSSourceHelper() {
+            @Override
+            protected void makeRequest(TileResponseReceiver tileRespRecv, WMSLayer layer,
+                    Map<String, String> wmsParams, MimeType expectedMimeType, Resource target)
+                    throws GeoWebCacheException {
+                requests.incrementAndGet();
+                super.makeRequest(tileRespRecv, layer, wmsParams, expectedMimeType, target);
+            }
+        });
+        breeder = createMock(TileBreeder.class);
+        expect(breeder.findTileLayer(layer.getName())).andReturn(layer).anyTimes();
+        expect(breeder.getStorageBroker()).andReturn(null).anyTimes();
+        replay(breeder);
+    }
+
+    @Test
+    public void testEstimate() throws Exception {
+        SeedEstimator estimator = new SeedEstimator(breeder,
+                Collections.<QuotaAdvisor> emptyList());
+        SeedEstimate estimate = estimator.estimate(layer.getName(),
+                createRequest(layer, TYPE.SEED, 0, 3), 2);
+
+        assertEquals(4, estimate.getLevels().size());
+        assertEquals("image/png", estimate.getFormat());
+        assertTrue(requests.get() <= 8);
+        long tiles = 0;
+        long bytes = 0;
+        for (SeedEstimate.Level level : estimate.getLevels()) {
+            assertTrue(level.getTiles() > 0);
+            assertTrue(level.getSampledMetaTiles() > 0);
+            assertTrue(level.getSampledMetaTiles() <= 2);
+            assertTrue(level.getSampledMetaTiles() <= level.getMetaTiles());
+            assertTrue(level.getBytesPerTile() > 0);
+            // the mock backend draws an outline on every tile
+            assertEquals(0d, level.getEmptyTileRatio(), 0d);
+            assertEquals((long) Math.ceil(level.getBytesPerTile() * level.getTiles()),
+                    level.getProjectedBytes());
+            tiles += level.getTiles();
+            bytes += level.getProjectedBytes();
+        }
+        assertEquals(tiles, estimate.getTiles());
+        assertEquals(bytes, estimate.getProjectedBytes());
+        assertNull(estimate.getAvailableBytes());
+        assertFalse(estimate.isQuotaExceeded());
+    }
+
+    @Test
+    public void testQuotaExceeded() throws Exception {
+        QuotaAdvisor unlimited = new QuotaAdvisor() {
+            public Long getAvailableBytes(String layerName) {
+                return null;
+            }
+        };
+        QuotaAdvisor tight = new QuotaAdvisor() {
+            public Long getAvailableBytes(String layerName) {
+                return 1024L;
+            }
+        };
+        SeedEstimator estimator = new SeedEstimator(breeder, Arrays.asList(unlimited, tight));
+        SeedEstimate estimate = estimator.estimate(layer.getName(),
+                createRequest(layer, TYPE.SEED, 0, 1), 1);
+        assertEquals(Long.valueOf(1024), estimate.getAvailableBytes());
+        assertTrue(estimate.isQuotaExceeded());
+    }
+
+    @Test
+    public void testNoSamples() throws Exception {
+        SeedEstimator estimator = new SeedEstimator(breeder,
+                Collections.<QuotaAdvisor> emptyList());
+        SeedEstimate estimate = estimator.estimate(layer.getName(),
+                createRequest(layer, TYPE.SEED, 0, 2), 0);
+        assertEquals(0, requests.get());
+        assertEquals(3, estimate.getLevels().size());
+        assertTrue(estimate.getTiles() > 0);
+        assertEquals(0, estimate.getProjectedBytes());
+    }
+
+    @Test
+    public void testMetaTileCount() {
+        int[] factors = { 3, 3 };
+        assertEquals(1, SeedEstimator.metaTileCount(new long[] { 0, 0, 2, 2, 0 }, 9, factors));
+        // misaligned bounds touch more meta tiles
+        assertEquals(4, SeedEstimator.metaTileCount(new long[] { 2, 2, 4, 4, 0 }, 9, factors));
+        // only half the rectangle in range
+        assertEquals(2, SeedEstimator.metaTileCount(new long[] { 0, 0, 5, 5, 0 }, 18, factors));
+    }
+}
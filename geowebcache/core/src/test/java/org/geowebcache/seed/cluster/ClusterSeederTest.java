@@ -0,0 +1,236 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed.cluster;
+
+import static org.geowebcache.TestHelpers.createRequest;
+import static org.geowebcache.TestHelpers.createWMSLayer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.seed.GWCTask;
+import org.geowebcache.seed.GWCTask.TYPE;
+import org.geowebcache.seed.SeedRequest;
+import org.geowebcache.seed.TileBreeder;
+import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+import org.geowebcache.util.MockWMSSourceHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ClusterSeederTest {
+
+    private BasicDataSource dataSource;
+
+    private WMSLayer layer;
+
+    private Set<List<Long>> stored;
+
+    private TileBreeder breeder;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:clusterseed" + System.nanoTime());
+
+        layer = createWMSLayer("image/png");
+        layer.setSourceHelper(new MockWMSSourceHelper());
+
+        stored = Collections.synchronizedSet(new HashSet<List<Long>>());
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get(any(TileObject.class))).thenReturn(false);
+        when(storageBroker.put(any(TileObject.class))).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                long[] xyz = ((TileObject) invocation.getArguments()[0]).getXYZ();
+                stored.add(Arrays.asList(xyz[0], xyz[1], xyz[2]));
+                return true;
+            }
+        });
+        TileLayerDispatcher dispatcher = mock(TileLayerDispatcher.class);
+        when(dispatcher.getTileLayer(layer.getName())).thenReturn(layer);
+
+        breeder = new TileBreeder();
+        breeder.setTileLayerDispatcher(dispatcher);
+        breeder.setStorageBroker(storageBroker);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.close();
+    }
+
+    private ClusterSeeder newNode(String nodeId) {
+        JDBCSeedQueue queue = new JDBCSeedQueue(dataSource, null);
+        queue.initialize();
+        ClusterSeeder node = new ClusterSeeder(breeder, queue);
+        node.setNodeId(nodeId);
+        node.setChunkMetaTiles(1);
+        return node;
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        TileRange tr = new TileRange("layer", "grid", 0, 1, new long[][] { { 0, 0, 1, 0, 0 },
+                { 1, 1, 10, 4, 1 } }, ImageMime.png, Collections.<String, String> emptyMap());
+        List<SeedChunk> chunks = ClusterSeeder.split("job", tr, new int[] { 4, 4 }, 2, 1024);
+        // a single chunk on level 0, two on level 1 (x 0-7 and 8-15)
+        assertEquals(3, chunks.size());
+        assertEquals(Arrays.toString(new long[] { 0, 0, 1, 0, 0 }),
+                Arrays.toString(chunks.get(0).getBounds()));
+        assertEquals(Arrays.toString(new long[] { 1, 1, 7, 4, 1 }),
+                Arrays.toString(chunks.get(1).getBounds()));
+        assertEquals(Arrays.toString(new long[] { 8, 1, 10, 4, 1 }),
+                Arrays.toString(chunks.get(2).getBounds()));
+        long tiles = 0;
+        for (SeedChunk chunk : chunks) {
+            tiles += chunk.getTiles();
+        }
+        assertEquals(tr.tileCount(), tiles);
+
+        // chunks grow to honour the maximum per level
+        chunks = ClusterSeeder.split("job", tr, new int[] { 1, 1 }, 1, 4);
+        for (int z = 0; z <= 1; z++) {
+            int levelChunks = 0;
+            for (SeedChunk chunk : chunks) {
+                levelChunks += chunk.getZoom() == z ? 1 : 0;
+            }
+            assertTrue(levelChunks <= 4);
+        }
+    }
+
+    @Test
+    public void testTwoNodesSeedTheJob() throws Exception {
+        ClusterSeeder node1 = newNode("node1");
+        ClusterSeeder node2 = newNode("node2");
+        try {
+            SeedRequest request = createRequest(layer, TYPE.SEED, 0, 3);
+            String jobId = node1.submit(layer.getName(), request);
+
+            int ran1 = 0;
+            int ran2 = 0;
+            boolean more = true;
+            while (more) {
+                boolean r1 = node1.runNext();
+                boolean r2 = node2.runNext();
+                ran1 += r1 ? 1 : 0;
+                ran2 += r2 ? 1 : 0;
+                more = r1 || r2;
+            }
+            assertTrue(ran1 > 0);
+            assertTrue(ran2 > 0);
+
+            SeedJobStatus status = node2.getStatus(layer.getName()).get(0);
+            assertEquals(jobId, status.getJobId());
+            assertEquals(SeedJobStatus.State.DONE, status.getState());
+            assertEquals(ran1 + ran2, status.getChunksDone());
+
+            // the same tiles as a local seed
+            Set<List<Long>> clustered = new HashSet<List<Long>>(stored);
+            stored.clear();
+            TileRange tr = TileBreeder.createTileRange(request, layer);
+            for (GWCTask task : breeder.createTasks(tr, layer, TYPE.SEED, 1, false)) {
+                task.doAction();
+            }
+            assertFalse(stored.isEmpty());
+            assertEquals(stored, clustered);
+        } finally {
+            node1.destroy();
+            node2.destroy();
+        }
+    }
+
+    @Test
+    public void testTruncateEveryFormat() throws Exception {
+        final Set<String> truncated = Collections.synchronizedSet(new HashSet<String>());
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.delete(any(TileRange.class))).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                TileRange range = (TileRange) invocation.getArguments()[0];
+                truncated.add(range.getMimeType().getFormat());
+                return true;
+            }
+        });
+        breeder.setStorageBroker(storageBroker);
+
+        ClusterSeeder node = newNode("node1");
+        try {
+            SeedRequest request = new SeedRequest(layer.getName(), null, null,
+                    layer.getGridSubsets().iterator().next(), 1, 0, 1, "image/png",
+                    Arrays.asList("image/jpeg", "image/gif"), TYPE.TRUNCATE, null);
+            node.submit(layer.getName(), request);
+            while (node.runNext()) {
+                // keep going
+            }
+            assertEquals(SeedJobStatus.State.DONE, node.getStatus(null).get(0).getState());
+            assertEquals(new HashSet<String>(Arrays.asList("image/png", "image/jpeg",
+                    "image/gif")), truncated);
+        } finally {
+            node.destroy();
+        }
+    }
+
+    @Test
+    public void testWorkersDrainQueue() throws Exception {
+        ClusterSeeder submitter = newNode("submitter");
+        submitter.setThreads(0);
+        ClusterSeeder worker = newNode("worker");
+        worker.setThreads(2);
+        worker.setPollMillis(10);
+        try {
+            submitter.start();
+            worker.start();
+            submitter.submit(layer.getName(), createRequest(layer, TYPE.SEED, 0, 2));
+            SeedJobStatus status = null;
+            for (int i = 0; i < 500; i++) {
+                status = submitter.getStatus(null).get(0);
+                if (status.getState() == SeedJobStatus.State.DONE) {
+                    break;
+                }
+                Thread.sleep(20);
+            }
+            assertEquals(SeedJobStatus.State.DONE, status.getState());
+            assertEquals(status.getChunks(), status.getChunksDone());
+        } finally {
+            submitter.destroy();
+            worker.destroy();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDisabled() throws Exception {
+        ClusterSeeder seeder = new ClusterSeeder(breeder);
+        assertFalse(seeder.isEnabled());
+        assertTrue(seeder.getStatus(null).isEmpty());
+        seeder.submit(layer.getName(), createRequest(layer, TYPE.SEED, 0, 2));
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.seed.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.seed.GWCTask.TYPE;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JDBCSeedQueueTest {
+
+    private BasicDataSource dataSource;
+
+    private JDBCSeedQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:seedqueue" + System.nanoTime());
+        queue = new JDBCSeedQueue(dataSource, null);
+        queue.initialize();
+        // creating twice is harmless
+        queue.initialize();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.close();
+    }
+
+    private SeedJob publish(String jobId, int chunks) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("STYLES", "a&b=c");
+        SeedJob job = new SeedJob(jobId, "layer", "EPSG:4326", "image/png",
+                Arrays.asList("image/jpeg"), TYPE.SEED, parameters, new BoundingBox(-10, -5, 10,
+                        5), null, 0, 1, false);
+        SeedChunk[] list = new SeedChunk[chunks];
+        for (int i = 0; i < chunks; i++) {
+            list[i] = new SeedChunk(jobId, i, new long[] { i * 4, 0, i * 4 + 3, 3, i % 2 }, 16, 0);
+        }
+        queue.publish(job, 16 * chunks, Arrays.asList(list));
+        return job;
+    }
+
+    @Test
+    public void testPublishAndGetJob() {
+        publish("job1", 2);
+        SeedJob job = queue.getJob("job1");
+        assertEquals("layer", job.getLayerName());
+        assertEquals("EPSG:4326", job.getGridSetId());
+        assertEquals(Arrays.asList("image/jpeg"), job.getFormats());
+        assertEquals(TYPE.SEED, job.getType());
+        assertEquals(Collections.singletonMap("STYLES", "a&b=c"), job.getParameters());
+        assertEquals(new BoundingBox(-10, -5, 10, 5), job.getBounds());
+        assertNull(job.getGeometry());
+        assertNull(queue.getJob("missing"));
+    }
+
+    @Test
+    public void testLeaseLowestZoomFirst() {
+        publish("job1", 3);
+        SeedChunk first = queue.lease("node1", 60000);
+        SeedChunk second = queue.lease("node2", 60000);
+        SeedChunk third = queue.lease("node1", 60000);
+        assertEquals(0, first.getZoom());
+        assertEquals(0, second.getZoom());
+        assertEquals(1, third.getZoom());
+        assertEquals(1, first.getAttempts());
+        assertNull(queue.lease("node2", 60000));
+    }
+
+    @Test
+    public void testCompleteAndStatus() {
+        publish("job1", 2);
+        SeedChunk chunk = queue.lease("node1", 60000);
+        assertTrue(queue.renew(chunk, "node1", 60000, 5));
+        // only the owner can renew
+        assertFalse(queue.renew(chunk, "node2", 60000, 5));
+
+        SeedJobStatus status = queue.getStatus(null).get(0);
+        assertEquals(SeedJobStatus.State.RUNNING, status.getState());
+        assertEquals(1, status.getChunksLeased());
+        assertEquals(1, status.getChunksPending());
+        assertEquals(5, status.getTilesDone());
+        assertEquals(32, status.getTilesTotal());
+
+        queue.complete(chunk, "node1");
+        queue.complete(queue.lease("node1", 60000), "node1");
+        status = queue.getStatus("layer").get(0);
+        assertEquals(SeedJobStatus.State.DONE, status.getState());
+        assertEquals(2, status.getChunksDone());
+        assertEquals(32, status.getTilesDone());
+        assertTrue(queue.getStatus("otherLayer").isEmpty());
+    }
+
+    @Test
+    public void testExpiredLeaseTakenOver() throws Exception {
+        publish("job1", 1);
+        SeedChunk chunk = queue.lease("node1", 1);
+        Thread.sleep(10);
+        SeedChunk takenOver = queue.lease("node2", 60000);
+        assertNotNull(takenOver);
+        assertEquals(chunk.getChunkNo(), takenOver.getChunkNo());
+        assertEquals(2, takenOver.getAttempts());
+        // the first node finds out at its next renewal
+        assertFalse(queue.renew(chunk, "node1", 60000, 1));
+        queue.complete(chunk, "node1");
+        assertEquals(0, queue.getStatus(null).get(0).getChunksDone());
+    }
+
+    @Test
+    public void testMaxAttempts() throws Exception {
+        queue.setMaxAttempts(2);
+        publish("job1", 1);
+        queue.release(queue.lease("node1", 60000), "node1");
+        SeedChunk chunk = queue.lease("node1", 1);
+        assertEquals(2, chunk.getAttempts());
+        Thread.sleep(10);
+        // the lease expired on its last attempt
+        assertNull(queue.lease("node2", 60000));
+        SeedJobStatus status = queue.getStatus(null).get(0);
+        assertEquals(1, status.getChunksFailed());
+        assertEquals(SeedJobStatus.State.FAILED, status.getState());
+    }
+
+    @Test
+    public void testCancel() {
+        publish("job1", 2);
+        SeedChunk chunk = queue.lease("node1", 60000);
+        assertTrue(queue.cancel("job1"));
+        assertFalse(queue.renew(chunk, "node1", 60000, 1));
+        assertNull(queue.lease("node1", 60000));
+        assertEquals(SeedJobStatus.State.CANCELLED, queue.getStatus(null).get(0).getState());
+
+        assertTrue(queue.delete("job1"));
+        assertTrue(queue.getStatus(null).isEmpty());
+        assertFalse(queue.cancel("job1"));
+    }
+
+    @Test
+    public void testPostgreSQLDialect() throws Exception {
+        assertDialectRoundTrip("PostgreSQL", new PostgreSQLSeedQueueDialect());
+    }
+
+    @Test
+    public void testOracleDialect() throws Exception {
+        assertDialectRoundTrip("Oracle", new OracleSeedQueueDialect());
+    }
+
+    @Test
+    public void testDialectLookup() {
+        assertTrue(SeedQueueDialect.forDatabase("PostgreSQL") instanceof PostgreSQLSeedQueueDialect);
+        assertTrue(SeedQueueDialect.forDatabase("Oracle") instanceof OracleSeedQueueDialect);
+        assertEquals(SeedQueueDialect.class, SeedQueueDialect.forDatabase("H2").getClass());
+    }
+
+    /**
+     * Runs a job with a long geometry through a queue created with the given dialect, on H2 in the
+     * matching compatibility mode
+     */
+    private void assertDialectRoundTrip(String mode, SeedQueueDialect dialect) throws Exception {
+        BasicDataSource modeDataSource = new BasicDataSource();
+        modeDataSource.setDriverClassName("org.h2.Driver");
+        modeDataSource.setUrl("jdbc:h2:mem:seedqueue" + System.nanoTime() + ";MODE=" + mode);
+        try {
+            JDBCSeedQueue modeQueue = new JDBCSeedQueue(modeDataSource, null, dialect);
+            modeQueue.initialize();
+            modeQueue.initialize();
+
+            StringBuilder wkt = new StringBuilder("POLYGON((0 0");
+            for (int i = 1; i < 1000; i++) {
+                wkt.append(", ").append(i).append(" ").append(i % 7);
+            }
+            wkt.append(", 0 0))");
+            SeedJob job = new SeedJob("job1", "layer", "EPSG:4326", "image/png",
+                    Collections.<String> emptyList(), TYPE.SEED, null, null, wkt.toString(), 0, 1,
+                    true);
+            modeQueue.publish(job, Long.MAX_VALUE, Arrays.asList(new SeedChunk("job1", 0,
+                    new long[] { 0, 0, Integer.MAX_VALUE + 1L, 3, 1 }, 16, 0)));
+
+            SeedJob read = modeQueue.getJob("job1");
+            assertTrue(wkt.length() > SeedQueueDialect.PARAMETERS_SIZE);
+            assertEquals(wkt.toString(), read.getGeometry());
+            assertNull(read.getBounds());
+            assertTrue(read.isFilterUpdate());
+            SeedChunk chunk = modeQueue.lease("node1", 60000);
+            assertEquals(Integer.MAX_VALUE + 1L, chunk.getBounds()[2]);
+            assertEquals(Long.MAX_VALUE, modeQueue.getStatus(null).get(0).getTilesTotal());
+        } finally {
+            modeDataSource.close();
+        }
+    }
+
+    @Test
+    public void testParametersEncoding() {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("CQL_FILTER", "NAME = 'a=b&c'");
+        parameters.put("TIME", "");
+        String encoded = JDBCSeedQueue.encodeParameters(parameters);
+        assertEquals(parameters, JDBCSeedQueue.decodeParameters(encoded));
+        assertNull(JDBCSeedQueue.encodeParameters(null));
+        List<String> formats = Arrays.asList("image/png", "image/jpeg");
+        assertEquals(formats, JDBCSeedQueue.splitFormats(JDBCSeedQueue.joinFormats(formats)));
+    }
+}
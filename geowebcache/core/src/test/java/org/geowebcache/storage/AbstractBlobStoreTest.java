@@ -182,6 +182,25 @@ public abstract class AbstractBlobStoreTest<TestClass extends BlobStore> {
         assertThat(fromCache, hasProperty("blobSize", is(0)));
     }
     
+    @Test
+    public void testPutAll() throws Exception {
+        TileObject toCache1 = TileObject.createCompleteTileObject("testLayer1",  new long[]{0L, 0L, 0L}, "testGridSet", "image/png", null, new ByteArrayResource("1,2,4,5,6 test".getBytes(StandardCharsets.UTF_8)));
+        TileObject toCache2 = TileObject.createCompleteTileObject("testLayer1",  new long[]{1L, 0L, 0L}, "testGridSet", "image/png", null, new ByteArrayResource("7,8,9,10 test".getBytes(StandardCharsets.UTF_8)));
+        TileObject toCache3 = TileObject.createCompleteTileObject("testLayer2",  new long[]{0L, 0L, 0L}, "testGridSet", "image/png", null, new ByteArrayResource("11,12 test".getBytes(StandardCharsets.UTF_8)));
+        TileObject fromCache1 = TileObject.createQueryTileObject("testLayer1", new long[]{0L, 0L, 0L}, "testGridSet", "image/png", null);
+        TileObject fromCache2 = TileObject.createQueryTileObject("testLayer1", new long[]{1L, 0L, 0L}, "testGridSet", "image/png", null);
+        TileObject fromCache3 = TileObject.createQueryTileObject("testLayer2", new long[]{0L, 0L, 0L}, "testGridSet", "image/png", null);
+        
+        store.putAll(Arrays.asList(toCache1, toCache2, toCache3));
+        
+        assertThat(store.get(fromCache1), is(true));
+        assertThat(fromCache1, hasProperty("blob",resource(new ByteArrayResource("1,2,4,5,6 test".getBytes(StandardCharsets.UTF_8)))));
+        assertThat(store.get(fromCache2), is(true));
+        assertThat(fromCache2, hasProperty("blob",resource(new ByteArrayResource("7,8,9,10 test".getBytes(StandardCharsets.UTF_8)))));
+        assertThat(store.get(fromCache3), is(true));
+        assertThat(fromCache3, hasProperty("blob",resource(new ByteArrayResource("11,12 test".getBytes(StandardCharsets.UTF_8)))));
+    }
+    
     @Test
     public void testUpdateTile() throws Exception {
         BlobStoreListener listener = EasyMock.createMock(BlobStoreListener.class);
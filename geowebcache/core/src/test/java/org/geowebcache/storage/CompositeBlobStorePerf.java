@@ -0,0 +1,170 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.config.BlobStoreConfig;
+import org.geowebcache.config.Configuration;
+import org.geowebcache.config.XMLConfiguration;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.locks.LockProvider;
+import org.geowebcache.storage.blobstore.memory.NullBlobStore;
+
+/**
+ * Measures the per call overhead of {@link CompositeBlobStore} tile reads against a blob store
+ * that does nothing, next to the cost of the layer lookup it saves by remembering each layer's
+ * blob store.
+ */
+final class CompositeBlobStorePerf {
+
+    private static Log LOGGER = LogFactory.getLog(CompositeBlobStorePerf.class);
+
+    // number of layer configurations the dispatcher looks layers up in
+    final static int CONFIGURATIONS = 4;
+
+    // number of layers, all in the last configuration
+    final static int LAYERS = 1000;
+
+    // number of calls per thread
+    final static int CALLS = 2000000;
+
+    public static void main(String[] args) throws Exception {
+        GridSetBroker gridSetBroker = new GridSetBroker(false, false);
+        GridSubset gridSubset = GridSubsetFactory.createGridSubSet(gridSetBroker.WORLD_EPSG4326);
+
+        // the lookup of TileLayerDispatcher: one map lookup per configuration until found
+        final List<Map<String, TileLayer>> configurations = new ArrayList<>();
+        for (int i = 0; i < CONFIGURATIONS; i++) {
+            configurations.add(new HashMap<String, TileLayer>());
+        }
+        for (int i = 0; i < LAYERS; i++) {
+            TileLayer layer = new WMSLayer("perf" + i, new String[] { "http://localhost/wms" },
+                    null, "perf", Collections.singletonList("image/png"),
+                    Collections.singletonMap(gridSubset.getName(), gridSubset), null, new int[] {
+                            4, 4 }, null, false);
+            configurations.get(CONFIGURATIONS - 1).put(layer.getName(), layer);
+        }
+        TileLayerDispatcher layers = new TileLayerDispatcher(gridSetBroker,
+                Collections.<Configuration> emptyList()) {
+            @Override
+            public TileLayer getTileLayer(String layerName) throws GeoWebCacheException {
+                for (int i = 0; i < configurations.size(); i++) {
+                    TileLayer layer = configurations.get(i).get(layerName);
+                    if (layer != null) {
+                        return layer;
+                    }
+                }
+                throw new GeoWebCacheException("Unknown layer " + layerName);
+            }
+        };
+
+        XMLConfiguration configuration = mock(XMLConfiguration.class);
+        when(configuration.getBlobStores()).thenReturn(
+                Collections.<BlobStoreConfig> singletonList(new NullBlobStoreConfig()));
+        CompositeBlobStore store = new CompositeBlobStore(layers, null, configuration);
+
+        run("warm up", 1, () -> store.get(randomTile()));
+        run("layer lookup, 1 thread", 1, () -> layers.getTileLayer(randomTile().getLayerName()));
+        run("composite get, 1 thread", 1, () -> store.get(randomTile()));
+        run("layer lookup, 8 threads", 8, () -> layers.getTileLayer(randomTile()
+                .getLayerName()));
+        run("composite get, 8 threads", 8, () -> store.get(randomTile()));
+        store.destroy();
+    }
+
+    private static TileObject randomTile() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return TileObject.createQueryTileObject("perf" + random.nextInt(LAYERS), new long[] {
+                random.nextInt(16), random.nextInt(16), 4 }, "EPSG:4326", "image/png", null);
+    }
+
+    /**
+     * Makes {@link #CALLS} calls on each thread and logs the average time per call
+     */
+    private static void run(String name, int threads, Callable<?> call) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Callable<Void> worker = () -> {
+            for (int i = 0; i < CALLS; i++) {
+                call.call();
+            }
+            return null;
+        };
+        long start = System.nanoTime();
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(worker));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info(String.format("%s: '%f' ns per call, '%f' calls per second.", name,
+                    (double) elapsed / CALLS,
+                    (double) threads * CALLS / elapsed * 1000000000));
+        }
+    }
+
+    /**
+     * The default blob store, doing nothing
+     */
+    private static final class NullBlobStoreConfig extends BlobStoreConfig {
+
+        private static final long serialVersionUID = 1L;
+
+        NullBlobStoreConfig() {
+            super("perf");
+            setEnabled(true);
+            setDefault(true);
+        }
+
+        @Override
+        public BlobStore createInstance(TileLayerDispatcher layers, LockProvider lockProvider) {
+            return new NullBlobStore();
+        }
+
+        @Override
+        public String getLocation() {
+            return "null";
+        }
+
+        @Override
+        public String toString() {
+            return "NullBlobStore";
+        }
+    }
+}
@@ -17,28 +17,41 @@
 package org.geowebcache.storage;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.config.BlobStoreConfig;
 import org.geowebcache.config.ConfigurationException;
 import org.geowebcache.config.FileBlobStoreConfig;
 import org.geowebcache.config.XMLConfiguration;
+import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.layer.TileLayer;
+import org.geowebcache.layer.TileLayerConfigurationListener;
 import org.geowebcache.layer.TileLayerDispatcher;
 import org.geowebcache.mime.MimeException;
 import org.geowebcache.mime.MimeType;
@@ -48,6 +61,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 
 import com.google.common.base.Throwables;
@@ -285,6 +299,110 @@ public class CompositeBlobStoreTest {
         store.get(tile);
     }
 
+    @Test
+    public void layerStoreIsResolvedOnce() throws Exception {
+        store = create();
+        when(defaultLayer.getName()).thenReturn(DEFAULT_LAYER);
+
+        store.get(queryTile(0, 0, 0));
+        store.get(queryTile(0, 0, 0));
+        store.put(TileObject.createCompleteTileObject(DEFAULT_LAYER, new long[] { 0, 0, 0 },
+                DEFAULT_GRIDSET, "image/png", null, new ByteArrayResource(new byte[10])));
+        verify(layers, times(1)).getTileLayer(DEFAULT_LAYER);
+    }
+
+    @Test
+    public void layerChangeResolvesStoreAgain() throws Exception {
+        configs.add(config("store1", false, true, tmpFolder.newFolder().getAbsolutePath(), 1024));
+        store = create();
+        ArgumentCaptor<TileLayerConfigurationListener> listener = ArgumentCaptor
+                .forClass(TileLayerConfigurationListener.class);
+        verify(layers).addConfigurationListener(listener.capture());
+
+        when(defaultLayer.getName()).thenReturn(DEFAULT_LAYER);
+        store.get(queryTile(0, 0, 0));
+
+        // the layer is replaced by one using another store
+        TileLayer modified = mock(TileLayer.class);
+        when(modified.getName()).thenReturn(DEFAULT_LAYER);
+        when(modified.getBlobStoreId()).thenReturn("store1");
+        doReturn(modified).when(layers).getTileLayer(DEFAULT_LAYER);
+        listener.getValue().layerChanged(DEFAULT_LAYER);
+
+        LiveStore liveStore = store.blobStores.get("store1");
+        liveStore.liveInstance = spy(liveStore.liveInstance);
+        TileObject tile = queryTile(0, 0, 0);
+        store.get(tile);
+        verify(liveStore.liveInstance).get(tile);
+    }
+
+    @Test
+    public void setBlobStoresResolvesStoreAgain() throws Exception {
+        store = create();
+        when(defaultLayer.getName()).thenReturn(DEFAULT_LAYER);
+        store.get(queryTile(0, 0, 0));
+
+        List<BlobStoreConfig> newConfigs = new LinkedList<>();
+        newConfigs.add(config("store1", true, true, tmpFolder.newFolder().getAbsolutePath(),
+                1024));
+        store.setBlobStores(newConfigs);
+
+        LiveStore liveStore = store.blobStores.get(CompositeBlobStore.DEFAULT_STORE_DEFAULT_ID);
+        assertEquals("store1", liveStore.config.getId());
+        liveStore.liveInstance = spy(liveStore.liveInstance);
+        TileObject tile = queryTile(0, 0, 0);
+        store.get(tile);
+        verify(liveStore.liveInstance).get(tile);
+    }
+
+    @Test
+    public void setBlobStoresWaitsForRunningOperations() throws Exception {
+        store = create();
+        when(defaultLayer.getName()).thenReturn(DEFAULT_LAYER);
+
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        BlobStore slow = mock(BlobStore.class);
+        doAnswer(invocation -> {
+            reading.countDown();
+            readDone.await();
+            return true;
+        }).when(slow).get(any(TileObject.class));
+        LiveStore oldStore = store.blobStores.get(CompositeBlobStore.DEFAULT_STORE_DEFAULT_ID);
+        oldStore.liveInstance = slow;
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> get = executor.submit(() -> store.get(queryTile(0, 0, 0)));
+            assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+            List<BlobStoreConfig> newConfigs = new LinkedList<>();
+            newConfigs.add(config("store1", true, true, tmpFolder.newFolder().getAbsolutePath(),
+                    1024));
+            Future<?> replace = executor.submit(() -> {
+                store.setBlobStores(newConfigs);
+                return null;
+            });
+
+            // the new stores are used right away, the old one is kept until the read is done
+            while (store.blobStores.get(CompositeBlobStore.DEFAULT_STORE_DEFAULT_ID) == oldStore) {
+                Thread.sleep(10);
+            }
+            assertFalse(store.get(queryTile(0, 0, 0)));
+            Thread.sleep(100);
+            assertFalse(replace.isDone());
+            verify(slow, never()).destroy();
+
+            readDone.countDown();
+            assertTrue(get.get(10, TimeUnit.SECONDS));
+            replace.get(10, TimeUnit.SECONDS);
+            verify(slow).destroy();
+        } finally {
+            readDone.countDown();
+            executor.shutdownNow();
+        }
+    }
+
     private FileBlobStoreConfig config(String id, boolean isDefault, boolean isEnabled,
             String baseDirectory, int fileSystemBlockSize) {
         FileBlobStoreConfig c = new FileBlobStoreConfig(id);
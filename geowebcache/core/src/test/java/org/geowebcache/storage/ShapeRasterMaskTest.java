@@ -0,0 +1,90 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Shape;
+import java.util.Collections;
+
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.util.GeometryParser;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShapeRasterMaskTest {
+
+    private GridSubset gridSubset;
+
+    private Shape shape;
+
+    @Before
+    public void setUp() {
+        gridSubset = GridSubsetFactory.createGridSubSet(new GridSetBroker(false, false).WORLD_EPSG4326);
+        // at zoom level 4 tiles are 11.25 degrees wide, this touches 4 of them
+        shape = GeometryParser.parse("POLYGON ((10 10, 20 10, 20 20, 10 20, 10 10))");
+    }
+
+    @Test
+    public void testLookup() {
+        ShapeRasterMask mask = new ShapeRasterMask(shape, gridSubset, null, new int[] { 1, 1 }, 4);
+
+        assertTrue(mask.lookup(1, 0, 0));
+        assertFalse(mask.lookup(0, 0, 0));
+
+        assertArrayEquals(new long[] { 16, 8, 17, 9, 4 }, mask.getGridCoverages()[4]);
+        assertTrue(mask.lookup(16, 8, 4));
+        assertTrue(mask.lookup(17, 9, 4));
+        assertFalse(mask.lookup(18, 8, 4));
+        assertFalse(mask.lookup(16, 8, 5));
+        assertEquals(4, mask.tileCount(4));
+    }
+
+    @Test
+    public void testBoundsAndMetaTiling() {
+        ShapeRasterMask mask = new ShapeRasterMask(shape, gridSubset, new BoundingBox(0, 0, 11,
+                11), new int[] { 4, 4 }, 4);
+
+        // the coverage is expanded to the meta tile, the mask is not
+        assertArrayEquals(new long[] { 16, 8, 19, 11, 4 }, mask.getGridCoverages()[4]);
+        assertTrue(mask.lookup(16, 8, 4));
+        assertFalse(mask.lookup(17, 9, 4));
+        assertFalse(mask.lookup(19, 11, 4));
+        assertEquals(1, mask.tileCount(4));
+    }
+
+    @Test
+    public void testDeepLevelsUseLastMask() {
+        // only levels with a single tile covered fit
+        ShapeRasterMask mask = new ShapeRasterMask(shape, gridSubset, null, new int[] { 1, 1 },
+                5, 1);
+
+        assertTrue(mask.lookup(16, 8, 4));
+        assertTrue(mask.lookup(35, 19, 5));
+        assertFalse(mask.lookup(15, 8, 4));
+        assertEquals(4, mask.tileCount(4));
+
+        DiscontinuousTileRange range = new DiscontinuousTileRange("layer", gridSubset.getName(),
+                0, 4, mask, ImageMime.png, Collections.<String, String> emptyMap());
+        assertEquals(1 + 1 + 1 + 1 + 4, range.tileCount());
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.disk;
+
+import org.geowebcache.storage.AbstractBlobStoreTest;
+import org.geowebcache.storage.blobstore.file.FileBlobStore;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class DiskCacheBlobStoreComformanceTest extends AbstractBlobStoreTest<DiskCacheBlobStore> {
+
+    @Override
+    public void createTestUnit() throws Exception {
+        FileBlobStore remote = new FileBlobStore(temp.newFolder("remote").getAbsolutePath());
+        // fill the local copies right away, so that the tests also read them back
+        this.store = new DiskCacheBlobStore(remote, temp.newFolder("local"), 1024 * 1024,
+                MoreExecutors.sameThreadExecutor());
+    }
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+}
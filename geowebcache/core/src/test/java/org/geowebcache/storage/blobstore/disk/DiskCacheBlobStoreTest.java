@@ -0,0 +1,243 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.geowebcache.config.DiskCacheBlobStoreConfig;
+import org.geowebcache.config.FileBlobStoreConfig;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.locks.NoOpLockProvider;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+import org.geowebcache.storage.blobstore.file.FileBlobStore;
+import org.geowebcache.storage.blobstore.memory.CacheStatistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class DiskCacheBlobStoreTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private BlobStore remote;
+
+    private File localDirectory;
+
+    private DiskCacheBlobStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        remote = Mockito.spy(new FileBlobStore(temp.newFolder("remote").getAbsolutePath()));
+        localDirectory = temp.newFolder("local");
+        store = new DiskCacheBlobStore(remote, localDirectory, 1000,
+                MoreExecutors.sameThreadExecutor());
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    @Test
+    public void testReadThrough() throws Exception {
+        store.put(tile(0, 0, 100));
+
+        assertTrue(store.get(query(0, 0)));
+        assertTrue(store.get(query(0, 0)));
+        TileObject hit = query(0, 0);
+        assertTrue(store.get(hit));
+        assertEquals(100, hit.getBlobSize());
+
+        // only the first read went to the wrapped store
+        verify(remote, times(1)).get(any(TileObject.class));
+
+        CacheStatistics statistics = store.getCacheStatistics();
+        assertEquals(2, statistics.getHitCount());
+        assertEquals(1, statistics.getMissCount());
+        assertEquals(3, statistics.getRequestCount());
+        assertEquals(100, statistics.getActualSize());
+        assertEquals(1000, statistics.getTotalSize());
+    }
+
+    @Test
+    public void testMissingTilesAreNotCached() throws Exception {
+        assertFalse(store.get(query(0, 0)));
+        assertFalse(store.get(query(0, 0)));
+        verify(remote, times(2)).get(any(TileObject.class));
+        assertEquals(0, store.getCacheStatistics().getActualSize());
+    }
+
+    @Test
+    public void testPutInvalidates() throws Exception {
+        store.put(tile(0, 0, 100));
+        assertTrue(store.get(query(0, 0)));
+
+        store.put(tile(0, 0, 200));
+        TileObject updated = query(0, 0);
+        assertTrue(store.get(updated));
+        assertEquals(200, updated.getBlobSize());
+        assertEquals(200, store.getCacheStatistics().getActualSize());
+    }
+
+    @Test
+    public void testReadDuringPutIsNotKept() throws Exception {
+        store.put(tile(0, 0, 100));
+        // a read racing with the put gets the old tile from the wrapped store
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                TileObject old = query(0, 0);
+                assertTrue(store.get(old));
+                assertEquals(100, old.getBlobSize());
+                invocation.callRealMethod();
+                return null;
+            }
+        }).when(remote).put(any(TileObject.class));
+
+        store.put(tile(0, 0, 200));
+
+        TileObject updated = query(0, 0);
+        assertTrue(store.get(updated));
+        assertEquals(200, updated.getBlobSize());
+    }
+
+    @Test
+    public void testDeleteInvalidates() throws Exception {
+        store.put(tile(0, 0, 100));
+        assertTrue(store.get(query(0, 0)));
+
+        assertTrue(store.delete(query(0, 0)));
+        assertFalse(store.get(query(0, 0)));
+        assertEquals(0, store.getCacheStatistics().getActualSize());
+        // only the marker file is left
+        assertEquals(1, countFiles(localDirectory));
+    }
+
+    @Test
+    public void testTruncateInvalidatesTheRangeOnly() throws Exception {
+        store.put(tile(0, 0, 100));
+        store.put(tile(1, 0, 100));
+        assertTrue(store.get(query(0, 0)));
+        assertTrue(store.get(query(1, 0)));
+
+        long[][] bounds = { { 0, 0, 0, 0, 1 } };
+        TileRange range = new TileRange("layer", "EPSG:4326", 1, 1, bounds, ImageMime.png,
+                (String) null);
+        store.delete(range);
+
+        assertEquals(100, store.getCacheStatistics().getActualSize());
+        assertFalse(store.get(query(0, 0)));
+        assertTrue(store.get(query(1, 0)));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        for (int x = 0; x < 20; x++) {
+            store.put(tile(x, 0, 100));
+            assertTrue(store.get(query(x, 0)));
+        }
+        CacheStatistics statistics = store.getCacheStatistics();
+        assertTrue(statistics.getActualSize() <= 1000);
+        assertTrue(statistics.getEvictionCount() >= 10);
+        // evicted copies are deleted, the marker file stays
+        assertEquals(statistics.getActualSize() / 100 + 1, countFiles(localDirectory));
+
+        // still served from the wrapped store
+        assertTrue(store.get(query(0, 0)));
+    }
+
+    @Test
+    public void testLocalCopiesAreDiscardedOnRestart() throws Exception {
+        store.put(tile(0, 0, 100));
+        assertTrue(store.get(query(0, 0)));
+        store.destroy();
+
+        store = new DiskCacheBlobStore(remote, localDirectory, 1000,
+                MoreExecutors.sameThreadExecutor());
+        assertEquals(1, countFiles(localDirectory));
+    }
+
+    @Test(expected = StorageException.class)
+    public void testRefusesForeignDirectory() throws Exception {
+        File foreign = temp.newFolder("foreign");
+        assertTrue(new File(foreign, "precious.txt").createNewFile());
+        new DiskCacheBlobStore(remote, foreign, 1000, MoreExecutors.sameThreadExecutor());
+    }
+
+    @Test
+    public void testConfig() throws Exception {
+        FileBlobStoreConfig remoteConfig = new FileBlobStoreConfig();
+        remoteConfig.setBaseDirectory(temp.newFolder("configured").getAbsolutePath());
+        DiskCacheBlobStoreConfig config = new DiskCacheBlobStoreConfig("cached");
+        config.setEnabled(true);
+        config.setCacheDirectory(temp.newFolder("configuredLocal").getAbsolutePath());
+        config.setMaxCacheSize(10);
+        config.setStore(remoteConfig);
+
+        TileLayerDispatcher layers = mock(TileLayerDispatcher.class);
+        BlobStore created = config.createInstance(layers, new NoOpLockProvider());
+        try {
+            assertTrue(created instanceof DiskCacheBlobStore);
+            assertTrue(((DiskCacheBlobStore) created).getStore() instanceof FileBlobStore);
+            assertEquals(10 * 1024 * 1024, ((DiskCacheBlobStore) created).getCacheStatistics()
+                    .getTotalSize());
+        } finally {
+            created.destroy();
+        }
+    }
+
+    private static TileObject tile(long x, long y, int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) x);
+        return TileObject.createCompleteTileObject("layer", new long[] { x, y, 1 }, "EPSG:4326",
+                "image/png", null, new ByteArrayResource(bytes));
+    }
+
+    private static TileObject query(long x, long y) {
+        return TileObject.createQueryTileObject("layer", new long[] { x, y, 1 }, "EPSG:4326",
+                "image/png", null);
+    }
+
+    private static int countFiles(File directory) {
+        int count = 0;
+        for (File file : directory.listFiles()) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
+}
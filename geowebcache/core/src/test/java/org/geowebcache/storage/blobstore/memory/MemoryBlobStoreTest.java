@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -29,10 +30,12 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.io.Resource;
+import org.geowebcache.mime.ImageMime;
 import org.geowebcache.storage.BlobStore;
 import org.geowebcache.storage.StorageBrokerTest;
 import org.geowebcache.storage.StorageException;
 import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
 import org.geowebcache.storage.blobstore.file.FileBlobStore;
 import org.geowebcache.storage.blobstore.memory.CacheConfiguration;
 import org.geowebcache.storage.blobstore.memory.CacheProvider;
@@ -239,6 +242,93 @@ public class MemoryBlobStoreTest {
         assertEquals(to2.getCreated(), to3.getCreated());
     }
 
+    @Test
+    public void testInvalidationBus() throws Exception {
+        final AtomicInteger published = new AtomicInteger();
+        CacheInvalidationBus bus = new InProcessCacheInvalidationBus() {
+
+            @Override
+            public void publish(CacheInvalidation invalidation) {
+                published.incrementAndGet();
+                super.publish(invalidation);
+            }
+        };
+        CacheProvider cacheA = new GuavaCacheProvider(new CacheConfiguration());
+        CacheProvider cacheB = new GuavaCacheProvider(new CacheConfiguration());
+        // The nodes share the wrapped store
+        BlobStore store = setup();
+
+        MemoryBlobStore mbsA = new MemoryBlobStore();
+        mbsA.setStore(store);
+        mbsA.setCacheProvider(cacheA);
+        mbsA.setInvalidationBus(bus);
+        MemoryBlobStore mbsB = new MemoryBlobStore();
+        mbsB.setCacheProvider(cacheB);
+        mbsB.setInvalidationBus(bus);
+        mbsB.setStore(store);
+        try {
+            // Tiles written by the first node, and read by the second one
+            for (long x = 0; x < 4; x++) {
+                mbsA.put(tile(x, "a"));
+            }
+            waitForPublication(mbsA);
+            // New tiles cannot be cached anywhere else yet
+            assertEquals(0, published.get());
+            for (long x = 0; x < 4; x++) {
+                cacheB.putTileObj(tile(x, "a"));
+            }
+
+            // Only the range tiles are removed, on both nodes
+            long[][] bounds = { { 0, 0, 1, 0, 2 } };
+            mbsA.delete(new TileRange("layer", "EPSG:4326", 2, 2, bounds, ImageMime.png,
+                    (Map<String, String>) null));
+            waitForPublication(mbsA);
+            for (CacheProvider cache : new CacheProvider[] { cacheA, cacheB }) {
+                assertNull(cache.getTileObj(tile(0, null)));
+                assertNull(cache.getTileObj(tile(1, null)));
+                assertNotNull(cache.getTileObj(tile(2, null)));
+                assertNotNull(cache.getTileObj(tile(3, null)));
+            }
+
+            // A new version of a tile replaces the one cached by the other node
+            published.set(0);
+            mbsA.put(tile(2, "b"));
+            waitForPublication(mbsA);
+            assertEquals(1, published.get());
+            assertNotNull(cacheA.getTileObj(tile(2, null)));
+            assertNull(cacheB.getTileObj(tile(2, null)));
+            assertNotNull(cacheB.getTileObj(tile(3, null)));
+
+            // Not received once removed from the bus
+            mbsB.setInvalidationBus(null);
+            mbsA.delete("layer");
+            waitForPublication(mbsA);
+            assertNull(cacheA.getTileObj(tile(3, null)));
+            assertNotNull(cacheB.getTileObj(tile(3, null)));
+        } finally {
+            mbsA.destroy();
+            mbsB.destroy();
+        }
+    }
+
+    private static TileObject tile(long x, String contents) {
+        long[] xyz = { x, 0L, 2L };
+        if (contents == null) {
+            return TileObject.createQueryTileObject("layer", xyz, "EPSG:4326", "image/png", null);
+        }
+        return TileObject.createCompleteTileObject("layer", xyz, "EPSG:4326", "image/png", null,
+                new ByteArrayResource(contents.getBytes()));
+    }
+
+    /**
+     * Invalidations are published once the wrapped store tasks are completed, reading a tile waits
+     * for them
+     */
+    private static void waitForPublication(MemoryBlobStore mbs) throws StorageException {
+        mbs.get(TileObject.createQueryTileObject("missing", new long[] { 0L, 0L, 0L },
+                "EPSG:4326", "image/png", null));
+    }
+
     /***
      * Private method for creating a {@link FileBlobStore}
      * 
@@ -0,0 +1,35 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.tiered;
+
+import org.geowebcache.storage.AbstractBlobStoreTest;
+import org.geowebcache.storage.blobstore.file.FileBlobStore;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+public class TieredBlobStoreComformanceTest extends AbstractBlobStoreTest<TieredBlobStore> {
+
+    @Override
+    public void createTestUnit() throws Exception {
+        FileBlobStore hot = new FileBlobStore(temp.newFolder("hot").getAbsolutePath());
+        FileBlobStore cold = new FileBlobStore(temp.newFolder("cold").getAbsolutePath());
+        // no migrations, the tests expect the listener events of their own operations only
+        this.store = new TieredBlobStore(hot, cold, 1024 * 1024, command -> {
+        });
+    }
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+}
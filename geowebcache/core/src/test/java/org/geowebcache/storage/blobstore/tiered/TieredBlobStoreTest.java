@@ -0,0 +1,327 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.tiered;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.geowebcache.config.FileBlobStoreConfig;
+import org.geowebcache.config.TieredBlobStoreConfig;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.locks.NoOpLockProvider;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.BlobStoreListener;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+import org.geowebcache.storage.blobstore.file.FileBlobStore;
+import org.geowebcache.storage.blobstore.memory.CacheStatistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class TieredBlobStoreTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File hotDirectory;
+
+    private BlobStore hot;
+
+    private BlobStore cold;
+
+    private TieredBlobStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        hotDirectory = temp.newFolder("hot");
+        hot = Mockito.spy(new FileBlobStore(hotDirectory.getAbsolutePath()));
+        cold = Mockito.spy(new FileBlobStore(temp.newFolder("cold").getAbsolutePath()));
+        store = new TieredBlobStore(hot, cold, 1000, MoreExecutors.sameThreadExecutor());
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    @Test
+    public void testNewTilesGoToTheColdTier() throws Exception {
+        store.put(tile(0, 0, 100));
+
+        verify(cold).put(any(TileObject.class));
+        verify(hot, never()).put(any(TileObject.class));
+        assertTrue(cold.get(query(0, 0)));
+        assertFalse(hot.get(query(0, 0)));
+    }
+
+    @Test
+    public void testReadTilesArePromoted() throws Exception {
+        store.put(tile(0, 0, 100));
+
+        TileObject first = query(0, 0);
+        assertTrue(store.get(first));
+        // the caller can still read the tile moved away from the cold tier
+        assertEquals(100, first.getBlob().getInputStream().available());
+        assertFalse(cold.get(query(0, 0)));
+        assertTrue(hot.get(query(0, 0)));
+        assertEquals(1, store.getPromotionCount());
+
+        Mockito.reset(hot, cold);
+        TileObject second = query(0, 0);
+        assertTrue(store.get(second));
+        assertEquals(100, second.getBlobSize());
+        // served by the hot tier in a single read
+        verify(hot, times(1)).get(any(TileObject.class));
+        verify(cold, never()).get(any(TileObject.class));
+
+        CacheStatistics statistics = store.getCacheStatistics();
+        assertEquals(1, statistics.getHitCount());
+        assertEquals(1, statistics.getMissCount());
+        assertEquals(100, statistics.getActualSize());
+        assertEquals(1000, statistics.getTotalSize());
+    }
+
+    @Test
+    public void testPutKeepsTheTileInItsTier() throws Exception {
+        store.put(tile(0, 0, 100));
+        assertTrue(store.get(query(0, 0)));
+
+        store.put(tile(0, 0, 200));
+        assertFalse(cold.get(query(0, 0)));
+        TileObject updated = query(0, 0);
+        assertTrue(hot.get(updated));
+        assertEquals(200, updated.getBlobSize());
+        assertEquals(200, store.getCacheStatistics().getActualSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedTilesAreDemoted() throws Exception {
+        for (int x = 0; x < 20; x++) {
+            store.put(tile(x, 0, 100));
+            assertTrue(store.get(query(x, 0)));
+        }
+        CacheStatistics statistics = store.getCacheStatistics();
+        assertTrue(statistics.getActualSize() <= 1000);
+        assertTrue(store.getDemotionCount() >= 10);
+        assertEquals(20, store.getPromotionCount());
+
+        // every tile is in exactly one tier
+        int hotTiles = 0;
+        for (int x = 0; x < 20; x++) {
+            boolean inHot = hot.get(query(x, 0));
+            boolean inCold = cold.get(query(x, 0));
+            assertTrue("tile " + x, inHot ^ inCold);
+            hotTiles += inHot ? 1 : 0;
+        }
+        assertEquals(statistics.getActualSize() / 100, hotTiles);
+
+        // demoted tiles are still readable
+        TileObject demoted = query(0, 0);
+        assertTrue(store.get(demoted));
+        assertEquals(100, demoted.getBlobSize());
+    }
+
+    @Test
+    public void testDeleteRemovesFromBothTiers() throws Exception {
+        store.put(tile(0, 0, 100));
+        store.put(tile(1, 0, 100));
+        assertTrue(store.get(query(0, 0)));
+
+        assertTrue(store.delete(query(0, 0)));
+        assertTrue(store.delete(query(1, 0)));
+        assertFalse(store.get(query(0, 0)));
+        assertFalse(store.get(query(1, 0)));
+        assertEquals(0, store.getCacheStatistics().getActualSize());
+    }
+
+    @Test
+    public void testTruncateRemovesTheRangeOnly() throws Exception {
+        store.put(tile(0, 0, 100));
+        store.put(tile(1, 0, 100));
+        assertTrue(store.get(query(0, 0)));
+        assertTrue(store.get(query(1, 0)));
+
+        long[][] bounds = { { 0, 0, 0, 0, 1 } };
+        TileRange range = new TileRange("layer", "EPSG:4326", 1, 1, bounds, ImageMime.png,
+                (String) null);
+        store.delete(range);
+
+        assertEquals(100, store.getCacheStatistics().getActualSize());
+        assertFalse(store.get(query(0, 0)));
+        assertTrue(store.get(query(1, 0)));
+    }
+
+    @Test
+    public void testHotTilesAreFoundAfterRestart() throws Exception {
+        store.put(tile(0, 0, 100));
+        assertTrue(store.get(query(0, 0)));
+
+        store = new TieredBlobStore(hot, cold, 1000, MoreExecutors.sameThreadExecutor());
+        store.trackHotTiles(hotDirectory, layers());
+        assertEquals(100, store.getCacheStatistics().getActualSize());
+
+        Mockito.reset(hot, cold);
+        assertTrue(store.get(query(0, 0)));
+        verify(cold, never()).get(any(TileObject.class));
+        // a missing tile is looked for in the cold tier only
+        assertFalse(store.get(query(1, 0)));
+        verify(hot, times(1)).get(any(TileObject.class));
+    }
+
+    @Test
+    public void testHotTilesOverTheSizeAreDemotedAfterRestart() throws Exception {
+        store = new TieredBlobStore(hot, cold, 100000, MoreExecutors.sameThreadExecutor());
+        for (int x = 0; x < 20; x++) {
+            store.put(tile(x, 0, 100));
+            assertTrue(store.get(query(x, 0)));
+        }
+        assertEquals(0, store.getDemotionCount());
+
+        store = new TieredBlobStore(hot, cold, 1000, MoreExecutors.sameThreadExecutor());
+        store.trackHotTiles(hotDirectory, layers());
+
+        assertTrue(store.getCacheStatistics().getActualSize() <= 1000);
+        assertTrue(store.getDemotionCount() >= 10);
+        for (int x = 0; x < 20; x++) {
+            assertTrue("tile " + x, hot.get(query(x, 0)) ^ cold.get(query(x, 0)));
+        }
+    }
+
+    @Test
+    public void testRenamedHotTilesAreStillTracked() throws Exception {
+        store.put(tile(0, 0, 100));
+        assertTrue(store.get(query(0, 0)));
+
+        store.rename("layer", "renamed");
+        assertEquals(100, store.getCacheStatistics().getActualSize());
+        Mockito.reset(hot, cold);
+        TileObject renamed = TileObject.createQueryTileObject("renamed", new long[] { 0, 0, 1 },
+                "EPSG:4326", "image/png", null);
+        assertTrue(store.get(renamed));
+        verify(cold, never()).get(any(TileObject.class));
+    }
+
+    @Test
+    public void testPromotionRacingTruncateIsRolledBack() throws Exception {
+        store.put(tile(0, 0, 100));
+        final long[][] bounds = { { 0, 0, 0, 0, 1 } };
+        final TileRange range = new TileRange("layer", "EPSG:4326", 1, 1, bounds, ImageMime.png,
+                (String) null);
+        // truncated while the promotion copies the tile, bulk deletes don't take the tile lock
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                store.delete(range);
+                invocation.callRealMethod();
+                return null;
+            }
+        }).when(hot).put(any(TileObject.class));
+
+        assertTrue(store.get(query(0, 0)));
+        assertFalse(hot.get(query(0, 0)));
+        assertFalse(cold.get(query(0, 0)));
+        assertEquals(0, store.getCacheStatistics().getActualSize());
+        assertEquals(0, store.getPromotionCount());
+    }
+
+    @Test
+    public void testListenersAreToldAboutMigrations() throws Exception {
+        BlobStoreListener listener = mock(BlobStoreListener.class);
+        store.addListener(listener);
+
+        store.put(tile(0, 0, 100));
+        assertTrue(store.get(query(0, 0)));
+
+        // stored in the cold tier, then moved to the hot one
+        verify(listener, times(2)).tileStored(eq("layer"), eq("EPSG:4326"), eq("image/png"),
+                anyString(), eq(0L), eq(0L), eq(1), anyLong());
+        verify(listener).tileDeleted(eq("layer"), eq("EPSG:4326"), eq("image/png"),
+                anyString(), eq(0L), eq(0L), eq(1), anyLong());
+    }
+
+    @Test
+    public void testConfig() throws Exception {
+        FileBlobStoreConfig hotConfig = new FileBlobStoreConfig();
+        hotConfig.setBaseDirectory(temp.newFolder("configuredHot").getAbsolutePath());
+        FileBlobStoreConfig coldConfig = new FileBlobStoreConfig();
+        coldConfig.setBaseDirectory(temp.newFolder("configuredCold").getAbsolutePath());
+        TieredBlobStoreConfig config = new TieredBlobStoreConfig("tiered");
+        config.setEnabled(true);
+        config.setHotMaxSize(10);
+        config.setHotStore(hotConfig);
+        config.setColdStore(coldConfig);
+
+        TileLayerDispatcher layers = mock(TileLayerDispatcher.class);
+        BlobStore created = config.createInstance(layers, new NoOpLockProvider());
+        try {
+            assertTrue(created instanceof TieredBlobStore);
+            assertTrue(((TieredBlobStore) created).getHotStore() instanceof FileBlobStore);
+            assertTrue(((TieredBlobStore) created).getColdStore() instanceof FileBlobStore);
+            assertEquals(10 * 1024 * 1024, ((TieredBlobStore) created).getCacheStatistics()
+                    .getTotalSize());
+        } finally {
+            created.destroy();
+        }
+    }
+
+    private static TileLayerDispatcher layers() {
+        TileLayer layer = mock(TileLayer.class);
+        when(layer.getName()).thenReturn("layer");
+        when(layer.getGridSubsets()).thenReturn(Collections.singleton("EPSG:4326"));
+        when(layer.getMimeTypes()).thenReturn(Collections.<MimeType> singletonList(ImageMime.png));
+        TileLayerDispatcher layers = mock(TileLayerDispatcher.class);
+        when(layers.getLayerList()).thenReturn(Collections.singletonList(layer));
+        return layers;
+    }
+
+    private static TileObject tile(long x, long y, int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) x);
+        return TileObject.createCompleteTileObject("layer", new long[] { x, y, 1 }, "EPSG:4326",
+                "image/png", null, new ByteArrayResource(bytes));
+    }
+
+    private static TileObject query(long x, long y) {
+        return TileObject.createQueryTileObject("layer", new long[] { x, y, 1 }, "EPSG:4326",
+                "image/png", null);
+    }
+}
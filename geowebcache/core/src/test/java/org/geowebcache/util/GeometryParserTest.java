@@ -0,0 +1,97 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+import org.junit.Test;
+
+public class GeometryParserTest {
+
+    @Test
+    public void testWKTPolygonWithHole() {
+        Path2D shape = GeometryParser
+                .parse("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (4 4, 6 4, 6 6, 4 6, 4 4))");
+        assertEquals(new Rectangle2D.Double(0, 0, 10, 10), shape.getBounds2D());
+        assertTrue(shape.contains(1, 1));
+        assertFalse(shape.contains(5, 5));
+    }
+
+    @Test
+    public void testWKTMultiPolygon() {
+        Path2D shape = GeometryParser.parse("SRID=4326;MULTIPOLYGON Z ("
+                + "((0 0 1, 1 0 1, 1 1 1, 0 0 1)), ((5 5 1, 6 5 1, 6 6 1, 5 5 1)))");
+        assertEquals(new Rectangle2D.Double(0, 0, 6, 6), shape.getBounds2D());
+        assertTrue(shape.contains(5.9, 5.1));
+        assertFalse(shape.contains(3, 3));
+    }
+
+    @Test
+    public void testOverlappingPolygonsAreUnited() {
+        Path2D wkt = GeometryParser.parse("MULTIPOLYGON (((0 0, 10 0, 10 10, 0 10, 0 0)),"
+                + " ((5 5, 15 5, 15 15, 5 15, 5 5)))");
+        assertEquals(new Rectangle2D.Double(0, 0, 15, 15), wkt.getBounds2D());
+        // the overlap is covered by both polygons
+        assertTrue(wkt.contains(7, 7));
+        assertTrue(wkt.contains(1, 1));
+        assertTrue(wkt.contains(14, 14));
+        assertFalse(wkt.contains(1, 14));
+
+        Path2D json = GeometryParser.parse("{\"type\": \"MultiPolygon\", \"coordinates\": ["
+                + "[[[0, 0], [10, 0], [10, 10], [0, 10], [0, 0]]],"
+                + " [[[5, 5], [15, 5], [15, 15], [5, 15], [5, 5]]]]}");
+        assertTrue(json.contains(7, 7));
+        assertFalse(json.contains(1, 14));
+    }
+
+    @Test
+    public void testGeoJSON() {
+        Path2D shape = GeometryParser.parse("{\"type\": \"FeatureCollection\", \"features\": ["
+                + "{\"type\": \"Feature\", \"properties\": {\"name\": \"a \\\"b\\\"\"},"
+                + " \"geometry\": {\"type\": \"Polygon\", \"coordinates\":"
+                + " [[[-10, -10], [10, -10], [10, 10], [-10, 10], [-10, -10]]]}},"
+                + "{\"type\": \"Feature\", \"geometry\": {\"type\": \"MultiPolygon\","
+                + " \"coordinates\": [[[[20, 20], [30, 20], [30, 3e1], [20, 20]]]]}}]}");
+        assertEquals(new Rectangle2D.Double(-10, -10, 40, 40), shape.getBounds2D());
+        assertTrue(shape.contains(0, 0));
+        assertTrue(shape.contains(29, 21));
+        assertFalse(shape.contains(15, 15));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotPolygonal() {
+        GeometryParser.parse("LINESTRING (0 0, 1 1)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnclosedWKT() {
+        GeometryParser.parse("POLYGON ((0 0, 1 0, 1 1, 0 0)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() {
+        GeometryParser.parse("POLYGON EMPTY");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidGeoJSON() {
+        GeometryParser.parse("{\"type\": \"Point\", \"coordinates\": [0, 0]}");
+    }
+}
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,6 +44,7 @@ import org.geowebcache.config.ConfigurationException;
 import org.geowebcache.diskquota.QuotaStore;
 import org.geowebcache.diskquota.storage.PageStats;
 import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.PageStatsVisitor;
 import org.geowebcache.diskquota.storage.PageStoreConfig;
 import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.diskquota.storage.TilePage;
@@ -650,6 +652,91 @@ public class BDBQuotaStore implements QuotaStore {
         }
     }
 
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#visitPages(org.geowebcache.diskquota.storage.TileSet,
+     *      org.geowebcache.diskquota.storage.PageStatsVisitor)
+     */
+    public void visitPages(final TileSet tileSet, final PageStatsVisitor visitor) {
+        final String tileSetId = tileSet.getId();
+        EntityCursor<TilePage> cursor = pagesByTileSetId.entities(tileSetId, true, tileSetId,
+                true);
+        try {
+            TilePage page;
+            while ((page = cursor.next()) != null) {
+                PageStats pageStats = pageStatsByPageId.get(page.getId());
+                if (pageStats != null) {
+                    visitor.visit(page, pageStats);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#importTileSet(org.geowebcache.diskquota.storage.TileSet,
+     *      org.geowebcache.diskquota.storage.Quota, java.util.Map)
+     */
+    public void importTileSet(final TileSet tileSet, final Quota usedQuota,
+            final Map<TilePage, PageStats> pages) throws InterruptedException {
+        issueSync(new ImportTileSet(tileSet, usedQuota, pages));
+    }
+
+    private class ImportTileSet implements Callable<Void> {
+
+        private final TileSet tileSet;
+
+        private final Quota usedQuota;
+
+        private final Map<TilePage, PageStats> pages;
+
+        public ImportTileSet(final TileSet tileSet, final Quota usedQuota,
+                final Map<TilePage, PageStats> pages) {
+            this.tileSet = tileSet;
+            this.usedQuota = usedQuota;
+            this.pages = pages;
+        }
+
+        public Void call() throws Exception {
+            final Transaction tx = entityStore.getEnvironment().beginTransaction(null, null);
+            try {
+                getOrCreateTileSet(tx, tileSet);
+                // deleting the pages cascades to their stats
+                pagesByTileSetId.delete(tx, tileSet.getId());
+
+                Quota tileSetQuota = usedQuotaByTileSetId.get(tx, tileSet.getId(),
+                        LockMode.DEFAULT);
+                Quota globalQuota = usedQuotaByTileSetId.get(tx, GLOBAL_QUOTA_NAME,
+                        LockMode.DEFAULT);
+                globalQuota.subtract(tileSetQuota.getBytes());
+                globalQuota.add(usedQuota.getBytes());
+                tileSetQuota.setBytes(usedQuota.getBytes());
+                usedQuotaById.putNoReturn(tx, tileSetQuota);
+                usedQuotaById.putNoReturn(tx, globalQuota);
+
+                for (Map.Entry<TilePage, PageStats> entry : pages.entrySet()) {
+                    TilePage page = entry.getKey();
+                    TilePage storedPage = new TilePage(tileSet.getId(), page.getPageX(),
+                            page.getPageY(), page.getZoomLevel(), page.getCreationTimeMinutes());
+                    pageById.put(tx, storedPage);
+
+                    PageStats stats = entry.getValue();
+                    PageStats pageStats = new PageStats(storedPage.getId());
+                    pageStats.setFillFactor(stats.getFillFactor());
+                    pageStats.setFrequencyOfUsePerMinute(stats.getFrequencyOfUsePerMinute());
+                    pageStats.setLastAccessMinutes(stats.getLastAccessTimeMinutes());
+                    pageStats.setNumHits(stats.getNumHits());
+                    pageStatsById.putNoReturn(tx, pageStats);
+                }
+                tx.commit();
+                return null;
+            } catch (RuntimeException e) {
+                tx.abort();
+                throw e;
+            }
+        }
+    }
+
     /**
      * @see org.geowebcache.diskquota.QuotaStore#getTilePageCalculator()
      */
@@ -811,10 +898,10 @@ public class BDBQuotaStore implements QuotaStore {
             throws InterruptedException {
 
         SecondaryIndex<Float, Long, PageStats> expirationPolicyIndex = pageStatsByLFU;
-        TilePage nextToExpire = issueSync(new FindPageToExpireByLayer(expirationPolicyIndex,
-                layerNames));
+        Map<TilePage, PageStats> nextToExpire = issueSync(new FindPageToExpireByLayer(
+                expirationPolicyIndex, layerNames, 1));
 
-        return nextToExpire;
+        return nextToExpire.isEmpty() ? null : nextToExpire.keySet().iterator().next();
     }
 
     /**
@@ -823,10 +910,28 @@ public class BDBQuotaStore implements QuotaStore {
     public TilePage getLeastRecentlyUsedPage(final Set<String> layerNames)
             throws InterruptedException {
         SecondaryIndex<Float, Long, PageStats> expirationPolicyIndex = pageStatsByLRU;
-        TilePage nextToExpire = issueSync(new FindPageToExpireByLayer(expirationPolicyIndex,
-                layerNames));
+        Map<TilePage, PageStats> nextToExpire = issueSync(new FindPageToExpireByLayer(
+                expirationPolicyIndex, layerNames, 1));
+
+        return nextToExpire.isEmpty() ? null : nextToExpire.keySet().iterator().next();
+    }
 
-        return nextToExpire;
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getLeastFrequentlyUsedPages(java.util.Set, int)
+     */
+    @Override
+    public Map<TilePage, PageStats> getLeastFrequentlyUsedPages(final Set<String> layerNames,
+            final int limit) throws InterruptedException {
+        return issueSync(new FindPageToExpireByLayer(pageStatsByLFU, layerNames, limit));
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getLeastRecentlyUsedPages(java.util.Set, int)
+     */
+    @Override
+    public Map<TilePage, PageStats> getLeastRecentlyUsedPages(final Set<String> layerNames,
+            final int limit) throws InterruptedException {
+        return issueSync(new FindPageToExpireByLayer(pageStatsByLRU, layerNames, limit));
     }
 
     /**
@@ -834,18 +939,22 @@ public class BDBQuotaStore implements QuotaStore {
      * @param layerNames
      * @return
      */
-    private class FindPageToExpireByLayer implements Callable<TilePage> {
+    private class FindPageToExpireByLayer implements Callable<Map<TilePage, PageStats>> {
         private final SecondaryIndex<Float, Long, PageStats> expirationPolicyIndex;
 
         private final Set<String> layerNames;
 
+        private final int limit;
+
         public FindPageToExpireByLayer(
-                SecondaryIndex<Float, Long, PageStats> expirationPolicyIndex, Set<String> layerNames) {
+                SecondaryIndex<Float, Long, PageStats> expirationPolicyIndex, Set<String> layerNames,
+                int limit) {
             this.expirationPolicyIndex = expirationPolicyIndex;
             this.layerNames = layerNames;
+            this.limit = limit;
         }
 
-        public TilePage call() throws Exception {
+        public Map<TilePage, PageStats> call() throws Exception {
 
             // find out the tilesets for the requested layers
             final Set<String> tileSetIds = new HashSet<String>();
@@ -862,22 +971,22 @@ public class BDBQuotaStore implements QuotaStore {
                 }
             }
 
-            TilePage nextToExpire = null;
-            // find out the LRU page that matches a requested tileset
+            Map<TilePage, PageStats> nextToExpire = new LinkedHashMap<TilePage, PageStats>();
+            // find out the LRU pages that match a requested tileset
             final EntityCursor<PageStats> pageStatsCursor = expirationPolicyIndex.entities();
 
             try {
                 String tileSetId;
                 long pageId;
                 PageStats pageStats;
-                while ((pageStats = pageStatsCursor.next()) != null) {
+                while (nextToExpire.size() < limit
+                        && (pageStats = pageStatsCursor.next()) != null) {
                     if (pageStats.getFillFactor() > 0) {
                         pageId = pageStats.getPageId();
                         TilePage tilePage = pageById.get(pageId);
                         tileSetId = tilePage.getTileSetId();
                         if (tileSetIds.contains(tileSetId)) {
-                            nextToExpire = tilePage;
-                            break;
+                            nextToExpire.put(tilePage, pageStats);
                         }
                     }
                 }
@@ -18,12 +18,27 @@
 package org.geowebcache.diskquota;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.GeoWebCacheExtensions;
 import org.geowebcache.diskquota.storage.LayerQuota;
+import org.geowebcache.diskquota.storage.PageStats;
 import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.diskquota.storage.TilePage;
 import org.geowebcache.diskquota.storage.TileSet;
@@ -33,6 +48,11 @@ import org.geowebcache.seed.GWCTask;
 import org.geowebcache.seed.TileBreeder;
 import org.geowebcache.storage.TileRange;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.RateLimiter;
 
 /**
  * 
@@ -43,15 +63,57 @@ public class CacheCleaner implements DisposableBean {
 
     private static final Log log = LogFactory.getLog(CacheCleaner.class);
 
+    static final int DEFAULT_EVICTION_BATCH_SIZE = 100;
+
+    static final int DEFAULT_EVICTION_THREADS = 4;
+
+    static final int DEFAULT_BACKGROUND_EVICTION_RATE = 10;
+
     private final TileBreeder tileBreeder;
 
-    private boolean shutDown;
+    private final int batchSize;
+
+    private final int numThreads;
+
+    private final ExecutorService evictionExecutor;
+
+    /**
+     * Paces the expiration of pages while the used quota is between the low and high watermarks,
+     * shared by all the running clean ups
+     */
+    private final RateLimiter backgroundRateLimiter;
+
+    private volatile boolean shutDown;
+
+    /**
+     * Number of least recently used pages sampled per page to expire when ranking pages by
+     * {@link #frequencySketch}
+     */
+    static final int SKETCH_SAMPLE_FACTOR = 4;
+
+    private volatile FrequencySketch frequencySketch;
 
     public static interface QuotaResolver {
         ExpirationPolicy getExpirationPolicy();
 
         Quota getLimit();
 
+        /**
+         * @return the used quota above which the quota gets enforced right away and at full
+         *         speed, defaults to the {@link #getLimit() limit}
+         */
+        default Quota getHighWatermark() {
+            return getLimit();
+        }
+
+        /**
+         * @return the used quota tiles get expired down to, defaults to the {@link #getLimit()
+         *         limit}
+         */
+        default Quota getLowWatermark() {
+            return getLimit();
+        }
+
         Quota getUsed() throws InterruptedException;
     }
 
@@ -70,6 +132,14 @@ public class CacheCleaner implements DisposableBean {
             return config.getGlobalQuota();
         }
 
+        public Quota getHighWatermark() {
+            return watermark(getLimit(), config.getHighWatermark());
+        }
+
+        public Quota getLowWatermark() {
+            return watermark(getLimit(), config.getLowWatermark());
+        }
+
         public Quota getUsed() throws InterruptedException {
             return store.getGloballyUsedQuota();
         }
@@ -82,10 +152,22 @@ public class CacheCleaner implements DisposableBean {
     public static class LayerQuotaResolver implements QuotaResolver {
         private final LayerQuota layerQuota;
 
+        private final DiskQuotaConfig config;
+
         private final QuotaStore store;
 
         public LayerQuotaResolver(LayerQuota layerQuota, QuotaStore store) {
+            this(layerQuota, null, store);
+        }
+
+        /**
+         * @param config
+         *            provides the watermarks for layer quotas that don't set their own, may be
+         *            {@code null}
+         */
+        public LayerQuotaResolver(LayerQuota layerQuota, DiskQuotaConfig config, QuotaStore store) {
             this.layerQuota = layerQuota;
+            this.config = config;
             this.store = store;
         }
 
@@ -98,6 +180,22 @@ public class CacheCleaner implements DisposableBean {
             return limit;
         }
 
+        public Quota getHighWatermark() {
+            Integer percentage = layerQuota.getHighWatermark();
+            if (percentage == null && config != null) {
+                percentage = config.getHighWatermark();
+            }
+            return watermark(getLimit(), percentage);
+        }
+
+        public Quota getLowWatermark() {
+            Integer percentage = layerQuota.getLowWatermark();
+            if (percentage == null && config != null) {
+                percentage = config.getLowWatermark();
+            }
+            return watermark(getLimit(), percentage);
+        }
+
         public Quota getUsed() throws InterruptedException {
             String layer = layerQuota.getLayer();
             Quota usedQuotaByLayerName = store.getUsedQuotaByLayerName(layer);
@@ -117,7 +215,55 @@ public class CacheCleaner implements DisposableBean {
      *            used to truncate expired pages of tiles
      */
     public CacheCleaner(final TileBreeder tileBreeder) {
+        this(tileBreeder, intProperty("GEOWEBCACHE_EVICTION_BATCH_SIZE",
+                DEFAULT_EVICTION_BATCH_SIZE), intProperty("GEOWEBCACHE_EVICTION_THREADS",
+                DEFAULT_EVICTION_THREADS), intProperty("GEOWEBCACHE_BACKGROUND_EVICTION_RATE",
+                DEFAULT_BACKGROUND_EVICTION_RATE));
+    }
+
+    /**
+     * @param tileBreeder
+     *            used to truncate expired pages of tiles
+     * @param batchSize
+     *            maximum number of pages fetched from the quota store and truncated at once
+     * @param numThreads
+     *            number of threads truncating the pages of a batch
+     * @param backgroundRate
+     *            maximum number of pages per second expired below the high watermark
+     */
+    public CacheCleaner(final TileBreeder tileBreeder, final int batchSize, final int numThreads,
+            final int backgroundRate) {
+        Assert.isTrue(batchSize > 0, "batchSize shall be a positive integer");
+        Assert.isTrue(numThreads > 0, "numThreads shall be a positive integer");
+        Assert.isTrue(backgroundRate > 0, "backgroundRate shall be a positive integer");
         this.tileBreeder = tileBreeder;
+        this.batchSize = batchSize;
+        this.numThreads = numThreads;
+        this.backgroundRateLimiter = RateLimiter.create(backgroundRate);
+        CustomizableThreadFactory tf = new CustomizableThreadFactory("GWC DiskQuota Eviction-");
+        tf.setDaemon(true);
+        this.evictionExecutor = Executors.newFixedThreadPool(numThreads, tf);
+    }
+
+    /**
+     * @return the given percentage of the limit, or the limit itself if the percentage is
+     *         {@code null}
+     */
+    static Quota watermark(final Quota limit, final Integer percentage) {
+        if (percentage == null || percentage.intValue() >= 100) {
+            return limit;
+        }
+        BigInteger bytes = limit.getBytes().multiply(BigInteger.valueOf(percentage.intValue()))
+                .divide(BigInteger.valueOf(100));
+        return new Quota(bytes);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = GeoWebCacheExtensions.getProperty(name);
+        if (value != null) {
+            return Integer.parseInt(value);
+        }
+        return defaultValue;
     }
 
     /**
@@ -125,12 +271,24 @@ public class CacheCleaner implements DisposableBean {
      */
     public void destroy() throws Exception {
         this.shutDown = true;
+        evictionExecutor.shutdownNow();
     }
 
     /**
      * This method is thread safe and will throw interrupted exception if the thread has been
      * interrupted or the {@link #destroy() shutdown hook} has been called to signal the calling
      * code of premature termination.
+     * <p>
+     * Pages are expired in batches: the next pages to expire are fetched at once, as many of them
+     * as are estimated to free the excess quota are truncated in parallel, and the used quota is
+     * only checked again once the whole batch is truncated.
+     * </p>
+     * <p>
+     * Pages are expired until the used quota goes down to the
+     * {@link QuotaResolver#getLowWatermark() low watermark}, at full speed above the
+     * {@link QuotaResolver#getHighWatermark() high watermark} and at a limited pace below it, so
+     * that the clean up does not compete for disk access with the requests being served.
+     * </p>
      * 
      * @param layerNames
      *            the layers to expire tile pages from
@@ -145,70 +303,217 @@ public class CacheCleaner implements DisposableBean {
         Quota limit;
         Quota used;
         Quota excess;
+        boolean background;
 
-        while (true) {
-            if (shutDown || Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            // get it everytime in case the admin changed it while we're processsing
-            limit = quotaResolver.getLimit();
-            used = quotaResolver.getUsed();
-            excess = used.difference(limit);
-            if (excess.getBytes().compareTo(BigInteger.ZERO) <= 0) {
-                log.info("Reached back Quota: " + limit.toNiceString() + " (" + used.toNiceString() + ") for layers "
-                        + layerNames);
-                return;
+        final EvictionStats stats = new EvictionStats();
+        try {
+            while (true) {
+                if (shutDown || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                // get it everytime in case the admin changed it while we're processsing
+                final Quota highWatermark = quotaResolver.getHighWatermark();
+                limit = quotaResolver.getLowWatermark();
+                if (limit.compareTo(highWatermark) > 0) {
+                    // a low watermark above the high one would never be reached
+                    limit = highWatermark;
+                }
+                used = quotaResolver.getUsed();
+                stats.updateFreedBytes(used);
+                excess = used.difference(limit);
+                if (excess.getBytes().compareTo(BigInteger.ZERO) <= 0) {
+                    log.info("Reached back Quota: " + limit.toNiceString() + " (" + used.toNiceString() + ") for layers "
+                            + layerNames);
+                    return;
+                }
+                background = used.compareTo(highWatermark) <= 0;
+                // same thing, check it every time
+                ExpirationPolicy expirationPolicy = quotaResolver.getExpirationPolicy();
+                if (null == expirationPolicy) {
+                    log.warn("Aborting disk quota enforcement task, no expiration policy defined for layers "
+                            + layerNames);
+                    return;
+                }
+
+                Map<TilePage, PageStats> tilePages;
+                final FrequencySketch sketch = frequencySketch;
+                if (ExpirationPolicy.LFU.equals(expirationPolicy) && sketch != null) {
+                    tilePages = leastFrequentlyUsedSample(pageStore, layerNames, sketch);
+                } else if (ExpirationPolicy.LFU.equals(expirationPolicy)) {
+                    tilePages = pageStore.getLeastFrequentlyUsedPages(layerNames, batchSize);
+                } else if (ExpirationPolicy.LRU.equals(expirationPolicy)) {
+                    tilePages = pageStore.getLeastRecentlyUsedPages(layerNames, batchSize);
+                } else {
+                    throw new IllegalStateException("Unrecognized expiration policy: "
+                            + expirationPolicy);
+                }
+
+                if (tilePages.isEmpty()) {
+                    limit = quotaResolver.getLimit();
+                    Quota usedQuota = quotaResolver.getUsed();
+                    if (excess.getBytes().compareTo(BigInteger.ZERO) > 0) {
+                        log.warn("No more pages to expire, check if youd disk quota"
+                                + " database is out of date with your blob store. Quota: "
+                                + limit.toNiceString() + " used: " + usedQuota.toNiceString());
+                    }
+                    return;
+                }
+                if (shutDown || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+
+                // below the high watermark batches are kept to a second worth of pages
+                final int maxPages = background ? (int) Math.ceil(backgroundRateLimiter.getRate())
+                        : batchSize;
+                List<PageExpiration> batch = selectBatch(pageStore, tilePages, excess, stats,
+                        maxPages);
+                if (log.isDebugEnabled()) {
+                    log.debug("Expiring " + batch.size() + " tile pages based on the "
+                            + expirationPolicy + " expiration policy, excess is "
+                            + excess.toNiceString()
+                            + (background ? " below the high watermark" : ""));
+                }
+                if (background) {
+                    backgroundRateLimiter.acquire(batch.size());
+                }
+                stats.startBatch(used, batch);
+                expirePages(pageStore, batch);
             }
-            // same thing, check it every time
-            ExpirationPolicy expirationPolicy = quotaResolver.getExpirationPolicy();
-            if (null == expirationPolicy) {
-                log.warn("Aborting disk quota enforcement task, no expiration policy defined for layers "
-                        + layerNames);
-                return;
+        } finally {
+            if (stats.pages > 0) {
+                log.info(stats + " for layers " + layerNames);
             }
+        }
+    }
 
-            TilePage tilePage = null;
-            if (ExpirationPolicy.LFU.equals(expirationPolicy)) {
-                tilePage = pageStore.getLeastFrequentlyUsedPage(layerNames);
-            } else if (ExpirationPolicy.LRU.equals(expirationPolicy)) {
-                tilePage = pageStore.getLeastRecentlyUsedPage(layerNames);
-            } else {
-                throw new IllegalStateException("Unrecognized expiration policy: "
-                        + expirationPolicy);
-            }
+    /**
+     * Approximate LFU: samples {@link #SKETCH_SAMPLE_FACTOR} times the batch size of least
+     * recently used pages, which the store can return straight from its access time index, and
+     * returns the batch size of them the sketch estimates to be least frequently used, least
+     * recently used first on ties.
+     */
+    private Map<TilePage, PageStats> leastFrequentlyUsedSample(final QuotaStore pageStore,
+            final Set<String> layerNames, final FrequencySketch sketch)
+            throws InterruptedException {
 
-            if (tilePage == null) {
-                limit = quotaResolver.getLimit();
-                Quota usedQuota = quotaResolver.getUsed();
-                if (excess.getBytes().compareTo(BigInteger.ZERO) > 0) {
-                    log.warn("No more pages to expire, check if youd disk quota"
-                            + " database is out of date with your blob store. Quota: "
-                            + limit.toNiceString() + " used: " + usedQuota.toNiceString());
-                }
-                return;
+        Map<TilePage, PageStats> candidates = pageStore.getLeastRecentlyUsedPages(layerNames,
+                SKETCH_SAMPLE_FACTOR * batchSize);
+        List<Map.Entry<TilePage, PageStats>> ranked = new ArrayList<Map.Entry<TilePage, PageStats>>(
+                candidates.entrySet());
+        final Map<TilePage, Integer> frequencies = new HashMap<TilePage, Integer>();
+        for (Map.Entry<TilePage, PageStats> e : ranked) {
+            frequencies.put(e.getKey(), sketch.frequency(FrequencySketch.hash(e.getKey())));
+        }
+        // stable, so the access time order is kept between pages of the same frequency
+        Collections.sort(ranked, new Comparator<Map.Entry<TilePage, PageStats>>() {
+            public int compare(Map.Entry<TilePage, PageStats> o1,
+                    Map.Entry<TilePage, PageStats> o2) {
+                return frequencies.get(o1.getKey()).compareTo(frequencies.get(o2.getKey()));
             }
-            if (log.isDebugEnabled()) {
-                log.debug("Expiring tile page " + tilePage + " based on the global "
-                        + expirationPolicy + " expiration policy");
+        });
+        Map<TilePage, PageStats> tilePages = new LinkedHashMap<TilePage, PageStats>();
+        for (Map.Entry<TilePage, PageStats> e : ranked.subList(0, Math.min(batchSize,
+                ranked.size()))) {
+            tilePages.put(e.getKey(), e.getValue());
+        }
+        return tilePages;
+    }
+
+    /**
+     * Ranks pages with the given sketch instead of the store frequencies for the
+     * {@link ExpirationPolicy#LFU LFU} expiration policy
+     * 
+     * @param frequencySketch
+     *            the sketch, or {@code null} to use the store frequencies
+     */
+    public void setFrequencySketch(FrequencySketch frequencySketch) {
+        this.frequencySketch = frequencySketch;
+    }
+
+    /**
+     * Picks the pages of the batch in expiration order, until the bytes they are estimated to hold
+     * cover the excess quota. The estimate multiplies the number of tiles in each page, according
+     * to its fill factor, by the average tile size measured on the previous batches, and while
+     * there is no such measure a batch only takes as many pages as there are threads.
+     */
+    private List<PageExpiration> selectBatch(final QuotaStore pageStore,
+            final Map<TilePage, PageStats> tilePages, final Quota excess,
+            final EvictionStats stats, final int limit) throws InterruptedException {
+
+        final double bytesPerTile = stats.bytesPerTile();
+        final double excessBytes = excess.getBytes().doubleValue();
+        final int maxPages = Math.min(limit, bytesPerTile > 0 ? tilePages.size() : numThreads);
+
+        Map<String, TileSet> tileSets = new HashMap<String, TileSet>();
+        List<PageExpiration> batch = new ArrayList<PageExpiration>();
+        double estimatedBytes = 0;
+        for (Map.Entry<TilePage, PageStats> e : tilePages.entrySet()) {
+            final TilePage tilePage = e.getKey();
+            final String tileSetId = tilePage.getTileSetId();
+            TileSet tileSet = tileSets.get(tileSetId);
+            if (tileSet == null) {
+                tileSet = pageStore.getTileSetById(tileSetId);
+                tileSets.put(tileSetId, tileSet);
             }
-            if (shutDown || Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
+            final long[][] pageGridCoverage = pageStore.getTilesForPage(tilePage);
+            final long[] levelCoverage = pageGridCoverage[tilePage.getZoomLevel()];
+            final long pageTiles = (1 + levelCoverage[2] - levelCoverage[0])
+                    * (1 + levelCoverage[3] - levelCoverage[1]);
+            // stores that can't tell the fill factor get full pages assumed
+            final float fillFactor = e.getValue() == null ? 1f : e.getValue().getFillFactor();
+
+            PageExpiration expiration = new PageExpiration(tilePage, tileSet, pageGridCoverage,
+                    fillFactor * pageTiles);
+            batch.add(expiration);
+            estimatedBytes += expiration.estimatedTiles * bytesPerTile;
+            if (batch.size() >= maxPages || (bytesPerTile > 0 && estimatedBytes >= excessBytes)) {
+                break;
             }
+        }
+        return batch;
+    }
 
-            expirePage(pageStore, tilePage);
+    private void expirePages(final QuotaStore pageStore, final List<PageExpiration> batch)
+            throws InterruptedException {
 
+        List<Future<?>> futures = new ArrayList<Future<?>>(batch.size());
+        try {
+            for (final PageExpiration expiration : batch) {
+                futures.add(evictionExecutor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        expirePage(pageStore, expiration);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwables.propagateIfPossible(e.getCause());
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            // the executor was shut down
+            throw new InterruptedException();
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
         }
     }
 
-    private void expirePage(QuotaStore pageStore, TilePage tilePage) throws InterruptedException {
-        final String tileSetId = tilePage.getTileSetId();
-        final TileSet tileSet = pageStore.getTileSetById(tileSetId);
+    private void expirePage(QuotaStore pageStore, PageExpiration expiration)
+            throws InterruptedException {
+        final TilePage tilePage = expiration.tilePage;
+        final TileSet tileSet = expiration.tileSet;
         final String layerName = tileSet.getLayerName();
         final String gridSetId = tileSet.getGridsetId();
         final String blobFormat = tileSet.getBlobFormat();
         final String parametersId = tileSet.getParametersId();
         final int zoomLevel = tilePage.getZoomLevel();
-        final long[][] pageGridCoverage = pageStore.getTilesForPage(tilePage);
+        final long[][] pageGridCoverage = expiration.pageGridCoverage;
 
         MimeType mimeType;
         try {
@@ -227,7 +532,7 @@ public class CacheCleaner implements DisposableBean {
         GWCTask truncateTask = createTruncateTaskForPage(layerName, gridSetId, zoomLevel,
                 pageGridCoverage, mimeType, parametersId);
 
-        // truncate synchronously. We're already inside the interested thread
+        // truncate synchronously. We're already inside a thread of the eviction pool
         try {
             truncateTask.doAction();
             pageStore.setTruncated(tilePage);
@@ -265,4 +570,83 @@ public class CacheCleaner implements DisposableBean {
         return truncateTask;
     }
 
+    /**
+     * A page picked for expiration, along with what's needed to truncate it
+     */
+    private static class PageExpiration {
+
+        final TilePage tilePage;
+
+        final TileSet tileSet;
+
+        final long[][] pageGridCoverage;
+
+        final double estimatedTiles;
+
+        PageExpiration(TilePage tilePage, TileSet tileSet, long[][] pageGridCoverage,
+                double estimatedTiles) {
+            this.tilePage = tilePage;
+            this.tileSet = tileSet;
+            this.pageGridCoverage = pageGridCoverage;
+            this.estimatedTiles = estimatedTiles;
+        }
+    }
+
+    /**
+     * Eviction progress of a single {@link CacheCleaner#expireByLayerNames} call, used to estimate
+     * the average tile size and to report the eviction throughput
+     */
+    private static class EvictionStats {
+
+        final long startTime = System.nanoTime();
+
+        long pages;
+
+        double tiles;
+
+        BigInteger freedBytes = BigInteger.ZERO;
+
+        private Quota usedBeforeBatch;
+
+        void startBatch(Quota used, List<PageExpiration> batch) {
+            this.usedBeforeBatch = used;
+            for (PageExpiration expiration : batch) {
+                tiles += expiration.estimatedTiles;
+            }
+            pages += batch.size();
+        }
+
+        /**
+         * Accounts for the bytes freed by the last batch. The used quota is updated asynchronously,
+         * so the measure may lag behind, but it catches up along the next batches
+         */
+        void updateFreedBytes(Quota used) {
+            if (usedBeforeBatch != null) {
+                BigInteger freed = usedBeforeBatch.getBytes().subtract(used.getBytes());
+                if (freed.signum() > 0) {
+                    freedBytes = freedBytes.add(freed);
+                }
+                usedBeforeBatch = null;
+            }
+        }
+
+        /**
+         * @return the average size of the tiles truncated so far, or {@code 0} if unknown
+         */
+        double bytesPerTile() {
+            if (tiles <= 0 || freedBytes.signum() <= 0) {
+                return 0;
+            }
+            return freedBytes.doubleValue() / tiles;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            return String.format("Expired %d tile pages (%s) in %.1fs, %.1f pages per second",
+                    pages, new Quota(freedBytes).toNiceString(), seconds, pages
+                            / Math.max(seconds, 1e-3));
+        }
+    }
+
 }
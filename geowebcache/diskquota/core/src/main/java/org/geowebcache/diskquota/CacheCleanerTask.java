@@ -72,14 +72,18 @@ class CacheCleanerTask implements Runnable {
      * as a timer so even if one run fails the next runs are still called
      * </p>
      * <p>
-     * The process submits one cache cleanup execution task per layer that exceeds it's configured
-     * quota, and a single global cache enforcement task for the layers that have no explicitly
-     * configured quota limit.
+     * The process submits one cache cleanup execution task per layer that exceeds the high
+     * watermark of its configured quota, and a single global cache enforcement task for the layers
+     * that have no explicitly configured quota limit.
+     * </p>
+     * <p>
+     * Besides being scheduled, this task is run whenever the used quota grows, so runs are
+     * serialized.
      * </p>
      * 
      * @see java.lang.Runnable#run()
      */
-    public void run() {
+    public synchronized void run() {
         try {
             innerRun();
         } catch (InterruptedException e) {
@@ -128,21 +132,20 @@ class CacheCleanerTask implements Runnable {
 
             final LayerQuota definedQuotaForLayer = quotaConfig.layerQuota(layerName);
             final ExpirationPolicy policy = definedQuotaForLayer.getExpirationPolicyName();
-            final Quota quota = definedQuotaForLayer.getQuota();
+            final QuotaResolver quotaResolver = monitor.newLayerQuotaResolver(layerName);
+            final Quota quota = quotaResolver.getHighWatermark();
             final Quota usedQuota = monitor.getUsedQuotaByLayerName(layerName);
 
             Quota excedent = usedQuota.difference(quota);
             if (excedent.getBytes().compareTo(BigInteger.ZERO) > 0) {
                 if (log.isInfoEnabled()) {
-                    log.info("Layer '" + layerName + "' exceeds its quota of "
-                            + quota.toNiceString() + " by " + excedent.toNiceString()
+                    log.info("Layer '" + layerName + "' exceeds the high watermark of its quota, "
+                            + quota.toNiceString() + ", by " + excedent.toNiceString()
                             + ". Currently used: " + usedQuota.toNiceString()
                             + ". Clean up task will be performed using expiration policy " + policy);
                 }
 
                 Set<String> layerNames = Collections.singleton(layerName);
-                QuotaResolver quotaResolver;
-                quotaResolver = monitor.newLayerQuotaResolver(layerName);
 
                 LayerQuotaEnforcementTask task;
                 task = new LayerQuotaEnforcementTask(layerNames, quotaResolver, monitor);
@@ -169,14 +172,14 @@ class CacheCleanerTask implements Runnable {
                 return;
             }
 
+            QuotaResolver quotaResolver = monitor.newGlobalQuotaResolver();
             Quota globalUsedQuota = monitor.getGloballyUsedQuota();
-            Quota excedent = globalUsedQuota.difference(globalQuota);
+            Quota excedent = globalUsedQuota.difference(quotaResolver.getHighWatermark());
 
             if (excedent.getBytes().compareTo(BigInteger.ZERO) > 0) {
 
                 log.debug("Submitting global cache quota enforcement task");
                 LayerQuotaEnforcementTask task;
-                QuotaResolver quotaResolver = monitor.newGlobalQuotaResolver();
                 task = new LayerQuotaEnforcementTask(globallyManagedLayerNames, quotaResolver,
                         monitor);
                 this.globalCleanUpTask = this.cleanUpExecutorService.submit(task);
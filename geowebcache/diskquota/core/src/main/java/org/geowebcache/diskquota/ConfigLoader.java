@@ -213,6 +213,9 @@ public class ConfigLoader {
                     "maxConcurrentCleanUps shall be specified as a positive integer");
         }
 
+        // XStream bypasses the setters' checks
+        validateWatermarks(quotaConfig.getHighWatermark(), quotaConfig.getLowWatermark());
+
         if (null != quotaConfig.getLayerQuotas()) {
             for (LayerQuota lq : new ArrayList<LayerQuota>(quotaConfig.getLayerQuotas())) {
                 if (null == lq.getQuota()) {
@@ -250,6 +253,22 @@ public class ConfigLoader {
             return;
         }
 
+        if (lq.getHighWatermark() != null || lq.getLowWatermark() != null) {
+            Integer high = lq.getHighWatermark() == null ? quotaConfig.getHighWatermark() : lq
+                    .getHighWatermark();
+            Integer low = lq.getLowWatermark() == null ? quotaConfig.getLowWatermark() : lq
+                    .getLowWatermark();
+            try {
+                validateWatermarks(high, low);
+            } catch (ConfigurationException e) {
+                log.error("LayerQuota configuration error for layer " + layer
+                        + ". Error message is: " + e.getMessage()
+                        + ". Using the global watermarks instead.");
+                lq.setHighWatermark(null);
+                lq.setLowWatermark(null);
+            }
+        }
+
         Quota quota = lq.getQuota();
         try {
             validateQuota(quota);
@@ -260,6 +279,21 @@ public class ConfigLoader {
         }
     }
 
+    private void validateWatermarks(Integer high, Integer low) throws ConfigurationException {
+        if (high == null || high <= 0 || high > 100) {
+            throw new ConfigurationException(
+                    "highWatermark shall be a percentage between 1 and 100: " + high);
+        }
+        if (low == null || low <= 0 || low > 100) {
+            throw new ConfigurationException(
+                    "lowWatermark shall be a percentage between 1 and 100: " + low);
+        }
+        if (low > high) {
+            throw new ConfigurationException("lowWatermark (" + low
+                    + ") shall not be above highWatermark (" + high + ")");
+        }
+    }
+
     private void validateQuota(Quota quota) throws ConfigurationException {
         if (quota == null) {
             throw new IllegalArgumentException("No quota defined");
@@ -0,0 +1,76 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.math.BigInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.diskquota.storage.LayerQuota;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.seed.QuotaAdvisor;
+
+/**
+ * Tells seed estimates how much of the layer and global disk quotas is left
+ */
+public class DiskQuotaAdvisor implements QuotaAdvisor {
+
+    private static Log log = LogFactory.getLog(DiskQuotaAdvisor.class);
+
+    private final DiskQuotaMonitor monitor;
+
+    public DiskQuotaAdvisor(DiskQuotaMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    public Long getAvailableBytes(final String layerName) {
+        if (!monitor.isEnabled() || !monitor.isRunning()) {
+            return null;
+        }
+        final DiskQuotaConfig config = monitor.getConfig();
+        if (!Boolean.TRUE.equals(config.isEnabled())) {
+            return null;
+        }
+        BigInteger available = null;
+        try {
+            LayerQuota layerQuota = config.layerQuota(layerName);
+            if (layerQuota != null && layerQuota.getQuota() != null) {
+                available = remaining(layerQuota.getQuota(),
+                        monitor.getUsedQuotaByLayerName(layerName));
+            }
+            Quota globalQuota = config.getGlobalQuota();
+            if (globalQuota != null) {
+                BigInteger global = remaining(globalQuota, monitor.getGloballyUsedQuota());
+                available = available == null ? global : available.min(global);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.debug("Interrupted while computing the disk quota left to " + layerName);
+            return null;
+        }
+        if (available == null) {
+            return null;
+        }
+        return available.min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+    }
+
+    private static BigInteger remaining(Quota limit, Quota used) {
+        BigInteger remaining = limit.getBytes();
+        if (used != null) {
+            remaining = remaining.subtract(used.getBytes());
+        }
+        return remaining.max(BigInteger.ZERO);
+    }
+}
@@ -52,6 +52,10 @@ public class DiskQuotaConfig implements Cloneable, Serializable {
     static final int DEFAULT_MAX_CONCURRENT_CLEANUPS = 2;
 
     static ExpirationPolicy DEFAULT_GLOBAL_POLICY_NAME = ExpirationPolicy.LFU;
+
+    static final int DEFAULT_HIGH_WATERMARK = 100;
+
+    static final int DEFAULT_LOW_WATERMARK = 100;
     
     private Boolean enabled;
 
@@ -68,6 +72,10 @@ public class DiskQuotaConfig implements Cloneable, Serializable {
 
     private Quota globalQuota;
 
+    private Integer highWatermark;
+
+    private Integer lowWatermark;
+
     private transient Date lastCleanUpTime;
 
     private List<LayerQuota> layerQuotas;
@@ -97,6 +105,12 @@ public class DiskQuotaConfig implements Cloneable, Serializable {
         if (globalQuota == null) {
             globalQuota = new Quota(500, StorageUnit.MiB);
         }
+        if (highWatermark == null) {
+            highWatermark = DEFAULT_HIGH_WATERMARK;
+        }
+        if (lowWatermark == null) {
+            lowWatermark = DEFAULT_LOW_WATERMARK;
+        }
     }
 
     void setFrom(DiskQuotaConfig other) {
@@ -106,6 +120,8 @@ public class DiskQuotaConfig implements Cloneable, Serializable {
         this.enabled = other.enabled;
         this.globalExpirationPolicyName = other.globalExpirationPolicyName;
         this.globalQuota = other.globalQuota;
+        this.highWatermark = other.highWatermark;
+        this.lowWatermark = other.lowWatermark;
         this.layerQuotas = other.layerQuotas == null ? null : new ArrayList<LayerQuota>(
                 other.layerQuotas);
         this.maxConcurrentCleanUps = other.maxConcurrentCleanUps;
@@ -245,6 +261,47 @@ public class DiskQuotaConfig implements Cloneable, Serializable {
         }
     }
 
+    /**
+     * @return the percentage of a quota above which it gets enforced right away, or {@code null}
+     *         if not set
+     */
+    public Integer getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * @param highWatermark
+     *            the percentage of a quota above which it gets enforced right away, at full speed
+     */
+    public void setHighWatermark(int highWatermark) {
+        checkWatermark("highWatermark", highWatermark);
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * @return the percentage of a quota tiles get expired down to, or {@code null} if not set
+     */
+    public Integer getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * @param lowWatermark
+     *            the percentage of a quota tiles get expired down to once the quota is enforced,
+     *            at a limited pace below the {@link #getHighWatermark() high watermark}
+     */
+    public void setLowWatermark(int lowWatermark) {
+        checkWatermark("lowWatermark", lowWatermark);
+        this.lowWatermark = lowWatermark;
+    }
+
+    static void checkWatermark(String name, int percentage) {
+        if (percentage <= 0 || percentage > 100) {
+            throw new IllegalArgumentException(name
+                    + " shall be a percentage between 1 and 100: " + percentage);
+        }
+    }
+
     public ExpirationPolicy getGlobalExpirationPolicyName() {
         return this.globalExpirationPolicyName;
     }
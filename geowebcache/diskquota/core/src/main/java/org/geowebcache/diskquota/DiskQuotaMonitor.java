@@ -23,18 +23,23 @@ import java.math.BigInteger;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.GeoWebCacheExtensions;
 import org.geowebcache.config.ConfigurationException;
 import org.geowebcache.diskquota.CacheCleaner.GlobalQuotaResolver;
 import org.geowebcache.diskquota.CacheCleaner.LayerQuotaResolver;
 import org.geowebcache.diskquota.CacheCleaner.QuotaResolver;
+import org.geowebcache.diskquota.QueuedQuotaUpdatesConsumer.UsedQuotaListener;
 import org.geowebcache.diskquota.storage.LayerQuota;
 import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TileSet;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.layer.TileLayerDispatcher;
 import org.geowebcache.storage.DefaultStorageFinder;
@@ -69,6 +74,19 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
      */
     public static final String GWC_DISKQUOTA_DISABLED = "GWC_DISKQUOTA_DISABLED";
 
+    /**
+     * Minimum time in milliseconds between two quota checks triggered by used quota increases
+     */
+    static final long MIN_TRIGGERED_CLEANUP_INTERVAL = 1000;
+
+    /**
+     * Name of the file under the cache root where the page frequencies of the approximate LFU are
+     * kept between restarts
+     */
+    static final String FREQUENCY_SKETCH_FILE = "diskquota_frequency_sketch";
+
+    static final long FREQUENCY_SKETCH_SAVE_MINUTES = 5;
+
     private final TileLayerDispatcher tileLayerDispatcher;
 
     private final StorageBroker storageBroker;
@@ -97,10 +115,27 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
      */
     private ScheduledExecutorService cleanUpExecutorService;
 
+    private CacheCleanerTask cacheCleanerTask;
+
+    /**
+     * Whether a quota check triggered by a used quota increase is already scheduled
+     */
+    private final AtomicBoolean cleanUpTriggered = new AtomicBoolean();
+
+    private volatile long lastTriggeredCleanUp;
+
     private QuotaUpdatesMonitor quotaUsageMonitor;
 
     private UsageStatsMonitor usageStatsMonitor;
 
+    /**
+     * Approximate page frequencies for the LFU expiration policy, {@code null} unless enabled
+     * through {@code GEOWEBCACHE_DISKQUOTA_APPROXIMATE_LFU}
+     */
+    private FrequencySketch frequencySketch;
+
+    private File frequencySketchFile;
+
     private volatile boolean isRunning;
 
     private final DefaultStorageFinder storageFinder;
@@ -245,7 +280,13 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
         quotaStore = quotaStoreProvider.getQuotaStore();
 
         quotaUsageMonitor = new QuotaUpdatesMonitor(quotaConfig, storageBroker, quotaStore);
+        quotaUsageMonitor.setUsedQuotaListener(new UsedQuotaListener() {
+            public void usedQuotaIncreased(TileSet tileSet, Quota quotaDiff) {
+                triggerCleanUp();
+            }
+        });
         usageStatsMonitor = new UsageStatsMonitor(quotaStore, tileLayerDispatcher);
+        setUpFrequencySketch();
 
         if (cleanUpExecutorService != null) {
             log.info("Shutting down clean up executor service...");
@@ -263,6 +304,13 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
         // the tasks that poll the status of the used quotas periodically and performs the clean up
         // when a quota is exceeded
         setUpScheduledCleanUp();
+        if (frequencySketch != null) {
+            cleanUpExecutorService.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    saveFrequencySketch();
+                }
+            }, FREQUENCY_SKETCH_SAVE_MINUTES, FREQUENCY_SKETCH_SAVE_MINUTES, TimeUnit.MINUTES);
+        }
 
         // the startup might be called more than once (happens in GeoServer after disk quota
         // re-configuration for example), in this case shut down the old cache info builder
@@ -312,6 +360,8 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
             quotaUsageMonitor.awaitTermination(timeOutSecs * 1000, TimeUnit.MILLISECONDS);
 
             usageStatsMonitor.awaitTermination(timeOutSecs * 1000, TimeUnit.MILLISECONDS);
+
+            saveFrequencySketch();
         } finally {
             isRunning = false;
         }
@@ -392,7 +442,7 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
             throw new RuntimeException(e);
         }
         cacheInfoBuilder = new LayerCacheInfoBuilder(cacheRoot, cleanUpExecutorService,
-                quotaUsageMonitor);
+                quotaStore);
 
         for (String layerName : tileLayerDispatcher.getLayerNames()) {
 
@@ -416,6 +466,51 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
         return cacheInfoBuilder;
     }
 
+    /**
+     * Creates the sketch the usage stats and the cache cleaner use for the LFU expiration policy if
+     * approximate LFU is enabled, starting from the frequencies saved on the last shut down
+     */
+    private void setUpFrequencySketch() throws ConfigurationException {
+        frequencySketch = null;
+        if (!Boolean.valueOf(GeoWebCacheExtensions
+                .getProperty("GEOWEBCACHE_DISKQUOTA_APPROXIMATE_LFU"))) {
+            cacheCleaner.setFrequencySketch(null);
+            return;
+        }
+        int maxPages = FrequencySketch.DEFAULT_MAX_PAGES;
+        String maxPagesStr = GeoWebCacheExtensions
+                .getProperty("GEOWEBCACHE_DISKQUOTA_SKETCH_PAGES");
+        if (maxPagesStr != null) {
+            maxPages = Integer.parseInt(maxPagesStr);
+        }
+        FrequencySketch sketch = new FrequencySketch(maxPages);
+        frequencySketchFile = new File(storageFinder.getDefaultPath(), FREQUENCY_SKETCH_FILE);
+        try {
+            if (sketch.load(frequencySketchFile)) {
+                log.info("Loaded disk quota page frequencies from " + frequencySketchFile);
+            }
+        } catch (IOException e) {
+            log.warn("Could not load disk quota page frequencies from " + frequencySketchFile
+                    + ", starting afresh", e);
+        }
+        log.info("Using approximate page frequencies for the LFU expiration policy");
+        frequencySketch = sketch;
+        usageStatsMonitor.setFrequencySketch(sketch);
+        cacheCleaner.setFrequencySketch(sketch);
+    }
+
+    private void saveFrequencySketch() {
+        final FrequencySketch sketch = frequencySketch;
+        if (sketch == null) {
+            return;
+        }
+        try {
+            sketch.save(frequencySketchFile);
+        } catch (IOException e) {
+            log.warn("Could not save disk quota page frequencies to " + frequencySketchFile, e);
+        }
+    }
+
     private ScheduledExecutorService createCleanUpExecutor() {
 
         final int numCleaningThreads = quotaConfig.getMaxConcurrentCleanUps();
@@ -432,7 +527,8 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
 
     private void setUpScheduledCleanUp() {
 
-        Runnable scheduledCleaningTask = new CacheCleanerTask(this, cleanUpExecutorService);
+        CacheCleanerTask scheduledCleaningTask = new CacheCleanerTask(this, cleanUpExecutorService);
+        this.cacheCleanerTask = scheduledCleaningTask;
 
         long delay = quotaConfig.getCacheCleanUpFrequency();
         long period = quotaConfig.getCacheCleanUpFrequency();
@@ -442,6 +538,33 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
         log.info("Disk quota periodic enforcement task set up every " + period + " " + unit);
     }
 
+    /**
+     * Runs the quota enforcement checks as soon as possible instead of waiting for the next
+     * scheduled run, so that crossing a quota's high watermark starts its clean up right away.
+     * Triggered runs are at least {@link #MIN_TRIGGERED_CLEANUP_INTERVAL} apart.
+     */
+    void triggerCleanUp() {
+        final ScheduledExecutorService executor = this.cleanUpExecutorService;
+        final CacheCleanerTask task = this.cacheCleanerTask;
+        if (executor == null || task == null || !cleanUpTriggered.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = Math.max(0, lastTriggeredCleanUp + MIN_TRIGGERED_CLEANUP_INTERVAL
+                - System.currentTimeMillis());
+        try {
+            executor.schedule(new Runnable() {
+                public void run() {
+                    lastTriggeredCleanUp = System.currentTimeMillis();
+                    cleanUpTriggered.set(false);
+                    task.run();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            cleanUpTriggered.set(false);
+        }
+    }
+
     /**
      * Sets the {@link LayerQuota#setExpirationPolicy(ExpirationPolicy) expiration policy} to all
      * the configured layer quotas based on their {@link LayerQuota#getExpirationPolicyName()
@@ -481,7 +604,7 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
 
     public QuotaResolver newLayerQuotaResolver(final String layerName) {
         LayerQuota layerQuota = quotaConfig.layerQuota(layerName);
-        return new LayerQuotaResolver(layerQuota, quotaStore);
+        return new LayerQuotaResolver(layerQuota, quotaConfig, quotaStore);
     }
 
     public QuotaResolver newGlobalQuotaResolver() {
@@ -0,0 +1,227 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.util.FileUtils;
+import org.springframework.util.Assert;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Approximate tile page access frequencies, used by the LFU expiration policy instead of the exact
+ * frequencies kept by the {@link QuotaStore} when the approximate mode is enabled.
+ * <p>
+ * This is a count-min sketch with four rows of 4 bit counters, in the style of TinyLFU: a page's
+ * frequency is the minimum of its four counters, so it may be overestimated by collisions but
+ * never underestimated. Counters saturate at 15, which is enough to tell cold pages from warm
+ * ones. Once as many hits as {@link #getSampleSize() ten times the page capacity} have been added
+ * all counters are halved, so the frequencies follow recent usage.
+ * </p>
+ * <p>
+ * Thread safe, hits are added by a single thread in practice.
+ * </p>
+ */
+public class FrequencySketch {
+
+    private static final Log log = LogFactory.getLog(FrequencySketch.class);
+
+    public static final int DEFAULT_MAX_PAGES = 1000000;
+
+    /**
+     * Maximum number of counters per row, 32MB worth of counters over all rows. Also keeps the
+     * counter indexes over the whole table well within an int.
+     */
+    static final int MAX_WIDTH = 1 << 24;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final int DEPTH = 4;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    /**
+     * {@link #DEPTH} rows of {@link #width} counters, 16 counters per long
+     */
+    private final long[] table;
+
+    private final int width;
+
+    private final int sampleSize;
+
+    private int additions;
+
+    /**
+     * @param maxPages
+     *            number of pages expected to be tracked, sizes the sketch to about half a byte per
+     *            page and row, up to {@link #MAX_WIDTH} pages
+     */
+    public FrequencySketch(final int maxPages) {
+        Assert.isTrue(maxPages > 0, "maxPages shall be positive");
+        final int pages = Math.min(maxPages, MAX_WIDTH);
+        if (pages < maxPages) {
+            log.warn("Frequency sketch sized for " + pages + " pages instead of " + maxPages
+                    + ", the maximum supported");
+        }
+        this.width = Integer.highestOneBit(Math.max(16, pages - 1)) << 1;
+        this.table = new long[DEPTH * width / 16];
+        this.sampleSize = 10 * pages;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @return a hash of the page identity that stays the same across restarts
+     */
+    public static long hash(final TilePage page) {
+        return HASH.hashString(page.getKey(), Charsets.UTF_8).asLong();
+    }
+
+    /**
+     * Adds hits to a page
+     */
+    public synchronized void increment(final long pageHash, final long hits) {
+        if (hits <= 0) {
+            return;
+        }
+        final int added = (int) Math.min(hits, MAX_COUNT);
+        for (int row = 0; row < DEPTH; row++) {
+            final int counter = counterIndex(pageHash, row);
+            final int shift = (counter & 15) << 2;
+            final int slot = counter >>> 4;
+            final long count = (table[slot] >>> shift) & 0xFL;
+            final long updated = Math.min(MAX_COUNT, count + added);
+            table[slot] = (table[slot] & ~(0xFL << shift)) | (updated << shift);
+        }
+        additions += (int) Math.min(hits, sampleSize);
+        if (additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @return the estimated recent hits of a page, from 0 to 15
+     */
+    public synchronized int frequency(final long pageHash) {
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            final int counter = counterIndex(pageHash, row);
+            final int count = (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Index of the page counter in the given row, over the whole table, at most
+     * {@code DEPTH * MAX_WIDTH}
+     */
+    private int counterIndex(final long pageHash, final int row) {
+        long h = (pageHash ^ SEEDS[row]) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        return row * width + ((int) h & (width - 1));
+    }
+
+    /**
+     * Halves all the counters
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            // shift each 4 bit counter right, dropping the bit that moved in from its neighbour
+            table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+        }
+        additions /= 2;
+    }
+
+    /**
+     * Saves the sketch to the given file, replacing it atomically
+     */
+    public void save(final File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            try {
+                synchronized (this) {
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(width);
+                    out.writeInt(additions);
+                    for (long counters : table) {
+                        out.writeLong(counters);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!FileUtils.renameFile(tmp, file)) {
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Loads the counters saved by {@link #save(File)}, if the file exists and was saved by a sketch
+     * of the same size
+     *
+     * @return {@code true} if the counters were loaded
+     */
+    public boolean load(final File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                file)));
+        try {
+            if (in.readInt() != FORMAT_VERSION || in.readInt() != width) {
+                log.info("Ignoring frequency sketch " + file + ", it was saved with other settings");
+                return false;
+            }
+            long[] counters = new long[table.length];
+            int savedAdditions = in.readInt();
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = in.readLong();
+            }
+            synchronized (this) {
+                System.arraycopy(counters, 0, table, 0, counters.length);
+                additions = savedAdditions;
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -17,25 +17,48 @@
  */
 package org.geowebcache.diskquota;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.diskquota.storage.LayerQuota;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
 import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
 import org.geowebcache.diskquota.storage.TileSet;
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.layer.TileLayer;
@@ -46,6 +69,14 @@ import org.geowebcache.util.FileUtils;
 
 /**
  * Gathers information about the cache of a layer, such as its size and available {@link TilePage}s.
+ * <p>
+ * Each zoom level directory is scanned by a task that shares its tile directories with idle
+ * threads of the pool, aggregates the tile sizes and counts per page in memory, and adds them to
+ * the {@link QuotaStore} with a single update per tile set. The modification times of the scanned
+ * tile directories are saved along with the aggregated figures as a checkpoint under
+ * {@link #CHECKPOINTS_DIR}, so that a later scan of a zoom level whose tile directories have not
+ * changed uses the checkpoint instead of visiting its tiles.
+ * </p>
  * 
  * @author groldan
  */
@@ -53,38 +84,50 @@ final class LayerCacheInfoBuilder {
 
     private static final Log log = LogFactory.getLog(LayerCacheInfoBuilder.class);
 
+    /**
+     * Name of the cache directory the zoom level checkpoints are saved to
+     */
+    static final String CHECKPOINTS_DIR = "diskquota_scan_checkpoints";
+
+    private static final int CHECKPOINT_VERSION = 1;
+
     private final File rootCacheDir;
 
+    private final File checkpointsDir;
+
     private final ExecutorService threadPool;
 
+    private final int parallelism;
+
     private final Map<String, List<Future<ZoomLevelVisitor.Stats>>> perLayerRunningTasks;
 
-    private final QuotaUpdatesMonitor quotaUsageMonitor;
+    private final QuotaStore quotaStore;
+
+    private final TilePageCalculator tilePageCalculator;
 
-    private boolean closed = false;
+    private volatile boolean closed = false;
 
     public LayerCacheInfoBuilder(final File rootCacheDir, final ExecutorService threadPool,
-            QuotaUpdatesMonitor quotaUsageMonitor) {
+            QuotaStore quotaStore) {
         this.rootCacheDir = rootCacheDir;
+        this.checkpointsDir = new File(rootCacheDir, CHECKPOINTS_DIR);
         this.threadPool = threadPool;
-        this.quotaUsageMonitor = quotaUsageMonitor;
+        this.quotaStore = quotaStore;
+        this.tilePageCalculator = quotaStore.getTilePageCalculator();
         this.perLayerRunningTasks = new HashMap<String, List<Future<ZoomLevelVisitor.Stats>>>();
+        if (threadPool instanceof ThreadPoolExecutor) {
+            this.parallelism = Math.max(1, ((ThreadPoolExecutor) threadPool).getCorePoolSize());
+        } else {
+            this.parallelism = 1;
+        }
     }
 
     /**
      * Asynchronously collects cache usage information for the given {@code tileLayer} into the
-     * given {@code layerQuota} by using the provided {@link ExecutorService} at construction time.
-     * <p>
-     * This method discards any {@link LayerQuota#getUsedQuota() used quota} information available
-     * for {@code layerQuota} and updates it by collecting the usage information for the layer.
-     * </p>
+     * {@link QuotaStore} by using the provided {@link ExecutorService} at construction time.
      * <p>
-     * In addition to collecting the cache usage information for the layer, the {@code layerQuota}'s
-     * {@link ExpirationPolicy expiration policy} will be given the opportunity to gather any
-     * additional information by calling the
-     * {@link ExpirationPolicy#createInfoFor(LayerQuota, String, long[], File)
-     * createInforFor(layerQuota, gridSetId, tileXYZ, file)} method for each available tile on the
-     * layer's cache.
+     * The usage of each tile set found on disk is added to the quota store, so it is meant to be
+     * called for layers that have no {@link LayerQuota#getUsedQuota() used quota} information yet.
      * </p>
      * <p>
      * Note the cache information gathering is performed asynchronously and hence this method
@@ -127,9 +170,11 @@ final class LayerCacheInfoBuilder {
                 final File gridsetZLevelDir = new File(layerDir, gridsetZLevelParamsDirName);
 
                 if (gridsetZLevelDir.exists()) {
+                    final File checkpoint = new File(new File(checkpointsDir, layerDirName),
+                            gridsetZLevelParamsDirName);
                     ZoomLevelVisitor cacheInfoBuilder;
-                    cacheInfoBuilder = new ZoomLevelVisitor(layerName, gridsetZLevelDir, gridSetId,
-                            zoomLevel, parametersId, quotaUsageMonitor);
+                    cacheInfoBuilder = new ZoomLevelVisitor(layerName, gridsetZLevelDir,
+                            checkpoint, gs, zoomLevel, parametersId);
 
                     Future<ZoomLevelVisitor.Stats> cacheTask;
                     cacheTask = threadPool.submit(cacheInfoBuilder);
@@ -184,41 +229,74 @@ final class LayerCacheInfoBuilder {
      * @author groldan
      * 
      */
-    private final class ZoomLevelVisitor implements FileFilter,
-            Callable<ZoomLevelVisitor.Stats> {
+    private final class ZoomLevelVisitor implements Callable<ZoomLevelVisitor.Stats> {
 
         private final String gridSetId;
 
-        private int tileZ;
+        private final GridSubset gridSubset;
 
-        private final File zoomLevelPath;
+        private final int tileZ;
 
-        private Stats stats;
+        private final File zoomLevelPath;
 
-        private final QuotaUpdatesMonitor quotaUsageMonitor;
+        private final File checkpoint;
 
         private final String layerName;
 
         private final String parametersId;
 
+        /**
+         * Tile directories not visited yet, shared with the helper tasks
+         */
+        private final Queue<Path> pendingDirs = new ConcurrentLinkedQueue<Path>();
+
+        private CountDownLatch visitedDirs;
+
+        private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        private final Stats stats = new Stats();
+
         private class Stats {
             long runTimeMillis;
 
             long numTiles;
 
+            boolean fromCheckpoint;
+
             Quota collectedQuota = new Quota();
+
+            /**
+             * Modification time of each tile directory when the scan started, by name
+             */
+            SortedMap<String, Long> dirTimes = new TreeMap<String, Long>();
+
+            /**
+             * Aggregated usage, by blob format
+             */
+            Map<String, FormatStats> byFormat = new HashMap<String, FormatStats>();
+
+            void add(Map<String, FormatStats> partial) {
+                for (FormatStats formatStats : partial.values()) {
+                    FormatStats target = byFormat.get(formatStats.blobFormat);
+                    if (target == null) {
+                        byFormat.put(formatStats.blobFormat, formatStats);
+                    } else {
+                        target.add(formatStats);
+                    }
+                }
+            }
         }
 
         public ZoomLevelVisitor(final String layerName, final File zoomLevelPath,
-                final String gridsetId, final int zoomLevel, String parametersId,
-                final QuotaUpdatesMonitor quotaUsageMonitor) {
+                final File checkpoint, final GridSubset gridSubset, final int zoomLevel,
+                String parametersId) {
             this.layerName = layerName;
             this.zoomLevelPath = zoomLevelPath;
-            this.gridSetId = gridsetId;
+            this.checkpoint = checkpoint;
+            this.gridSubset = gridSubset;
+            this.gridSetId = gridSubset.getName();
             this.parametersId = parametersId;
-            this.quotaUsageMonitor = quotaUsageMonitor;
             this.tileZ = zoomLevel;
-            this.stats = new Stats();
         }
 
         /**
@@ -229,72 +307,300 @@ final class LayerCacheInfoBuilder {
                     + (parametersId == null ? "default" : parametersId) + "/zlevel:" + tileZ;
             try {
                 log.debug("Gathering cache information for '" + zLevelKey);
-                stats.numTiles = 0L;
-                stats.runTimeMillis = 0L;
                 long runTime = System.currentTimeMillis();
-                FileUtils.traverseDepth(zoomLevelPath, this);
+                listTileDirectories();
+                if (!readCheckpoint()) {
+                    visitTileDirectories();
+                    if (closed) {
+                        log.debug("Gathering cache information for " + zLevelKey
+                                + " was canceled.");
+                        return null;
+                    }
+                }
+                commit();
+                if (!stats.fromCheckpoint) {
+                    writeCheckpoint();
+                }
                 runTime = System.currentTimeMillis() - runTime;
                 stats.runTimeMillis = runTime;
-            } catch (TraversalCanceledException cancel) {
-                log.debug("Gathering cache information for " + zLevelKey + " was canceled.");
-                return null;
             } catch (Exception e) {
-                e.printStackTrace();
+                log.error("Error gathering cache information for " + zLevelKey, e);
                 throw (e);
             }
             log.debug("Cache information for " + zLevelKey + " collected in " + stats.runTimeMillis
-                    / 1000D + "s. Counted " + stats.numTiles + " tiles for a storage space of "
+                    / 1000D + "s" + (stats.fromCheckpoint ? " from the checkpoint" : "")
+                    + ". Counted " + stats.numTiles + " tiles for a storage space of "
                     + stats.collectedQuota.toNiceString());
             return stats;
         }
 
+        private void listTileDirectories() throws IOException {
+            DirectoryStream<Path> children = Files.newDirectoryStream(zoomLevelPath.toPath());
+            try {
+                for (Path child : children) {
+                    BasicFileAttributes attributes = Files.readAttributes(child,
+                            BasicFileAttributes.class);
+                    if (attributes.isDirectory()) {
+                        stats.dirTimes.put(child.getFileName().toString(), attributes
+                                .lastModifiedTime().toMillis());
+                        pendingDirs.add(child);
+                    }
+                }
+            } finally {
+                children.close();
+            }
+        }
+
         /**
-         * @see java.io.FileFilter#accept(java.io.File)
+         * Visits the tile directories with this thread plus as many helper tasks as the pool has
+         * threads. Helpers that only get to run after all directories are taken finish right away,
+         * so waiting for them can't block the pool.
          */
-        public boolean accept(final File file) {
-            if(closed) {
-                throw new TraversalCanceledException();
+        private void visitTileDirectories() throws Exception {
+            visitedDirs = new CountDownLatch(pendingDirs.size());
+            final int helpers = Math.min(parallelism, pendingDirs.size()) - 1;
+            for (int i = 0; i < helpers; i++) {
+                try {
+                    threadPool.submit(new Runnable() {
+                        public void run() {
+                            visitPendingDirs();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    break;
+                }
+            }
+            visitPendingDirs();
+            visitedDirs.await();
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+
+        private void visitPendingDirs() {
+            final Map<String, FormatStats> partial = new HashMap<String, FormatStats>();
+            final TileVisitor visitor = new TileVisitor(partial);
+            Path dir;
+            while ((dir = pendingDirs.poll()) != null) {
+                try {
+                    if (!closed && failure.get() == null) {
+                        Files.walkFileTree(dir, visitor);
+                    }
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    visitedDirs.countDown();
+                }
             }
-            if (file.isDirectory()) {
-                log.trace("Processing files in " + file.getAbsolutePath());
-                return true;
+            synchronized (stats) {
+                stats.add(partial);
             }
+        }
 
-            final long length = file.length();
+        /**
+         * Aggregates the tiles of the visited directories by blob format and page, reading each
+         * file's attributes once
+         */
+        private class TileVisitor extends SimpleFileVisitor<Path> {
 
-            // we know path is a direct child of processingDir and represents a tile file...
-            final String path = file.getPath();
+            private final Map<String, FormatStats> byExtension;
 
-            final int fileNameIdx = 1 + path.lastIndexOf(File.separatorChar);
-            final int coordSepIdx = path.lastIndexOf('_');
-            final int dotIdx = path.lastIndexOf('.');
-            final String extension = FilenameUtils.getExtension(file.getName());
-            String blobFormat;
-            try {
-                blobFormat = MimeType.createFromExtension(extension).getFormat();
-            } catch (MimeException e) {
-                throw new RuntimeException(e);
+            private final long[] tileIndex = new long[3];
+
+            private final int[] pageIndex = new int[3];
+
+            TileVisitor(Map<String, FormatStats> byExtension) {
+                this.byExtension = byExtension;
+                this.tileIndex[2] = tileZ;
             }
-            final long x = Long.valueOf(path.substring(fileNameIdx, coordSepIdx));
-            final long y = Long.valueOf(path.substring(1 + coordSepIdx, dotIdx));
 
-            this.quotaUsageMonitor.tileStored(layerName, gridSetId, blobFormat, parametersId, x, y,
-                    (int) tileZ, length);
-            stats.numTiles++;
-            stats.collectedQuota.addBytes(length);
-            return true;
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (closed) {
+                    return FileVisitResult.TERMINATE;
+                }
+                log.trace("Processing files in " + dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                // x_y.extension
+                final String name = file.getFileName().toString();
+                final int coordSepIdx = name.lastIndexOf('_');
+                final int dotIdx = name.lastIndexOf('.');
+                if (coordSepIdx <= 0 || dotIdx < coordSepIdx) {
+                    return FileVisitResult.CONTINUE;
+                }
+                final String extension = name.substring(dotIdx + 1);
+                FormatStats formatStats = byExtension.get(extension);
+                if (formatStats == null) {
+                    String blobFormat;
+                    try {
+                        blobFormat = MimeType.createFromExtension(extension).getFormat();
+                    } catch (MimeException e) {
+                        throw new RuntimeException(e);
+                    }
+                    formatStats = new FormatStats(blobFormat);
+                    byExtension.put(extension, formatStats);
+                }
+                tileIndex[0] = Long.parseLong(name.substring(0, coordSepIdx));
+                tileIndex[1] = Long.parseLong(name.substring(1 + coordSepIdx, dotIdx));
+                tilePageCalculator.pageIndexForTile(gridSubset, tileIndex, pageIndex);
+                formatStats.addTile(pageIndex[0], pageIndex[1], attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        private void commit() throws InterruptedException {
+            for (FormatStats formatStats : stats.byFormat.values()) {
+                TileSet tileSet = new TileSet(layerName, gridSetId, formatStats.blobFormat,
+                        parametersId);
+                Collection<PageStatsPayload> tileCounts = new ArrayList<PageStatsPayload>(
+                        formatStats.pageTiles.size());
+                for (Map.Entry<Long, int[]> page : formatStats.pageTiles.entrySet()) {
+                    long key = page.getKey().longValue();
+                    PageStatsPayload payload = new PageStatsPayload(new TilePage(tileSet.getId(),
+                            (int) (key >> 32), (int) key, tileZ));
+                    payload.setNumTiles(page.getValue()[0]);
+                    tileCounts.add(payload);
+                }
+                Quota quota = new Quota();
+                quota.addBytes(formatStats.bytes);
+                quotaStore.addToQuotaAndTileCounts(tileSet, quota, tileCounts);
+
+                stats.numTiles += formatStats.numTiles;
+                stats.collectedQuota.addBytes(formatStats.bytes);
+            }
         }
 
         /**
-         * Used to brute-force cancel a cache inspection (as InterruptedException is checked and
-         * hence can't use it in accept(File) above
-         * 
-         * @author groldan
-         * 
+         * Loads the aggregated usage from the checkpoint if the tile directories have the same
+         * modification times they had when it was written
          */
-        private class TraversalCanceledException extends RuntimeException {
-            private static final long serialVersionUID = 1L;
-            // doesn't need a body
+        private boolean readCheckpoint() {
+            if (!checkpoint.isFile()) {
+                return false;
+            }
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(checkpoint)));
+                try {
+                    if (in.readInt() != CHECKPOINT_VERSION) {
+                        return false;
+                    }
+                    SortedMap<String, Long> dirTimes = new TreeMap<String, Long>();
+                    for (int i = in.readInt(); i > 0; i--) {
+                        dirTimes.put(in.readUTF(), in.readLong());
+                    }
+                    if (!dirTimes.equals(stats.dirTimes)) {
+                        return false;
+                    }
+                    for (int i = in.readInt(); i > 0; i--) {
+                        FormatStats formatStats = new FormatStats(in.readUTF());
+                        formatStats.bytes = in.readLong();
+                        formatStats.numTiles = in.readLong();
+                        for (int j = in.readInt(); j > 0; j--) {
+                            long key = in.readLong();
+                            formatStats.pageTiles.put(key, new int[] { in.readInt() });
+                        }
+                        stats.byFormat.put(formatStats.blobFormat, formatStats);
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable disk quota scan checkpoint " + checkpoint, e);
+                stats.byFormat.clear();
+                return false;
+            }
+            stats.fromCheckpoint = true;
+            return true;
+        }
+
+        private void writeCheckpoint() {
+            File dir = checkpoint.getParentFile();
+            File tmp = new File(dir, checkpoint.getName() + ".tmp");
+            try {
+                dir.mkdirs();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tmp)));
+                try {
+                    out.writeInt(CHECKPOINT_VERSION);
+                    out.writeInt(stats.dirTimes.size());
+                    for (Map.Entry<String, Long> dirTime : stats.dirTimes.entrySet()) {
+                        out.writeUTF(dirTime.getKey());
+                        out.writeLong(dirTime.getValue());
+                    }
+                    out.writeInt(stats.byFormat.size());
+                    for (FormatStats formatStats : stats.byFormat.values()) {
+                        out.writeUTF(formatStats.blobFormat);
+                        out.writeLong(formatStats.bytes);
+                        out.writeLong(formatStats.numTiles);
+                        out.writeInt(formatStats.pageTiles.size());
+                        for (Map.Entry<Long, int[]> page : formatStats.pageTiles.entrySet()) {
+                            out.writeLong(page.getKey());
+                            out.writeInt(page.getValue()[0]);
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+                if (!FileUtils.renameFile(tmp, checkpoint)) {
+                    log.warn("Could not save disk quota scan checkpoint " + checkpoint);
+                }
+            } catch (IOException e) {
+                log.warn("Could not save disk quota scan checkpoint " + checkpoint, e);
+            } finally {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Usage of the tiles of a zoom level in a given format, with the tile counts by page packed
+     * as {@code pageX << 32 | pageY}
+     */
+    private static class FormatStats {
+
+        final String blobFormat;
+
+        long bytes;
+
+        long numTiles;
+
+        final Map<Long, int[]> pageTiles = new HashMap<Long, int[]>();
+
+        FormatStats(String blobFormat) {
+            this.blobFormat = blobFormat;
+        }
+
+        void addTile(int pageX, int pageY, long size) {
+            Long key = Long.valueOf(((long) pageX << 32) | (pageY & 0xFFFFFFFFL));
+            int[] count = pageTiles.get(key);
+            if (count == null) {
+                pageTiles.put(key, new int[] { 1 });
+            } else {
+                count[0]++;
+            }
+            bytes += size;
+            numTiles++;
+        }
+
+        void add(FormatStats other) {
+            for (Map.Entry<Long, int[]> page : other.pageTiles.entrySet()) {
+                int[] count = pageTiles.get(page.getKey());
+                if (count == null) {
+                    pageTiles.put(page.getKey(), page.getValue());
+                } else {
+                    count[0] += page.getValue()[0];
+                }
+            }
+            bytes += other.bytes;
+            numTiles += other.numTiles;
         }
     }
 
@@ -0,0 +1,274 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ */
+package org.geowebcache.diskquota;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.springframework.util.Assert;
+
+/**
+ * Pre-aggregated tile page hit counters, updated by the tile request threads and periodically
+ * {@link #drain() drained} into the {@link QuotaStore}.
+ * <p>
+ * Recording a hit never blocks: pages already being tracked are counted on a {@link LongAdder},
+ * and once {@link #getMaxPages() maxPages} distinct pages are being tracked, hits on new pages
+ * are handled according to the {@link OverloadPolicy}. Pages that got no hits between two drains
+ * are forgotten, so the number of tracked pages follows the working set. A hit racing with the
+ * removal of its page may rarely be lost or counted twice, which the LRU and LFU expiration
+ * policies can afford.
+ * </p>
+ */
+public class PageHitCounters {
+
+    /**
+     * What to do with hits on pages not being tracked yet once the maximum number of tracked pages
+     * is reached
+     */
+    public static enum OverloadPolicy {
+        /**
+         * Drop the hit
+         */
+        DROP,
+        /**
+         * Keep one in {@link PageHitCounters#getSampleRate() sampleRate} hits, counted as
+         * {@code sampleRate} hits, up to twice the maximum number of tracked pages. Drop the rest.
+         */
+        SAMPLE
+    }
+
+    public static final int DEFAULT_MAX_PAGES = 100000;
+
+    public static final int DEFAULT_SAMPLE_RATE = 16;
+
+    private final ConcurrentHashMap<PageKey, PageCounter> counters;
+
+    private final int maxPages;
+
+    private final OverloadPolicy overloadPolicy;
+
+    private final int sampleRate;
+
+    private final LongAdder droppedHits = new LongAdder();
+    private static final class PageKey {
+
+        private final String layerName;
+
+        private final String gridsetId;
+
+        private final String blobFormat;
+
+        private final String parametersId;
+
+        private final int x;
+
+        private final int y;
+
+        private final int z;
+
+        private final int hash;
+
+        PageKey(String layerName, String gridsetId, String blobFormat, String parametersId,
+                int x, int y, int z) {
+            this.layerName = layerName;
+            this.gridsetId = gridsetId;
+            this.blobFormat = blobFormat;
+            this.parametersId = parametersId;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            int h = layerName.hashCode();
+            h = 31 * h + gridsetId.hashCode();
+            h = 31 * h + blobFormat.hashCode();
+            h = 31 * h + (parametersId == null ? 0 : parametersId.hashCode());
+            // spread the page coordinates, plain 31 * h + n collides a lot on neighbour pages
+            h = 31 * h + (x * 0x9E3779B1 ^ y * 0x85EBCA77 ^ z * 0xC2B2AE3D);
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PageKey)) {
+                return false;
+            }
+            PageKey k = (PageKey) o;
+            return hash == k.hash && x == k.x && y == k.y && z == k.z
+                    && layerName.equals(k.layerName) && gridsetId.equals(k.gridsetId)
+                    && blobFormat.equals(k.blobFormat)
+                    && (parametersId == null ? k.parametersId == null
+                            : parametersId.equals(k.parametersId));
+        }
+    }
+
+    private static final class PageCounter {
+
+        private final PageKey key;
+
+        private final LongAdder hits = new LongAdder();
+
+        private volatile long lastAccessTime;
+
+        /**
+         * Set by the draining thread once it stopped tracking the page, hits added after that are
+         * not collected
+         */
+        private volatile boolean removed;
+
+        private TileSet tileSet;
+
+        PageCounter(PageKey key) {
+            this.key = key;
+        }
+
+        TileSet getTileSet() {
+            // only called by the draining thread
+            if (tileSet == null) {
+                tileSet = new TileSet(key.layerName, key.gridsetId, key.blobFormat,
+                        key.parametersId);
+            }
+            return tileSet;
+        }
+    }
+
+    public PageHitCounters() {
+        this(DEFAULT_MAX_PAGES, OverloadPolicy.SAMPLE, DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * @param maxPages maximum number of distinct pages to track between drains before the overload
+     *        policy kicks in
+     * @param overloadPolicy what to do with hits on new pages when overloaded
+     * @param sampleRate one in how many hits to keep when sampling
+     */
+    public PageHitCounters(int maxPages, OverloadPolicy overloadPolicy, int sampleRate) {
+        Assert.isTrue(maxPages > 0, "maxPages shall be positive");
+        Assert.notNull(overloadPolicy, "overloadPolicy can't be null");
+        Assert.isTrue(sampleRate > 0, "sampleRate shall be positive");
+        this.maxPages = maxPages;
+        this.overloadPolicy = overloadPolicy;
+        this.sampleRate = sampleRate;
+        this.counters = new ConcurrentHashMap<PageKey, PageCounter>(Math.min(maxPages, 1024),
+                0.75f, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Records a hit on a tile page. Safe to call from any thread, never blocks.
+     * 
+     * @param pageIndex {@code [pageX, pageY, zoomLevel]}
+     * @param time the access time in milliseconds
+     * @return {@code false} if the hit was dropped due to overload
+     */
+    public boolean hit(final String layerName, final String gridsetId, final String blobFormat,
+            final String parametersId, final int[] pageIndex, final long time) {
+
+        final PageKey key = new PageKey(layerName, gridsetId, blobFormat, parametersId,
+                pageIndex[0], pageIndex[1], pageIndex[2]);
+        PageCounter counter = counters.get(key);
+        long weight = 1;
+        if (counter == null) {
+            final int size = counters.size();
+            if (size >= maxPages) {
+                if (overloadPolicy == OverloadPolicy.DROP || size >= 2 * maxPages
+                        || ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+                    droppedHits.increment();
+                    return false;
+                }
+                weight = sampleRate;
+            }
+            counter = counters.computeIfAbsent(key, PageCounter::new);
+        }
+        counter.hits.add(weight);
+        while (counter.removed) {
+            // the page went idle and was dropped while we were counting on it
+            counter = counters.computeIfAbsent(key, PageCounter::new);
+            counter.hits.add(weight);
+        }
+        if (time > counter.lastAccessTime) {
+            // a lost race only means a slightly older access time
+            counter.lastAccessTime = time;
+        }
+        return true;
+    }
+
+    /**
+     * Collects the hits recorded since the last call. Meant to be called by a single thread.
+     * 
+     * @return one payload per page hit since the last call, with its number of hits and last access
+     *         time
+     */
+    public List<PageStatsPayload> drain() {
+        List<PageStatsPayload> payloads = new ArrayList<PageStatsPayload>();
+        for (PageCounter counter : counters.values()) {
+            final long hits = counter.hits.sum();
+            if (hits == 0) {
+                // idle since the last drain, stop tracking it
+                counters.remove(counter.key, counter);
+                counter.removed = true;
+                continue;
+            }
+            counter.hits.add(-hits);
+
+            final PageKey key = counter.key;
+            final TileSet tileSet = counter.getTileSet();
+            TilePage page = new TilePage(tileSet.getId(), key.x, key.y, key.z);
+            PageStatsPayload payload = new PageStatsPayload(page, tileSet);
+            payload.setNumHits((int) Math.min(hits, Integer.MAX_VALUE));
+            payload.setLastAccessTime(counter.lastAccessTime);
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+
+    /**
+     * @return the number of pages currently tracked
+     */
+    public int size() {
+        return counters.size();
+    }
+
+    /**
+     * @return the number of hits dropped due to overload since the last call
+     */
+    public long drainDroppedHits() {
+        return droppedHits.sumThenReset();
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+}
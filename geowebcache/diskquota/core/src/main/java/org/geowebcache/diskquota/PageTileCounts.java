@@ -0,0 +1,160 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.springframework.util.Assert;
+
+/**
+ * Tile count differences by tile page of a single tile set, kept in an open addressing hash table
+ * of packed page indexes so that counting a tile allocates nothing.
+ * <p>
+ * Page indexes are packed as {@code zoomLevel << 56 | pageX << 28 | pageY}, which fits any page
+ * pyramid: the page calculator keeps levels well below 2<sup>28</sup> pages wide and tile pages
+ * store their zoom level as a byte.
+ * </p>
+ * <p>
+ * Not thread safe.
+ * </p>
+ */
+final class PageTileCounts {
+
+    private static final long EMPTY = -1L;
+
+    private static final int MAX_PAGE_INDEX = (1 << 28) - 1;
+
+    private long[] keys;
+
+    private int[] counts;
+
+    private int size;
+
+    public PageTileCounts() {
+        this(64);
+    }
+
+    /**
+     * @param expectedPages
+     *            number of pages to make room for before growing
+     */
+    public PageTileCounts(final int expectedPages) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedPages * 2 - 1)) << 1;
+        keys = new long[capacity];
+        counts = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    static long pack(final int pageX, final int pageY, final int zoomLevel) {
+        Assert.isTrue(pageX >= 0 && pageX <= MAX_PAGE_INDEX && pageY >= 0
+                && pageY <= MAX_PAGE_INDEX && zoomLevel >= 0 && zoomLevel < 128,
+                "page index out of range");
+        return ((long) zoomLevel << 56) | ((long) pageX << 28) | pageY;
+    }
+
+    static int pageX(final long key) {
+        return (int) (key >>> 28) & MAX_PAGE_INDEX;
+    }
+
+    static int pageY(final long key) {
+        return (int) key & MAX_PAGE_INDEX;
+    }
+
+    static int zoomLevel(final long key) {
+        return (int) (key >>> 56);
+    }
+
+    /**
+     * Adds {@code tileCountDiff} to the tile count difference of the given page
+     */
+    public void add(final int pageX, final int pageY, final int zoomLevel, final int tileCountDiff) {
+        final long key = pack(pageX, pageY, zoomLevel);
+        int slot = slot(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+            if (2 * size > keys.length) {
+                counts[slot] = tileCountDiff;
+                grow();
+                return;
+            }
+        }
+        counts[slot] += tileCountDiff;
+    }
+
+    /**
+     * @return the tile count difference of the given page, {@code 0} if it's not being tracked
+     */
+    public int get(final int pageX, final int pageY, final int zoomLevel) {
+        final int slot = slot(pack(pageX, pageY, zoomLevel));
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    /**
+     * @return the number of pages being tracked
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return one payload per page being tracked, with its tile count difference
+     */
+    public List<PageStatsPayload> toPayloads(final String tileSetId) {
+        List<PageStatsPayload> payloads = new ArrayList<PageStatsPayload>(size);
+        for (int i = 0; i < keys.length; i++) {
+            final long key = keys[i];
+            if (key != EMPTY) {
+                TilePage page = new TilePage(tileSetId, pageX(key), pageY(key), zoomLevel(key));
+                PageStatsPayload payload = new PageStatsPayload(page);
+                payload.setNumTiles(counts[i]);
+                payloads.add(payload);
+            }
+        }
+        return payloads;
+    }
+
+    /**
+     * Linear probing for the slot holding {@code key}, or the empty slot it goes to
+     */
+    private int slot(final long key) {
+        final int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
@@ -15,9 +15,9 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.diskquota.storage.PageStatsPayload;
 import org.geowebcache.diskquota.storage.Quota;
-import org.geowebcache.diskquota.storage.TilePage;
 import org.geowebcache.diskquota.storage.TilePageCalculator;
 import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.grid.GridSubset;
 import org.springframework.util.Assert;
 
 public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable {
@@ -52,6 +52,16 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
     
     boolean terminate = false;
 
+    private UsedQuotaListener usedQuotaListener;
+
+    /**
+     * Gets notified when quota increases are committed to the store
+     */
+    public static interface UsedQuotaListener {
+
+        void usedQuotaIncreased(TileSet tileSet, Quota quotaDiff);
+    }
+
     /**
      * Tracks accumulated quota difference for a single TileSet and accumulated number of tiles
      * difference for pages in the same TileSet
@@ -76,16 +86,20 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
         private int numAggregations;
 
         /**
-         * Tracks accumulated quota difference per TileSet
+         * Tracks accumulated quota difference per TileSet, in bytes
          */
-        private Quota accumQuotaDiff;
+        private long accumQuotaDiff;
 
         /**
-         * Tracks accumulated number of tiles per TilePage id
+         * Tracks accumulated number of tiles per TilePage
          */
-        private Map<String, PageStatsPayload> tilePages;
+        private PageTileCounts tilePages;
 
-        private StringBuilder pageIdTarget;
+        /**
+         * The tile set's grid subset, looked up on the first update. Updates are committed in a
+         * matter of seconds, so a layer reconfiguration is picked up by the next aggregation
+         */
+        private GridSubset gridSubset;
 
         private int[] pageIndexTarget;
 
@@ -93,37 +107,23 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
             this.tileSet = tileSet;
             this.tpc = tpc;
             this.creationTime = System.currentTimeMillis();
-            tilePages = new HashMap<String, PageStatsPayload>();
+            tilePages = new PageTileCounts();
             pageIndexTarget = new int[3];
-            pageIdTarget = new StringBuilder(128);
-            accumQuotaDiff = new Quota();
         }
 
         public void add(QuotaUpdate quotaUpdate) {
-            final String tileSetId = tileSet.getId();
-
             long size = quotaUpdate.getSize();
-            this.accumQuotaDiff.addBytes(quotaUpdate.getSize());
-
-            long[] tileIndex = quotaUpdate.getTileIndex();
-            tpc.pageIndexForTile(tileSet, tileIndex, pageIndexTarget);
-            int pageX = pageIndexTarget[0];
-            int pageY = pageIndexTarget[1];
-            byte pageZ = (byte) pageIndexTarget[2];
-            pageIdTarget.setLength(0);
-            TilePage.computeId(tileSetId, pageX, pageY, pageZ, pageIdTarget);
-            String pageIdForTile = pageIdTarget.toString();
+            this.accumQuotaDiff += size;
 
+            if (gridSubset == null) {
+                gridSubset = tpc.getGridSubset(tileSet);
+            }
             final int tileCountDiff = size > 0 ? 1 : -1;
-            PageStatsPayload payload = tilePages.get(pageIdForTile);
-            if (payload == null) {
-                TilePage page;
-                page = new TilePage(tileSetId, pageX, pageY, pageZ);
-                payload = new PageStatsPayload(page);
-                tilePages.put(pageIdForTile, payload);
+            for (long[] tileIndex : quotaUpdate.getTileIndexes()) {
+                tpc.pageIndexForTile(gridSubset, tileIndex, pageIndexTarget);
+                tilePages.add(pageIndexTarget[0], pageIndexTarget[1], pageIndexTarget[2],
+                        tileCountDiff);
             }
-            int previousCount = payload.getNumTiles();
-            payload.setNumTiles(previousCount + tileCountDiff);
 
             ++numAggregations;
         }
@@ -133,11 +133,11 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
         }
 
         public Quota getAccummulatedQuotaDifference() {
-            return accumQuotaDiff;
+            return new Quota(BigInteger.valueOf(accumQuotaDiff));
         }
 
         public Collection<PageStatsPayload> getAccummulatedTilePageCounts() {
-            return tilePages.values();
+            return tilePages.toPayloads(tileSet.getId());
         }
 
         @Override
@@ -146,7 +146,7 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
             sb.append(tileSet);
             sb.append(numAggregations).append(" aggregated updates, ");
             sb.append(tilePages.size()).append(" different pages, ");
-            sb.append("accum quota diff: ").append(accumQuotaDiff.toNiceString());
+            sb.append("accum quota diff: ").append(getAccummulatedQuotaDifference().toNiceString());
             sb.append(", created ").append((System.currentTimeMillis() - creationTime))
                     .append("ms ago").append(']');
             return sb.toString();
@@ -302,14 +302,29 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
         final Quota quotaDiff = aggregatedUpadte.getAccummulatedQuotaDifference();
 
         Collection<PageStatsPayload> tileCountDiffs;
-        tileCountDiffs = new ArrayList<PageStatsPayload>(
-                aggregatedUpadte.getAccummulatedTilePageCounts());
+        tileCountDiffs = aggregatedUpadte.getAccummulatedTilePageCounts();
 
         if (quotaDiff.getBytes().compareTo(BigInteger.ZERO) == 0 && tileCountDiffs.size() == 0) {
             return;
         }
 
         quotaStore.addToQuotaAndTileCounts(tileSet, quotaDiff, tileCountDiffs);
+
+        if (usedQuotaListener != null && quotaDiff.getBytes().compareTo(BigInteger.ZERO) > 0) {
+            try {
+                usedQuotaListener.usedQuotaIncreased(tileSet, quotaDiff);
+            } catch (RuntimeException e) {
+                log.warn("Error notifying used quota increase for " + tileSet, e);
+            }
+        }
+    }
+
+    /**
+     * @param listener
+     *            notified after each committed quota increase, from the consumer thread
+     */
+    public void setUsedQuotaListener(UsedQuotaListener listener) {
+        this.usedQuotaListener = listener;
     }
     
     public void shutdown() {
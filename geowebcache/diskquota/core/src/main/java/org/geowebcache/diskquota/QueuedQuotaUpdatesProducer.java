@@ -17,14 +17,22 @@
  */
 package org.geowebcache.diskquota;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.diskquota.storage.TileSet;
 import org.geowebcache.storage.BlobStoreListener;
 import org.geowebcache.storage.DefaultStorageBroker;
+import org.geowebcache.storage.TileObject;
 import org.springframework.util.Assert;
 
 /**
@@ -45,7 +53,7 @@ class QueuedQuotaUpdatesProducer implements BlobStoreListener {
 
     private final DiskQuotaConfig quotaConfig;
 
-    private final BlockingQueue<QuotaUpdate> queuedUpdates;
+    private final List<BlockingQueue<QuotaUpdate>> queuedUpdates;
 
     private boolean cancelled;
 
@@ -65,8 +73,19 @@ class QueuedQuotaUpdatesProducer implements BlobStoreListener {
      */
     public QueuedQuotaUpdatesProducer(final DiskQuotaConfig quotaConfig,
             final BlockingQueue<QuotaUpdate> queuedUpdates, QuotaStore quotaStore) {
+        this(quotaConfig, Collections.singletonList(queuedUpdates), quotaStore);
+    }
+
+    /**
+     * @param queuedUpdates
+     *            queues that this monitor will fill with updates at each tile event, the updates of
+     *            a given tile set always go to the same queue. There should be a separate thread
+     *            taking care of each queue.
+     */
+    public QueuedQuotaUpdatesProducer(final DiskQuotaConfig quotaConfig,
+            final List<BlockingQueue<QuotaUpdate>> queuedUpdates, QuotaStore quotaStore) {
         Assert.notNull(quotaConfig, "quotaConfig can't be null");
-        Assert.notNull(queuedUpdates, "queuedUpdates can't be null");
+        Assert.notEmpty(queuedUpdates, "queuedUpdates can't be empty");
 
         this.quotaConfig = quotaConfig;
         this.queuedUpdates = queuedUpdates;
@@ -94,6 +113,36 @@ class QueuedQuotaUpdatesProducer implements BlobStoreListener {
                 new long[] { x, y, z });
     }
 
+    /**
+     * Queues a single update per tile set for a batch of stored tiles, rather than one per tile.
+     * 
+     * @see org.geowebcache.storage.BlobStoreListener#tilesStored(List)
+     */
+    @Override
+    public void tilesStored(final List<TileObject> tiles) {
+        Map<TileSet, List<long[]>> tileIndexes = new LinkedHashMap<TileSet, List<long[]>>();
+        Map<TileSet, Long> sizes = new HashMap<TileSet, Long>();
+        for (TileObject tile : tiles) {
+            if (tile.getBlobSize() == 0) {
+                continue;
+            }
+            TileSet tileSet = new TileSet(tile.getLayerName(), tile.getGridSetId(),
+                    tile.getBlobFormat(), tile.getParametersId());
+            List<long[]> indexes = tileIndexes.get(tileSet);
+            if (indexes == null) {
+                indexes = new ArrayList<long[]>();
+                tileIndexes.put(tileSet, indexes);
+                sizes.put(tileSet, 0L);
+            }
+            indexes.add(tile.getXYZ().clone());
+            sizes.put(tileSet, sizes.get(tileSet) + tile.getBlobSize());
+        }
+        for (Map.Entry<TileSet, List<long[]>> entry : tileIndexes.entrySet()) {
+            TileSet tileSet = entry.getKey();
+            quotaUpdate(new QuotaUpdate(tileSet, sizes.get(tileSet), entry.getValue()));
+        }
+    }
+
     /**
      * @see org.geowebcache.storage.BlobStoreListener#tileDeleted
      */
@@ -165,16 +214,23 @@ class QueuedQuotaUpdatesProducer implements BlobStoreListener {
     private void quotaUpdate(String layerName, String gridSetId, String blobFormat,
             String parametersId, long amount, long[] tileIndex) {
 
+        quotaUpdate(new QuotaUpdate(layerName, gridSetId, blobFormat, parametersId, amount,
+                tileIndex));
+    }
+
+    private void quotaUpdate(QuotaUpdate payload) {
+        final String layerName = payload.getTileSet().getLayerName();
         if (cancelled(layerName)) {
             return;
         }
-        QuotaUpdate payload = new QuotaUpdate(layerName, gridSetId, blobFormat, parametersId,
-                amount, tileIndex);
+        final int shard = (payload.getTileSet().hashCode() & Integer.MAX_VALUE)
+                % queuedUpdates.size();
+        BlockingQueue<QuotaUpdate> queue = queuedUpdates.get(shard);
         try {
             if(updateOfferTimeoutSeconds <= 0) {
-                this.queuedUpdates.put(payload);
+                queue.put(payload);
             } else {
-                if(!this.queuedUpdates.offer(payload, updateOfferTimeoutSeconds, TimeUnit.SECONDS)) {
+                if(!queue.offer(payload, updateOfferTimeoutSeconds, TimeUnit.SECONDS)) {
                     throw new RuntimeException("Failed to offer the quota diff to the updates queue "
                             + "within the configured timeout of " + updateOfferTimeoutSeconds + " seconds");
                 }
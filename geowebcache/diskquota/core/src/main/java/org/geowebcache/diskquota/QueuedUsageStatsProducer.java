@@ -1,11 +1,10 @@
 package org.geowebcache.diskquota;
 
-import java.util.concurrent.BlockingQueue;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.conveyor.ConveyorTile;
-import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.grid.GridSubset;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.layer.TileLayerListener;
 import org.springframework.util.Assert;
@@ -14,22 +13,28 @@ import org.springframework.util.Assert;
  * 
  * <p>
  * This {@link TileLayerListener} is thread safe and can be called by any thread requesting a tile
- * from a {@link TileLayer}
+ * from a {@link TileLayer}. It never blocks the calling thread: hits are aggregated per tile page
+ * on the shared {@link PageHitCounters} for the {@link QueuedUsageStatsConsumer} to save them.
  * 
  * @author groldan
  * 
  */
 public class QueuedUsageStatsProducer implements TileLayerListener {
 
-    private static final Log log = LogFactory.getLog(QueuedQuotaUpdatesProducer.class);
+    private static final Log log = LogFactory.getLog(QueuedUsageStatsProducer.class);
+
+    private final PageHitCounters pageHitCounters;
 
-    private final BlockingQueue<UsageStats> usageStatsQueue;
+    private final TilePageCalculator tilePageCalculator;
 
     private volatile boolean cancelled;
 
-    public QueuedUsageStatsProducer(BlockingQueue<UsageStats> usageStatsQueue) {
-        Assert.notNull(usageStatsQueue, "usageStatsQueue can't be null");
-        this.usageStatsQueue = usageStatsQueue;
+    public QueuedUsageStatsProducer(PageHitCounters pageHitCounters,
+            TilePageCalculator tilePageCalculator) {
+        Assert.notNull(pageHitCounters, "pageHitCounters can't be null");
+        Assert.notNull(tilePageCalculator, "tilePageCalculator can't be null");
+        this.pageHitCounters = pageHitCounters;
+        this.tilePageCalculator = tilePageCalculator;
     }
 
     /**
@@ -40,20 +45,18 @@ public class QueuedUsageStatsProducer implements TileLayerListener {
         if (cancelled(layerName)) {
             return;
         }
-        String gridsetId = tile.getGridSetId();
-        String blobFormat = tile.getMimeType().getFormat();
-        String parametersId = tile.getParametersId();
-        TileSet tileSet = new TileSet(layerName, gridsetId, blobFormat, parametersId);
-        long[] tileIndex = tile.getTileIndex().clone();
-        UsageStats usageLog = new UsageStats(tileSet, tileIndex);
         try {
-            usageStatsQueue.put(usageLog);
-        } catch (InterruptedException e) {
-            if (cancelled(layerName)) {
+            GridSubset gridSubset = tile.getGridSubset();
+            if (gridSubset == null) {
                 return;
             }
-            log.info("Quota usage stats gathering for " + layerName
-                    + " abruptly interrupted on thread " + Thread.currentThread().getName());
+            int[] pageIndex = tilePageCalculator.pageIndexForTile(gridSubset,
+                    tile.getTileIndex(), new int[3]);
+            pageHitCounters.hit(layerName, tile.getGridSetId(), tile.getMimeType().getFormat(),
+                    tile.getParametersId(), pageIndex, System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            // usage stats are best effort, never fail the tile request because of them
+            log.debug("Unable to record usage stats for a tile of layer " + layerName, e);
         }
     }
 
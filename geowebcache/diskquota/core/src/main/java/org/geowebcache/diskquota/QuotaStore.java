@@ -1,12 +1,15 @@
 package org.geowebcache.diskquota;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
 
 import org.geowebcache.diskquota.storage.PageStats;
 import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.PageStatsVisitor;
 import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.diskquota.storage.TilePage;
 import org.geowebcache.diskquota.storage.TilePageCalculator;
@@ -99,8 +102,88 @@ public interface QuotaStore {
     public abstract TilePage getLeastRecentlyUsedPage(final Set<String> layerNames)
             throws InterruptedException;
 
+    /**
+     * Returns up to {@code limit} pages that still have tiles, in least frequently used order,
+     * along with their statistics.
+     * <p>
+     * The default implementation only returns the {@link #getLeastFrequentlyUsedPage(Set) least
+     * frequently used page}, with {@code null} statistics
+     * </p>
+     * 
+     * @param layerNames
+     * @param limit the maximum number of pages to return
+     * @return the pages, iterating in expiration order
+     * @throws InterruptedException
+     */
+    public default Map<TilePage, PageStats> getLeastFrequentlyUsedPages(
+            final Set<String> layerNames, final int limit) throws InterruptedException {
+        Map<TilePage, PageStats> pages = new LinkedHashMap<TilePage, PageStats>();
+        TilePage page = getLeastFrequentlyUsedPage(layerNames);
+        if (page != null) {
+            pages.put(page, null);
+        }
+        return pages;
+    }
+
+    /**
+     * Returns up to {@code limit} pages that still have tiles, in least recently used order, along
+     * with their statistics.
+     * <p>
+     * The default implementation only returns the {@link #getLeastRecentlyUsedPage(Set) least
+     * recently used page}, with {@code null} statistics
+     * </p>
+     * 
+     * @param layerNames
+     * @param limit the maximum number of pages to return
+     * @return the pages, iterating in expiration order
+     * @throws InterruptedException
+     */
+    public default Map<TilePage, PageStats> getLeastRecentlyUsedPages(
+            final Set<String> layerNames, final int limit) throws InterruptedException {
+        Map<TilePage, PageStats> pages = new LinkedHashMap<TilePage, PageStats>();
+        TilePage page = getLeastRecentlyUsedPage(layerNames);
+        if (page != null) {
+            pages.put(page, null);
+        }
+        return pages;
+    }
+
     public abstract PageStats setTruncated(final TilePage tilePage) throws InterruptedException;
 
+    /**
+     * Visits all the pages of the tile set, along with their statistics, to export the store
+     * contents.
+     * <p>
+     * The default implementation is not supported
+     * </p>
+     * 
+     * @see QuotaStoreSnapshot
+     */
+    public default void visitPages(final TileSet tileSet, final PageStatsVisitor visitor)
+            throws InterruptedException {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                + " can't export its pages");
+    }
+
+    /**
+     * Replaces all the information about the tile set, creating it if needed, with the given
+     * used quota and pages, adjusting the global quota accordingly. The whole tile set is imported
+     * in a single transaction.
+     * <p>
+     * The default implementation is not supported
+     * </p>
+     * 
+     * @param pages
+     *            the pages and their statistics, with the page creation time and the fill factor,
+     *            frequency of use, last access time and hits to restore
+     * @see QuotaStoreSnapshot
+     */
+    public default void importTileSet(final TileSet tileSet, final Quota usedQuota,
+            final Map<TilePage, PageStats> pages) throws InterruptedException {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                + " can't import pages");
+    }
+
     public abstract void deleteGridSubset(String layerName, String gridSetId);
     
     public abstract void deleteParameters(String layerName, String parametersId);
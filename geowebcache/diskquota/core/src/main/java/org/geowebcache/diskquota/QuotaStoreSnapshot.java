@@ -0,0 +1,235 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsVisitor;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TileSet;
+
+/**
+ * Exports the contents of a {@link QuotaStore} (tile sets, their used quotas and the statistics
+ * of their tile pages) to a compact binary snapshot, and imports such a snapshot into any quota
+ * store, which allows to provision a new node without recomputing the cache usage, or to migrate
+ * between quota store implementations.
+ * <p>
+ * The snapshot is a gzipped stream of records: a header with the format version, then for each
+ * tile set a tile set record followed by its page records, and an end marker. Each tile set is
+ * {@link QuotaStore#importTileSet imported} in its own transaction, so the pages of a single tile
+ * set are buffered in memory while importing, never the whole snapshot.
+ * </p>
+ */
+public class QuotaStoreSnapshot {
+
+    private static final Log log = LogFactory.getLog(QuotaStoreSnapshot.class);
+
+    public static final String MIME_TYPE = "application/octet-stream";
+
+    private static final int MAGIC = 0x47574351; // "GWCQ"
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TILE_SET = 1;
+
+    private static final byte PAGE = 2;
+
+    private static final byte END = 0;
+
+    private QuotaStoreSnapshot() {
+        // utility class
+    }
+
+    /**
+     * Writes the snapshot of the quota store contents to the stream, leaving the stream open
+     * 
+     * @return the number of pages written
+     */
+    public static long write(final QuotaStore store, final OutputStream stream)
+            throws IOException, InterruptedException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new NonClosingOutputStream(stream)), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+
+        List<TileSet> tileSets = new ArrayList<TileSet>(store.getTileSets());
+        Collections.sort(tileSets);
+
+        final long[] pageCount = new long[1];
+        final IOException[] failure = new IOException[1];
+        for (TileSet tileSet : tileSets) {
+            out.writeByte(TILE_SET);
+            out.writeUTF(tileSet.getLayerName());
+            out.writeUTF(tileSet.getGridsetId());
+            out.writeUTF(tileSet.getBlobFormat());
+            writeNullable(out, tileSet.getParametersId());
+            writeBigInteger(out, store.getUsedQuotaByTileSetId(tileSet.getId()).getBytes());
+
+            store.visitPages(tileSet, new PageStatsVisitor() {
+
+                @Override
+                public void visit(TilePage page, PageStats stats) {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    try {
+                        out.writeByte(PAGE);
+                        out.writeInt(page.getPageX());
+                        out.writeInt(page.getPageY());
+                        out.writeByte(page.getZoomLevel());
+                        out.writeInt(page.getCreationTimeMinutes());
+                        out.writeFloat(stats.getFillFactor());
+                        out.writeFloat(stats.getFrequencyOfUsePerMinute());
+                        out.writeInt(stats.getLastAccessTimeMinutes());
+                        writeBigInteger(out, stats.getNumHits());
+                        pageCount[0]++;
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        out.writeByte(END);
+        out.close();
+        log.info("Exported " + tileSets.size() + " tile sets and " + pageCount[0]
+                + " pages from the quota store");
+        return pageCount[0];
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(QuotaStore, OutputStream)} and imports it into the
+     * quota store, replacing the information of the tile sets it contains
+     * 
+     * @return the number of pages imported
+     */
+    public static long read(final InputStream stream, final QuotaStore store) throws IOException,
+            InterruptedException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(stream), 64 * 1024));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a quota store snapshot");
+        }
+        final int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported quota store snapshot version " + version);
+        }
+
+        long pageCount = 0;
+        int tileSetCount = 0;
+        TileSet tileSet = null;
+        Quota usedQuota = null;
+        Map<TilePage, PageStats> pages = new LinkedHashMap<TilePage, PageStats>();
+        for (byte record = in.readByte();; record = in.readByte()) {
+            if (record == PAGE && tileSet != null) {
+                TilePage page = new TilePage(tileSet.getId(), in.readInt(), in.readInt(),
+                        in.readByte(), in.readInt());
+                PageStats stats = new PageStats(page.getId());
+                stats.setFillFactor(in.readFloat());
+                stats.setFrequencyOfUsePerMinute(in.readFloat());
+                stats.setLastAccessMinutes(in.readInt());
+                stats.setNumHits(readBigInteger(in));
+                pages.put(page, stats);
+                continue;
+            }
+            if (record != TILE_SET && record != END) {
+                throw new IOException("Corrupt quota store snapshot, unexpected record " + record);
+            }
+            if (tileSet != null) {
+                store.importTileSet(tileSet, usedQuota, pages);
+                pageCount += pages.size();
+                tileSetCount++;
+                pages.clear();
+            }
+            if (record == END) {
+                break;
+            }
+            String layerName = in.readUTF();
+            String gridsetId = in.readUTF();
+            String blobFormat = in.readUTF();
+            String parametersId = readNullable(in);
+            tileSet = new TileSet(layerName, gridsetId, blobFormat, parametersId);
+            usedQuota = new Quota(readBigInteger(in));
+        }
+        log.info("Imported " + tileSetCount + " tile sets and " + pageCount
+                + " pages into the quota store");
+        return pageCount;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeBigInteger(DataOutputStream out, BigInteger value)
+            throws IOException {
+        byte[] bytes = (value == null ? BigInteger.ZERO : value).toByteArray();
+        out.writeByte(bytes.length);
+        out.write(bytes);
+    }
+
+    private static BigInteger readBigInteger(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedByte()];
+        in.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+
+    /**
+     * Lets the caller close the target stream, as REST responses must not be closed by the writer
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
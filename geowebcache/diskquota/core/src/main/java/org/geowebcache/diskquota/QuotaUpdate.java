@@ -1,5 +1,8 @@
 package org.geowebcache.diskquota;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.geowebcache.diskquota.storage.TileSet;
 
 public class QuotaUpdate {
@@ -10,6 +13,8 @@ public class QuotaUpdate {
 
     private long[] tileIndex;
 
+    private List<long[]> tileIndexes;
+
     /**
      * 
      * @param layerName
@@ -30,6 +35,20 @@ public class QuotaUpdate {
         this.tileSet = tileset;
         this.size = quotaUpdateSize;
         this.tileIndex = tileIndex;
+        this.tileIndexes = Collections.singletonList(tileIndex);
+    }
+
+    /**
+     * Creates an update for a batch of tiles stored at once
+     * 
+     * @param quotaUpdateSize the bytes added by all the tiles
+     * @param tileIndexes the tiles indexes
+     */
+    public QuotaUpdate(TileSet tileset, long quotaUpdateSize, List<long[]> tileIndexes) {
+        this.tileSet = tileset;
+        this.size = quotaUpdateSize;
+        this.tileIndex = tileIndexes.get(0);
+        this.tileIndexes = tileIndexes;
     }
 
     public TileSet getTileSet() {
@@ -48,6 +67,14 @@ public class QuotaUpdate {
         return tileIndex;
     }
 
+    /**
+     * @return the indexes of all the tiles of the update, a single one unless it was created for a
+     *         batch
+     */
+    public List<long[]> getTileIndexes() {
+        return tileIndexes;
+    }
+
     @Override
     public String toString() {
         return new StringBuilder("[").append(tileSet.toString()).append(", ").append(size)
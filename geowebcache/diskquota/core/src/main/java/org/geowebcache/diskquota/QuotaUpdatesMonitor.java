@@ -15,6 +15,8 @@
  */
 package org.geowebcache.diskquota;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -24,6 +26,7 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.diskquota.QueuedQuotaUpdatesConsumer.UsedQuotaListener;
 import org.geowebcache.storage.StorageBroker;
 import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.Assert;
@@ -43,11 +46,16 @@ public class QuotaUpdatesMonitor {
 
     private ExecutorService executorService;
 
-    private BlockingQueue<QuotaUpdate> sharedQueue;
+    /**
+     * One queue per consumer, the updates are sharded by tile set
+     */
+    private List<BlockingQueue<QuotaUpdate>> sharedQueues;
 
     private QueuedQuotaUpdatesProducer quotaDiffsProducer;
 
-    private QueuedQuotaUpdatesConsumer quotaUsageUpdatesConsumer;
+    private List<QueuedQuotaUpdatesConsumer> quotaUsageUpdatesConsumers;
+
+    private UsedQuotaListener usedQuotaListener;
 
     public QuotaUpdatesMonitor(final DiskQuotaConfig quotaConfig,
             final StorageBroker storageBroker, final QuotaStore quotaStore) {
@@ -64,25 +72,46 @@ public class QuotaUpdatesMonitor {
         if(sizeStr != null) {
             quotaQueueSize = Integer.parseInt(sizeStr);
         }
-        if(quotaQueueSize > 0) {
-            this.sharedQueue = new LinkedBlockingQueue<QuotaUpdate>(quotaQueueSize);
-        } else {
-            this.sharedQueue = new LinkedBlockingQueue<QuotaUpdate>();
+        // a single consumer thread can fall behind at high tile write rates, more consumers
+        // each take care of a share of the tile sets
+        String consumersStr = GeoWebCacheExtensions
+                .getProperty("GEOWEBCACHE_QUOTA_UPDATE_CONSUMERS");
+        int numConsumers = 1;
+        if (consumersStr != null) {
+            numConsumers = Integer.parseInt(consumersStr);
+        }
+        Assert.isTrue(numConsumers > 0,
+                "GEOWEBCACHE_QUOTA_UPDATE_CONSUMERS shall be a positive integer");
+        this.sharedQueues = new ArrayList<BlockingQueue<QuotaUpdate>>(numConsumers);
+        for (int i = 0; i < numConsumers; i++) {
+            if (quotaQueueSize > 0) {
+                this.sharedQueues.add(new LinkedBlockingQueue<QuotaUpdate>(quotaQueueSize));
+            } else {
+                this.sharedQueues.add(new LinkedBlockingQueue<QuotaUpdate>());
+            }
         }
     }
 
     public void startUp() {
-        executorService = Executors.newSingleThreadExecutor(tf);
+        executorService = Executors.newFixedThreadPool(sharedQueues.size(), tf);
 
-        quotaDiffsProducer = new QueuedQuotaUpdatesProducer(quotaConfig, sharedQueue, quotaStore);
+        quotaDiffsProducer = new QueuedQuotaUpdatesProducer(quotaConfig, sharedQueues, quotaStore);
 
-        // the task that takes quota updates from the queue and saves them to the store
-        quotaUsageUpdatesConsumer = new QueuedQuotaUpdatesConsumer(quotaStore, sharedQueue);
+        // the tasks that take quota updates from the queues and save them to the store
+        quotaUsageUpdatesConsumers = new ArrayList<QueuedQuotaUpdatesConsumer>();
+        for (BlockingQueue<QuotaUpdate> queue : sharedQueues) {
+            QueuedQuotaUpdatesConsumer consumer = new QueuedQuotaUpdatesConsumer(quotaStore,
+                    queue);
+            consumer.setUsedQuotaListener(usedQuotaListener);
+            quotaUsageUpdatesConsumers.add(consumer);
+        }
 
         // the listener that puts quota updates on the queue
         storageBroker.addBlobStoreListener(quotaDiffsProducer);
 
-        executorService.submit(quotaUsageUpdatesConsumer);
+        for (QueuedQuotaUpdatesConsumer consumer : quotaUsageUpdatesConsumers) {
+            executorService.submit(consumer);
+        }
     }
 
     private void shutDown(final boolean cancel) {
@@ -102,7 +131,7 @@ public class QuotaUpdatesMonitor {
         } else {
             executorService.shutdown();
         }
-        sharedQueue = null;
+        sharedQueues = null;
     }
 
     /**
@@ -116,7 +145,9 @@ public class QuotaUpdatesMonitor {
      * Calls for a shut down and waits until any remaining task finishes before returning
      */
     public void shutDown() {
-        quotaUsageUpdatesConsumer.shutdown();
+        for (QueuedQuotaUpdatesConsumer consumer : quotaUsageUpdatesConsumers) {
+            consumer.shutdown();
+        }
         final boolean cancel = false;
         shutDown(cancel);
 
@@ -142,6 +173,15 @@ public class QuotaUpdatesMonitor {
         }
     }
 
+    /**
+     * @param listener
+     *            notified whenever a used quota increase is committed to the quota store, must be
+     *            set before {@link #startUp()}
+     */
+    public void setUsedQuotaListener(UsedQuotaListener listener) {
+        this.usedQuotaListener = listener;
+    }
+
     public void tileStored(final String layerName, final String gridSetId, final String blobFormat,
             final String parametersId, final long x, final long y, final int z, final long blobSize) {
         this.quotaDiffsProducer.tileStored(layerName, gridSetId, blobFormat, parametersId, x, y, z,
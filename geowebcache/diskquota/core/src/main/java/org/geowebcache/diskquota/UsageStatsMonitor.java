@@ -1,13 +1,13 @@
 package org.geowebcache.diskquota;
 
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.diskquota.PageHitCounters.OverloadPolicy;
 import org.geowebcache.diskquota.storage.TilePageCalculator;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.layer.TileLayerDispatcher;
@@ -34,25 +34,30 @@ public class UsageStatsMonitor {
     private ExecutorService executorService;
 
     /**
-     * Queue shared by the stats producer and the consumer
+     * Per page hit counters shared by the stats producer and the consumer
      */
-    private BlockingQueue<UsageStats> sharedQueue;
+    private PageHitCounters pageHitCounters;
 
     /**
      * Listens to all {@link TileLayer layers}
      * {@link TileLayerListener#tileRequested(TileLayer, org.geowebcache.conveyor.ConveyorTile)
-     * tileRequested} events and puts usage statistics on the {@link #sharedQueue} for the consumer
-     * to save them to the {@link #quotaStore}
+     * tileRequested} events and counts them on the {@link #pageHitCounters} for the consumer to
+     * save them to the {@link #quotaStore}
      */
     private QueuedUsageStatsProducer usageStatsProducer;
 
     /**
-     * Task that constantly polls the {@link #sharedQueue} for usage statistics payload objects and
-     * aggregates them to be saved to the {@link #quotaStore} for the LRU and LFU
+     * Task that periodically drains the {@link #pageHitCounters} and saves them to the
+     * {@link #quotaStore} for the LRU and LFU
      * {@link ExpirationPolicy expiration policies}
      */
     private QueuedUsageStatsConsumer usageStatsConsumer;
 
+    /**
+     * Approximate page frequencies the hits go to instead of the {@link #quotaStore}, if set
+     */
+    private FrequencySketch frequencySketch;
+
     public UsageStatsMonitor(final QuotaStore quotaStore,
             final TileLayerDispatcher tileLayerDispatcher) {
 
@@ -67,19 +72,70 @@ public class UsageStatsMonitor {
     public void startUp() {
         executorService = Executors.newSingleThreadExecutor(tf);
 
-        sharedQueue = new LinkedBlockingQueue<UsageStats>(1000);
+        int maxPages = parseMaxPages(GeoWebCacheExtensions
+                .getProperty("GEOWEBCACHE_USAGE_STATS_MAX_PAGES"));
+        OverloadPolicy overloadPolicy = parseOverloadPolicy(GeoWebCacheExtensions
+                .getProperty("GEOWEBCACHE_USAGE_STATS_OVERLOAD_POLICY"));
+        pageHitCounters = new PageHitCounters(maxPages, overloadPolicy,
+                PageHitCounters.DEFAULT_SAMPLE_RATE);
 
-        usageStatsConsumer = new QueuedUsageStatsConsumer(quotaStore, sharedQueue,
-                tilePageCalculator);
+        usageStatsConsumer = new QueuedUsageStatsConsumer(quotaStore, pageHitCounters);
+        usageStatsConsumer.setFrequencySketch(frequencySketch);
         executorService.submit(usageStatsConsumer);
 
-        usageStatsProducer = new QueuedUsageStatsProducer(sharedQueue);
+        usageStatsProducer = new QueuedUsageStatsProducer(pageHitCounters, tilePageCalculator);
         Iterable<TileLayer> allLayers = tileLayerDispatcher.getLayerList();
         for (TileLayer layer : allLayers) {
             layer.addLayerListener(usageStatsProducer);
         }
     }
 
+    /**
+     * @return the GEOWEBCACHE_USAGE_STATS_MAX_PAGES value, or the default if unset or not a
+     *         positive integer
+     */
+    static int parseMaxPages(String maxPagesStr) {
+        if (maxPagesStr == null) {
+            return PageHitCounters.DEFAULT_MAX_PAGES;
+        }
+        try {
+            int maxPages = Integer.parseInt(maxPagesStr.trim());
+            if (maxPages > 0) {
+                return maxPages;
+            }
+        } catch (NumberFormatException e) {
+            // logged below
+        }
+        log.warn("Invalid GEOWEBCACHE_USAGE_STATS_MAX_PAGES value '" + maxPagesStr
+                + "', using the default " + PageHitCounters.DEFAULT_MAX_PAGES);
+        return PageHitCounters.DEFAULT_MAX_PAGES;
+    }
+
+    /**
+     * @return the GEOWEBCACHE_USAGE_STATS_OVERLOAD_POLICY value, or {@link OverloadPolicy#SAMPLE}
+     *         if unset or unknown
+     */
+    static OverloadPolicy parseOverloadPolicy(String policyStr) {
+        if (policyStr == null) {
+            return OverloadPolicy.SAMPLE;
+        }
+        try {
+            return OverloadPolicy.valueOf(policyStr.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid GEOWEBCACHE_USAGE_STATS_OVERLOAD_POLICY value '" + policyStr
+                    + "', using the default " + OverloadPolicy.SAMPLE);
+            return OverloadPolicy.SAMPLE;
+        }
+    }
+
+    /**
+     * Sets the sketch page hits are counted on instead of the quota store, shall be called before
+     * {@link #startUp()}
+     */
+    public void setFrequencySketch(FrequencySketch frequencySketch) {
+        this.frequencySketch = frequencySketch;
+    }
+
     /**
      * Calls for a shut down and waits until any remaining task finishes before returning
      */
@@ -144,7 +200,6 @@ public class UsageStatsMonitor {
         } else {
             executorService.shutdown();
         }
-        sharedQueue = null;
     }
 
 }
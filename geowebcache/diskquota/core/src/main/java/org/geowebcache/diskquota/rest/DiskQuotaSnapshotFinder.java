@@ -0,0 +1,25 @@
+package org.geowebcache.diskquota.rest;
+
+import org.geowebcache.diskquota.DiskQuotaMonitor;
+import org.restlet.Finder;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.resource.Resource;
+
+public class DiskQuotaSnapshotFinder extends Finder {
+
+    private DiskQuotaMonitor monitor;
+
+    public DiskQuotaSnapshotFinder(final DiskQuotaMonitor monitor) {
+        super(null, DiskQuotaSnapshotResource.class);
+        this.monitor = monitor;
+    }
+
+    @Override
+    public Resource findTarget(Request request, Response response) {
+        DiskQuotaSnapshotResource resource;
+        resource = (DiskQuotaSnapshotResource) super.findTarget(request, response);
+        resource.setMonitor(monitor);
+        return resource;
+    }
+}
@@ -0,0 +1,120 @@
+package org.geowebcache.diskquota.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.diskquota.DiskQuotaMonitor;
+import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.QuotaStoreSnapshot;
+import org.restlet.data.MediaType;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.resource.OutputRepresentation;
+import org.restlet.resource.Representation;
+import org.restlet.resource.Resource;
+
+/**
+ * REST resource exporting and importing the contents of the DiskQuota {@link QuotaStore} as a
+ * {@link QuotaStoreSnapshot snapshot}.
+ * <p>
+ * GET streams the snapshot of the current quota store, PUT imports a snapshot into it, replacing
+ * the usage information of the tile sets it contains. As the snapshot format does not depend on
+ * the quota store implementation, a snapshot taken from one store type can be imported into
+ * another.
+ * </p>
+ */
+public class DiskQuotaSnapshotResource extends Resource {
+
+    private static final Log log = LogFactory.getLog(DiskQuotaSnapshotResource.class);
+
+    private static final MediaType SNAPSHOT_MEDIA_TYPE = new MediaType(
+            QuotaStoreSnapshot.MIME_TYPE);
+
+    private DiskQuotaMonitor monitor;
+
+    /**
+     * Set by {@link DiskQuotaSnapshotFinder}
+     */
+    public void setMonitor(DiskQuotaMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    public boolean allowGet() {
+        return true;
+    }
+
+    @Override
+    public boolean allowPut() {
+        return true;
+    }
+
+    @Override
+    public void handleGet() {
+        final Response response = getResponse();
+        final QuotaStore quotaStore = monitor.getQuotaStore();
+        if (quotaStore == null) {
+            response.setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE,
+                    "The disk quota store is not available");
+            return;
+        }
+        response.setEntity(new SnapshotRepresentation(quotaStore));
+        response.setStatus(Status.SUCCESS_OK);
+    }
+
+    @Override
+    public void put(final Representation entity) {
+        final Response response = getResponse();
+        final QuotaStore quotaStore = monitor.getQuotaStore();
+        if (quotaStore == null) {
+            response.setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE,
+                    "The disk quota store is not available");
+            return;
+        }
+        try {
+            InputStream in = entity.getStream();
+            long pages;
+            try {
+                pages = QuotaStoreSnapshot.read(in, quotaStore);
+            } finally {
+                in.close();
+            }
+            response.setEntity("Imported " + pages + " pages", MediaType.TEXT_PLAIN);
+            response.setStatus(Status.SUCCESS_OK);
+        } catch (UnsupportedOperationException e) {
+            response.setStatus(Status.SERVER_ERROR_NOT_IMPLEMENTED, e.getMessage());
+        } catch (IOException e) {
+            response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST, e.getMessage());
+            response.setEntity(e.getMessage(), MediaType.TEXT_PLAIN);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    private static class SnapshotRepresentation extends OutputRepresentation {
+
+        private final QuotaStore quotaStore;
+
+        public SnapshotRepresentation(QuotaStore quotaStore) {
+            super(SNAPSHOT_MEDIA_TYPE);
+            this.quotaStore = quotaStore;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            try {
+                QuotaStoreSnapshot.write(quotaStore, out);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while exporting the quota store", e);
+            } catch (UnsupportedOperationException e) {
+                log.error("Could not export the quota store", e);
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -36,6 +36,10 @@ public final class LayerQuota implements Serializable {
 
     private Quota quota;
 
+    private Integer highWatermark;
+
+    private Integer lowWatermark;
+
     /**
      * @deprecated usage quota no longer tracked here but on the quota store. This field is
      *             temporarily left here to avoid XStram parsing problems for older versions
@@ -82,6 +86,41 @@ public final class LayerQuota implements Serializable {
         return quota;
     }
 
+    /**
+     * @return the percentage of the layer's quota above which it gets enforced right away, or
+     *         {@code null} to use the global setting
+     * @see org.geowebcache.diskquota.DiskQuotaConfig#getHighWatermark()
+     */
+    public Integer getHighWatermark() {
+        return highWatermark;
+    }
+
+    public void setHighWatermark(Integer highWatermark) {
+        checkWatermark("highWatermark", highWatermark);
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * @return the percentage of the layer's quota tiles get expired down to, or {@code null} to
+     *         use the global setting
+     * @see org.geowebcache.diskquota.DiskQuotaConfig#getLowWatermark()
+     */
+    public Integer getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public void setLowWatermark(Integer lowWatermark) {
+        checkWatermark("lowWatermark", lowWatermark);
+        this.lowWatermark = lowWatermark;
+    }
+
+    private static void checkWatermark(String name, Integer percentage) {
+        if (percentage != null && (percentage <= 0 || percentage > 100)) {
+            throw new IllegalArgumentException(name
+                    + " shall be a percentage between 1 and 100: " + percentage);
+        }
+    }
+
     @Override
     public String toString() {
         return new StringBuilder(getClass().getSimpleName()).append("[layer: ").append(layer)
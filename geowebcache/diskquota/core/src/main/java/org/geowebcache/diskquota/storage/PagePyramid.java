@@ -22,6 +22,7 @@ import java.text.NumberFormat;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.storage.TileRange;
@@ -106,7 +107,8 @@ class PagePyramid {
         }
         this.zoomStart = zoomStart;
         this.zoomStop = zoomStop;
-        this.pageInfo = new TreeMap<Integer, PagePyramid.PageLevelInfo>();
+        // pyramids are shared by the tile request threads, see TilePageCalculator
+        this.pageInfo = new ConcurrentHashMap<Integer, PagePyramid.PageLevelInfo>();
     }
 
     public int getZoomStart() {
@@ -0,0 +1,26 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota.storage;
+
+/**
+ * Receives the pages of a tile set along with their statistics
+ * 
+ * @see org.geowebcache.diskquota.QuotaStore#visitPages(TileSet, PageStatsVisitor)
+ */
+public interface PageStatsVisitor {
+
+    void visit(TilePage page, PageStats stats);
+
+}
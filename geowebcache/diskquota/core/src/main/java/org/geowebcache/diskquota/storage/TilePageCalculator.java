@@ -38,6 +38,10 @@ import org.geowebcache.storage.StorageException;
 import org.geowebcache.storage.TileRange;
 import org.springframework.util.Assert;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 /**
  * Supports the organization of tiles into groups (tile pages) for disk quota accounting purposes
  */
@@ -49,6 +53,18 @@ public class TilePageCalculator {
     
     private StorageBroker sb;
 
+    /**
+     * Page pyramids by grid subset, keys are weak and compared by identity so a reconfigured layer
+     * gets a new pyramid as soon as it gets a new grid subset
+     */
+    private final LoadingCache<GridSubset, PagePyramid> pagePyramids = CacheBuilder.newBuilder()
+            .weakKeys().build(new CacheLoader<GridSubset, PagePyramid>() {
+                @Override
+                public PagePyramid load(GridSubset gridSubset) {
+                    return newPagePyramid(gridSubset);
+                }
+            });
+
     public TilePageCalculator(final TileLayerDispatcher tld, final StorageBroker sb) {
         this.tld = tld;
         this.sb = sb;
@@ -77,6 +93,23 @@ public class TilePageCalculator {
         return pageIndexTarget;
     }
 
+    /**
+     * Same as {@link #pageIndexForTile(TileSet, long[], int[])} but for callers that already hold
+     * the tile's grid subset, saving the layer lookup. Meant for the tile request path.
+     */
+    public int[] pageIndexForTile(final GridSubset gridSubset, final long[] tileIndex,
+            int[] pageIndexTarget) {
+
+        Assert.notNull(gridSubset);
+        Assert.notNull(tileIndex);
+        Assert.isTrue(pageIndexTarget != null && pageIndexTarget.length > 2);
+
+        PagePyramid pagePyramid = pagePyramids.getUnchecked(gridSubset);
+        pagePyramid.pageIndexForTile(tileIndex[0], tileIndex[1], (int) tileIndex[2],
+                pageIndexTarget);
+        return pageIndexTarget;
+    }
+
     private PagePyramid getPagePyramid(TileSet tileSet) {
         PagePyramid pagePyramid = newPagePyramid(tileSet);
         return pagePyramid;
@@ -183,6 +216,15 @@ public class TilePageCalculator {
     }
     
     private PagePyramid newPagePyramid(final TileSet tileSet) {
+        return pagePyramids.getUnchecked(getGridSubset(tileSet));
+    }
+
+    /**
+     * Returns the grid subset of the tile set's layer, callers computing the pages of many tiles of
+     * the same tile set can hold on to it and use
+     * {@link #pageIndexForTile(GridSubset, long[], int[])} to save the layer lookup on each tile
+     */
+    public GridSubset getGridSubset(final TileSet tileSet) {
         final String layerName = tileSet.getLayerName();
         final TileLayer tileLayer;
         try {
@@ -192,8 +234,7 @@ public class TilePageCalculator {
         }
 
         final String gridsetId = tileSet.getGridsetId();
-        final GridSubset gridSubset = tileLayer.getGridSubset(gridsetId);
-        return newPagePyramid(gridSubset);
+        return tileLayer.getGridSubset(gridsetId);
     }
 
     PagePyramid newPagePyramid(final GridSubset gridSubset) {
@@ -0,0 +1,273 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.IAnswer;
+import org.easymock.classextension.EasyMock;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.diskquota.CacheCleaner.QuotaResolver;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.seed.GWCTask;
+import org.geowebcache.seed.TileBreeder;
+import org.geowebcache.storage.TileRange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheCleanerTest {
+
+    private static final long PAGE_BYTES = 100;
+
+    private final TileSet tileSet = new TileSet("layer", "EPSG:4326", "image/png", null);
+
+    private final List<TilePage> pages = new ArrayList<TilePage>();
+
+    private final Set<TilePage> truncated = Collections
+            .newSetFromMap(new ConcurrentHashMap<TilePage, Boolean>());
+
+    private final Set<Thread> truncatingThreads = Collections
+            .newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    private QuotaStore pageStore;
+
+    private CacheCleaner cleaner;
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            pages.add(new TilePage(tileSet.getId(), i, 0, 0));
+        }
+
+        pageStore = EasyMock.createNiceMock(QuotaStore.class);
+        EasyMock.expect(
+                pageStore.getLeastRecentlyUsedPages(EasyMock.<Set<String>> anyObject(),
+                        EasyMock.anyInt())).andAnswer(new IAnswer<Map<TilePage, PageStats>>() {
+            public Map<TilePage, PageStats> answer() throws Throwable {
+                fetches.incrementAndGet();
+                int limit = (Integer) EasyMock.getCurrentArguments()[1];
+                Map<TilePage, PageStats> result = new LinkedHashMap<TilePage, PageStats>();
+                for (TilePage page : pages) {
+                    if (result.size() < limit && !truncated.contains(page)) {
+                        PageStats stats = new PageStats(page.getId());
+                        stats.setFillFactor(1f);
+                        result.put(page, stats);
+                    }
+                }
+                return result;
+            }
+        }).anyTimes();
+        EasyMock.expect(pageStore.getTileSetById(tileSet.getId())).andReturn(tileSet).anyTimes();
+        EasyMock.expect(pageStore.getTilesForPage((TilePage) EasyMock.anyObject()))
+                .andAnswer(new IAnswer<long[][]>() {
+                    public long[][] answer() throws Throwable {
+                        TilePage page = (TilePage) EasyMock.getCurrentArguments()[0];
+                        long x = 2 * page.getPageX();
+                        return new long[][] { { x, 0, x + 1, 1, 0 } };
+                    }
+                }).anyTimes();
+        EasyMock.expect(pageStore.setTruncated((TilePage) EasyMock.anyObject()))
+                .andAnswer(new IAnswer<PageStats>() {
+                    public PageStats answer() throws Throwable {
+                        truncated.add((TilePage) EasyMock.getCurrentArguments()[0]);
+                        return null;
+                    }
+                }).anyTimes();
+        EasyMock.replay(pageStore);
+
+        TileBreeder breeder = EasyMock.createNiceMock(TileBreeder.class);
+        GWCTask truncateTask = new GWCTask() {
+            @Override
+            protected void doActionInternal() throws GeoWebCacheException,
+                    InterruptedException {
+                truncatingThreads.add(Thread.currentThread());
+            }
+
+            @Override
+            protected void dispose() {
+            }
+        };
+        EasyMock.expect(
+                breeder.createTasks((TileRange) EasyMock.anyObject(),
+                        EasyMock.eq(GWCTask.TYPE.TRUNCATE), EasyMock.eq(1), EasyMock.eq(false)))
+                .andReturn(new GWCTask[] { truncateTask }).anyTimes();
+        EasyMock.replay(breeder);
+
+        cleaner = new CacheCleaner(breeder, 4, 2, 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cleaner.destroy();
+    }
+
+    @Test
+    public void testExpiresInParallelBatches() throws Exception {
+        QuotaResolver resolver = new QuotaResolver() {
+            public ExpirationPolicy getExpirationPolicy() {
+                return ExpirationPolicy.LRU;
+            }
+
+            public Quota getLimit() {
+                return new Quota(BigInteger.valueOf(450));
+            }
+
+            public Quota getUsed() {
+                return new Quota(BigInteger.valueOf(1000 - PAGE_BYTES * truncated.size()));
+            }
+        };
+
+        cleaner.expireByLayerNames(Collections.singleton("layer"), resolver, pageStore);
+
+        // the first batch only takes a page per thread to measure the tile size, the second one
+        // takes the 4 pages estimated to free the remaining 350 bytes
+        assertEquals(2, fetches.get());
+        assertEquals(6, truncated.size());
+        assertEquals(pages.subList(0, 6), sortedTruncated());
+        assertEquals(2, truncatingThreads.size());
+    }
+
+    @Test
+    public void testStopsWhenNoPagesLeft() throws Exception {
+        QuotaResolver resolver = new QuotaResolver() {
+            public ExpirationPolicy getExpirationPolicy() {
+                return ExpirationPolicy.LRU;
+            }
+
+            public Quota getLimit() {
+                return new Quota(BigInteger.ZERO);
+            }
+
+            public Quota getUsed() {
+                return new Quota(BigInteger.valueOf(5000));
+            }
+        };
+
+        cleaner.expireByLayerNames(Collections.singleton("layer"), resolver, pageStore);
+
+        assertEquals(pages, sortedTruncated());
+    }
+
+    @Test
+    public void testExpiresDownToLowWatermark() throws Exception {
+        QuotaResolver resolver = new QuotaResolver() {
+            public ExpirationPolicy getExpirationPolicy() {
+                return ExpirationPolicy.LRU;
+            }
+
+            public Quota getLimit() {
+                return new Quota(BigInteger.valueOf(900));
+            }
+
+            public Quota getHighWatermark() {
+                return new Quota(BigInteger.valueOf(800));
+            }
+
+            public Quota getLowWatermark() {
+                return new Quota(BigInteger.valueOf(500));
+            }
+
+            public Quota getUsed() {
+                return new Quota(BigInteger.valueOf(1000 - PAGE_BYTES * truncated.size()));
+            }
+        };
+
+        cleaner.expireByLayerNames(Collections.singleton("layer"), resolver, pageStore);
+
+        assertEquals(pages.subList(0, 5), sortedTruncated());
+    }
+
+    @Test
+    public void testLowWatermarkAboveHighWatermarkExpiresDownToHighWatermark() throws Exception {
+        QuotaResolver resolver = new QuotaResolver() {
+            public ExpirationPolicy getExpirationPolicy() {
+                return ExpirationPolicy.LRU;
+            }
+
+            public Quota getLimit() {
+                return new Quota(BigInteger.valueOf(900));
+            }
+
+            public Quota getHighWatermark() {
+                return new Quota(BigInteger.valueOf(700));
+            }
+
+            public Quota getLowWatermark() {
+                return new Quota(BigInteger.valueOf(850));
+            }
+
+            public Quota getUsed() {
+                return new Quota(BigInteger.valueOf(1000 - PAGE_BYTES * truncated.size()));
+            }
+        };
+
+        cleaner.expireByLayerNames(Collections.singleton("layer"), resolver, pageStore);
+
+        assertEquals(pages.subList(0, 3), sortedTruncated());
+    }
+
+    @Test
+    public void testApproximateLfuExpiresLeastFrequentOfSample() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(100);
+        for (TilePage page : pages.subList(0, 4)) {
+            sketch.increment(FrequencySketch.hash(page), 5);
+        }
+        cleaner.setFrequencySketch(sketch);
+        QuotaResolver resolver = new QuotaResolver() {
+            public ExpirationPolicy getExpirationPolicy() {
+                return ExpirationPolicy.LFU;
+            }
+
+            public Quota getLimit() {
+                return new Quota(BigInteger.valueOf(800));
+            }
+
+            public Quota getUsed() {
+                return new Quota(BigInteger.valueOf(1000 - PAGE_BYTES * truncated.size()));
+            }
+        };
+
+        cleaner.expireByLayerNames(Collections.singleton("layer"), resolver, pageStore);
+
+        // the least recently used pages are the most frequently used ones
+        assertEquals(pages.subList(4, 6), sortedTruncated());
+    }
+
+    private List<TilePage> sortedTruncated() {
+        List<TilePage> sorted = new ArrayList<TilePage>();
+        for (TilePage page : pages) {
+            if (truncated.contains(page)) {
+                sorted.add(page);
+            }
+        }
+        return sorted;
+    }
+}
@@ -35,6 +35,7 @@ import javax.servlet.ServletContext;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.io.IOUtils;
 import org.easymock.classextension.EasyMock;
 import org.geowebcache.config.ConfigurationException;
 import org.geowebcache.diskquota.storage.LayerQuota;
@@ -156,6 +157,58 @@ public class ConfigLoaderTest extends TestCase {
         assertNotNull(raster);
     }
 
+    public void testLowWatermarkAboveHighWatermarkFails() throws Exception {
+        writeConfig("<maxConcurrentCleanUps>3</maxConcurrentCleanUps>",
+                "<maxConcurrentCleanUps>3</maxConcurrentCleanUps>"
+                        + "<highWatermark>80</highWatermark><lowWatermark>90</lowWatermark>");
+        try {
+            loader.loadConfig();
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("lowWatermark"));
+        }
+    }
+
+    public void testWatermarkOutOfRangeFails() throws Exception {
+        writeConfig("<maxConcurrentCleanUps>3</maxConcurrentCleanUps>",
+                "<maxConcurrentCleanUps>3</maxConcurrentCleanUps>"
+                        + "<highWatermark>120</highWatermark>");
+        try {
+            loader.loadConfig();
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("highWatermark"));
+        }
+    }
+
+    public void testLayerLowWatermarkAboveHighWatermarkIsDiscarded() throws Exception {
+        writeConfig("<layer>topp:states</layer>", "<layer>topp:states</layer>"
+                + "<highWatermark>80</highWatermark><lowWatermark>90</lowWatermark>");
+        DiskQuotaConfig config = loader.loadConfig();
+        LayerQuota states = config.layerQuota("topp:states");
+        assertNotNull(states.getQuota());
+        assertNull(states.getLowWatermark());
+        assertNull(states.getHighWatermark());
+    }
+
+    private void writeConfig(String target, String replacement) throws IOException {
+        InputStream in = getClass().getResourceAsStream("/geowebcache-diskquota.xml");
+        String xml;
+        try {
+            xml = IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+        assertTrue(xml.contains(target));
+        FileOutputStream out = new FileOutputStream(new File(cacheDir,
+                "geowebcache-diskquota.xml"));
+        try {
+            out.write(xml.replace(target, replacement).getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
     public void testSaveConfig() throws ConfigurationException, IOException {
         DiskQuotaConfig config = new DiskQuotaConfig();
         List<LayerQuota> quotas = new ArrayList<LayerQuota>();
@@ -118,4 +118,25 @@ public class DiskQuotaConfigTest extends TestCase {
         assertEquals(10, config.getMaxConcurrentCleanUps().intValue());
     }
 
+    public void testSetWatermarks() {
+        assertEquals(DiskQuotaConfig.DEFAULT_HIGH_WATERMARK, config.getHighWatermark().intValue());
+        assertEquals(DiskQuotaConfig.DEFAULT_LOW_WATERMARK, config.getLowWatermark().intValue());
+        try {
+            config.setHighWatermark(0);
+            fail("Expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+        try {
+            config.setLowWatermark(101);
+            fail("Expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+        config.setHighWatermark(90);
+        config.setLowWatermark(80);
+        assertEquals(90, config.getHighWatermark().intValue());
+        assertEquals(80, config.getLowWatermark().intValue());
+    }
+
 }
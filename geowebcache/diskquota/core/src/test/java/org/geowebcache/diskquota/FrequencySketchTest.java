@@ -0,0 +1,98 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.util.FileUtils;
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void testFrequency() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        for (int i = 0; i < 100; i++) {
+            long hash = FrequencySketch.hash(new TilePage("tileset", i, 0, 1));
+            sketch.increment(hash, i % 10);
+        }
+        for (int i = 0; i < 100; i++) {
+            long hash = FrequencySketch.hash(new TilePage("tileset", i, 0, 1));
+            // collisions can only overestimate
+            assertTrue(sketch.frequency(hash) >= i % 10);
+        }
+        long hot = FrequencySketch.hash(new TilePage("tileset", 0, 0, 0));
+        sketch.increment(hot, 1000);
+        assertEquals(15, sketch.frequency(hot));
+        assertEquals(0, sketch.frequency(FrequencySketch.hash(new TilePage("other", 0, 0, 0))));
+    }
+
+    @Test
+    public void testAging() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        long hot = FrequencySketch.hash(new TilePage("tileset", 0, 0, 0));
+        sketch.increment(hot, 12);
+        assertEquals(12, sketch.frequency(hot));
+        // fill the sample up with hits on a single other page
+        long other = FrequencySketch.hash(new TilePage("tileset", 1, 0, 0));
+        for (int added = 12; added < sketch.getSampleSize(); added += 15) {
+            sketch.increment(other, 15);
+        }
+        assertEquals(6, sketch.frequency(hot));
+    }
+
+    @Test
+    public void testHugeMaxPagesIsClamped() {
+        FrequencySketch sketch = new FrequencySketch(Integer.MAX_VALUE);
+        assertEquals(10 * FrequencySketch.MAX_WIDTH, sketch.getSampleSize());
+        for (int page = 0; page < 1000; page++) {
+            long hash = FrequencySketch.hash(new TilePage("tileset", page, 0, 0));
+            sketch.increment(hash, 3);
+            assertTrue(sketch.frequency(hash) >= 3);
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File dir = Files.createTempDirectory("frequency-sketch").toFile();
+        try {
+            File file = new File(dir, "sketch");
+            FrequencySketch sketch = new FrequencySketch(1000);
+            long hash = FrequencySketch.hash(new TilePage("tileset", 1, 2, 3));
+            sketch.increment(hash, 7);
+            sketch.save(file);
+
+            FrequencySketch loaded = new FrequencySketch(1000);
+            assertTrue(loaded.load(file));
+            assertEquals(7, loaded.frequency(hash));
+
+            // a sketch of another size can't use the saved counters
+            FrequencySketch other = new FrequencySketch(100000);
+            assertFalse(other.load(file));
+            assertEquals(0, other.frequency(hash));
+
+            assertFalse(loaded.load(new File(dir, "missing")));
+        } finally {
+            FileUtils.rmFileCacheDir(dir, null);
+        }
+    }
+}
@@ -20,157 +20,227 @@ package org.geowebcache.diskquota;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.TestCase;
 
-import org.geowebcache.filter.parameters.ParametersUtils;
+import org.easymock.IAnswer;
+import org.easymock.classextension.EasyMock;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.grid.GridSetBroker;
 import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.mime.MimeException;
 import org.geowebcache.mime.MimeType;
 import org.geowebcache.storage.TileObject;
 import org.geowebcache.storage.blobstore.file.FilePathGenerator;
+import org.geowebcache.util.FileUtils;
 
 public class LayerCacheInfoBuilderTest extends TestCase {
 
-    private LayerCacheInfoBuilder infoBuilder;
+    private static final String LAYER_NAME = "MockLayer";
 
-    private final int blockSize = 2048;
+    private final int fileSize = 100;
 
     private File rootCacheDir;
 
     private ExecutorService threadPool;
-    
-    FilePathGenerator pathGenerator = new FilePathGenerator("") {
-        protected String getParametersId(String base, java.util.Map<String,String> parameters) throws IOException {
-            // we assume no collisions for these tests
-            String parametersKvp = ParametersUtils.getKvp(parameters);
-            return ParametersUtils.buildKey(parametersKvp);
-        };
-    };
 
-    public void testFake() {
+    private FilePathGenerator pathGenerator;
 
-    }
+    private TileLayer mockLayer;
 
-    /*
-     * TODO fix tests /*
-     * 
-     * @Override protected void setUp() throws Exception { File target = new File("target"); if
-     * (!target.exists() || !target.isDirectory() || !target.canWrite()) { throw new
-     * IllegalStateException("Can't set up tests, " + target.getAbsolutePath() +
-     * " is not a writable directory"); }
-     * 
-     * rootCacheDir = new File(target, getClass().getSimpleName());
-     * FileUtils.rmFileCacheDir(rootCacheDir, null); rootCacheDir.mkdirs();
-     * 
-     * threadPool = Executors.newSingleThreadExecutor();
-     * 
-     * infoBuilder = new LayerCacheInfoBuilder(rootCacheDir, threadPool); }
-     * 
-     * @Override protected void tearDown() throws Exception { if (threadPool != null) {
-     * threadPool.shutdownNow(); } if (rootCacheDir != null) {
-     * FileUtils.rmFileCacheDir(rootCacheDir, null); } }
-     * 
-     * public void testBuildCacheInfo() throws MimeException, IOException, InterruptedException {
-     * 
-     * final String layerName = "MockLayer"; TileLayer mockLayer =
-     * EasyMock.createMock(TileLayer.class);
-     * EasyMock.expect(mockLayer.getName()).andReturn(layerName).anyTimes(); GridSet gridSet = new
-     * GridSetBroker(false, false).WORLD_EPSG4326; GridSubset gridSubset =
-     * GridSubsetFactory.createGridSubSet(gridSet); EasyMock.expect(mockLayer.getGridSubsets())
-     * .andReturn( new Hashtable<String, GridSubset>(Collections.singletonMap( gridSubset.getName(),
-     * gridSubset))).anyTimes(); EasyMock.replay(mockLayer);
-     * 
-     * final String gridSetId = gridSubset.getName(); final LayerQuota layerQuota = new
-     * LayerQuota(layerName, "MockPolicy"); final int numFiles = 10; final int fileSize =
-     * this.blockSize + 1;
-     * 
-     * ExpirationPolicy mockPolicy = EasyMock.createMock(ExpirationPolicy.class);
-     * 
-     * mockPolicy.createTileInfo(EasyMock.eq(layerQuota), EasyMock.eq(gridSetId),
-     * EasyMock.anyLong(), EasyMock.anyLong(), EasyMock.anyInt());
-     * EasyMock.expectLastCall().times(numFiles); EasyMock.replay(mockPolicy);
-     * 
-     * mockSeed(mockLayer, numFiles, fileSize);
-     * 
-     * layerQuota.setExpirationPolicy(mockPolicy);
-     * 
-     * infoBuilder.buildCacheInfo(mockLayer, layerQuota);
-     * 
-     * // be careful and don't wait more than 30s long startTime = System.currentTimeMillis(); long
-     * ellapsedTime = 0; while (infoBuilder.isRunning(layerName)) { Thread.sleep(500); ellapsedTime
-     * = System.currentTimeMillis() - startTime; if (ellapsedTime > 30000) {
-     * fail(LayerCacheInfoBuilder.class.getSimpleName() +
-     * ".buildCacheInfo was running for too long, aborting test!"); } } EasyMock.verify(mockLayer);
-     * EasyMock.verify(mockPolicy);
-     * 
-     * // was layer used quota updated? final int blockFileSize = (int) Math.ceil((double) fileSize
-     * / this.blockSize) this.blockSize; final long expectedCacheSize = numFiles * blockFileSize;
-     * 
-     * Quota expectedUsedQuota = new Quota(expectedCacheSize, StorageUnit.B);
-     * 
-     * Quota usedQuota = layerQuota.getUsedQuota();
-     * 
-     * assertTrue(usedQuota.getBytes().longValue() > 0);
-     * 
-     * assertEquals(0L, usedQuota.difference(expectedUsedQuota).getBytes().longValue()); }
+    private GridSubset gridSubset;
+
+    private QuotaStore quotaStore;
+
+    /**
+     * The quota differences added to the quota store
      */
+    private final List<Quota> quotaDiffs = Collections.synchronizedList(new ArrayList<Quota>());
+
     /**
-     * Seeds {@code numFiles} fake tiles of {@code fileSize} each at random tile indices
+     * The page tile counts added to the quota store
+     */
+    private final List<PageStatsPayload> tileCountDiffs = Collections
+            .synchronizedList(new ArrayList<PageStatsPayload>());
+
+    private final Set<String> blobFormats = Collections.synchronizedSet(new HashSet<String>());
+
+    @Override
+    protected void setUp() throws Exception {
+        rootCacheDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        pathGenerator = new FilePathGenerator(rootCacheDir.getAbsolutePath());
+        threadPool = Executors.newFixedThreadPool(2);
+
+        gridSubset = GridSubsetFactory
+                .createGridSubSet(new GridSetBroker(false, false).WORLD_EPSG4326);
+        mockLayer = EasyMock.createNiceMock(TileLayer.class);
+        EasyMock.expect(mockLayer.getName()).andReturn(LAYER_NAME).anyTimes();
+        EasyMock.expect(mockLayer.getGridSubsets())
+                .andReturn(Collections.singleton(gridSubset.getName())).anyTimes();
+        EasyMock.expect(mockLayer.getGridSubset(gridSubset.getName())).andReturn(gridSubset)
+                .anyTimes();
+        EasyMock.replay(mockLayer);
+
+        quotaStore = EasyMock.createNiceMock(QuotaStore.class);
+        EasyMock.expect(quotaStore.getTilePageCalculator())
+                .andReturn(new TilePageCalculator(null, null)).anyTimes();
+        quotaStore.addToQuotaAndTileCounts((TileSet) EasyMock.anyObject(),
+                (Quota) EasyMock.anyObject(),
+                EasyMock.<Collection<PageStatsPayload>> anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @SuppressWarnings("unchecked")
+            public Object answer() throws Throwable {
+                Object[] args = EasyMock.getCurrentArguments();
+                blobFormats.add(((TileSet) args[0]).getBlobFormat());
+                quotaDiffs.add((Quota) args[1]);
+                tileCountDiffs.addAll((Collection<PageStatsPayload>) args[2]);
+                return null;
+            }
+        }).anyTimes();
+        EasyMock.replay(quotaStore);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (threadPool != null) {
+            threadPool.shutdownNow();
+        }
+        if (rootCacheDir != null) {
+            FileUtils.rmFileCacheDir(rootCacheDir, null);
+        }
+    }
+
+    public void testBuildCacheInfo() throws Exception {
+        final int numFiles = 40;
+        mockSeed(numFiles, 0);
+
+        buildCacheInfo();
+
+        assertEquals(Collections.singleton("image/png"), blobFormats);
+        assertEquals(numFiles * fileSize, collectedBytes());
+        assertEquals(numFiles, collectedTiles());
+        // the tiles are added to the quota store once per zoom level
+        assertEquals(gridSubset.getZoomStop() - gridSubset.getZoomStart() + 1, quotaDiffs.size());
+    }
+
+    public void testSkipsUnchangedDirectories() throws Exception {
+        final int numFiles = 40;
+        List<File> tiles = mockSeed(numFiles, 0);
+        buildCacheInfo();
+
+        // rewriting a tile doesn't change the directory modification time, so the checkpoint
+        // figures are used instead of the new size
+        FileOutputStream fout = new FileOutputStream(tiles.get(0));
+        try {
+            fout.write(new byte[2 * fileSize]);
+        } finally {
+            fout.close();
+        }
+        reset();
+        buildCacheInfo();
+        assertEquals(numFiles * fileSize, collectedBytes());
+        assertEquals(numFiles, collectedTiles());
+
+        // adding tiles does, so their zoom level gets scanned again while the one of the
+        // rewritten tile still uses its checkpoint
+        mockSeed(1, numFiles);
+        reset();
+        buildCacheInfo();
+        assertEquals((numFiles + 1) * fileSize, collectedBytes());
+        assertEquals(numFiles + 1, collectedTiles());
+    }
+
+    private void reset() {
+        quotaDiffs.clear();
+        tileCountDiffs.clear();
+        blobFormats.clear();
+    }
+
+    private void buildCacheInfo() throws InterruptedException {
+        LayerCacheInfoBuilder infoBuilder = new LayerCacheInfoBuilder(rootCacheDir, threadPool,
+                quotaStore);
+        infoBuilder.buildCacheInfo(mockLayer);
+
+        // be careful and don't wait more than 30s
+        long startTime = System.currentTimeMillis();
+        while (infoBuilder.isRunning(LAYER_NAME)) {
+            Thread.sleep(50);
+            if (System.currentTimeMillis() - startTime > 30000) {
+                fail(LayerCacheInfoBuilder.class.getSimpleName()
+                        + ".buildCacheInfo was running for too long, aborting test!");
+            }
+        }
+    }
+
+    private long collectedBytes() {
+        long bytes = 0;
+        for (Quota quota : quotaDiffs) {
+            bytes += quota.getBytes().longValue();
+        }
+        return bytes;
+    }
+
+    private long collectedTiles() {
+        long tiles = 0;
+        for (PageStatsPayload payload : tileCountDiffs) {
+            tiles += payload.getNumTiles();
+        }
+        return tiles;
+    }
+
+    /**
+     * Seeds {@code numFiles} fake tiles of {@code fileSize} each, spread over the zoom levels
      * 
-     * @param layer
      * @param numFiles
+     * @param offset
+     *            index of the first tile, so that successive calls create different tiles
+     * @return the tile files
      * @throws MimeException
      * @throws IOException
      */
-    private void mockSeed(TileLayer layer, int numFiles, int fileSize) throws MimeException,
-            IOException {
-        final String layerName = layer.getName();
-
-        final GridSubset gridSubset = layer.getGridSubset(layer.getGridSubsets().iterator().next());
-        final String gridSetId = gridSubset.getName();
-        final String prefix = this.rootCacheDir.getAbsolutePath();
-        String format = "image/png";
+    private List<File> mockSeed(int numFiles, int offset) throws MimeException, IOException {
+        final String format = "image/png";
         final MimeType mimeType = MimeType.createFromFormat(format);
+        final int zoomStart = gridSubset.getZoomStart();
+        final int zoomLevels = gridSubset.getZoomStop() - zoomStart + 1;
 
         final byte[] mockTileContents = new byte[fileSize];
         Arrays.fill(mockTileContents, (byte) 0xFF);
 
-        // just to control the same tile is not created more than once
-        Set<String> addedTiles = new HashSet<String>();
-
-        long[] tileIndex;
-        while (addedTiles.size() < numFiles) {
-            int level = (int) (gridSubset.getZoomStart() + ((gridSubset.getZoomStop() - gridSubset
-                    .getZoomStart()) * Math.random()));
-
-            String tileKey = null;
-            File tilePath;
-            do {
-                long[] coverage = gridSubset.getCoverage(level);// {minx,miny,maxx,maxy,z}
-                long x = (long) (coverage[0] + ((coverage[2] - coverage[0]) * Math.random()));
-                long y = (long) (coverage[1] + ((coverage[3] - coverage[1]) * Math.random()));
-                tileIndex = new long[] { x, y, level };
-                TileObject tile = TileObject.createCompleteTileObject(layerName, tileIndex, gridSetId, format, null, null);
-                tilePath = pathGenerator.tilePath(tile, mimeType);
-                tileKey = tilePath.getAbsolutePath();
-            } while (addedTiles.contains(tileKey));
-            addedTiles.add(tileKey);
-
-            File tileDir = tilePath.getParentFile();
-            tileDir.mkdirs();
+        List<File> tiles = new ArrayList<File>();
+        for (int i = offset; i < offset + numFiles; i++) {
+            int level = zoomStart + i % zoomLevels;
+            long[] coverage = gridSubset.getCoverage(level);// {minx,miny,maxx,maxy,z}
+            long x = coverage[0] + (i / zoomLevels) % (1 + coverage[2] - coverage[0]);
+            long[] tileIndex = new long[] { x, coverage[1], level };
+            TileObject tile = TileObject.createCompleteTileObject(LAYER_NAME, tileIndex,
+                    gridSubset.getName(), format, null, null);
+            File tilePath = pathGenerator.tilePath(tile, mimeType);
+
+            tilePath.getParentFile().mkdirs();
             FileOutputStream fout = new FileOutputStream(tilePath);
             try {
                 fout.write(mockTileContents);
             } finally {
                 fout.close();
             }
+            tiles.add(tilePath);
         }
-
+        return tiles;
     }
 }
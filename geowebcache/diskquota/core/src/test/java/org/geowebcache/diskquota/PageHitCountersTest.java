@@ -0,0 +1,173 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.geowebcache.diskquota.PageHitCounters.OverloadPolicy;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.junit.Test;
+
+public class PageHitCountersTest {
+
+    @Test
+    public void testAggregatesHitsPerPage() {
+        PageHitCounters counters = new PageHitCounters(10, OverloadPolicy.DROP, 1);
+        counters.hit("layer", "EPSG:4326", "image/png", null, new int[] { 1, 2, 3 }, 10);
+        counters.hit("layer", "EPSG:4326", "image/png", null, new int[] { 1, 2, 3 }, 30);
+        counters.hit("layer", "EPSG:4326", "image/png", null, new int[] { 1, 2, 3 }, 20);
+        counters.hit("layer", "EPSG:4326", "image/png", "abc", new int[] { 1, 2, 3 }, 5);
+        counters.hit("layer", "EPSG:4326", "image/jpeg", null, new int[] { 0, 0, 3 }, 5);
+
+        Map<String, PageStatsPayload> byPage = byPage(counters.drain());
+        assertEquals(3, byPage.size());
+
+        PageStatsPayload png = byPage.get(pageKey("layer", "EPSG:4326", "image/png", 1, 2, 3));
+        assertEquals(3, png.getNumHits());
+        assertEquals(30, png.getLastAccessTime());
+        assertEquals("layer", png.getTileSet().getLayerName());
+        assertEquals(1, png.getPage().getPageX());
+        assertEquals(2, png.getPage().getPageY());
+        assertEquals(3, png.getPage().getZoomLevel());
+
+        // nothing new since the last drain
+        assertTrue(counters.drain().isEmpty());
+    }
+
+    @Test
+    public void testIdlePagesAreForgotten() {
+        PageHitCounters counters = new PageHitCounters(10, OverloadPolicy.DROP, 1);
+        counters.hit("layer", "EPSG:4326", "image/png", null, new int[] { 1, 2, 3 }, 10);
+        assertEquals(1, counters.drain().size());
+        assertEquals(1, counters.size());
+        assertTrue(counters.drain().isEmpty());
+        assertEquals(0, counters.size());
+    }
+
+    @Test
+    public void testDropWhenOverloaded() {
+        PageHitCounters counters = new PageHitCounters(2, OverloadPolicy.DROP, 1);
+        assertTrue(counters.hit("layer", "g", "f", null, new int[] { 0, 0, 0 }, 1));
+        assertTrue(counters.hit("layer", "g", "f", null, new int[] { 1, 0, 0 }, 1));
+        assertFalse(counters.hit("layer", "g", "f", null, new int[] { 2, 0, 0 }, 1));
+        // pages already tracked keep counting
+        assertTrue(counters.hit("layer", "g", "f", null, new int[] { 1, 0, 0 }, 1));
+
+        assertEquals(1, counters.drainDroppedHits());
+        assertEquals(0, counters.drainDroppedHits());
+        List<PageStatsPayload> drained = counters.drain();
+        assertEquals(2, drained.size());
+    }
+
+    @Test
+    public void testSampleWhenOverloaded() {
+        final int sampleRate = 4;
+        PageHitCounters counters = new PageHitCounters(1, OverloadPolicy.SAMPLE, sampleRate);
+        counters.hit("layer", "g", "f", null, new int[] { 0, 0, 0 }, 1);
+        int accepted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (counters.hit("layer", "g", "f", null, new int[] { 1, 0, 0 }, 1)) {
+                accepted++;
+            }
+        }
+        // once sampled in the page is tracked and counts every hit
+        assertTrue(accepted > 900);
+        // never more than twice the maximum
+        for (int i = 0; i < 1000; i++) {
+            counters.hit("layer", "g", "f", null, new int[] { 2 + i, 0, 0 }, 1);
+        }
+        assertEquals(2, counters.size());
+
+        Map<String, PageStatsPayload> byPage = byPage(counters.drain());
+        PageStatsPayload sampled = byPage.get(pageKey("layer", "g", "f", 1, 0, 0));
+        // the hits that missed the sampling are lost, the one that made it counts for the rest
+        assertEquals(accepted - 1 + sampleRate, sampled.getNumHits());
+    }
+
+    @Test
+    public void testConcurrentHitsWhileDraining() throws Exception {
+        final PageHitCounters counters = new PageHitCounters(1000, OverloadPolicy.DROP, 1);
+        final int threads = 8;
+        final int hitsPerThread = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final AtomicBoolean done = new AtomicBoolean();
+            Future<Long> drainer = executor.submit(() -> {
+                long total = 0;
+                start.await();
+                while (!done.get()) {
+                    total += sum(counters.drain());
+                    Thread.sleep(5);
+                }
+                return total;
+            });
+            Future<?>[] hitters = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                hitters[t] = executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < hitsPerThread; i++) {
+                        counters.hit("layer", "g", "f", null, new int[] { i % 7, 0, 0 }, i);
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> hitter : hitters) {
+                hitter.get(30, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            long total = drainer.get(30, TimeUnit.SECONDS) + sum(counters.drain());
+            assertEquals(threads * hitsPerThread, total);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String pageKey(String layer, String gridset, String format, int x, int y,
+            int z) {
+        return new TilePage(new TileSet(layer, gridset, format, null).getId(), x, y, z).getKey();
+    }
+
+    private static long sum(List<PageStatsPayload> payloads) {
+        long sum = 0;
+        for (PageStatsPayload p : payloads) {
+            sum += p.getNumHits();
+        }
+        return sum;
+    }
+
+    private static Map<String, PageStatsPayload> byPage(List<PageStatsPayload> payloads) {
+        Map<String, PageStatsPayload> byPage = new HashMap<String, PageStatsPayload>();
+        for (PageStatsPayload p : payloads) {
+            byPage.put(p.getPage().getKey(), p);
+        }
+        return byPage;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.junit.Test;
+
+public class PageTileCountsTest {
+
+    @Test
+    public void testPack() {
+        long key = PageTileCounts.pack(123456, (1 << 28) - 1, 30);
+        assertEquals(123456, PageTileCounts.pageX(key));
+        assertEquals((1 << 28) - 1, PageTileCounts.pageY(key));
+        assertEquals(30, PageTileCounts.zoomLevel(key));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPackOutOfRange() {
+        PageTileCounts.pack(1 << 28, 0, 0);
+    }
+
+    @Test
+    public void testAddGrowsAndKeepsCounts() {
+        PageTileCounts counts = new PageTileCounts(4);
+        for (int i = 0; i < 1000; i++) {
+            counts.add(i % 100, i % 7, i % 20, 1);
+        }
+        counts.add(0, 0, 0, -1);
+        counts.add(99, 99, 19, -1);
+
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            String id = new TilePage("tileset", i % 100, i % 7, i % 20).getKey();
+            Integer count = expected.get(id);
+            expected.put(id, count == null ? 1 : count + 1);
+        }
+        String id = new TilePage("tileset", 0, 0, 0).getKey();
+        expected.put(id, expected.get(id) - 1);
+        expected.put(new TilePage("tileset", 99, 99, 19).getKey(), -1);
+
+        assertEquals(expected.size(), counts.size());
+        assertEquals(expected.get(id).intValue(), counts.get(0, 0, 0));
+        assertEquals(0, counts.get(1, 1, 2));
+
+        List<PageStatsPayload> payloads = counts.toPayloads("tileset");
+        assertEquals(expected.size(), payloads.size());
+        Map<String, Integer> actual = new HashMap<String, Integer>();
+        for (PageStatsPayload payload : payloads) {
+            actual.put(payload.getPage().getKey(), payload.getNumTiles());
+        }
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.layer.wms.WMSLayer;
+
+/**
+ * Measures how many tile events per second the {@link QueuedQuotaUpdatesConsumer}s aggregate,
+ * with one and with several consumers, against a quota store that does nothing.
+ */
+final class QuotaUpdatesPerf {
+
+    private static Log LOGGER = LogFactory.getLog(QuotaUpdatesPerf.class);
+
+    // number of threads storing tiles
+    final static int WORKERS = 8;
+
+    // number of tiles stored per worker
+    final static int TILES = 100000;
+
+    // number of layers the tiles are spread over
+    final static int LAYERS = 16;
+
+    public static void main(String[] args) throws Exception {
+        GridSetBroker gridSetBroker = new GridSetBroker(false, false);
+        final GridSubset gridSubset = GridSubsetFactory
+                .createGridSubSet(gridSetBroker.WORLD_EPSG4326);
+        TileLayerDispatcher tld = mock(TileLayerDispatcher.class);
+        for (int i = 0; i < LAYERS; i++) {
+            TileLayer layer = new WMSLayer("perf" + i, new String[] { "http://localhost/wms" },
+                    null, "perf", Collections.singletonList("image/png"),
+                    Collections.singletonMap(gridSubset.getName(), gridSubset), null, new int[] {
+                            4, 4 }, null, false);
+            when(tld.getTileLayer("perf" + i)).thenReturn(layer);
+        }
+
+        QuotaStore quotaStore = mock(QuotaStore.class);
+        when(quotaStore.getTilePageCalculator()).thenReturn(new TilePageCalculator(tld, null));
+
+        run("warm up", quotaStore, gridSubset, 1);
+        run("1 consumer", quotaStore, gridSubset, 1);
+        run("2 consumers", quotaStore, gridSubset, 2);
+        run("4 consumers", quotaStore, gridSubset, 4);
+    }
+
+    /**
+     * Stores {@link #TILES} tiles on each of the {@link #WORKERS} threads and waits for the
+     * consumers to take all of them off their queues.
+     */
+    private static void run(String name, QuotaStore quotaStore, final GridSubset gridSubset,
+            int numConsumers) throws Exception {
+        List<BlockingQueue<QuotaUpdate>> queues = new ArrayList<BlockingQueue<QuotaUpdate>>();
+        List<QueuedQuotaUpdatesConsumer> consumers = new ArrayList<QueuedQuotaUpdatesConsumer>();
+        ExecutorService consumerExecutor = Executors.newFixedThreadPool(numConsumers);
+        for (int i = 0; i < numConsumers; i++) {
+            BlockingQueue<QuotaUpdate> queue = new LinkedBlockingQueue<QuotaUpdate>(1000);
+            queues.add(queue);
+            QueuedQuotaUpdatesConsumer consumer = new QueuedQuotaUpdatesConsumer(quotaStore, queue);
+            consumers.add(consumer);
+            consumerExecutor.submit(consumer);
+        }
+        final QueuedQuotaUpdatesProducer producer = new QueuedQuotaUpdatesProducer(
+                new DiskQuotaConfig(), queues, quotaStore);
+
+        ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+        Callable<Void> worker = () -> {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < TILES; i++) {
+                int z = random.nextInt(16);
+                long[] coverage = gridSubset.getCoverage(z);
+                long x = coverage[0] + random.nextLong(1 + coverage[2] - coverage[0]);
+                long y = coverage[1] + random.nextLong(1 + coverage[3] - coverage[1]);
+                producer.tileStored("perf" + random.nextInt(LAYERS), gridSubset.getName(),
+                        "image/png", null, x, y, z, 1 + random.nextInt(20000));
+            }
+            return null;
+        };
+        long start = System.nanoTime();
+        Future<?>[] results = new Future<?>[WORKERS];
+        for (int i = 0; i < WORKERS; i++) {
+            results[i] = executor.submit(worker);
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        for (BlockingQueue<QuotaUpdate> queue : queues) {
+            while (!queue.isEmpty()) {
+                Thread.sleep(1);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        for (QueuedQuotaUpdatesConsumer consumer : consumers) {
+            consumer.shutdown();
+        }
+        consumerExecutor.shutdown();
+        consumerExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info(String.format("%s: '%f' tile events per second.", name, (double) WORKERS
+                    * TILES / elapsed * 1000000000));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import static org.junit.Assert.assertEquals;
+
+import org.geowebcache.diskquota.PageHitCounters.OverloadPolicy;
+import org.junit.Test;
+
+public class UsageStatsMonitorTest {
+
+    @Test
+    public void testParseMaxPages() {
+        assertEquals(PageHitCounters.DEFAULT_MAX_PAGES, UsageStatsMonitor.parseMaxPages(null));
+        assertEquals(500, UsageStatsMonitor.parseMaxPages(" 500 "));
+        // invalid values fall back to the default instead of failing the startup
+        assertEquals(PageHitCounters.DEFAULT_MAX_PAGES, UsageStatsMonitor.parseMaxPages("lots"));
+        assertEquals(PageHitCounters.DEFAULT_MAX_PAGES, UsageStatsMonitor.parseMaxPages("0"));
+    }
+
+    @Test
+    public void testParseOverloadPolicy() {
+        assertEquals(OverloadPolicy.SAMPLE, UsageStatsMonitor.parseOverloadPolicy(null));
+        assertEquals(OverloadPolicy.DROP, UsageStatsMonitor.parseOverloadPolicy(" drop"));
+        assertEquals(OverloadPolicy.SAMPLE, UsageStatsMonitor.parseOverloadPolicy("evict"));
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.layer.TileLayerListener;
+import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.mime.ImageMime;
+
+/**
+ * Measures the overhead the disk quota usage stats add to the tile request path, comparing the
+ * time taken to handle a tile request with and without the {@link QueuedUsageStatsProducer}
+ * listening to the layer.
+ */
+final class UsageStatsPerf {
+
+    private static Log LOGGER = LogFactory.getLog(UsageStatsPerf.class);
+
+    // number of request threads
+    final static int WORKERS = 16;
+
+    // number of tile requests per worker
+    final static int REQUESTS = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        GridSetBroker gridSetBroker = new GridSetBroker(false, false);
+        GridSubset gridSubset = GridSubsetFactory.createGridSubSet(gridSetBroker.WORLD_EPSG4326);
+        TileLayer layer = new WMSLayer("perf", new String[] { "http://localhost/wms" }, null,
+                "perf", Collections.singletonList("image/png"), Collections.singletonMap(
+                        gridSubset.getName(), gridSubset), null, new int[] { 4, 4 }, null, false);
+
+        QuotaStore quotaStore = mock(QuotaStore.class);
+        PageHitCounters counters = new PageHitCounters();
+        QueuedUsageStatsProducer producer = new QueuedUsageStatsProducer(counters,
+                new TilePageCalculator(null, null));
+        QueuedUsageStatsConsumer consumer = new QueuedUsageStatsConsumer(quotaStore, counters);
+
+        // warm up both paths
+        run("warm up", layer, gridSubset, null);
+        run("warm up", layer, gridSubset, producer);
+
+        long disabled = run("disk quota disabled", layer, gridSubset, null);
+        ExecutorService consumerExecutor = Executors.newSingleThreadExecutor();
+        consumerExecutor.submit(consumer);
+        long enabled = run("disk quota enabled", layer, gridSubset, producer);
+        consumer.shutdown();
+        consumerExecutor.shutdown();
+        consumerExecutor.awaitTermination(1, TimeUnit.MINUTES);
+
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info(String.format("Usage stats overhead per request '%d' ns.",
+                    (enabled - disabled) / ((long) WORKERS * REQUESTS)));
+            LOGGER.info(String.format("Hits dropped due to overload '%d'.",
+                    counters.drainDroppedHits()));
+        }
+    }
+
+    /**
+     * Runs {@link #REQUESTS} tile requests on each of the {@link #WORKERS} threads, notifying the
+     * listener if any.
+     * 
+     * @return the elapsed time, in nanoseconds
+     */
+    private static long run(String name, final TileLayer layer, final GridSubset gridSubset,
+            final TileLayerListener listener) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+        Callable<Void> worker = () -> {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < REQUESTS; i++) {
+                int z = random.nextInt(12);
+                long[] coverage = gridSubset.getCoverage(z);
+                long x = coverage[0] + random.nextLong(1 + coverage[2] - coverage[0]);
+                long y = coverage[1] + random.nextLong(1 + coverage[3] - coverage[1]);
+                ConveyorTile tile = new ConveyorTile(null, "perf", gridSubset.getName(),
+                        new long[] { x, y, z }, ImageMime.png,
+                        Collections.<String, String> emptyMap(), null, null);
+                tile.setTileLayer(layer);
+                if (listener != null) {
+                    listener.tileRequested(layer, tile);
+                }
+            }
+            return null;
+        };
+        long start = System.nanoTime();
+        Future<?>[] results = new Future<?>[WORKERS];
+        for (int i = 0; i < WORKERS; i++) {
+            results[i] = executor.submit(worker);
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info(String.format("%s: '%d' ns per request, '%f' requests per second.", name,
+                    elapsed / ((long) WORKERS * REQUESTS), (double) WORKERS * REQUESTS
+                            / elapsed * 1000000000));
+        }
+        return elapsed;
+    }
+}
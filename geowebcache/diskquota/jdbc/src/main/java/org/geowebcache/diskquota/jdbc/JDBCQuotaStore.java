@@ -22,11 +22,13 @@ import java.math.BigInteger;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,6 +45,7 @@ import org.apache.commons.logging.LogFactory;
 import org.geowebcache.diskquota.QuotaStore;
 import org.geowebcache.diskquota.storage.PageStats;
 import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.PageStatsVisitor;
 import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.diskquota.storage.TilePage;
 import org.geowebcache.diskquota.storage.TilePageCalculator;
@@ -60,6 +63,8 @@ import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import com.google.common.collect.Lists;
+
 /**
  * An abstract quota store based on a JDBC reachable database, and configurable via a dialect class
  * 
@@ -109,6 +114,11 @@ public class JDBCQuotaStore implements QuotaStore {
      */
     int maxLoops = 100;
 
+    /**
+     * Max number of pages whose stats are read and written with a single batch of statements
+     */
+    int batchSize = 256;
+
     /**
      * The executor used for asynch requests
      */
@@ -485,10 +495,52 @@ public class JDBCQuotaStore implements QuotaStore {
                     // sort the payloads by page id as a deadlock avoidance measure, out
                     // of order updates may result in deadlock with the addHitsAndSetAccessTime method
                     List<PageStatsPayload> sorted = sortPayloads(tileCountDiffs);
-                    for (PageStatsPayload payload : sorted) {
-                        upsertTilePageFillFactor(payload);
+                    for (List<PageStatsPayload> batch : Lists.partition(sorted, batchSize)) {
+                        upsertTilePageFillFactors(batch);
+                    }
+                }
+            }
+
+            /**
+             * Reads the stats of all the pages in the batch with one query, then writes them back
+             * with one batch of conditional updates and one of conditional inserts. The pages
+             * another instance modified in the meantime go through
+             * {@link #upsertTilePageFillFactor(PageStatsPayload)} one by one.
+             */
+            private void upsertTilePageFillFactors(List<PageStatsPayload> batch) {
+                Map<String, PageStats> storedStats = getPageStats(batch);
+
+                List<PageStatsPayload> updated = new ArrayList<PageStatsPayload>();
+                List<Map<String, Object>> updates = new ArrayList<Map<String, Object>>();
+                List<PageStatsPayload> inserted = new ArrayList<PageStatsPayload>();
+                List<Map<String, Object>> inserts = new ArrayList<Map<String, Object>>();
+                for (PageStatsPayload payload : batch) {
+                    TilePage page = payload.getPage();
+                    final BigInteger tilesPerPage = calculator.getTilesPerPage(tileSet,
+                            page.getZoomLevel());
+                    PageStats stats = storedStats.get(page.getKey());
+                    if (stats != null) {
+                        float oldFillFactor = stats.getFillFactor();
+                        stats.addTiles(payload.getNumTiles(), tilesPerPage);
+                        if (oldFillFactor != stats.getFillFactor()) {
+                            updated.add(payload);
+                            updates.add(pageFillFactorParams(page, stats, oldFillFactor));
+                        }
+                    } else {
+                        stats = new PageStats(0);
+                        stats.addTiles(payload.getNumTiles(), tilesPerPage);
+                        inserted.add(payload);
+                        inserts.add(newPageStatsParams(stats, page));
                     }
                 }
+
+                List<PageStatsPayload> failed = new ArrayList<PageStatsPayload>();
+                failed.addAll(notModified(dialect.conditionalUpdatePageStatsFillFactor(schema,
+                        "key", "fillFactor", "oldFillFactor"), updates, updated));
+                failed.addAll(notModified(newPageStatsStatement(), inserts, inserted));
+                for (PageStatsPayload payload : failed) {
+                    upsertTilePageFillFactor(payload);
+                }
             }
 
             private void updateQuotas(final TileSet tileSet, final Quota quotaDiff) {
@@ -589,11 +641,16 @@ public class JDBCQuotaStore implements QuotaStore {
 
         String update = dialect.conditionalUpdatePageStatsFillFactor(schema, "key", "fillFactor",
                 "oldFillFactor");
+        return jt.update(update, pageFillFactorParams(page, stats, oldFillFactor));
+    }
+
+    private Map<String, Object> pageFillFactorParams(TilePage page, PageStats stats,
+            float oldFillFactor) {
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("key", page.getKey());
         params.put("fillFactor", stats.getFillFactor());
         params.put("oldFillFactor", oldFillFactor);
-        return jt.update(update, params);
+        return params;
     }
 
     private int setPageFillFactor(TilePage page, PageStats stats) {
@@ -614,9 +671,18 @@ public class JDBCQuotaStore implements QuotaStore {
         }
 
         // for the moment we don't have the page in the db, we have to create it
-        String insert = dialect.contionalTilePageInsertStatement(schema, "key", "tileSetId",
-                "pageZ", "pageX", "pageY", "creationTime", "frequencyOfUse", "lastAccessTime",
+        // try the insert, mind, someone else might have done it as well, in such
+        // case the insert will fail and return 0 record modified
+        return jt.update(newPageStatsStatement(), newPageStatsParams(stats, page));
+    }
+
+    private String newPageStatsStatement() {
+        return dialect.contionalTilePageInsertStatement(schema, "key", "tileSetId", "pageZ",
+                "pageX", "pageY", "creationTime", "frequencyOfUse", "lastAccessTime",
                 "fillFactor", "numHits");
+    }
+
+    private Map<String, Object> newPageStatsParams(PageStats stats, TilePage page) {
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("key", page.getKey());
         params.put("tileSetId", page.getTileSetId());
@@ -628,10 +694,58 @@ public class JDBCQuotaStore implements QuotaStore {
         params.put("lastAccessTime", stats.getLastAccessTimeMinutes());
         params.put("fillFactor", stats.getFillFactor());
         params.put("numHits", new BigDecimal(stats.getNumHits()));
+        return params;
+    }
 
-        // try the insert, mind, someone else might have done it as well, in such
-        // case the insert will fail and return 0 record modified
-        return jt.update(insert, params);
+    /**
+     * Runs the statement as a single batch, in order
+     * 
+     * @return the payloads whose statement did not modify any record
+     */
+    private List<PageStatsPayload> notModified(String sql, List<Map<String, Object>> batchParams,
+            List<PageStatsPayload> payloads) {
+        if (batchParams.isEmpty()) {
+            return Collections.emptyList();
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object>[] batch = batchParams.toArray(new Map[batchParams.size()]);
+        int[] counts = jt.batchUpdate(sql, batch);
+        List<PageStatsPayload> result = new ArrayList<PageStatsPayload>();
+        for (int i = 0; i < counts.length; i++) {
+            // some drivers can't tell how many records a batched statement modified, assume
+            // it went fine as there is no way to find out
+            if (counts[i] == 0) {
+                result.add(payloads.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the stats of the payload pages with a single query
+     * 
+     * @return the stats by page key, pages not in the db are missing
+     */
+    private Map<String, PageStats> getPageStats(List<PageStatsPayload> payloads) {
+        List<String> keys = new ArrayList<String>(payloads.size());
+        for (PageStatsPayload payload : payloads) {
+            keys.add(payload.getPage().getKey());
+        }
+        final Map<String, PageStats> result = new HashMap<String, PageStats>();
+        String getPageStats = dialect.getPageStatsByKeys(schema, "keys");
+        jt.query(getPageStats, Collections.singletonMap("keys", keys), new RowCallbackHandler() {
+
+            public void processRow(ResultSet rs) throws SQLException {
+                PageStats ps = new PageStats(0);
+                // KEY, FREQUENCY_OF_USE, LAST_ACCESS_TIME, FILL_FACTOR, NUM_HITS
+                ps.setFrequencyOfUsePerMinute(rs.getFloat(2));
+                ps.setLastAccessMinutes(rs.getInt(3));
+                ps.setFillFactor(rs.getFloat(4));
+                ps.setNumHits(rs.getBigDecimal(5).toBigInteger());
+                result.put(rs.getString(1), ps);
+            }
+        });
+        return result;
     }
 
     private PageStats getPageStats(String pageStatsKey) {
@@ -665,29 +779,81 @@ public class JDBCQuotaStore implements QuotaStore {
                             // sort the payloads by page id as a deadlock avoidance measure, out
                             // of order updates may result in deadlock with the addHitsAndSetAccessTime method
                             List<PageStatsPayload> sorted = sortPayloads(statsUpdates);
+                            List<PageStatsPayload> valid = new ArrayList<PageStatsPayload>();
+                            Set<String> tileSetIds = new HashSet<String>();
                             for (PageStatsPayload payload : sorted) {
-                                // verify the stats are referring to an existing tile set id
-                                TileSet tset = payload.getTileSet();
-                                if (tset == null) {
-                                    String tileSetId = payload.getPage().getTileSetId();
-                                    tset = getTileSetByIdInternal(tileSetId);
+                                // verify the stats are referring to an existing tile set id,
+                                // once per tile set
+                                String tileSetId = payload.getPage().getTileSetId();
+                                if (!tileSetIds.contains(tileSetId)) {
+                                    TileSet tset = payload.getTileSet();
                                     if (tset == null) {
-                                        log.warn("Could not locate tileset with id " + tileSetId
-                                                + ", skipping page stats update: " + payload);
+                                        tset = getTileSetByIdInternal(tileSetId);
+                                        if (tset == null) {
+                                            log.warn("Could not locate tileset with id "
+                                                    + tileSetId + ", skipping page stats update: "
+                                                    + payload);
+                                            continue;
+                                        }
+                                    } else {
+                                        getOrCreateTileSet(tset);
                                     }
-                                } else {
-                                    getOrCreateTileSet(tset);
+                                    tileSetIds.add(tileSetId);
                                 }
+                                valid.add(payload);
+                            }
 
-                                // update the stats
-                                PageStats stats = upsertTilePageHitAccessTime(payload);
-                                result.add(stats);
+                            // update the stats
+                            for (List<PageStatsPayload> batch : Lists.partition(valid, batchSize)) {
+                                result.addAll(upsertTilePageHitAccessTimes(batch));
                             }
                         }
 
                         return result;
                     }
 
+                    /**
+                     * Batched version of {@link #upsertTilePageHitAccessTime(PageStatsPayload)},
+                     * see {@link #upsertTilePageFillFactors(List)} for the approach
+                     */
+                    private List<PageStats> upsertTilePageHitAccessTimes(
+                            List<PageStatsPayload> batch) {
+                        Map<String, PageStats> storedStats = getPageStats(batch);
+
+                        PageStats[] result = new PageStats[batch.size()];
+                        List<PageStatsPayload> updated = new ArrayList<PageStatsPayload>();
+                        List<Map<String, Object>> updates = new ArrayList<Map<String, Object>>();
+                        List<PageStatsPayload> inserted = new ArrayList<PageStatsPayload>();
+                        List<Map<String, Object>> inserts = new ArrayList<Map<String, Object>>();
+                        for (int i = 0; i < result.length; i++) {
+                            PageStatsPayload payload = batch.get(i);
+                            TilePage page = payload.getPage();
+                            PageStats stats = storedStats.get(page.getKey());
+                            if (stats != null) {
+                                updates.add(pageHitsParams(payload, page, stats));
+                                updated.add(payload);
+                            } else {
+                                stats = new PageStats(0);
+                                updatePageStats(payload, page, stats);
+                                inserts.add(newPageStatsParams(stats, page));
+                                inserted.add(payload);
+                            }
+                            result[i] = stats;
+                        }
+
+                        Set<PageStatsPayload> failed = new HashSet<PageStatsPayload>();
+                        failed.addAll(notModified(pageHitsStatement(), updates, updated));
+                        failed.addAll(notModified(newPageStatsStatement(), inserts, inserted));
+                        if (!failed.isEmpty()) {
+                            for (int i = 0; i < result.length; i++) {
+                                if (failed.contains(batch.get(i))) {
+                                    result[i] = upsertTilePageHitAccessTime(batch.get(i));
+                                }
+                            }
+                        }
+                        return Arrays.asList(result);
+                    }
+
                     private PageStats upsertTilePageHitAccessTime(PageStatsPayload payload) {
                         TilePage page = payload.getPage();
 
@@ -703,26 +869,9 @@ public class JDBCQuotaStore implements QuotaStore {
                                 count++;
                                 stats = getPageStats(page.getKey());
                                 if (stats != null) {
-                                    // gather the old values, we'll use them for the optimistic locking
-                                    final BigInteger oldHits = stats.getNumHits();
-                                    final float oldFrequency = stats.getFrequencyOfUsePerMinute();
-                                    final int oldAccessTime = stats.getLastAccessTimeMinutes();
-                                    // update the page so that it computes the new stats
-                                    updatePageStats(payload, page, stats);
-    
                                     // update the record in the db
-                                    String update = dialect.updatePageStats(schema, "key", "newHits",
-                                            "oldHits", "newFrequency", "oldFrequency", "newAccessTime",
-                                            "oldAccessTime");
-                                    Map<String, Object> params = new HashMap<String, Object>();
-                                    params.put("key", page.getKey());
-                                    params.put("newHits", new BigDecimal(stats.getNumHits()));
-                                    params.put("oldHits", new BigDecimal(oldHits));
-                                    params.put("newFrequency", stats.getFrequencyOfUsePerMinute());
-                                    params.put("oldFrequency", oldFrequency);
-                                    params.put("newAccessTime", stats.getLastAccessTimeMinutes());
-                                    params.put("oldAccessTime", oldAccessTime);
-                                    modified = jt.update(update, params);
+                                    modified = jt.update(pageHitsStatement(),
+                                            pageHitsParams(payload, page, stats));
                                 } else {
                                     // create the new stats and insert it
                                     stats = new PageStats(0);
@@ -745,6 +894,36 @@ public class JDBCQuotaStore implements QuotaStore {
                         return stats;
                     }
 
+                    private String pageHitsStatement() {
+                        return dialect.updatePageStats(schema, "key", "newHits", "oldHits",
+                                "newFrequency", "oldFrequency", "newAccessTime", "oldAccessTime");
+                    }
+
+                    /**
+                     * Updates the stats with the payload and returns the parameters of the
+                     * {@link #pageHitsStatement()}, the old values are used for the optimistic
+                     * locking
+                     */
+                    private Map<String, Object> pageHitsParams(PageStatsPayload payload,
+                            TilePage page, PageStats stats) {
+                        // gather the old values, we'll use them for the optimistic locking
+                        final BigInteger oldHits = stats.getNumHits();
+                        final float oldFrequency = stats.getFrequencyOfUsePerMinute();
+                        final int oldAccessTime = stats.getLastAccessTimeMinutes();
+                        // update the page so that it computes the new stats
+                        updatePageStats(payload, page, stats);
+
+                        Map<String, Object> params = new HashMap<String, Object>();
+                        params.put("key", page.getKey());
+                        params.put("newHits", new BigDecimal(stats.getNumHits()));
+                        params.put("oldHits", new BigDecimal(oldHits));
+                        params.put("newFrequency", stats.getFrequencyOfUsePerMinute());
+                        params.put("oldFrequency", oldFrequency);
+                        params.put("newAccessTime", stats.getLastAccessTimeMinutes());
+                        params.put("oldAccessTime", oldAccessTime);
+                        return params;
+                    }
+
                     private void updatePageStats(PageStatsPayload payload, TilePage page,
                             PageStats stats) {
                         final int addedHits = payload.getNumHits();
@@ -775,14 +954,7 @@ public class JDBCQuotaStore implements QuotaStore {
 
     private TilePage getSinglePage(Set<String> layerNames, boolean leastFrequentlyUsed) {
         Map<String, Object> params = new HashMap<String, Object>();
-        List<String> layerParamNames = new ArrayList<String>();
-        int i = 0;
-        for (String layer : layerNames) {
-            i++;
-            String param = "Layer" + i;
-            params.put(param, layer);
-            layerParamNames.add(param);
-        }
+        List<String> layerParamNames = layerParams(layerNames, params);
         String select;
         if (leastFrequentlyUsed) {
             select = dialect.getLeastFrequentlyUsedPage(schema, layerParamNames);
@@ -793,6 +965,58 @@ public class JDBCQuotaStore implements QuotaStore {
         return jt.queryForOptionalObject(select, mapper, params);
     }
 
+    @Override
+    public Map<TilePage, PageStats> getLeastFrequentlyUsedPages(Set<String> layerNames, int limit)
+            throws InterruptedException {
+        return getPages(layerNames, limit, true);
+    }
+
+    @Override
+    public Map<TilePage, PageStats> getLeastRecentlyUsedPages(Set<String> layerNames, int limit)
+            throws InterruptedException {
+        return getPages(layerNames, limit, false);
+    }
+
+    private Map<TilePage, PageStats> getPages(Set<String> layerNames, int limit,
+            boolean leastFrequentlyUsed) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        List<String> layerParamNames = layerParams(layerNames, params);
+        params.put("limit", limit);
+        String select;
+        if (leastFrequentlyUsed) {
+            select = dialect.getLeastFrequentlyUsedPages(schema, layerParamNames, "limit");
+        } else {
+            select = dialect.getLeastRecentlyUsedPages(schema, layerParamNames, "limit");
+        }
+        final TilePageRowMapper pageMapper = new TilePageRowMapper();
+        final Map<TilePage, PageStats> result = new LinkedHashMap<TilePage, PageStats>();
+        jt.query(select, params, new RowCallbackHandler() {
+
+            public void processRow(ResultSet rs) throws SQLException {
+                TilePage page = pageMapper.mapRow(rs, 0);
+                PageStats ps = new PageStats(page.getId());
+                ps.setFrequencyOfUsePerMinute(rs.getFloat(6));
+                ps.setLastAccessMinutes(rs.getInt(7));
+                ps.setFillFactor(rs.getFloat(8));
+                ps.setNumHits(rs.getBigDecimal(9).toBigInteger());
+                result.put(page, ps);
+            }
+        });
+        return result;
+    }
+
+    private List<String> layerParams(Set<String> layerNames, Map<String, Object> params) {
+        List<String> layerParamNames = new ArrayList<String>();
+        int i = 0;
+        for (String layer : layerNames) {
+            i++;
+            String param = "Layer" + i;
+            params.put(param, layer);
+            layerParamNames.add(param);
+        }
+        return layerParamNames;
+    }
+
     public PageStats setTruncated(final TilePage page) throws InterruptedException {
         return (PageStats) tt.execute(new TransactionCallback<Object>() {
 
@@ -818,6 +1042,61 @@ public class JDBCQuotaStore implements QuotaStore {
         });
     }
 
+    public void visitPages(final TileSet tileSet, final PageStatsVisitor visitor)
+            throws InterruptedException {
+        String select = dialect.getPageStatsByTileSet(schema, "tileSetId");
+        final TilePageRowMapper pageMapper = new TilePageRowMapper();
+        jt.query(select, Collections.singletonMap("tileSetId", tileSet.getId()),
+                new RowCallbackHandler() {
+
+                    public void processRow(ResultSet rs) throws SQLException {
+                        TilePage page = pageMapper.mapRow(rs, 0);
+                        PageStats ps = new PageStats(page.getId());
+                        ps.setFrequencyOfUsePerMinute(rs.getFloat(6));
+                        ps.setLastAccessMinutes(rs.getInt(7));
+                        ps.setFillFactor(rs.getFloat(8));
+                        ps.setNumHits(rs.getBigDecimal(9).toBigInteger());
+                        visitor.visit(page, ps);
+                    }
+                });
+    }
+
+    public void importTileSet(final TileSet tileSet, final Quota usedQuota,
+            final Map<TilePage, PageStats> pages) throws InterruptedException {
+        tt.execute(new TransactionCallbackWithoutResult() {
+
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                getOrCreateTileSet(tileSet);
+                Quota oldQuota = getUsedQuotaByTileSetIdInternal(tileSet.getId());
+
+                String deletePages = dialect.getTileSetPagesDeletionStatement(schema,
+                        "tileSetId");
+                jt.update(deletePages, Collections.singletonMap("tileSetId", tileSet.getId()));
+
+                // adjust both the tile set and the global quota by the difference
+                String updateQuota = dialect.getUpdateQuotaStatement(schema, "tileSetId", "bytes");
+                Map<String, Object> params = new HashMap<String, Object>();
+                params.put("tileSetId", tileSet.getId());
+                params.put("bytes", new BigDecimal(usedQuota.getBytes().subtract(
+                        oldQuota.getBytes())));
+                jt.update(updateQuota, params);
+                params.put("tileSetId", GLOBAL_QUOTA_NAME);
+                jt.update(updateQuota, params);
+
+                List<Map<String, Object>> inserts = new ArrayList<Map<String, Object>>();
+                for (Map.Entry<TilePage, PageStats> page : pages.entrySet()) {
+                    inserts.add(newPageStatsParams(page.getValue(), page.getKey()));
+                }
+                for (List<Map<String, Object>> batch : Lists.partition(inserts, batchSize)) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object>[] batchParams = batch.toArray(new Map[batch.size()]);
+                    jt.batchUpdate(newPageStatsStatement(), batchParams);
+                }
+            }
+        });
+    }
+
     public void close() throws Exception {
         log.info("Closing up the JDBC quota store ");
 
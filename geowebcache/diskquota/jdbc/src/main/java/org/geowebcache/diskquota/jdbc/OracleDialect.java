@@ -123,4 +123,14 @@ public class OracleDialect extends SQLDialect {
 
         return sb.toString();
     }
+
+    @Override
+    protected String getPagesToExpire(String schema, List<String> layerParamNames,
+            String orderColumn, String limitParam) {
+        StringBuilder sb = new StringBuilder("SELECT * FROM (");
+        appendPagesToExpire(sb, schema, layerParamNames, orderColumn);
+        sb.append(") WHERE ROWNUM <= :").append(limitParam);
+
+        return sb.toString();
+    }
 }
@@ -335,6 +335,55 @@ public class SQLDialect {
         return sb.toString();
     }
 
+    /**
+     * Same as {@link #getPageStats(String, String)}, but for several pages at once, the page key
+     * is returned as the first column
+     * 
+     * @param schema
+     * @param keysParam the name of the parameter holding the collection of page keys
+     * @return
+     */
+    public String getPageStatsByKeys(String schema, String keysParam) {
+        StringBuilder sb = new StringBuilder(
+                "SELECT KEY, FREQUENCY_OF_USE, LAST_ACCESS_TIME_MINUTES, FILL_FACTOR, NUM_HITS FROM ");
+        if (schema != null) {
+            sb.append(schema).append(".");
+        }
+        sb.append("TILEPAGE WHERE KEY IN (:").append(keysParam).append(")");
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns all the pages of a tile set along with their stats, with the same columns as
+     * {@link #getLeastRecentlyUsedPages(String, List, String)}
+     * 
+     * @param schema
+     * @param tileSetIdParam
+     * @return
+     */
+    public String getPageStatsByTileSet(String schema, String tileSetIdParam) {
+        StringBuilder sb = new StringBuilder(
+                "SELECT TILESET_ID, PAGE_X, PAGE_Y, PAGE_Z, CREATION_TIME_MINUTES, ");
+        sb.append("FREQUENCY_OF_USE, LAST_ACCESS_TIME_MINUTES, FILL_FACTOR, NUM_HITS FROM ");
+        if (schema != null) {
+            sb.append(schema).append(".");
+        }
+        sb.append("TILEPAGE WHERE TILESET_ID = :").append(tileSetIdParam);
+
+        return sb.toString();
+    }
+
+    public String getTileSetPagesDeletionStatement(String schema, String tileSetIdParam) {
+        StringBuilder sb = new StringBuilder("DELETE FROM ");
+        if (schema != null) {
+            sb.append(schema).append(".");
+        }
+        sb.append("TILEPAGE WHERE TILESET_ID = :").append(tileSetIdParam);
+
+        return sb.toString();
+    }
+
     public String contionalTilePageInsertStatement(String schema, String keyParam,
             String tileSetIdParam, String zParam, String xParam, String yParam,
             String creationParam, String frequencyParam, String lastAccessParam,
@@ -491,4 +540,65 @@ public class SQLDialect {
         return sb.toString();
     }
 
+    /**
+     * Same as {@link #getLeastFrequentlyUsedPage(String, List)}, but returns up to the given number
+     * of pages, along with their {@link #getPageStats(String, String) page stats}
+     * 
+     * @param schema
+     * @param layerParamNames
+     * @param limitParam the name of the parameter holding the maximum number of pages to return
+     * @return
+     */
+    public String getLeastFrequentlyUsedPages(String schema, List<String> layerParamNames,
+            String limitParam) {
+        return getPagesToExpire(schema, layerParamNames, "FREQUENCY_OF_USE", limitParam);
+    }
+
+    /**
+     * Same as {@link #getLeastRecentlyUsedPage(String, List)}, but returns up to the given number
+     * of pages, along with their {@link #getPageStats(String, String) page stats}
+     * 
+     * @param schema
+     * @param layerParamNames
+     * @param limitParam the name of the parameter holding the maximum number of pages to return
+     * @return
+     */
+    public String getLeastRecentlyUsedPages(String schema, List<String> layerParamNames,
+            String limitParam) {
+        return getPagesToExpire(schema, layerParamNames, "LAST_ACCESS_TIME_MINUTES", limitParam);
+    }
+
+    protected String getPagesToExpire(String schema, List<String> layerParamNames,
+            String orderColumn, String limitParam) {
+        StringBuilder sb = new StringBuilder();
+        appendPagesToExpire(sb, schema, layerParamNames, orderColumn);
+        sb.append(" LIMIT :").append(limitParam);
+
+        return sb.toString();
+    }
+
+    protected void appendPagesToExpire(StringBuilder sb, String schema,
+            List<String> layerParamNames, String orderColumn) {
+        sb.append("SELECT TILESET_ID, PAGE_X, PAGE_Y, PAGE_Z, CREATION_TIME_MINUTES, ");
+        sb.append("FREQUENCY_OF_USE, LAST_ACCESS_TIME_MINUTES, FILL_FACTOR, NUM_HITS FROM ");
+        if (schema != null) {
+            sb.append(schema).append(".");
+        }
+        sb.append("TILEPAGE WHERE FILL_FACTOR > 0 ");
+        sb.append("AND TILESET_ID IN (");
+        sb.append("SELECT KEY FROM ");
+        if (schema != null) {
+            sb.append(schema).append(".");
+        }
+        sb.append("TILESET WHERE LAYER_NAME IN (");
+        for (int i = 0; i < layerParamNames.size(); i++) {
+            sb.append(":" + layerParamNames.get(i));
+            if (i < layerParamNames.size() - 1) {
+                sb.append(", ");
+            }
+        }
+        sb.append(")) ");
+        sb.append("ORDER BY ").append(orderColumn).append(" ASC");
+    }
+
 }
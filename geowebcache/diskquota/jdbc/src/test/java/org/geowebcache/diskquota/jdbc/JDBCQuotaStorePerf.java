@@ -0,0 +1,122 @@
+package org.geowebcache.diskquota.jdbc;
+
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.replay;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.easymock.classextension.EasyMock;
+import org.geowebcache.config.Configuration;
+import org.geowebcache.config.XMLConfiguration;
+import org.geowebcache.config.XMLConfigurationBackwardsCompatibilityTest;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.storage.DefaultStorageFinder;
+import org.geowebcache.storage.StorageBroker;
+
+/**
+ * Measures how many page stats per second the {@link JDBCQuotaStore} can flush to an embedded H2
+ * database, writing each page with its own statements and in batches.
+ */
+final class JDBCQuotaStorePerf {
+
+    private static Log LOGGER = LogFactory.getLog(JDBCQuotaStorePerf.class);
+
+    // pages per flush, in the order of what the quota updates consumer sends on a busy server
+    final static int PAGES = 5000;
+
+    // flushes per run, the first one creates the pages, the others update them
+    final static int FLUSHES = 10;
+
+    public static void main(String[] args) throws Exception {
+        DefaultStorageFinder cacheDirFinder = createMock(DefaultStorageFinder.class);
+        expect(cacheDirFinder.getDefaultPath()).andReturn("target").anyTimes();
+        expect(cacheDirFinder.findEnvVar((String) EasyMock.anyObject())).andReturn(null)
+                .anyTimes();
+        replay(cacheDirFinder);
+        StorageBroker storageBroker = createMock(StorageBroker.class);
+        expect(storageBroker.getCachedParameterIds((String) EasyMock.anyObject())).andReturn(
+                Collections.singleton(null)).anyTimes();
+        replay(storageBroker);
+
+        InputStream is = XMLConfiguration.class
+                .getResourceAsStream(XMLConfigurationBackwardsCompatibilityTest.LATEST_FILENAME);
+        LinkedList<Configuration> configList = new LinkedList<Configuration>();
+        configList.add(new XMLConfiguration(is));
+        TileLayerDispatcher layerDispatcher = new TileLayerDispatcher(new GridSetBroker(true,
+                true), configList);
+        TilePageCalculator calculator = new TilePageCalculator(layerDispatcher, storageBroker);
+        TileSet tileSet = calculator.getTileSetsFor("topp:states2").iterator().next();
+
+        // warm up both paths
+        run("warm up", cacheDirFinder, calculator, tileSet, 1);
+        run("warm up", cacheDirFinder, calculator, tileSet, 256);
+
+        run("one page at a time", cacheDirFinder, calculator, tileSet, 1);
+        run("batches of 256 pages", cacheDirFinder, calculator, tileSet, 256);
+    }
+
+    private static void run(String name, DefaultStorageFinder cacheDirFinder,
+            TilePageCalculator calculator, TileSet tileSet, int batchSize) throws Exception {
+        BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:quotaperf");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        dataSource.setPoolPreparedStatements(true);
+        dataSource.setMinIdle(1);
+
+        JDBCQuotaStore store = new JDBCQuotaStore(cacheDirFinder, calculator);
+        store.setDataSource(dataSource);
+        store.setDialect(new H2Dialect());
+        store.initialize();
+        store.batchSize = batchSize;
+        try {
+            List<PageStatsPayload> payloads = new ArrayList<PageStatsPayload>(PAGES);
+            for (int i = 0; i < PAGES; i++) {
+                PageStatsPayload payload = new PageStatsPayload(new TilePage(tileSet.getId(),
+                        i % 100, i / 100, 1), tileSet);
+                payload.setNumTiles(1);
+                payload.setNumHits(1);
+                payload.setLastAccessTime(System.currentTimeMillis());
+                payloads.add(payload);
+            }
+
+            long tileCountsTime = 0;
+            long hitsTime = 0;
+            for (int i = 0; i < FLUSHES; i++) {
+                long start = System.nanoTime();
+                store.addToQuotaAndTileCounts(tileSet, new Quota(BigInteger.ONE), payloads);
+                tileCountsTime += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                store.addHitsAndSetAccesTime(payloads).get();
+                hitsTime += System.nanoTime() - start;
+            }
+
+            if (LOGGER.isInfoEnabled()) {
+                LOGGER.info(String.format("%s: '%f' tile count updates per second, "
+                        + "'%f' hit updates per second.", name, (double) PAGES * FLUSHES
+                        / tileCountsTime * 1000000000, (double) PAGES * FLUSHES / hitsTime
+                        * 1000000000));
+            }
+        } finally {
+            store.close();
+            store.executor.shutdown();
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.geowebcache.diskquota.jdbc;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,8 +40,10 @@ import org.geowebcache.config.XMLConfiguration;
 import org.geowebcache.config.XMLConfigurationBackwardsCompatibilityTest;
 import org.geowebcache.diskquota.DiskQuotaMonitor;
 import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.QuotaStoreSnapshot;
 import org.geowebcache.diskquota.storage.PageStats;
 import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.PageStatsVisitor;
 import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.diskquota.storage.StorageUnit;
 import org.geowebcache.diskquota.storage.SystemUtils;
@@ -796,6 +800,78 @@ public abstract class JDBCQuotaStoreTest extends OnlineTestCase {
         assertEquals(page2, leastRecentlyUsedPage);
     }
 
+    public void testGetLeastRecentlyUsedPages() throws Exception {
+        MockSystemUtils mockSystemUtils = new MockSystemUtils();
+        mockSystemUtils.setCurrentTimeMinutes(1000);
+        mockSystemUtils.setCurrentTimeMillis(mockSystemUtils.currentTimeMinutes() * 60 * 1000);
+        SystemUtils.set(mockSystemUtils);
+
+        final String layerName = testTileSet.getLayerName();
+        Set<String> layerNames = Collections.singleton(layerName);
+
+        assertTrue(store.getLeastRecentlyUsedPages(layerNames, 2).isEmpty());
+
+        TilePage page1 = new TilePage(testTileSet.getId(), 0, 1, 2);
+        TilePage page2 = new TilePage(testTileSet.getId(), 1, 1, 2);
+        TilePage page3 = new TilePage(testTileSet.getId(), 2, 1, 2);
+
+        PageStatsPayload payload1 = new PageStatsPayload(page1, testTileSet);
+        PageStatsPayload payload2 = new PageStatsPayload(page2, testTileSet);
+        PageStatsPayload payload3 = new PageStatsPayload(page3, testTileSet);
+
+        payload1.setLastAccessTime(mockSystemUtils.currentTimeMillis() + 1 * 60 * 1000);
+        payload2.setLastAccessTime(mockSystemUtils.currentTimeMillis() + 2 * 60 * 1000);
+        payload3.setLastAccessTime(mockSystemUtils.currentTimeMillis() + 3 * 60 * 1000);
+
+        Collection<PageStatsPayload> statsUpdates = Arrays.asList(payload1, payload2, payload3);
+        store.addHitsAndSetAccesTime(statsUpdates).get();
+
+        Map<TilePage, PageStats> pages = store.getLeastRecentlyUsedPages(layerNames, 2);
+        assertEquals(Arrays.asList(page1, page2), new ArrayList<TilePage>(pages.keySet()));
+        assertEquals(1001, pages.get(page1).getLastAccessTimeMinutes());
+        assertTrue(pages.get(page1).getFillFactor() > 0);
+
+        // truncate the page, setting its fill to 0
+        store.setTruncated(page1);
+
+        pages = store.getLeastRecentlyUsedPages(layerNames, 5);
+        assertEquals(Arrays.asList(page2, page3), new ArrayList<TilePage>(pages.keySet()));
+    }
+
+    public void testSnapshotExportAndImport() throws Exception {
+        TilePage page = new TilePage(testTileSet.getId(), 0, 1, 2);
+        PageStatsPayload payload = new PageStatsPayload(page, testTileSet);
+        payload.setNumTiles(10);
+        payload.setNumHits(5);
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(BigInteger.valueOf(1000)),
+                Collections.singleton(payload));
+        store.addHitsAndSetAccesTime(Collections.singleton(payload)).get();
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        assertEquals(1, QuotaStoreSnapshot.write(store, snapshot));
+
+        // change the store, the import brings it back to the snapshot state
+        TilePage page2 = new TilePage(testTileSet.getId(), 1, 1, 2);
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(BigInteger.valueOf(500)),
+                Collections.singleton(new PageStatsPayload(page2, testTileSet)));
+        assertEquals(1, QuotaStoreSnapshot.read(new ByteArrayInputStream(snapshot.toByteArray()),
+                store));
+
+        assertEquals(BigInteger.valueOf(1000), store.getGloballyUsedQuota().getBytes());
+        assertEquals(BigInteger.valueOf(1000), store.getUsedQuotaByTileSetId(testTileSet.getId())
+                .getBytes());
+        final Map<TilePage, PageStats> pages = new HashMap<TilePage, PageStats>();
+        store.visitPages(testTileSet, new PageStatsVisitor() {
+
+            public void visit(TilePage page, PageStats stats) {
+                pages.put(page, stats);
+            }
+        });
+        assertEquals(Collections.singleton(page), pages.keySet());
+        assertEquals(BigInteger.valueOf(5), pages.get(page).getNumHits());
+        assertTrue(pages.get(page).getFillFactor() > 0);
+    }
+
     public void testGetTilesForPage() throws Exception {
         TilePage page = new TilePage(testTileSet.getId(), 0, 0, 0);
 
@@ -0,0 +1,157 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ */
+package org.geowebcache.diskquota.memory;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive {@code long} keys to non negative {@code int} values,
+ * used to look up page slots without boxing.
+ * <p>
+ * Uses linear probing and backward shift deletion, so there are no tombstones. Instances are
+ * <b>not</b> thread safe.
+ * </p>
+ */
+class LongIntHashMap {
+
+    static final int NO_VALUE = -1;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+
+    private int[] values;
+
+    private int mask;
+
+    private int size;
+
+    private int resizeAt;
+
+    LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return the value for the key, or {@link #NO_VALUE}
+     */
+    int get(long key) {
+        for (int i = slot(key, mask);; i = (i + 1) & mask) {
+            if (values[i] == NO_VALUE) {
+                return NO_VALUE;
+            }
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+    }
+
+    /**
+     * @param value a non negative value
+     * @return the previous value for the key, or {@link #NO_VALUE}
+     */
+    int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative values are not supported: " + value);
+        }
+        int i = slot(key, mask);
+        for (; values[i] != NO_VALUE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * @return the removed value for the key, or {@link #NO_VALUE}
+     */
+    int remove(long key) {
+        int i = slot(key, mask);
+        for (; values[i] != NO_VALUE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int previous = values[i];
+                shiftBack(i);
+                size--;
+                return previous;
+            }
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Closes the gap left at {@code gap} by moving back the entries of the probe sequence that
+     * would no longer be reachable
+     */
+    private void shiftBack(int gap) {
+        for (int i = (gap + 1) & mask; values[i] != NO_VALUE; i = (i + 1) & mask) {
+            int home = slot(keys[i], mask);
+            // move the entry if its home slot is not within (gap, i]
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = NO_VALUE;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NO_VALUE) {
+                int j = slot(oldKeys[i], mask);
+                while (values[j] != NO_VALUE) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, NO_VALUE);
+        size = 0;
+    }
+}
@@ -0,0 +1,1141 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *  
+ */
+package org.geowebcache.diskquota.memory;
+
+import static org.geowebcache.diskquota.DiskQuotaMonitor.GWC_DISKQUOTA_DISABLED;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.config.ConfigurationException;
+import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.PageStatsVisitor;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.SystemUtils;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.diskquota.storage.TileSetVisitor;
+import org.geowebcache.storage.DefaultStorageFinder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * A {@link QuotaStore} keeping all tile sets, quotas and page statistics in memory.
+ * <p>
+ * Pages live in primitive arrays indexed by slot, looked up by a {@code long} key packing the tile
+ * set ordinal and the page x, y, z. Each tile set keeps its non empty pages sorted by last access
+ * time and by frequency of use, so finding the page to expire does not scan the whole store.
+ * </p>
+ * <p>
+ * The state is persisted in the {@code diskquota_page_store_memory} directory of the cache as a
+ * binary snapshot plus an append only log of the changes made since. The log is flushed every
+ * second, and folded into a new snapshot every {@link #SNAPSHOT_INTERVAL_VAR} seconds (5 minutes
+ * by default), when it grows over {@link #MAX_LOG_BYTES}, and on {@link #close()}. On start up
+ * the snapshot is loaded and the log replayed on top of it, so at most a second of updates is
+ * lost on a crash.
+ * </p>
+ */
+public class MemoryQuotaStore implements QuotaStore {
+
+    private static final Log log = LogFactory.getLog(MemoryQuotaStore.class);
+
+    private static final String GLOBAL_QUOTA_NAME = "___GLOBAL_QUOTA___";
+
+    /**
+     * Environment variable or system property setting the seconds between snapshots
+     */
+    public static final String SNAPSHOT_INTERVAL_VAR = "GWC_DISKQUOTA_SNAPSHOT_INTERVAL";
+
+    static final String STORE_DIRECTORY = "diskquota_page_store_memory";
+
+    static final String SNAPSHOT_FILE = "snapshot.bin";
+
+    static final String CHANGE_LOG_FILE = "changes.log";
+
+    static final long MAX_LOG_BYTES = 64 * 1024 * 1024;
+
+    private static final long DEFAULT_SNAPSHOT_INTERVAL = 5 * 60;
+
+    private static final int MAGIC = 0x47514D53;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TILESET_RECORD = 1;
+
+    private static final byte TILESET_DELETED_RECORD = 2;
+
+    private static final byte QUOTA_RECORD = 3;
+
+    private static final byte PAGE_RECORD = 4;
+
+    /**
+     * Quota record ordinal standing for the global quota
+     */
+    private static final int GLOBAL_ORDINAL = -1;
+
+    private static final int MAX_ORDINAL = (1 << 23) - 1;
+
+    private static final int MAX_PAGE_INDEX = 0xFFFF;
+
+    private static final long FREE = -1L;
+
+    private final TilePageCalculator tilePageCalculator;
+
+    private final File storeDirectory;
+
+    private final boolean diskQuotaEnabled;
+
+    private long snapshotIntervalMillis;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, TileSetEntry> tileSetsById = new HashMap<String, TileSetEntry>();
+
+    private TileSetEntry[] tileSetsByOrdinal = new TileSetEntry[16];
+
+    private int nextOrdinal;
+
+    private long globalBytes;
+
+    private final LongIntHashMap slotsByKey = new LongIntHashMap(1024);
+
+    // page columns, indexed by slot
+    private long[] pageKeys = new long[1024];
+
+    private int[] creationMinutes = new int[1024];
+
+    private int[] lastAccessMinutes = new int[1024];
+
+    private float[] fillFactors = new float[1024];
+
+    private float[] frequencies = new float[1024];
+
+    private long[] numHits = new long[1024];
+
+    private int slotCount;
+
+    private int[] freeSlots = new int[16];
+
+    private int freeSlotCount;
+
+    private DataOutputStream changeLog;
+
+    private boolean changeLogFailed;
+
+    private long lastSnapshot;
+
+    private ScheduledExecutorService snapshotter;
+
+    private static final class TileSetEntry {
+
+        final int ordinal;
+
+        TileSet tileSet;
+
+        long bytes;
+
+        /**
+         * Non empty pages by {@link MemoryQuotaStore#lruKey(int)}
+         */
+        final TreeSet<Long> byLastAccess = new TreeSet<Long>();
+
+        /**
+         * Non empty pages by {@link MemoryQuotaStore#lfuKey(int)}
+         */
+        final TreeSet<Long> byFrequency = new TreeSet<Long>();
+
+        TileSetEntry(int ordinal, TileSet tileSet) {
+            this.ordinal = ordinal;
+            this.tileSet = tileSet;
+        }
+    }
+
+    public MemoryQuotaStore(final DefaultStorageFinder cacheDirFinder,
+            TilePageCalculator tilePageCalculator) throws ConfigurationException {
+
+        Assert.notNull(cacheDirFinder, "cacheDirFinder can't be null");
+        Assert.notNull(tilePageCalculator, "tilePageCalculator can't be null");
+
+        this.tilePageCalculator = tilePageCalculator;
+        this.storeDirectory = new File(cacheDirFinder.getDefaultPath(), STORE_DIRECTORY);
+
+        boolean disabled = Boolean.valueOf(cacheDirFinder.findEnvVar(GWC_DISKQUOTA_DISABLED))
+                .booleanValue();
+        if (disabled) {
+            log.warn(" -- Found environment variable " + GWC_DISKQUOTA_DISABLED
+                    + " set to true. DiskQuotaMonitor is disabled.");
+        }
+        this.diskQuotaEnabled = !disabled;
+
+        long interval = DEFAULT_SNAPSHOT_INTERVAL;
+        String intervalValue = cacheDirFinder.findEnvVar(SNAPSHOT_INTERVAL_VAR);
+        if (intervalValue != null) {
+            try {
+                interval = Long.parseLong(intervalValue.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid " + SNAPSHOT_INTERVAL_VAR + " value: " + intervalValue);
+            }
+        }
+        this.snapshotIntervalMillis = TimeUnit.SECONDS.toMillis(interval);
+    }
+
+    /**
+     * Loads the last snapshot and change log, if any, and starts the background snapshots
+     * 
+     * @see {@link #close()}
+     */
+    public void startUp() throws IOException {
+        if (!diskQuotaEnabled) {
+            log.info(getClass().getName() + " won't start, got env variable "
+                    + GWC_DISKQUOTA_DISABLED + "=true");
+            return;
+        }
+        storeDirectory.mkdirs();
+        lock.writeLock().lock();
+        try {
+            load();
+            deleteStaleLayersAndCreateMissingTileSets();
+            snapshot();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        CustomizableThreadFactory tf = new CustomizableThreadFactory(
+                "GWC DiskQuota Memory Store Snapshots-");
+        tf.setDaemon(true);
+        snapshotter = Executors.newSingleThreadScheduledExecutor(tf);
+        snapshotter.scheduleWithFixedDelay(this::flushOrSnapshot, 1, 1, TimeUnit.SECONDS);
+
+        log.info("In memory Disk Quota page store configured at "
+                + storeDirectory.getAbsolutePath() + " with " + (slotCount - freeSlotCount)
+                + " pages");
+        log.info("Quota Store initialized. Global quota: " + getGloballyUsedQuota().toNiceString());
+    }
+
+    public void close() throws Exception {
+        if (!diskQuotaEnabled || snapshotter == null) {
+            return;
+        }
+        log.info("Requesting to close quota store...");
+        snapshotter.shutdown();
+        snapshotter.awaitTermination(30, TimeUnit.SECONDS);
+        lock.writeLock().lock();
+        try {
+            snapshot();
+            changeLog.close();
+            changeLog = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Quota store closed.");
+    }
+
+    void setSnapshotInterval(long interval, TimeUnit unit) {
+        this.snapshotIntervalMillis = unit.toMillis(interval);
+    }
+
+    private void deleteStaleLayersAndCreateMissingTileSets() {
+        final Set<String> layerNames = tilePageCalculator.getLayerNames();
+        final Set<String> existingLayers = new HashSet<String>();
+        for (TileSetEntry entry : tileSetsById.values()) {
+            existingLayers.add(entry.tileSet.getLayerName());
+        }
+        existingLayers.removeAll(layerNames);
+        for (String layerName : existingLayers) {
+            log.info("Deleting disk quota information for layer '" + layerName
+                    + "' as it does not exist anymore...");
+            deleteTileSets(layerName, ts -> true);
+        }
+        for (String layerName : layerNames) {
+            for (TileSet tileSet : tilePageCalculator.getTileSetsFor(layerName)) {
+                getOrCreateTileSet(tileSet);
+            }
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#createLayer(java.lang.String)
+     */
+    public void createLayer(final String layerName) {
+        Set<TileSet> layerTileSets = tilePageCalculator.getTileSetsFor(layerName);
+        lock.writeLock().lock();
+        try {
+            for (TileSet tileSet : layerTileSets) {
+                getOrCreateTileSet(tileSet);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getGloballyUsedQuota()
+     */
+    public Quota getGloballyUsedQuota() {
+        return getUsedQuotaByTileSetId(GLOBAL_QUOTA_NAME);
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getUsedQuotaByTileSetId(java.lang.String)
+     */
+    public Quota getUsedQuotaByTileSetId(final String tileSetId) {
+        long bytes = 0;
+        lock.readLock().lock();
+        try {
+            if (GLOBAL_QUOTA_NAME.equals(tileSetId)) {
+                bytes = globalBytes;
+            } else {
+                TileSetEntry entry = tileSetsById.get(tileSetId);
+                if (entry != null) {
+                    bytes = entry.bytes;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Quota quota = new Quota(BigInteger.valueOf(bytes));
+        quota.setTileSetId(tileSetId);
+        return quota;
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getUsedQuotaByLayerName(java.lang.String)
+     */
+    public Quota getUsedQuotaByLayerName(final String layerName) {
+        long bytes = 0;
+        lock.readLock().lock();
+        try {
+            for (TileSetEntry entry : tileSetsById.values()) {
+                if (layerName.equals(entry.tileSet.getLayerName())) {
+                    bytes += entry.bytes;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new Quota(BigInteger.valueOf(bytes));
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#deleteLayer(java.lang.String)
+     */
+    public void deleteLayer(final String layerName) {
+        Assert.notNull(layerName);
+        delete(layerName, ts -> true);
+    }
+
+    public void deleteGridSubset(String layerName, String gridSetId) {
+        delete(layerName, ts -> Objects.equal(ts.getGridsetId(), gridSetId));
+    }
+
+    public void deleteParameters(String layerName, String parametersId) {
+        delete(layerName, ts -> Objects.equal(ts.getParametersId(), parametersId));
+    }
+
+    private void delete(String layerName, Predicate<TileSet> shouldDelete) {
+        lock.writeLock().lock();
+        try {
+            deleteTileSets(layerName, shouldDelete);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#renameLayer(java.lang.String, java.lang.String)
+     */
+    public void renameLayer(String oldLayerName, String newLayerName) {
+        Assert.notNull(oldLayerName);
+        Assert.notNull(newLayerName);
+        if (oldLayerName.equals(newLayerName)) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (TileSetEntry entry : layerTileSets(oldLayerName)) {
+                TileSet oldTileSet = entry.tileSet;
+                TileSet newTileSet = new TileSet(newLayerName, oldTileSet.getGridsetId(),
+                        oldTileSet.getBlobFormat(), oldTileSet.getParametersId());
+                TileSetEntry existing = tileSetsById.get(newTileSet.getId());
+                if (existing != null) {
+                    deleteTileSets(Arrays.asList(existing));
+                }
+                // pages refer to the tile set ordinal, re-keying the tile set moves them too
+                tileSetsById.remove(oldTileSet.getId());
+                entry.tileSet = newTileSet;
+                tileSetsById.put(newTileSet.getId(), entry);
+                logTileSet(entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getTilesForPage(org.geowebcache.diskquota.storage.TilePage)
+     */
+    public long[][] getTilesForPage(TilePage page) {
+        TileSet tileSet = getTileSetById(page.getTileSetId());
+        return tilePageCalculator.toGridCoverage(tileSet, page);
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getTileSets()
+     */
+    public Set<TileSet> getTileSets() {
+        lock.readLock().lock();
+        try {
+            Set<TileSet> tileSets = new HashSet<TileSet>();
+            for (TileSetEntry entry : tileSetsById.values()) {
+                tileSets.add(entry.tileSet);
+            }
+            return tileSets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getTileSetById(java.lang.String)
+     */
+    public TileSet getTileSetById(final String tileSetId) {
+        lock.readLock().lock();
+        try {
+            TileSetEntry entry = tileSetsById.get(tileSetId);
+            if (entry == null) {
+                throw new IllegalArgumentException("TileSet does not exist: " + tileSetId);
+            }
+            return entry.tileSet;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#accept(org.geowebcache.diskquota.storage.TileSetVisitor)
+     */
+    public void accept(TileSetVisitor visitor) {
+        // visit a copy, visitors usually call back into the store
+        for (TileSet tileSet : getTileSets()) {
+            visitor.visit(tileSet, this);
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getTilePageCalculator()
+     */
+    public TilePageCalculator getTilePageCalculator() {
+        return tilePageCalculator;
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#addToQuotaAndTileCounts(org.geowebcache.diskquota.storage.TileSet,
+     *      org.geowebcache.diskquota.storage.Quota, java.util.Collection)
+     */
+    public void addToQuotaAndTileCounts(final TileSet tileSet, final Quota quotaDiff,
+            final Collection<PageStatsPayload> tileCountDiffs) {
+        lock.writeLock().lock();
+        try {
+            TileSetEntry entry = getOrCreateTileSet(tileSet);
+            final long bytes = quotaDiff.getBytes().longValue();
+            if (bytes != 0) {
+                entry.bytes += bytes;
+                globalBytes += bytes;
+                logQuota(entry.ordinal, entry.bytes);
+                logQuota(GLOBAL_ORDINAL, globalBytes);
+            }
+
+            for (PageStatsPayload payload : tileCountDiffs) {
+                final TilePage page = payload.getPage();
+                final int slot = getOrCreatePage(entry, page);
+                final BigInteger tilesPerPage = tilePageCalculator.getTilesPerPage(tileSet,
+                        page.getZoomLevel());
+                PageStats pageStats = toPageStats(slot);
+                pageStats.addTiles(payload.getNumTiles(), tilesPerPage);
+                updatePage(slot, pageStats);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the updates right away, the returned future is already done.
+     * 
+     * @see org.geowebcache.diskquota.QuotaStore#addHitsAndSetAccesTime(java.util.Collection)
+     */
+    public Future<List<PageStats>> addHitsAndSetAccesTime(
+            final Collection<PageStatsPayload> statsUpdates) {
+
+        Assert.notNull(statsUpdates);
+
+        List<PageStats> allStats = new ArrayList<PageStats>(statsUpdates.size());
+        lock.writeLock().lock();
+        try {
+            for (PageStatsPayload payload : statsUpdates) {
+                final TilePage page = payload.getPage();
+                final TileSetEntry entry = tileSetsById.get(page.getTileSetId());
+                if (entry == null) {
+                    log.info("Can't add usage stats. TileSet does not exist. Was it deleted? "
+                            + page.getTileSetId());
+                    continue;
+                }
+                final int slot = getOrCreatePage(entry, page);
+                final int lastAccessTimeMinutes = (int) (payload.getLastAccessTime() / 1000 / 60);
+                PageStats pageStats = toPageStats(slot);
+                pageStats.addHitsAndAccessTime(payload.getNumHits(), lastAccessTimeMinutes,
+                        creationMinutes[slot]);
+                updatePage(slot, pageStats);
+                allStats.add(pageStats);
+            }
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return Futures.immediateFuture(allStats);
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getLeastFrequentlyUsedPage(java.util.Set)
+     */
+    public TilePage getLeastFrequentlyUsedPage(final Set<String> layerNames) {
+        return first(findPagesToExpire(layerNames, false, 1));
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getLeastRecentlyUsedPage(java.util.Set)
+     */
+    public TilePage getLeastRecentlyUsedPage(final Set<String> layerNames) {
+        return first(findPagesToExpire(layerNames, true, 1));
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getLeastFrequentlyUsedPages(java.util.Set, int)
+     */
+    @Override
+    public Map<TilePage, PageStats> getLeastFrequentlyUsedPages(final Set<String> layerNames,
+            final int limit) {
+        return findPagesToExpire(layerNames, false, limit);
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getLeastRecentlyUsedPages(java.util.Set, int)
+     */
+    @Override
+    public Map<TilePage, PageStats> getLeastRecentlyUsedPages(final Set<String> layerNames,
+            final int limit) {
+        return findPagesToExpire(layerNames, true, limit);
+    }
+
+    private static TilePage first(Map<TilePage, PageStats> pages) {
+        return pages.isEmpty() ? null : pages.keySet().iterator().next();
+    }
+
+    private Map<TilePage, PageStats> findPagesToExpire(final Set<String> layerNames,
+            final boolean lru, final int limit) {
+        lock.readLock().lock();
+        try {
+            List<Iterator<Long>> indexes = new ArrayList<Iterator<Long>>();
+            for (TileSetEntry entry : tileSetsById.values()) {
+                if (!layerNames.contains(entry.tileSet.getLayerName())) {
+                    continue;
+                }
+                TreeSet<Long> index = lru ? entry.byLastAccess : entry.byFrequency;
+                if (!index.isEmpty()) {
+                    indexes.add(index.iterator());
+                }
+            }
+            Map<TilePage, PageStats> pages = new LinkedHashMap<TilePage, PageStats>();
+            Iterator<Long> merged = Iterators.mergeSorted(indexes,
+                    Ordering.<Long> natural());
+            while (pages.size() < limit && merged.hasNext()) {
+                int slot = (int) merged.next().longValue();
+                pages.put(toTilePage(slot), toPageStats(slot));
+            }
+            return pages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#setTruncated(org.geowebcache.diskquota.storage.TilePage)
+     */
+    public PageStats setTruncated(final TilePage tilePage) {
+        lock.writeLock().lock();
+        try {
+            TileSetEntry entry = tileSetsById.get(tilePage.getTileSetId());
+            if (entry == null) {
+                return null;
+            }
+            int slot = slotsByKey.get(pageKey(entry.ordinal, tilePage));
+            if (slot == LongIntHashMap.NO_VALUE) {
+                return null;
+            }
+            PageStats pageStats = toPageStats(slot);
+            pageStats.setFillFactor(0f);
+            updatePage(slot, pageStats);
+            return pageStats;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Visits the pages in chunks of slots, each chunk under the read lock, so the store isn't
+     * blocked for the whole export
+     * 
+     * @see org.geowebcache.diskquota.QuotaStore#visitPages(org.geowebcache.diskquota.storage.TileSet,
+     *      org.geowebcache.diskquota.storage.PageStatsVisitor)
+     */
+    public void visitPages(final TileSet tileSet, final PageStatsVisitor visitor) {
+        final int chunkSize = 4096;
+        final Map<TilePage, PageStats> pages = new LinkedHashMap<TilePage, PageStats>();
+        for (int start = 0;; start += chunkSize) {
+            lock.readLock().lock();
+            try {
+                TileSetEntry entry = tileSetsById.get(tileSet.getId());
+                if (entry == null || start >= slotCount) {
+                    return;
+                }
+                final int end = Math.min(slotCount, start + chunkSize);
+                for (int slot = start; slot < end; slot++) {
+                    final long key = pageKeys[slot];
+                    if (key != FREE && ordinal(key) == entry.ordinal) {
+                        pages.put(toTilePage(slot), toPageStats(slot));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (Map.Entry<TilePage, PageStats> page : pages.entrySet()) {
+                visitor.visit(page.getKey(), page.getValue());
+            }
+            pages.clear();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#importTileSet(org.geowebcache.diskquota.storage.TileSet,
+     *      org.geowebcache.diskquota.storage.Quota, java.util.Map)
+     */
+    public void importTileSet(final TileSet tileSet, final Quota usedQuota,
+            final Map<TilePage, PageStats> pages) {
+        lock.writeLock().lock();
+        try {
+            TileSetEntry existing = tileSetsById.get(tileSet.getId());
+            if (existing != null) {
+                deleteTileSets(Arrays.asList(existing));
+            }
+            TileSetEntry entry = getOrCreateTileSet(tileSet);
+            entry.bytes = usedQuota.getBytes().longValue();
+            globalBytes += entry.bytes;
+            logQuota(entry.ordinal, entry.bytes);
+            logQuota(GLOBAL_ORDINAL, globalBytes);
+
+            for (Map.Entry<TilePage, PageStats> page : pages.entrySet()) {
+                final int slot = getOrCreatePage(entry, page.getKey());
+                updatePage(slot, page.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * The methods below are only called with the write lock held
+     */
+
+    private TileSetEntry getOrCreateTileSet(TileSet tileSet) {
+        TileSetEntry entry = tileSetsById.get(tileSet.getId());
+        if (entry == null) {
+            if (nextOrdinal > MAX_ORDINAL) {
+                throw new IllegalStateException("Too many tile sets created, restart to compact");
+            }
+            entry = putTileSet(nextOrdinal, tileSet);
+            logTileSet(entry);
+        }
+        return entry;
+    }
+
+    private TileSetEntry putTileSet(int ordinal, TileSet tileSet) {
+        if (ordinal >= tileSetsByOrdinal.length) {
+            tileSetsByOrdinal = Arrays.copyOf(tileSetsByOrdinal,
+                    Math.max(ordinal + 1, tileSetsByOrdinal.length * 2));
+        }
+        TileSetEntry entry = tileSetsByOrdinal[ordinal];
+        if (entry == null) {
+            entry = new TileSetEntry(ordinal, tileSet);
+            tileSetsByOrdinal[ordinal] = entry;
+        } else {
+            tileSetsById.remove(entry.tileSet.getId());
+            entry.tileSet = tileSet;
+        }
+        tileSetsById.put(tileSet.getId(), entry);
+        nextOrdinal = Math.max(nextOrdinal, ordinal + 1);
+        return entry;
+    }
+
+    private List<TileSetEntry> layerTileSets(String layerName) {
+        List<TileSetEntry> entries = new ArrayList<TileSetEntry>();
+        for (TileSetEntry entry : tileSetsById.values()) {
+            if (layerName.equals(entry.tileSet.getLayerName())) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private void deleteTileSets(String layerName, Predicate<TileSet> shouldDelete) {
+        List<TileSetEntry> entries = layerTileSets(layerName);
+        entries.removeIf(entry -> !shouldDelete.test(entry.tileSet));
+        deleteTileSets(entries);
+    }
+
+    private void deleteTileSets(List<TileSetEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        boolean[] deleted = new boolean[nextOrdinal];
+        for (TileSetEntry entry : entries) {
+            deleted[entry.ordinal] = true;
+            globalBytes -= entry.bytes;
+            tileSetsById.remove(entry.tileSet.getId());
+            tileSetsByOrdinal[entry.ordinal] = null;
+            logTileSetDeleted(entry.ordinal);
+        }
+        logQuota(GLOBAL_ORDINAL, globalBytes);
+        removePages(deleted);
+    }
+
+    private void removePages(boolean[] deletedOrdinals) {
+        for (int slot = 0; slot < slotCount; slot++) {
+            final long key = pageKeys[slot];
+            if (key != FREE && deletedOrdinals[ordinal(key)]) {
+                slotsByKey.remove(key);
+                pageKeys[slot] = FREE;
+                if (freeSlotCount == freeSlots.length) {
+                    freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+                }
+                freeSlots[freeSlotCount++] = slot;
+            }
+        }
+    }
+
+    private int getOrCreatePage(TileSetEntry entry, TilePage page) {
+        final long key = pageKey(entry.ordinal, page);
+        int slot = slotsByKey.get(key);
+        if (slot == LongIntHashMap.NO_VALUE) {
+            slot = newPage(key);
+            creationMinutes[slot] = page.getCreationTimeMinutes();
+            lastAccessMinutes[slot] = SystemUtils.get().currentTimeMinutes();
+        }
+        return slot;
+    }
+
+    private int newPage(long key) {
+        final int slot;
+        if (freeSlotCount > 0) {
+            slot = freeSlots[--freeSlotCount];
+        } else {
+            if (slotCount == pageKeys.length) {
+                int capacity = slotCount + (slotCount >> 1);
+                pageKeys = Arrays.copyOf(pageKeys, capacity);
+                creationMinutes = Arrays.copyOf(creationMinutes, capacity);
+                lastAccessMinutes = Arrays.copyOf(lastAccessMinutes, capacity);
+                fillFactors = Arrays.copyOf(fillFactors, capacity);
+                frequencies = Arrays.copyOf(frequencies, capacity);
+                numHits = Arrays.copyOf(numHits, capacity);
+            }
+            slot = slotCount++;
+        }
+        pageKeys[slot] = key;
+        creationMinutes[slot] = 0;
+        lastAccessMinutes[slot] = 0;
+        fillFactors[slot] = 0f;
+        frequencies[slot] = 0f;
+        numHits[slot] = 0;
+        slotsByKey.put(key, slot);
+        return slot;
+    }
+
+    private PageStats toPageStats(int slot) {
+        PageStats pageStats = new PageStats(pageKeys[slot]);
+        pageStats.setFillFactor(fillFactors[slot]);
+        pageStats.setFrequencyOfUsePerMinute(frequencies[slot]);
+        pageStats.setLastAccessMinutes(lastAccessMinutes[slot]);
+        pageStats.setNumHits(BigInteger.valueOf(numHits[slot]));
+        return pageStats;
+    }
+
+    private void updatePage(int slot, PageStats pageStats) {
+        setPage(slot, pageStats.getFillFactor(), pageStats.getFrequencyOfUsePerMinute(),
+                pageStats.getLastAccessTimeMinutes(), pageStats.getNumHits().longValue());
+        logPage(slot);
+    }
+
+    private void setPage(int slot, float fillFactor, float frequency, int lastAccess, long hits) {
+        final TileSetEntry entry = tileSetsByOrdinal[ordinal(pageKeys[slot])];
+        if (fillFactors[slot] > 0) {
+            entry.byLastAccess.remove(lruKey(slot));
+            entry.byFrequency.remove(lfuKey(slot));
+        }
+        fillFactors[slot] = fillFactor;
+        frequencies[slot] = frequency;
+        lastAccessMinutes[slot] = lastAccess;
+        numHits[slot] = hits;
+        if (fillFactor > 0) {
+            entry.byLastAccess.add(lruKey(slot));
+            entry.byFrequency.add(lfuKey(slot));
+        }
+    }
+
+    private TilePage toTilePage(int slot) {
+        final long key = pageKeys[slot];
+        final TileSetEntry entry = tileSetsByOrdinal[ordinal(key)];
+        return new TilePage(entry.tileSet.getId(), (int) (key >>> 16) & MAX_PAGE_INDEX,
+                (int) key & MAX_PAGE_INDEX, (int) (key >>> 32) & 0xFF, creationMinutes[slot]);
+    }
+
+    /**
+     * Sorts by last access time, the slot breaking ties
+     */
+    private long lruKey(int slot) {
+        return ((long) lastAccessMinutes[slot] << 32) | slot;
+    }
+
+    /**
+     * Sorts by frequency of use, the slot breaking ties. Frequencies are never negative, so their
+     * IEEE 754 bits sort like the values do
+     */
+    private long lfuKey(int slot) {
+        return ((long) Float.floatToIntBits(frequencies[slot]) << 32) | slot;
+    }
+
+    /**
+     * Packs the tile set ordinal in 23 bits and the page z, x and y in 8, 16 and 16 bits, leaving
+     * the sign bit clear
+     */
+    private static long pageKey(int ordinal, TilePage page) {
+        final int x = page.getPageX();
+        final int y = page.getPageY();
+        if (x < 0 || x > MAX_PAGE_INDEX || y < 0 || y > MAX_PAGE_INDEX) {
+            throw new IllegalArgumentException("Page index out of range: " + page);
+        }
+        return ((long) ordinal << 40) | ((long) (page.getZoomLevel() & 0xFF) << 32)
+                | ((long) x << 16) | y;
+    }
+
+    private static int ordinal(long pageKey) {
+        return (int) (pageKey >>> 40);
+    }
+
+    /*
+     * Persistence, called with the write lock held too
+     */
+
+    private void load() throws IOException {
+        File snapshotFile = new File(storeDirectory, SNAPSHOT_FILE);
+        if (snapshotFile.exists()) {
+            try (DataInputStream in = open(snapshotFile)) {
+                final int tileSetCount = in.readInt();
+                for (int i = 0; i < tileSetCount; i++) {
+                    TileSetEntry entry = putTileSet(in.readInt(), readTileSet(in));
+                    entry.bytes = in.readLong();
+                }
+                globalBytes = in.readLong();
+                final int pageCount = in.readInt();
+                for (int i = 0; i < pageCount; i++) {
+                    readPage(in);
+                }
+            }
+        }
+
+        File changeLogFile = new File(storeDirectory, CHANGE_LOG_FILE);
+        if (changeLogFile.exists()) {
+            int records = 0;
+            try (DataInputStream in = open(changeLogFile)) {
+                int type;
+                while ((type = in.read()) != -1) {
+                    replay(type, in);
+                    records++;
+                }
+            } catch (EOFException e) {
+                log.warn("Discarding truncated last record of " + changeLogFile);
+            }
+            log.debug("Replayed " + records + " quota changes from " + changeLogFile);
+        }
+    }
+
+    private void replay(int type, DataInputStream in) throws IOException {
+        switch (type) {
+        case TILESET_RECORD:
+            putTileSet(in.readInt(), readTileSet(in));
+            break;
+        case TILESET_DELETED_RECORD:
+            int ordinal = in.readInt();
+            TileSetEntry entry = ordinal < nextOrdinal ? tileSetsByOrdinal[ordinal] : null;
+            if (entry != null) {
+                tileSetsById.remove(entry.tileSet.getId());
+                tileSetsByOrdinal[ordinal] = null;
+                boolean[] deleted = new boolean[nextOrdinal];
+                deleted[ordinal] = true;
+                removePages(deleted);
+            }
+            break;
+        case QUOTA_RECORD:
+            ordinal = in.readInt();
+            long bytes = in.readLong();
+            if (ordinal == GLOBAL_ORDINAL) {
+                globalBytes = bytes;
+            } else if (ordinal < nextOrdinal && tileSetsByOrdinal[ordinal] != null) {
+                tileSetsByOrdinal[ordinal].bytes = bytes;
+            }
+            break;
+        case PAGE_RECORD:
+            readPage(in);
+            break;
+        default:
+            throw new IOException("Corrupt quota change log, unknown record type " + type);
+        }
+    }
+
+    private DataInputStream open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                file), 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a disk quota store file");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("In memory DiskQuota does not support " + file
+                        + " version " + version);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    private TileSet readTileSet(DataInputStream in) throws IOException {
+        String layerName = in.readUTF();
+        String gridsetId = in.readUTF();
+        String blobFormat = in.readUTF();
+        String parametersId = in.readBoolean() ? in.readUTF() : null;
+        return new TileSet(layerName, gridsetId, blobFormat, parametersId);
+    }
+
+    private void writeTileSet(DataOutputStream out, TileSet tileSet) throws IOException {
+        out.writeUTF(tileSet.getLayerName());
+        out.writeUTF(tileSet.getGridsetId());
+        out.writeUTF(tileSet.getBlobFormat());
+        out.writeBoolean(tileSet.getParametersId() != null);
+        if (tileSet.getParametersId() != null) {
+            out.writeUTF(tileSet.getParametersId());
+        }
+    }
+
+    private void readPage(DataInputStream in) throws IOException {
+        final long key = in.readLong();
+        final int creation = in.readInt();
+        final float fillFactor = in.readFloat();
+        final float frequency = in.readFloat();
+        final int lastAccess = in.readInt();
+        final long hits = in.readLong();
+        if (ordinal(key) >= nextOrdinal || tileSetsByOrdinal[ordinal(key)] == null) {
+            // page of a tile set deleted later on
+            return;
+        }
+        int slot = slotsByKey.get(key);
+        if (slot == LongIntHashMap.NO_VALUE) {
+            slot = newPage(key);
+        }
+        creationMinutes[slot] = creation;
+        setPage(slot, fillFactor, frequency, lastAccess, hits);
+    }
+
+    private void writePage(DataOutputStream out, int slot) throws IOException {
+        out.writeLong(pageKeys[slot]);
+        out.writeInt(creationMinutes[slot]);
+        out.writeFloat(fillFactors[slot]);
+        out.writeFloat(frequencies[slot]);
+        out.writeInt(lastAccessMinutes[slot]);
+        out.writeLong(numHits[slot]);
+    }
+
+    private void logTileSet(TileSetEntry entry) {
+        if (changeLog != null) {
+            try {
+                changeLog.writeByte(TILESET_RECORD);
+                changeLog.writeInt(entry.ordinal);
+                writeTileSet(changeLog, entry.tileSet);
+            } catch (IOException e) {
+                changeLogFailed(e);
+            }
+        }
+    }
+
+    private void logTileSetDeleted(int ordinal) {
+        if (changeLog != null) {
+            try {
+                changeLog.writeByte(TILESET_DELETED_RECORD);
+                changeLog.writeInt(ordinal);
+            } catch (IOException e) {
+                changeLogFailed(e);
+            }
+        }
+    }
+
+    private void logQuota(int ordinal, long bytes) {
+        if (changeLog != null) {
+            try {
+                changeLog.writeByte(QUOTA_RECORD);
+                changeLog.writeInt(ordinal);
+                changeLog.writeLong(bytes);
+            } catch (IOException e) {
+                changeLogFailed(e);
+            }
+        }
+    }
+
+    private void logPage(int slot) {
+        if (changeLog != null) {
+            try {
+                changeLog.writeByte(PAGE_RECORD);
+                writePage(changeLog, slot);
+            } catch (IOException e) {
+                changeLogFailed(e);
+            }
+        }
+    }
+
+    private void changeLogFailed(IOException e) {
+        if (!changeLogFailed) {
+            log.error("Failed to write the quota change log, will try a snapshot instead", e);
+        }
+        changeLogFailed = true;
+    }
+
+    /**
+     * Writes the whole state to a new snapshot and starts over with an empty change log. The old
+     * log is only truncated once the new snapshot replaced the old one, replaying it over the new
+     * snapshot is harmless as every record carries the full state of what it changes.
+     */
+    private void snapshot() throws IOException {
+        final File snapshotFile = new File(storeDirectory, SNAPSHOT_FILE);
+        final File tmp = new File(storeDirectory, SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos,
+                        64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(tileSetsById.size());
+            for (TileSetEntry entry : tileSetsById.values()) {
+                out.writeInt(entry.ordinal);
+                writeTileSet(out, entry.tileSet);
+                out.writeLong(entry.bytes);
+            }
+            out.writeLong(globalBytes);
+            out.writeInt(slotCount - freeSlotCount);
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (pageKeys[slot] != FREE) {
+                    writePage(out, slot);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        if (changeLog != null) {
+            try {
+                changeLog.close();
+            } catch (IOException e) {
+                log.debug("Error closing the quota change log", e);
+            }
+        }
+        changeLog = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(
+                storeDirectory, CHANGE_LOG_FILE)), 64 * 1024));
+        changeLog.writeInt(MAGIC);
+        changeLog.writeInt(FORMAT_VERSION);
+        changeLog.flush();
+        changeLogFailed = false;
+        lastSnapshot = System.currentTimeMillis();
+    }
+
+    void flushOrSnapshot() {
+        lock.writeLock().lock();
+        try {
+            if (changeLog == null) {
+                return;
+            }
+            if (changeLogFailed || changeLog.size() >= MAX_LOG_BYTES
+                    || System.currentTimeMillis() - lastSnapshot >= snapshotIntervalMillis) {
+                snapshot();
+            } else {
+                changeLog.flush();
+            }
+        } catch (IOException e) {
+            log.error("Failed to persist the disk quota store", e);
+        } catch (RuntimeException e) {
+            log.error("Unexpected error persisting the disk quota store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
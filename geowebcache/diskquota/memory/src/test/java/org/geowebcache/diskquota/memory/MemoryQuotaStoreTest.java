@@ -0,0 +1,305 @@
+package org.geowebcache.diskquota.memory;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.classextension.EasyMock;
+import org.geowebcache.config.Configuration;
+import org.geowebcache.config.XMLConfiguration;
+import org.geowebcache.config.XMLConfigurationBackwardsCompatibilityTest;
+import org.geowebcache.diskquota.DiskQuotaMonitor;
+import org.geowebcache.diskquota.QuotaStoreSnapshot;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.storage.DefaultStorageFinder;
+import org.geowebcache.storage.StorageBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MemoryQuotaStoreTest {
+
+    @Rule
+    public TemporaryFolder targetDir = new TemporaryFolder();
+
+    private DefaultStorageFinder cacheDirFinder;
+
+    private TilePageCalculator tilePageCalculator;
+
+    private MemoryQuotaStore store;
+
+    private TileSet tileSet;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDirFinder = EasyMock.createMock(DefaultStorageFinder.class);
+        EasyMock.expect(cacheDirFinder.getDefaultPath())
+                .andReturn(targetDir.getRoot().getAbsolutePath()).anyTimes();
+        EasyMock.expect(cacheDirFinder.findEnvVar((String) EasyMock.anyObject())).andReturn(null)
+                .anyTimes();
+        EasyMock.replay(cacheDirFinder);
+
+        StorageBroker storageBroker = EasyMock.createMock(StorageBroker.class);
+        EasyMock.expect(storageBroker.getCachedParameterIds((String) EasyMock.anyObject()))
+                .andReturn(Collections.singleton(null)).anyTimes();
+        EasyMock.replay(storageBroker);
+
+        InputStream is = XMLConfiguration.class
+                .getResourceAsStream(XMLConfigurationBackwardsCompatibilityTest.LATEST_FILENAME);
+        LinkedList<Configuration> configList = new LinkedList<Configuration>();
+        configList.add(new XMLConfiguration(is));
+        TileLayerDispatcher layerDispatcher = new TileLayerDispatcher(new GridSetBroker(true,
+                true), configList);
+        tilePageCalculator = new TilePageCalculator(layerDispatcher, storageBroker);
+
+        store = newStore();
+        tileSet = tilePageCalculator.getTileSetsFor("topp:states2").iterator().next();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    private MemoryQuotaStore newStore() throws Exception {
+        MemoryQuotaStore store = new MemoryQuotaStore(cacheDirFinder, tilePageCalculator);
+        store.setSnapshotInterval(1, TimeUnit.HOURS);
+        store.startUp();
+        return store;
+    }
+
+    @Test
+    public void testInitialization() throws Exception {
+        Set<TileSet> expected = tilePageCalculator.getTileSetsFor("topp:states");
+        expected.addAll(tilePageCalculator.getTileSetsFor("topp:states2"));
+        assertEquals(expected, store.getTileSets());
+        assertEquals(BigInteger.ZERO, store.getGloballyUsedQuota().getBytes());
+        assertEquals(tileSet, store.getTileSetById(tileSet.getId()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetMissingTileSet() throws Exception {
+        store.getTileSetById("nonExistent#EPSG:4326#image/png");
+    }
+
+    @Test
+    public void testQuotaAndPageStats() throws Exception {
+        TilePage page = new TilePage(tileSet.getId(), 0, 0, 0);
+        PageStatsPayload payload = new PageStatsPayload(page);
+        payload.setNumTiles(1);
+        store.addToQuotaAndTileCounts(tileSet, new Quota(BigInteger.valueOf(1000)),
+                Collections.singleton(payload));
+        store.addToQuotaAndTileCounts(tileSet, new Quota(BigInteger.valueOf(-400)),
+                Collections.<PageStatsPayload> emptySet());
+
+        assertEquals(BigInteger.valueOf(600), store.getGloballyUsedQuota().getBytes());
+        assertEquals(BigInteger.valueOf(600), store.getUsedQuotaByTileSetId(tileSet.getId())
+                .getBytes());
+        assertEquals(BigInteger.valueOf(600), store.getUsedQuotaByLayerName("topp:states2")
+                .getBytes());
+        assertEquals(BigInteger.ZERO, store.getUsedQuotaByLayerName("topp:states").getBytes());
+
+        payload.setNumHits(10);
+        payload.setLastAccessTime(System.currentTimeMillis());
+        List<PageStats> stats = store.addHitsAndSetAccesTime(Collections.singleton(payload))
+                .get();
+        assertThat(stats, hasSize(1));
+        assertEquals(BigInteger.valueOf(10), stats.get(0).getNumHits());
+        assertEquals(1f, stats.get(0).getFillFactor(), 0f);
+    }
+
+    @Test
+    public void testExpirationOrder() throws Exception {
+        Set<String> layerNames = Collections.singleton("topp:states2");
+        assertThat(store.getLeastFrequentlyUsedPage(layerNames), nullValue());
+        assertThat(store.getLeastRecentlyUsedPage(layerNames), nullValue());
+
+        final long now = System.currentTimeMillis();
+        TilePage page1 = new TilePage(tileSet.getId(), 0, 1, 2);
+        TilePage page2 = new TilePage(tileSet.getId(), 1, 1, 2);
+        PageStatsPayload payload1 = new PageStatsPayload(page1);
+        PageStatsPayload payload2 = new PageStatsPayload(page2);
+        payload1.setNumTiles(1);
+        payload2.setNumTiles(1);
+        store.addToQuotaAndTileCounts(tileSet, new Quota(), Arrays.asList(payload1, payload2));
+
+        payload1.setNumHits(100);
+        payload1.setLastAccessTime(now - TimeUnit.MINUTES.toMillis(5));
+        payload2.setNumHits(10);
+        payload2.setLastAccessTime(now);
+        store.addHitsAndSetAccesTime(Arrays.asList(payload1, payload2)).get();
+
+        assertThat(store.getLeastFrequentlyUsedPage(layerNames), equalTo(page2));
+        assertThat(store.getLeastRecentlyUsedPage(layerNames), equalTo(page1));
+        assertThat(store.getLeastRecentlyUsedPage(Collections.singleton("topp:states")),
+                nullValue());
+
+        payload2.setNumHits(1000);
+        store.addHitsAndSetAccesTime(Collections.singleton(payload2)).get();
+        assertThat(store.getLeastFrequentlyUsedPage(layerNames), equalTo(page1));
+
+        // truncated pages are no longer candidates
+        store.setTruncated(page1);
+        assertThat(store.getLeastFrequentlyUsedPage(layerNames), equalTo(page2));
+        assertThat(store.getLeastRecentlyUsedPage(layerNames), equalTo(page2));
+        store.setTruncated(page2);
+        assertThat(store.getLeastRecentlyUsedPage(layerNames), nullValue());
+    }
+
+    @Test
+    public void testDeleteAndRename() throws Exception {
+        addQuota(tileSet, 1000);
+        for (TileSet ts : tilePageCalculator.getTileSetsFor("topp:states")) {
+            addQuota(ts, 10);
+        }
+        final int statesTileSets = tilePageCalculator.getTileSetsFor("topp:states").size();
+
+        store.deleteGridSubset("topp:states", "EPSG:4326");
+        long remaining = 0;
+        for (TileSet ts : store.getTileSets()) {
+            if (ts.getLayerName().equals("topp:states")) {
+                remaining++;
+            }
+        }
+        assertEquals(statesTileSets / 2, remaining);
+        assertEquals(BigInteger.valueOf(1000 + 10 * remaining), store.getGloballyUsedQuota()
+                .getBytes());
+
+        store.renameLayer("topp:states2", "renamed");
+        assertEquals(BigInteger.ZERO, store.getUsedQuotaByLayerName("topp:states2").getBytes());
+        assertEquals(BigInteger.valueOf(1000), store.getUsedQuotaByLayerName("renamed")
+                .getBytes());
+        TileSet renamed = new TileSet("renamed", tileSet.getGridsetId(), tileSet.getBlobFormat(),
+                tileSet.getParametersId());
+        assertThat(store.getLeastRecentlyUsedPage(Collections.singleton("renamed")),
+                equalTo(new TilePage(renamed.getId(), 0, 0, 0)));
+
+        store.deleteLayer("renamed");
+        assertThat(store.getLeastRecentlyUsedPage(Collections.singleton("renamed")), nullValue());
+        assertEquals(BigInteger.valueOf(10 * remaining), store.getGloballyUsedQuota().getBytes());
+    }
+
+    @Test
+    public void testRestartFromSnapshot() throws Exception {
+        addQuota(tileSet, 1000);
+        store.close();
+
+        store = newStore();
+        assertEquals(BigInteger.valueOf(1000), store.getGloballyUsedQuota().getBytes());
+        assertThat(store.getLeastRecentlyUsedPage(Collections.singleton("topp:states2")),
+                equalTo(new TilePage(tileSet.getId(), 0, 0, 0)));
+    }
+
+    @Test
+    public void testRecoverFromChangeLog() throws Exception {
+        addQuota(tileSet, 1000);
+        store.deleteGridSubset("topp:states", "EPSG:4326");
+        store.flushOrSnapshot();
+
+        // simulate a crash in the middle of writing a record
+        File changeLog = new File(new File(targetDir.getRoot(), MemoryQuotaStore.STORE_DIRECTORY),
+                MemoryQuotaStore.CHANGE_LOG_FILE);
+        try (FileOutputStream out = new FileOutputStream(changeLog, true)) {
+            out.write(new byte[] { 4, 0, 0 });
+        }
+
+        MemoryQuotaStore recovered = new MemoryQuotaStore(cacheDirFinder, tilePageCalculator);
+        recovered.startUp();
+        try {
+            assertEquals(BigInteger.valueOf(1000), recovered.getGloballyUsedQuota().getBytes());
+            assertThat(recovered.getLeastRecentlyUsedPage(Collections.singleton("topp:states2")),
+                    equalTo(new TilePage(tileSet.getId(), 0, 0, 0)));
+            // the stale tile sets are back as they're still configured, but empty
+            assertEquals(store.getTileSets().size()
+                    + tilePageCalculator.getTileSetsFor("topp:states").size() / 2, recovered
+                    .getTileSets().size());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    public void testOrdinalsAfterDeletion() throws Exception {
+        store.deleteLayer("topp:states2");
+        TileSet ts = new TileSet("topp:states", "EPSG:4326", "image/png", null);
+        addQuota(ts, 10);
+        store.close();
+
+        store = newStore();
+        assertThat(store.getLeastRecentlyUsedPage(Collections.singleton("topp:states")),
+                equalTo(new TilePage(ts.getId(), 0, 0, 0)));
+        assertEquals(BigInteger.valueOf(10), store.getGloballyUsedQuota().getBytes());
+        // the deleted layer is still configured, so it's created again, empty
+        assertEquals(BigInteger.ZERO, store.getUsedQuotaByLayerName("topp:states2").getBytes());
+        assertThat(store.getLeastRecentlyUsedPage(Collections.singleton("topp:states2")),
+                nullValue());
+    }
+
+    @Test
+    public void testSnapshotExportAndImport() throws Exception {
+        addQuota(tileSet, 1000);
+        PageStatsPayload payload = new PageStatsPayload(new TilePage(tileSet.getId(), 0, 0, 0));
+        payload.setNumHits(10);
+        payload.setLastAccessTime(System.currentTimeMillis());
+        store.addHitsAndSetAccesTime(Collections.singleton(payload)).get();
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        assertEquals(1, QuotaStoreSnapshot.write(store, snapshot));
+
+        TileSet other = new TileSet("topp:states", "EPSG:4326", "image/png", null);
+        addQuota(tileSet, 500);
+        addQuota(other, 200);
+        store.addToQuotaAndTileCounts(tileSet, new Quota(BigInteger.ZERO),
+                Collections.singleton(new PageStatsPayload(new TilePage(tileSet.getId(), 1, 0, 1))));
+
+        assertEquals(1, QuotaStoreSnapshot.read(new ByteArrayInputStream(snapshot.toByteArray()),
+                store));
+        assertEquals(BigInteger.valueOf(1000), store.getGloballyUsedQuota().getBytes());
+        assertEquals(BigInteger.ZERO, store.getUsedQuotaByTileSetId(other.getId()).getBytes());
+        assertThat(store.getLeastRecentlyUsedPage(Collections.singleton("topp:states")),
+                nullValue());
+        Map<TilePage, PageStats> pages = store.getLeastFrequentlyUsedPages(
+                Collections.singleton("topp:states2"), 10);
+        assertThat(pages.keySet(), hasSize(1));
+        PageStats stats = pages.get(new TilePage(tileSet.getId(), 0, 0, 0));
+        assertEquals(BigInteger.valueOf(10), stats.getNumHits());
+        assertEquals(1f, stats.getFillFactor(), 0f);
+
+        // the import is logged like any other change
+        store.close();
+        store = newStore();
+        assertEquals(BigInteger.valueOf(1000), store.getGloballyUsedQuota().getBytes());
+    }
+
+    private void addQuota(TileSet tileSet, long bytes) throws Exception {
+        PageStatsPayload payload = new PageStatsPayload(new TilePage(tileSet.getId(), 0, 0, 0));
+        payload.setNumTiles(1);
+        store.addToQuotaAndTileCounts(tileSet, new Quota(BigInteger.valueOf(bytes)),
+                Collections.singleton(payload));
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.memory.distributed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.storage.TileObject;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Value of a tile in the Hazelcast map: the tile contents and their last modification time, plus
+ * the layer name so that the map can index it for {@link HazelcastCacheProvider#removeLayer(String)}
+ * . Everything else is known from the {@link CachedTileKey key} or the tile being requested, so
+ * the whole {@link TileObject} is not serialized.
+ * <p>
+ * Instances are shared by the near cache and must not be modified.
+ * </p>
+ */
+public final class CachedTile implements IdentifiedDataSerializable {
+
+    /** Name of the attribute indexed by the map */
+    public static final String LAYER_NAME = "layerName";
+
+    private String layerName;
+
+    private long lastModified;
+
+    private byte[] contents;
+
+    /**
+     * Used by {@link CachedTileFactory} when deserializing
+     */
+    public CachedTile() {
+    }
+
+    public CachedTile(TileObject obj) throws IOException {
+        Resource blob = obj.getBlob();
+        this.layerName = obj.getLayerName();
+        this.lastModified = blob.getLastModified();
+        if (blob instanceof ByteArrayResource) {
+            byte[] bytes = ((ByteArrayResource) blob).getContents();
+            this.contents = bytes == null ? new byte[0] : bytes;
+        } else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(0,
+                    blob.getSize()));
+            blob.transferTo(Channels.newChannel(out));
+            this.contents = out.toByteArray();
+        }
+    }
+
+    public String getLayerName() {
+        return layerName;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int getSize() {
+        return contents.length;
+    }
+
+    /**
+     * @return a complete copy of the requested tile holding the cached contents
+     */
+    public TileObject toTileObject(TileObject requested) {
+        ByteArrayResource blob = new ByteArrayResource(contents);
+        blob.setLastModified(lastModified);
+        TileObject tile = TileObject.createCompleteTileObject(requested.getLayerName(),
+                requested.getXYZ(), requested.getGridSetId(), requested.getBlobFormat(),
+                requested.getParameters(), blob);
+        tile.setParametersId(requested.getParametersId());
+        tile.setCreated(lastModified);
+        return tile;
+    }
+
+    @Override
+    public int getFactoryId() {
+        return CachedTileFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return CachedTileFactory.CACHED_TILE;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeUTF(layerName);
+        out.writeLong(lastModified);
+        out.writeInt(contents.length);
+        out.write(contents);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        layerName = in.readUTF();
+        lastModified = in.readLong();
+        contents = new byte[in.readInt()];
+        in.readFully(contents);
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.memory.distributed;
+
+import com.hazelcast.nio.serialization.DataSerializableFactory;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Creates the {@link CachedTileKey} and {@link CachedTile} instances being deserialized, so that
+ * Hazelcast writes two integer ids instead of their class name and does not look the class up by
+ * reflection. It must be registered in the configuration of every cluster member under
+ * {@link #FACTORY_ID}, which {@link HazelcastLoader} does for the configurations it loads.
+ */
+public class CachedTileFactory implements DataSerializableFactory {
+
+    /** Identifier of the factory, must be unique among the factories of the configuration */
+    public static final int FACTORY_ID = 7301;
+
+    /** Identifier of {@link CachedTileKey} */
+    public static final int CACHED_TILE_KEY = 1;
+
+    /** Identifier of {@link CachedTile} */
+    public static final int CACHED_TILE = 2;
+
+    @Override
+    public IdentifiedDataSerializable create(int typeId) {
+        switch (typeId) {
+        case CACHED_TILE_KEY:
+            return new CachedTileKey();
+        case CACHED_TILE:
+            return new CachedTile();
+        default:
+            return null;
+        }
+    }
+}
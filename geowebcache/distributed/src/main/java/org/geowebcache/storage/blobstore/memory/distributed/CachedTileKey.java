@@ -0,0 +1,166 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.memory.distributed;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.geowebcache.filter.parameters.ParametersUtils;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+
+import com.google.common.base.Objects;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
+/**
+ * Key of a tile in the Hazelcast map. The tile coordinates are written as numbers and the
+ * parameters as their identifier, instead of the string built by
+ * {@link org.geowebcache.storage.blobstore.memory.guava.GuavaCacheProvider#generateTileKey(TileObject)}
+ * , which keeps the serialized key small and cheap to hash on every map operation.
+ * 
+ * @see CachedTile
+ */
+public final class CachedTileKey implements IdentifiedDataSerializable {
+
+    private String layerName;
+
+    private String gridSetId;
+
+    private String format;
+
+    private String parametersId;
+
+    private long x;
+
+    private long y;
+
+    private int z;
+
+    /**
+     * Used by {@link CachedTileFactory} when deserializing
+     */
+    public CachedTileKey() {
+    }
+
+    public CachedTileKey(TileObject obj) {
+        this.layerName = obj.getLayerName();
+        this.gridSetId = obj.getGridSetId();
+        this.format = obj.getBlobFormat();
+        String parametersId = obj.getParametersId();
+        this.parametersId = parametersId != null ? parametersId : ParametersUtils.getId(obj
+                .getParameters());
+        long[] xyz = obj.getXYZ();
+        this.x = xyz[0];
+        this.y = xyz[1];
+        this.z = (int) xyz[2];
+    }
+
+    public String getLayerName() {
+        return layerName;
+    }
+
+    /**
+     * Checks if the tile belongs to the range, with the same rules used by the blob stores when
+     * deleting a range
+     */
+    public boolean isContainedIn(TileRange range) {
+        if (!layerName.equals(range.getLayerName())) {
+            return false;
+        }
+        if (range.getGridSetId() != null && !range.getGridSetId().equals(gridSetId)) {
+            return false;
+        }
+        MimeType mimeType = range.getMimeType();
+        if (mimeType != null && !mimeType.getFormat().equals(format)) {
+            return false;
+        }
+        if (!Objects.equal(range.getParametersId(), parametersId)) {
+            return false;
+        }
+        if (z < range.getZoomStart() || z > range.getZoomStop()) {
+            return false;
+        }
+        try {
+            return range.contains(x, y, z);
+        } catch (IllegalStateException e) {
+            // No bounds for the zoom level, nothing to remove there
+            return false;
+        }
+    }
+
+    @Override
+    public int getFactoryId() {
+        return CachedTileFactory.FACTORY_ID;
+    }
+
+    @Override
+    public int getId() {
+        return CachedTileFactory.CACHED_TILE_KEY;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeUTF(layerName);
+        out.writeUTF(gridSetId);
+        out.writeUTF(format);
+        out.writeBoolean(parametersId != null);
+        if (parametersId != null) {
+            out.writeUTF(parametersId);
+        }
+        out.writeInt(z);
+        out.writeLong(x);
+        out.writeLong(y);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        layerName = in.readUTF();
+        gridSetId = in.readUTF();
+        format = in.readUTF();
+        parametersId = in.readBoolean() ? in.readUTF() : null;
+        z = in.readInt();
+        x = in.readLong();
+        y = in.readLong();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CachedTileKey)) {
+            return false;
+        }
+        CachedTileKey other = (CachedTileKey) o;
+        return x == other.x && y == other.y && z == other.z
+                && layerName.equals(other.layerName) && gridSetId.equals(other.gridSetId)
+                && format.equals(other.format)
+                && Objects.equal(parametersId, other.parametersId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new Object[] { layerName, gridSetId, format, parametersId, x, y, z });
+    }
+
+    @Override
+    public String toString() {
+        return layerName + "/" + gridSetId + "/" + format + "/" + parametersId + "/" + x + "," + y
+                + "," + z;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.memory.distributed;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.storage.blobstore.memory.CacheInvalidation;
+import org.geowebcache.storage.blobstore.memory.CacheInvalidationBus;
+import org.geowebcache.storage.blobstore.memory.CacheInvalidationListener;
+
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+
+/**
+ * {@link CacheInvalidationBus} publishing the invalidations on a Hazelcast topic, for clusters
+ * whose nodes cache tiles locally, for example with a
+ * {@link org.geowebcache.storage.blobstore.memory.guava.GuavaCacheProvider}. The instance is
+ * provided by the {@link HazelcastLoader}, no map configuration is needed. If the loader is not
+ * configured invalidations are not sent.
+ */
+public class HazelcastCacheInvalidationBus implements CacheInvalidationBus {
+
+    /** {@link Log} object used for logging operations */
+    private final static Log LOGGER = LogFactory.getLog(HazelcastCacheInvalidationBus.class);
+
+    /** Fixed name for the Hazelcast topic */
+    public static final String HAZELCAST_TOPIC_DEFINITION = "CacheInvalidationTopic";
+
+    /** Hazelcast {@link ITopic}, or null if not configured */
+    private final ITopic<CacheInvalidation> topic;
+
+    /** Topic registration ids of the listeners */
+    private final Map<CacheInvalidationListener, String> registrations = new ConcurrentHashMap<CacheInvalidationListener, String>();
+
+    public HazelcastCacheInvalidationBus(HazelcastLoader loader) {
+        if (loader.isConfigured()) {
+            topic = loader.getInstance().getTopic(HAZELCAST_TOPIC_DEFINITION);
+        } else {
+            topic = null;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Hazelcast not configured, invalidations will not be sent");
+            }
+        }
+    }
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        if (topic != null) {
+            topic.publish(invalidation);
+        }
+    }
+
+    @Override
+    public void addListener(final CacheInvalidationListener listener) {
+        if (topic == null) {
+            return;
+        }
+        String id = topic.addMessageListener(new MessageListener<CacheInvalidation>() {
+
+            @Override
+            public void onMessage(Message<CacheInvalidation> message) {
+                listener.invalidate(message.getMessageObject());
+            }
+        });
+        registrations.put(listener, id);
+    }
+
+    @Override
+    public boolean removeListener(CacheInvalidationListener listener) {
+        String id = registrations.remove(listener);
+        return id != null && topic.removeMessageListener(id);
+    }
+}
@@ -14,24 +14,28 @@
  */
 package org.geowebcache.storage.blobstore.memory.distributed;
 
+import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.Logger;
 import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
 import org.geowebcache.storage.blobstore.memory.CacheConfiguration;
 import org.geowebcache.storage.blobstore.memory.CacheConfiguration.EvictionPolicy;
 import org.geowebcache.storage.blobstore.memory.CacheProvider;
 import org.geowebcache.storage.blobstore.memory.CacheStatistics;
-import org.geowebcache.storage.blobstore.memory.guava.GuavaCacheProvider;
 import org.springframework.beans.factory.DisposableBean;
 
 import com.hazelcast.core.IMap;
 import com.hazelcast.map.EntryBackupProcessor;
 import com.hazelcast.map.EntryProcessor;
 import com.hazelcast.monitor.LocalMapStats;
+import com.hazelcast.monitor.NearCacheStats;
 import com.hazelcast.query.EntryObject;
 import com.hazelcast.query.Predicate;
 import com.hazelcast.query.PredicateBuilder;
@@ -43,6 +47,11 @@ import com.hazelcast.query.PredicateBuilder;
  * result. There could happen that the number cache HITS is bigger than the number of total operations. This is caused by the fact that HITS number
  * indicates the number of hits on the local entries considering also the requests made by other cluster instances while the total operation count
  * indicates only the number of GET operations requested on the local cluster instance.
+ * <p>
+ * Tiles are stored as {@link CachedTile} entries under a {@link CachedTileKey}, and the map is
+ * indexed on the layer name so that a layer can be removed without scanning the whole map. Hits
+ * served by the near cache, when configured, are added to the map hits.
+ * </p>
  * 
  * @author Nicola Lagomarsini Geosolutions
  */
@@ -61,7 +70,7 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
     private static final String HAZELCAST_NAME = "Hazelcast Cache";
 
     /** Hazelcast {@link IMap} */
-    private final IMap<String, TileObject> map;
+    private final IMap<CachedTileKey, CachedTile> map;
 
     /** Boolean indicating that the Cache has been configured */
     private final boolean configured;
@@ -75,6 +84,8 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
         // cacheProvider parameters are defined
         if (configured) {
             map = loader.getInstance().getMap(HAZELCAST_MAP_DEFINITION);
+            // Index used for removing the tiles of a layer, adding it again is a no-op
+            map.addIndex(CachedTile.LAYER_NAME, false);
             totalSize = loader.getInstance().getConfig().getMapConfig(HAZELCAST_MAP_DEFINITION)
                     .getMaxSizeConfig().getSize()
                     * MB_TO_BYTES;
@@ -96,8 +107,8 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Getting TileObject:" + obj);
             }
-            String key = GuavaCacheProvider.generateTileKey(obj);
-            return map.get(key);
+            CachedTile cached = map.get(new CachedTileKey(obj));
+            return cached == null ? null : cached.toTileObject(obj);
         } else {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Cache not configured");
@@ -112,8 +123,17 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Adding TileObject:" + obj);
             }
-            String key = GuavaCacheProvider.generateTileKey(obj);
-            map.put(key, obj);
+            CachedTile cached;
+            try {
+                cached = new CachedTile(obj);
+            } catch (IOException e) {
+                if (LOGGER.isErrorEnabled()) {
+                    LOGGER.error("Unable to read TileObject:" + obj, e);
+                }
+                return;
+            }
+            // set does not send back the previous value
+            map.set(new CachedTileKey(obj), cached);
         } else {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Cache not configured");
@@ -127,8 +147,8 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Removing TileObject:" + obj);
             }
-            String key = GuavaCacheProvider.generateTileKey(obj);
-            map.remove(key);
+            // delete does not send back the removed value
+            map.delete(new CachedTileKey(obj));
         } else {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Cache not configured");
@@ -142,13 +162,41 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Removing Layer:" + layername);
             }
-            // Creation of the Predicate
+            // Creation of the Predicate, answered by the layer name index
             EntryObject e = new PredicateBuilder().getEntryObject();
-            Predicate predicate = e.get("layer_name").equal(layername);
-            // Creation of the processor
-            CacheEntryProcessor entryProcessor = new CacheEntryProcessor();
-            // Execution of the Processor
-            map.executeOnEntries(entryProcessor, predicate);
+            Predicate predicate = e.get(CachedTile.LAYER_NAME).equal(layername);
+            Set<CachedTileKey> keys = map.keySet(predicate);
+            if (!keys.isEmpty()) {
+                // Creation of the processor
+                CacheEntryProcessor entryProcessor = new CacheEntryProcessor();
+                // Execution of the Processor on the owners of the found keys
+                map.executeOnKeys(keys, entryProcessor);
+            }
+        } else {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Cache not configured");
+            }
+        }
+    }
+
+    @Override
+    public void removeTileRange(TileRange range) {
+        if (configured) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Removing range of Layer:" + range.getLayerName());
+            }
+            // The layer keys are found with the index, then filtered locally
+            EntryObject e = new PredicateBuilder().getEntryObject();
+            Predicate predicate = e.get(CachedTile.LAYER_NAME).equal(range.getLayerName());
+            Set<CachedTileKey> keys = new HashSet<CachedTileKey>();
+            for (CachedTileKey key : map.keySet(predicate)) {
+                if (key.isContainedIn(range)) {
+                    keys.add(key);
+                }
+            }
+            if (!keys.isEmpty()) {
+                map.executeOnKeys(keys, new CacheEntryProcessor());
+            }
         } else {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Cache not configured");
@@ -264,6 +312,11 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
             // Note that HITS indicates all the hits to the local entries, even if the request
             // is made from another cluster instance
             long hits = localMapStats.getHits();
+            // Hits served by the near cache never reach the map
+            NearCacheStats nearCacheStats = localMapStats.getNearCacheStats();
+            if (nearCacheStats != null) {
+                hits += nearCacheStats.getHits();
+            }
             setHitCount(hits);
             // Total indicates the total number of the GET operations made by the local cache
             long total = localMapStats.getGetOperationCount();
@@ -296,10 +349,13 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
      * 
      * @author Nicola Lagomarsini Geosolutions
      */
-    static class CacheEntryProcessor implements EntryProcessor<String, TileObject> {
+    static class CacheEntryProcessor implements EntryProcessor<CachedTileKey, CachedTile>,
+            EntryBackupProcessor<CachedTileKey, CachedTile> {
+
+        private static final long serialVersionUID = -2286735546934787349L;
 
         @Override
-        public Object process(Entry<String, TileObject> entry) {
+        public Object process(Entry<CachedTileKey, CachedTile> entry) {
             // By setting the entry value to null the entry is evicted
             entry.setValue(null);
             return null;
@@ -307,8 +363,14 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
         }
 
         @Override
-        public EntryBackupProcessor<String, TileObject> getBackupProcessor() {
-            return null;
+        public EntryBackupProcessor<CachedTileKey, CachedTile> getBackupProcessor() {
+            // Backups are removed too
+            return this;
+        }
+
+        @Override
+        public void processBackup(Entry<CachedTileKey, CachedTile> entry) {
+            entry.setValue(null);
         }
     }
 }
@@ -26,9 +26,11 @@ import org.apache.log4j.Logger;
 import org.springframework.beans.factory.InitializingBean;
 
 import com.hazelcast.config.Config;
+import com.hazelcast.config.InMemoryFormat;
 import com.hazelcast.config.MapConfig;
 import com.hazelcast.config.MaxSizeConfig;
 import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.config.SerializationConfig;
 import com.hazelcast.config.XmlConfigBuilder;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
@@ -37,7 +39,9 @@ import com.hazelcast.core.HazelcastInstance;
  * This class is used for handling configuration of the Hazelcast cluster. User can directly inject an Hazelcast instance or can setup a file called
  * hazelcast.xml and define its directory with the hazelcast.config.dir Java property. Note that the configuration must contain a map with name
  * "CacheProviderMap" with a specific size in MB, an eviction policy equal to LRU or LFU. Also if NearCache is enabled, user must be careful that the
- * max size is not bigger or equal to Integer.MAX_VALUE
+ * max size is not bigger or equal to Integer.MAX_VALUE. If the hazelcast.xml file does not configure a NearCache for the map, one holding the
+ * {@link #setNearCacheSize(int) most recently used tiles} is added. The configuration must also register the {@link CachedTileFactory} serializing
+ * the cached tiles, which is done for the hazelcast.xml file but must be part of the configuration of an injected instance.
  * 
  * @author Nicola Lagomarsini Geosolutions
  */
@@ -51,9 +55,18 @@ public class HazelcastLoader implements InitializingBean {
     /** Name of the Hazelcast XML file to use */
     public final static String HAZELCAST_NAME = "hazelcast.xml";
 
+    /** Default number of tiles kept by the NearCache added to the hazelcast.xml configuration */
+    public final static int DEFAULT_NEAR_CACHE_SIZE = 1000;
+
+    /** Seconds a tile can stay unused in the default NearCache */
+    public final static int DEFAULT_NEAR_CACHE_MAX_IDLE = 60;
+
     /** Hazelcast instance to pass to the {@link HazelcastCacheProvider} class */
     private HazelcastInstance instance;
 
+    /** Number of tiles kept by the default NearCache */
+    private int nearCacheSize = DEFAULT_NEAR_CACHE_SIZE;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         if (instance == null) {
@@ -82,6 +95,8 @@ public class HazelcastLoader implements InitializingBean {
                                 }
                             }
                         }
+                        configureNearCache(config);
+                        configureSerialization(config);
                         // Ensure the configuration is accepted
                         if (configAccepted(config)) {
                             if (LOGGER.isDebugEnabled()) {
@@ -122,6 +137,64 @@ public class HazelcastLoader implements InitializingBean {
         this.instance = instance;
     }
 
+    /**
+     * Sets the number of tiles kept by the NearCache added when the hazelcast.xml file does not
+     * configure one, 0 disables it. Injected instances are never modified.
+     * 
+     * @param nearCacheSize
+     */
+    public void setNearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+    }
+
+    /**
+     * Adds a NearCache for the hot tiles to the cache map, unless one is already configured or it
+     * is disabled. Cached tiles are never modified, so the NearCache keeps them deserialized.
+     */
+    private void configureNearCache(Config config) {
+        if (config == null || nearCacheSize <= 0) {
+            return;
+        }
+        MapConfig mapConfig = config.getMapConfigs().get(
+                HazelcastCacheProvider.HAZELCAST_MAP_DEFINITION);
+        if (mapConfig == null || mapConfig.getNearCacheConfig() != null) {
+            return;
+        }
+        NearCacheConfig nearCache = new NearCacheConfig();
+        nearCache.setMaxSize(nearCacheSize);
+        nearCache.setMaxIdleSeconds(DEFAULT_NEAR_CACHE_MAX_IDLE);
+        nearCache.setEvictionPolicy("LRU");
+        nearCache.setInvalidateOnChange(true);
+        nearCache.setInMemoryFormat(InMemoryFormat.OBJECT);
+        mapConfig.setNearCacheConfig(nearCache);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Added a NearCache of " + nearCacheSize + " tiles");
+        }
+    }
+
+    /**
+     * Registers the {@link CachedTileFactory}, unless the configuration already does
+     */
+    private void configureSerialization(Config config) {
+        if (config == null || serializationConfigured(config)) {
+            return;
+        }
+        config.getSerializationConfig().addDataSerializableFactory(CachedTileFactory.FACTORY_ID,
+                new CachedTileFactory());
+    }
+
+    /**
+     * Checks whether the configuration registers a factory, either as an instance or a class name,
+     * under the {@link CachedTileFactory} id
+     */
+    private static boolean serializationConfigured(Config config) {
+        SerializationConfig serializationConfig = config.getSerializationConfig();
+        return serializationConfig.getDataSerializableFactories().containsKey(
+                CachedTileFactory.FACTORY_ID)
+                || serializationConfig.getDataSerializableFactoryClasses().containsKey(
+                        CachedTileFactory.FACTORY_ID);
+    }
+
     /**
      * Returns the Hazelcast instance to use
      * 
@@ -134,7 +207,8 @@ public class HazelcastLoader implements InitializingBean {
     /**
      * Validation for an input {@link Config} object provided. This method ensures that the input configuration contains a map with name
      * "CacheProviderMap", contains a size configuration in Mb and related to the used Heap size and has an eviction policy equal to LRU or LFU. If a
-     * NearCache object is defined it cannot have max size greater or equal to {@link Integer}.MAX_VALUE
+     * NearCache object is defined it cannot have max size greater or equal to {@link Integer}.MAX_VALUE. The {@link CachedTileFactory} must be
+     * registered, otherwise the members could not deserialize the tiles.
      */
     private boolean configAccepted(Config config){
         boolean configAccepted = false;
@@ -159,7 +233,15 @@ public class HazelcastLoader implements InitializingBean {
                     nearCacheAccepted = conf.getMaxSize() < Integer.MAX_VALUE;
                 }
 
-                if (sizeDefined && policyExists && sizeFromHeap && nearCacheAccepted) {
+                boolean serializationAccepted = serializationConfigured(config);
+                if (!serializationAccepted && LOGGER.isInfoEnabled()) {
+                    LOGGER.info("No DataSerializableFactory registered with id "
+                            + CachedTileFactory.FACTORY_ID + " for "
+                            + CachedTileFactory.class.getName());
+                }
+
+                if (sizeDefined && policyExists && sizeFromHeap && nearCacheAccepted
+                        && serializationAccepted) {
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug("Hazelcast config validated");
                     }
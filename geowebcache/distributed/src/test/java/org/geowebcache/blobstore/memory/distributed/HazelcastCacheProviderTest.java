@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -34,14 +35,30 @@ import org.geowebcache.io.Resource;
 import org.geowebcache.storage.TileObject;
 import org.geowebcache.storage.blobstore.memory.MemoryBlobStore;
 import org.geowebcache.storage.blobstore.memory.NullBlobStore;
+import org.geowebcache.storage.blobstore.memory.distributed.CachedTile;
+import org.geowebcache.storage.blobstore.memory.distributed.CachedTileFactory;
+import org.geowebcache.storage.blobstore.memory.distributed.CachedTileKey;
 import org.geowebcache.storage.blobstore.memory.distributed.HazelcastCacheProvider;
+import org.geowebcache.storage.blobstore.memory.distributed.HazelcastLoader;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
-import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.MaxSizeConfig;
+import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.config.NetworkConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.instance.HazelcastInstanceProxy;
+import com.hazelcast.nio.serialization.Data;
+import com.hazelcast.nio.serialization.SerializationService;
 
 /**
- * This test class is used for testing {@link HazelcastCacheProvider} functionalities.
+ * This test class is used for testing {@link HazelcastCacheProvider} functionalities. The cluster is made of two members embedded in the test JVM,
+ * joined on the loopback interface under a group name of their own.
  * 
  * @author Nicola Lagomarsini Geosolutions
  */
@@ -50,14 +67,11 @@ public class HazelcastCacheProviderTest {
     /** LOGGER */
     public static final Log LOG = LogFactory.getLog(HazelcastCacheProviderTest.class);
 
-    /** Name of the application context */
-    public static final String APP_CONTEXT_FILENAME = "applicationContextTest.xml";
-
-    /** Name of the bean associated to the first cache */
-    public static final String CACHE_1_NAME = "HazelCastCacheProvider1";
+    /** First cluster member */
+    private static HazelcastInstance instance1;
 
-    /** Name of the bean associated to the first cache */
-    public static final String CACHE_2_NAME = "HazelCastCacheProvider2";
+    /** Second cluster member */
+    private static HazelcastInstance instance2;
 
     /** Cache object 1 */
     private static HazelcastCacheProvider cache1;
@@ -72,27 +86,27 @@ public class HazelcastCacheProviderTest {
     private static MemoryBlobStore mem2;
 
     @BeforeClass
-    public static void initialSetup() {
-        // Creating an Hazelcast configuration
-        ClassPathXmlApplicationContext appContext = new ClassPathXmlApplicationContext(
-                APP_CONTEXT_FILENAME);
+    public static void initialSetup() throws Exception {
+        // Creating the cluster, a group name of its own avoids joining other test runs
+        String group = "gwc-test-" + UUID.randomUUID();
+        instance1 = Hazelcast.newHazelcastInstance(createConfig(group));
+        instance2 = Hazelcast.newHazelcastInstance(createConfig(group));
+        assertEquals(2, instance2.getCluster().getMembers().size());
+
+        // Get the two Hazelcast Cache instances
+        cache1 = createCacheProvider(instance1);
+        cache2 = createCacheProvider(instance2);
 
         // Create a nullblobstore to add to the memory blobstore
         NullBlobStore nbs = new NullBlobStore();
 
         mem1 = new MemoryBlobStore();
         mem1.setStore(nbs);
-        mem1.setCacheBeanName(CACHE_1_NAME);
-        mem1.setApplicationContext(appContext);
+        mem1.setCacheProvider(cache1);
 
         mem2 = new MemoryBlobStore();
         mem2.setStore(nbs);
-        mem2.setCacheBeanName(CACHE_2_NAME);
-        mem2.setApplicationContext(appContext);
-
-        // Get the two Hazelcast Cache instances
-        cache1 = appContext.getBean(CACHE_1_NAME, HazelcastCacheProvider.class);
-        cache2 = appContext.getBean(CACHE_2_NAME, HazelcastCacheProvider.class);
+        mem2.setCacheProvider(cache2);
 
         // Ensure both the caches are available and immutable
         assertTrue(cache1.isAvailable());
@@ -201,6 +215,83 @@ public class HazelcastCacheProviderTest {
         assertNull(to6);
     }
 
+    @Test
+    public void testRemoveLayer() throws Exception {
+        // Clearing cache
+        cache1.clear();
+
+        Resource bytes = new ByteArrayResource("1 2 3 4 5 6 test".getBytes());
+        for (long x = 0; x < 10; x++) {
+            long[] xyz = { x, 0L, 4L };
+            mem1.put(TileObject.createCompleteTileObject("removed", xyz, "EPSG:4326",
+                    "image/png", null, bytes));
+            mem1.put(TileObject.createCompleteTileObject("kept", xyz, "EPSG:4326", "image/png",
+                    null, bytes));
+        }
+
+        cache2.removeLayer("removed");
+
+        for (long x = 0; x < 10; x++) {
+            long[] xyz = { x, 0L, 4L };
+            assertNull(cache1.getTileObj(TileObject.createQueryTileObject("removed", xyz,
+                    "EPSG:4326", "image/png", null)));
+            assertNotNull(cache1.getTileObj(TileObject.createQueryTileObject("kept", xyz,
+                    "EPSG:4326", "image/png", null)));
+        }
+    }
+
+    @Test
+    public void testNearCache() throws Exception {
+        // Clearing cache
+        cache1.clear();
+
+        Resource bytes = new ByteArrayResource("1 2 3 4 5 6 test".getBytes());
+        long[] xyz = { 8L, 9L, 10L };
+        cache1.putTileObj(TileObject.createCompleteTileObject("near", xyz, "EPSG:4326",
+                "image/png", null, bytes));
+
+        long hits = nearCacheHits(instance2);
+        TileObject query = TileObject.createQueryTileObject("near", xyz, "EPSG:4326",
+                "image/png", null);
+        // The first read fills the near cache, the second one is served by it
+        assertNotNull(cache2.getTileObj(query));
+        TileObject cached = cache2.getTileObj(query);
+        assertNotNull(cached);
+        assertEquals(hits + 1, nearCacheHits(instance2));
+        checkInputStreams(bytes.getInputStream(), cached.getBlob().getInputStream());
+        assertEquals(bytes.getLastModified(), cached.getBlob().getLastModified());
+
+        // Updates from the other member invalidate the near cache
+        Resource updated = new ByteArrayResource("updated".getBytes());
+        cache1.putTileObj(TileObject.createCompleteTileObject("near", xyz, "EPSG:4326",
+                "image/png", null, updated));
+        waitForInvalidation(cache2, query, updated);
+    }
+
+    @Test
+    public void testSerializedSize() throws Exception {
+        byte[] contents = "1 2 3 4 5 6 test".getBytes();
+        long[] xyz = { 1L, 2L, 3L };
+        TileObject obj = TileObject.createCompleteTileObject("layer", xyz, "EPSG:4326",
+                "image/png", null, new ByteArrayResource(contents));
+        SerializationService serialization = ((HazelcastInstanceProxy) instance1)
+                .getSerializationService();
+
+        // Identified by the factory and type ids, the class names are not written
+        CachedTileKey key = new CachedTileKey(obj);
+        Data keyData = serialization.toData(key);
+        int keyFields = "layer".length() + "EPSG:4326".length() + "image/png".length() + 1 + 4
+                + 8 + 8;
+        assertTrue(keyData.bufferSize() < keyFields + CachedTileKey.class.getName().length());
+        assertEquals(key, serialization.toObject(keyData));
+
+        Data tileData = serialization.toData(new CachedTile(obj));
+        int tileFields = "layer".length() + 8 + 4 + contents.length;
+        assertTrue(tileData.bufferSize() < tileFields + CachedTile.class.getName().length());
+        CachedTile tile = serialization.toObject(tileData);
+        assertEquals(contents.length, tile.getSize());
+    }
+
     @AfterClass
     public static void afterClass() throws Exception {
         // Blobstore destroy
@@ -210,6 +301,71 @@ public class HazelcastCacheProviderTest {
         // Cache destruction
         cache1.destroy();
         cache2.destroy();
+
+        // Cluster shutdown
+        instance1.shutdown();
+        instance2.shutdown();
+    }
+
+    /**
+     * Configuration of an embedded cluster member, with the same cache map and near cache used in production
+     */
+    private static Config createConfig(String group) {
+        Config config = new Config();
+        config.setProperty("hazelcast.wait.seconds.before.join", "0");
+        config.getGroupConfig().setName(group).setPassword("password");
+        NetworkConfig network = config.getNetworkConfig();
+        network.setPort(5701).setPortAutoIncrement(true);
+        network.getInterfaces().setEnabled(true).addInterface("127.0.0.1");
+        JoinConfig join = network.getJoin();
+        join.getMulticastConfig().setEnabled(false);
+        join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+
+        MapConfig mapConfig = new MapConfig(HazelcastCacheProvider.HAZELCAST_MAP_DEFINITION);
+        mapConfig.setEvictionPolicy(MapConfig.EvictionPolicy.LRU);
+        mapConfig.setMaxSizeConfig(new MaxSizeConfig(16,
+                MaxSizeConfig.MaxSizePolicy.USED_HEAP_SIZE));
+        NearCacheConfig nearCache = new NearCacheConfig();
+        nearCache.setMaxSize(5000);
+        nearCache.setMaxIdleSeconds(60);
+        nearCache.setEvictionPolicy("LRU");
+        nearCache.setInvalidateOnChange(true);
+        // Entries owned by the member are cached too, so the test does not depend on the partitioning
+        nearCache.setCacheLocalEntries(true);
+        mapConfig.setNearCacheConfig(nearCache);
+        config.addMapConfig(mapConfig);
+        config.getSerializationConfig().addDataSerializableFactory(CachedTileFactory.FACTORY_ID,
+                new CachedTileFactory());
+        return config;
+    }
+
+    private static HazelcastCacheProvider createCacheProvider(HazelcastInstance instance)
+            throws Exception {
+        HazelcastLoader loader = new HazelcastLoader();
+        loader.setInstance(instance);
+        loader.afterPropertiesSet();
+        return new HazelcastCacheProvider(loader);
+    }
+
+    private static long nearCacheHits(HazelcastInstance instance) {
+        return instance.getMap(HazelcastCacheProvider.HAZELCAST_MAP_DEFINITION)
+                .getLocalMapStats().getNearCacheStats().getHits();
+    }
+
+    /**
+     * Near cache invalidations are asynchronous
+     */
+    private void waitForInvalidation(HazelcastCacheProvider cache, TileObject query,
+            Resource expected) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            TileObject cached = cache.getTileObj(query);
+            if (cached != null && cached.getBlobSize() == expected.getSize()) {
+                checkInputStreams(expected.getInputStream(), cached.getBlob().getInputStream());
+                return;
+            }
+            Thread.sleep(50);
+        }
+        assertTrue("Near cache was not invalidated", false);
     }
 
     /**
@@ -0,0 +1,120 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.rest.seed;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.io.GeoWebCacheXStream;
+import org.geowebcache.rest.RestletException;
+import org.geowebcache.seed.SeedRequest;
+import org.geowebcache.seed.cluster.ClusterSeeder;
+import org.geowebcache.seed.cluster.SeedJobStatus;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.resource.Representation;
+import org.restlet.resource.StringRepresentation;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.json.JsonHierarchicalStreamDriver;
+
+/**
+ * Submits seed requests to the cluster work queue, and reports the progress of the cluster seed
+ * jobs aggregated over all nodes.
+ * <p>
+ * A POST takes the same seed request as {@link SeedRestlet} and answers with the status of the
+ * new job, a GET lists the jobs of a layer, or of all layers.
+ * </p>
+ */
+public class ClusterSeedRestlet extends GWCSeedingRestlet {
+
+    private ClusterSeeder clusterSeeder;
+
+    public void doGet(Request req, Response resp) throws RestletException {
+        String layerName = getLayerName(req);
+        resp.setEntity(toRepresentation(req, new ArrayList<SeedJobStatus>(clusterSeeder
+                .getStatus(layerName))));
+    }
+
+    protected void handleRequest(Request req, Response resp, Object obj) {
+        final SeedRequest sr = (SeedRequest) obj;
+        final String layerName = getLayerName(req);
+        if (layerName == null) {
+            throw new RestletException("No layer specified", Status.CLIENT_ERROR_BAD_REQUEST);
+        }
+        if (!clusterSeeder.isEnabled()) {
+            throw new RestletException("Cluster seeding is not configured",
+                    Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+        }
+
+        String jobId;
+        try {
+            jobId = clusterSeeder.submit(layerName, sr);
+        } catch (IllegalArgumentException e) {
+            throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST);
+        } catch (GeoWebCacheException e) {
+            throw new RestletException(e.getMessage(), Status.SERVER_ERROR_INTERNAL);
+        }
+        for (SeedJobStatus status : clusterSeeder.getStatus(layerName)) {
+            if (status.getJobId().equals(jobId)) {
+                resp.setEntity(toRepresentation(req, status));
+            }
+        }
+        resp.setStatus(Status.SUCCESS_CREATED);
+    }
+
+    private String getLayerName(Request req) {
+        String layer = (String) req.getAttributes().get("layer");
+        if (layer == null) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(layer, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee);
+        }
+    }
+
+    private Representation toRepresentation(Request req, Object obj) {
+        String formatExtension = (String) req.getAttributes().get("extension");
+        if ("xml".equalsIgnoreCase(formatExtension)) {
+            XStream xs = configure(new GeoWebCacheXStream());
+            return new StringRepresentation(xs.toXML(obj), MediaType.TEXT_XML);
+        }
+        XStream xs = configure(new GeoWebCacheXStream(new JsonHierarchicalStreamDriver()));
+        try {
+            return new JsonRepresentation(new JSONObject(xs.toXML(obj)));
+        } catch (JSONException e) {
+            throw new RestletException(e.getMessage(), Status.SERVER_ERROR_INTERNAL);
+        }
+    }
+
+    private static XStream configure(XStream xs) {
+        xs.alias("seedJob", SeedJobStatus.class);
+        xs.alias("seedJobs", ArrayList.class);
+        return xs;
+    }
+
+    public void setClusterSeeder(ClusterSeeder clusterSeeder) {
+        this.clusterSeeder = clusterSeeder;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.rest.seed;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.rest.RestletException;
+import org.geowebcache.seed.ImportRequest;
+import org.geowebcache.seed.ImportTask;
+import org.geowebcache.seed.TileBreeder;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.resource.StringRepresentation;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Starts importing the tiles of a tile package file on the server into the cache of a layer,
+ * answering with the id of the import task.
+ * <p>
+ * The task progress is reported along with the seed tasks by {@link SeedRestlet}, and it can be
+ * killed the same way.
+ * </p>
+ */
+public class ImportRestlet extends GWCSeedingRestlet {
+
+    private TileBreeder seeder;
+
+    public void doGet(Request req, Response resp) throws RestletException {
+        throw new RestletException("Method not allowed", Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+    }
+
+    protected void handleRequest(Request req, Response resp, Object obj) {
+        final ImportRequest er = (ImportRequest) obj;
+        try {
+            er.setLayerName(URLDecoder.decode((String) req.getAttributes().get("layer"), "UTF-8"));
+        } catch (UnsupportedEncodingException uee) {
+        }
+
+        ImportTask task;
+        try {
+            task = seeder.importTiles(er);
+        } catch (IllegalArgumentException e) {
+            throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST);
+        } catch (GeoWebCacheException e) {
+            throw new RestletException(e.getMessage(), Status.SERVER_ERROR_INTERNAL);
+        }
+
+        String formatExtension = (String) req.getAttributes().get("extension");
+        if ("json".equalsIgnoreCase(formatExtension)) {
+            try {
+                JSONObject importTask = new JSONObject();
+                importTask.put("id", task.getTaskId());
+                importTask.put("input", task.getInput().getAbsolutePath());
+                resp.setEntity(new JsonRepresentation(new JSONObject().put("import", importTask)));
+            } catch (JSONException e) {
+                throw new RestletException(e.getMessage(), Status.SERVER_ERROR_INTERNAL);
+            }
+        } else {
+            // Not worth the trouble of messing with XStream for the output so just assemble some XML.
+            StringBuilder sb = new StringBuilder("<import><id>").append(task.getTaskId())
+                    .append("</id><input>").append(task.getInput().getAbsolutePath())
+                    .append("</input></import>");
+            resp.setEntity(new StringRepresentation(sb.toString(), MediaType.APPLICATION_XML));
+        }
+    }
+
+    @Override
+    protected XStream configXStream(XStream xs) {
+        xs = super.configXStream(xs);
+        xs.processAnnotations(ImportRequest.class);
+        return xs;
+    }
+
+    public void setTileBreeder(TileBreeder seeder) {
+        this.seeder = seeder;
+    }
+}
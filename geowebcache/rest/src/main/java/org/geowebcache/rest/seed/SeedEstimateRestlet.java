@@ -0,0 +1,114 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.rest.seed;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.io.GeoWebCacheXStream;
+import org.geowebcache.rest.RestletException;
+import org.geowebcache.seed.SeedEstimate;
+import org.geowebcache.seed.SeedEstimator;
+import org.geowebcache.seed.SeedRequest;
+import org.geowebcache.seed.TileBreeder;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.resource.StringRepresentation;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.json.JsonHierarchicalStreamDriver;
+
+/**
+ * Dry runs a seed request posted the same way as to {@link SeedRestlet}, answering with the
+ * projected cost of seeding it instead of seeding.
+ * <p>
+ * The number of meta tiles sampled per zoom level is set with the {@code samples} query parameter,
+ * at least 1 and capped to {@link #MAX_SAMPLES}, as each sample is a backend request.
+ * </p>
+ */
+public class SeedEstimateRestlet extends GWCSeedingRestlet {
+
+    static final int DEFAULT_SAMPLES = 4;
+
+    static final int MAX_SAMPLES = 100;
+
+    private TileBreeder seeder;
+
+    public void doGet(Request req, Response resp) throws RestletException {
+        throw new RestletException("Method not allowed", Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+    }
+
+    protected void handleRequest(Request req, Response resp, Object obj) {
+        final SeedRequest sr = (SeedRequest) obj;
+        String layerName = null;
+        try {
+            layerName = URLDecoder.decode((String) req.getAttributes().get("layer"), "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+        }
+
+        int samples = DEFAULT_SAMPLES;
+        String samplesParam = req.getResourceRef().getQueryAsForm().getFirstValue("samples");
+        if (samplesParam != null) {
+            try {
+                samples = Integer.parseInt(samplesParam);
+            } catch (NumberFormatException e) {
+                samples = 0;
+            }
+            if (samples < 1) {
+                throw new RestletException("Invalid number of samples: " + samplesParam,
+                        Status.CLIENT_ERROR_BAD_REQUEST);
+            }
+            samples = Math.min(samples, MAX_SAMPLES);
+        }
+
+        SeedEstimate estimate;
+        try {
+            estimate = new SeedEstimator(seeder).estimate(layerName, sr, samples);
+        } catch (IllegalArgumentException e) {
+            throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST);
+        } catch (GeoWebCacheException e) {
+            throw new RestletException(e.getMessage(), Status.SERVER_ERROR_INTERNAL);
+        }
+
+        String formatExtension = (String) req.getAttributes().get("extension");
+        if ("json".equalsIgnoreCase(formatExtension)) {
+            XStream xs = configure(new GeoWebCacheXStream(new JsonHierarchicalStreamDriver()));
+            try {
+                resp.setEntity(new JsonRepresentation(new JSONObject(xs.toXML(estimate))));
+            } catch (JSONException e) {
+                throw new RestletException(e.getMessage(), Status.SERVER_ERROR_INTERNAL);
+            }
+        } else {
+            XStream xs = configure(new GeoWebCacheXStream());
+            resp.setEntity(new StringRepresentation(xs.toXML(estimate), MediaType.TEXT_XML));
+        }
+    }
+
+    private static XStream configure(XStream xs) {
+        xs.alias("seedEstimate", SeedEstimate.class);
+        xs.alias("level", SeedEstimate.Level.class);
+        return xs;
+    }
+
+    public void setTileBreeder(TileBreeder seeder) {
+        this.seeder = seeder;
+    }
+}
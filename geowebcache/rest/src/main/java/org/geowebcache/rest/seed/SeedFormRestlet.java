@@ -188,6 +188,8 @@ public class SeedFormRestlet extends GWCRestlet {
 
         makeBboxFields(doc);
 
+        makeGeometryField(doc);
+
         makeSubmit(doc);
 
         makeFormFooter(doc);
@@ -309,6 +311,14 @@ public class SeedFormRestlet extends GWCRestlet {
         doc.append("</td></tr>\n");
     }
 
+    private void makeGeometryField(StringBuilder doc) {
+        doc.append("<tr><td valign=\"top\">Geometry:</td><td>\n");
+        doc.append("<textarea name=\"geometry\" rows=\"4\" cols=\"40\"></textarea>\n");
+        doc.append("</br>Optional WKT or GeoJSON polygon in the grid set's CRS, ");
+        doc.append("only the tiles intersecting it are processed.");
+        doc.append("</td></tr>\n");
+    }
+
     private void makeBboxHints(StringBuilder doc, TileLayer tl) {
 
         for (String gridSetId : tl.getGridSubsets()) {
@@ -761,11 +771,21 @@ public class SeedFormRestlet extends GWCRestlet {
 
         TYPE type = GWCTask.TYPE.valueOf(form.getFirst("type").getValue().toUpperCase());
 
+        String geometry = form.getFirstValue("geometry");
+        if (geometry != null && geometry.trim().length() == 0) {
+            geometry = null;
+        }
+
         final String layerName = tl.getName();
-        SeedRequest sr = new SeedRequest(layerName, bounds, gridSetId, threadCount, zoomStart,
-                zoomStop, format, type, fullParameters);
+        SeedRequest sr = new SeedRequest(layerName, bounds, geometry, gridSetId, threadCount,
+                zoomStart, zoomStop, format, type, fullParameters);
 
-        TileRange tr = TileBreeder.createTileRange(sr, tl);
+        TileRange tr;
+        try {
+            tr = TileBreeder.createTileRange(sr, tl);
+        } catch (IllegalArgumentException e) {
+            throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST);
+        }
 
         GWCTask[] tasks;
         try {
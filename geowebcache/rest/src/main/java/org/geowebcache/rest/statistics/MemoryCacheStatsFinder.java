@@ -20,8 +20,10 @@ import java.lang.reflect.Field;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.CompositeBlobStore;
 import org.geowebcache.storage.DefaultStorageBroker;
 import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.blobstore.memory.MemoryBlobStore;
 import org.restlet.Finder;
 import org.restlet.data.Request;
 import org.restlet.data.Response;
@@ -62,6 +64,21 @@ public class MemoryCacheStatsFinder extends Finder {
             blobStore = ((DefaultStorageBroker) broker).getBlobStore();
         }
 
+        // Getting one of the configured BlobStores if requested
+        final String blobStoreId = (String) request.getAttributes().get("blobStore");
+        if (blobStoreId != null) {
+            // the configured stores may be behind the in memory cache
+            if (blobStore instanceof MemoryBlobStore) {
+                blobStore = ((MemoryBlobStore) blobStore).getStore();
+            }
+            if (blobStore instanceof CompositeBlobStore) {
+                blobStore = ((CompositeBlobStore) blobStore).getBlobStore(blobStoreId)
+                        .orElse(null);
+            } else {
+                blobStore = null;
+            }
+        }
+
         // Add the blobStore to the Resource
         resource.setBlobStore(blobStore);
         return resource;
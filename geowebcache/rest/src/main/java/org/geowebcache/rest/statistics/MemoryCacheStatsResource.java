@@ -19,6 +19,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.io.GeoWebCacheXStream;
 import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.blobstore.disk.DiskCacheBlobStore;
 import org.geowebcache.storage.blobstore.memory.CacheStatistics;
 import org.geowebcache.storage.blobstore.memory.MemoryBlobStore;
 import org.json.JSONException;
@@ -36,7 +37,8 @@ import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.json.JsonHierarchicalStreamDriver;
 
 /**
- * {@link Resource} object used for representing Cache Statistics in an XML or JSON format
+ * {@link Resource} object used for representing Cache Statistics in an XML or JSON format, for a
+ * {@link MemoryBlobStore} or a {@link DiskCacheBlobStore}
  * 
  * @author Nicola Lagomarsini Geosolutions
  */
@@ -45,6 +47,10 @@ public class MemoryCacheStatsResource extends Resource {
     /** {@link Log} used for logging operations */
     public static Log LOG = LogFactory.getLog(MemoryCacheStatsResource.class);
 
+    private static final String IN_MEMORY_ALIAS = "gwcInMemoryCacheStatistics";
+
+    private static final String DISK_ALIAS = "gwcDiskCacheStatistics";
+
     /** BlobStore used for getting statistics */
     private BlobStore store;
 
@@ -83,15 +89,22 @@ public class MemoryCacheStatsResource extends Resource {
         final Response response = getResponse();
         final String formatExtension = (String) request.getAttributes().get("extension");
 
-        // Getting the store statistics if it is a MemoryCacheBlobStore
+        // Getting the store statistics if it is a MemoryCacheBlobStore or a DiskCacheBlobStore
         Representation representation;
-        if (store != null && store instanceof MemoryBlobStore) {
+        if (store instanceof MemoryBlobStore || store instanceof DiskCacheBlobStore) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Memory Blobstore found, now getting statistics");
+                LOG.debug("Caching Blobstore found, now getting statistics");
             }
             // Getting statistics
-            MemoryBlobStore memoryStore = (MemoryBlobStore) store;
-            CacheStatistics stats = memoryStore.getCacheStatistics();
+            CacheStatistics stats;
+            String alias;
+            if (store instanceof MemoryBlobStore) {
+                stats = ((MemoryBlobStore) store).getCacheStatistics();
+                alias = IN_MEMORY_ALIAS;
+            } else {
+                stats = ((DiskCacheBlobStore) store).getCacheStatistics();
+                alias = DISK_ALIAS;
+            }
             CacheStatistics statistics = new CacheStatistics(stats);
             // create a new Representation object
             if ("json".equals(formatExtension)) {
@@ -99,7 +112,7 @@ public class MemoryCacheStatsResource extends Resource {
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("Statistics requested in JSON format");
                     }
-                    representation = getJsonRepresentation(statistics);
+                    representation = getJsonRepresentation(statistics, alias);
                 } catch (JSONException e) {
                     throw new RuntimeException(e);
                 }
@@ -107,7 +120,7 @@ public class MemoryCacheStatsResource extends Resource {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Statistics requested in XML format");
                 }
-                representation = getXmlRepresentation(statistics);
+                representation = getXmlRepresentation(statistics, alias);
             } else {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Statistics requested in a bad format");
@@ -121,7 +134,8 @@ public class MemoryCacheStatsResource extends Resource {
             response.setStatus(Status.SUCCESS_OK);
         } else {
             response.setStatus(Status.CLIENT_ERROR_NOT_FOUND,
-                    "No statistics available for the current BlobStore: " + store.getClass());
+                    "No statistics available for the current BlobStore: "
+                            + (store == null ? null : store.getClass()));
         }
     }
 
@@ -132,8 +146,10 @@ public class MemoryCacheStatsResource extends Resource {
      * @return a {@link JsonRepresentation} object
      * @throws JSONException
      */
-    private JsonRepresentation getJsonRepresentation(CacheStatistics stats) throws JSONException {
-        XStream xs = getConfiguredXStream(new GeoWebCacheXStream(new JsonHierarchicalStreamDriver()));
+    private JsonRepresentation getJsonRepresentation(CacheStatistics stats, String alias)
+            throws JSONException {
+        XStream xs = getConfiguredXStream(
+                new GeoWebCacheXStream(new JsonHierarchicalStreamDriver()), alias);
         JSONObject obj = new JSONObject(xs.toXML(stats));
         JsonRepresentation rep = new JsonRepresentation(obj);
         return rep;
@@ -146,8 +162,8 @@ public class MemoryCacheStatsResource extends Resource {
      * @return a {@link StringRepresentation} object
      * @throws JSONException
      */
-    private Representation getXmlRepresentation(CacheStatistics stats) {
-        XStream xStream = getConfiguredXStream(new GeoWebCacheXStream());
+    private Representation getXmlRepresentation(CacheStatistics stats, String alias) {
+        XStream xStream = getConfiguredXStream(new GeoWebCacheXStream(), alias);
         String xml = xStream.toXML(stats);
         return new StringRepresentation(xml, MediaType.TEXT_XML);
     }
@@ -159,8 +175,12 @@ public class MemoryCacheStatsResource extends Resource {
      * @return an updated XStream
      */
     public static XStream getConfiguredXStream(XStream xs) {
+        return getConfiguredXStream(xs, IN_MEMORY_ALIAS);
+    }
+
+    private static XStream getConfiguredXStream(XStream xs, String alias) {
         xs.setMode(XStream.NO_REFERENCES);
-        xs.alias("gwcInMemoryCacheStatistics", CacheStatistics.class);
+        xs.alias(alias, CacheStatistics.class);
         return xs;
     }
 }
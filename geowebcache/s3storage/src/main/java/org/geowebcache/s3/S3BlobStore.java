@@ -24,13 +24,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
@@ -44,6 +50,7 @@ import org.geowebcache.layer.TileLayerDispatcher;
 import org.geowebcache.locks.LockProvider;
 import org.geowebcache.mime.MimeException;
 import org.geowebcache.mime.MimeType;
+import org.geowebcache.seed.GWCTask;
 import org.geowebcache.storage.BlobStore;
 import org.geowebcache.storage.BlobStoreListener;
 import org.geowebcache.storage.BlobStoreListenerList;
@@ -57,7 +64,6 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.AccessControlList;
 import com.amazonaws.services.s3.model.CannedAccessControlList;
-import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
 import com.amazonaws.services.s3.model.Grant;
 import com.amazonaws.services.s3.model.ObjectMetadata;
@@ -67,6 +73,8 @@ import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
@@ -76,6 +84,17 @@ public class S3BlobStore implements BlobStore {
 
     static Log log = LogFactory.getLog(S3BlobStore.class);
 
+    /**
+     * Size value of {@link #tileSizes} for tiles known not to exist
+     */
+    private static final long MISSING = -1L;
+
+    /**
+     * Maximum number of columns of a zoom level listed one by one when deleting a tile range with
+     * listeners, wider ranges list the whole zoom level
+     */
+    static final int MAX_LISTED_COLUMNS = 1000;
+
     private final BlobStoreListenerList listeners = new BlobStoreListenerList();
 
     private AmazonS3Client conn;
@@ -88,6 +107,24 @@ public class S3BlobStore implements BlobStore {
 
     private final S3Ops s3Ops;
 
+    /**
+     * Sizes of the tiles recently read, stored, or found missing by this store, by key, so that
+     * puts and deletes can tell listeners the size of the tile being replaced without a metadata
+     * request. A tile read miss is what usually precedes a put, so this avoids the request in the
+     * common case. Entries expire quickly, as other nodes may write the same tiles. Only kept while
+     * there are listeners, and not filled by seeding, whose tiles are mostly written once.
+     */
+    private final Cache<String, Long> tileSizes = CacheBuilder.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(30, TimeUnit.SECONDS).build();
+
+    /**
+     * Keys of the parameters metadata objects already written by this store, so that they're
+     * written once per parameters id instead of once per tile
+     */
+    private final Cache<String, Boolean> storedParametersMetadata = CacheBuilder.newBuilder()
+            .maximumSize(10_000).build();
+
     public S3BlobStore(S3BlobStoreConfig config, TileLayerDispatcher layers,
             LockProvider lockProvider) throws StorageException {
         checkNotNull(config);
@@ -112,7 +149,9 @@ public class S3BlobStore implements BlobStore {
             throw new StorageException("Unable to connect to AWS S3", ce);
         }
 
-        this.s3Ops = new S3Ops(conn, bucketName, keyBuilder, lockProvider);
+        int maxInFlight = config.getMaxConnections() == null ? S3Ops.DEFAULT_MAX_IN_FLIGHT
+                : config.getMaxConnections();
+        this.s3Ops = new S3Ops(conn, bucketName, keyBuilder, lockProvider, maxInFlight);
     }
 
     @Override
@@ -155,32 +194,34 @@ public class S3BlobStore implements BlobStore {
         }
         objectMetadata.setContentType(mimeType);
 
-        // don't bother for the extra call if there are no listeners
-        final boolean existed;
-        ObjectMetadata oldObj;
-        if (listeners.isEmpty()) {
-            existed = false;
-            oldObj = null;
-        } else {
-            oldObj = s3Ops.getObjectMetadata(key);
-            existed = oldObj != null;
-        }
+        // don't bother for the extra call if there are no listeners or the size is known
+        final boolean cacheSizes = cacheTileSizes();
+        final long oldSize = listeners.isEmpty() ? MISSING : getTileSize(key, cacheSizes);
 
         final ByteArrayInputStream input = toByteArray(blob);
         PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, key, input,
                 objectMetadata).withCannedAcl(CannedAccessControlList.PublicRead);
 
         log.trace(log.isTraceEnabled() ? ("Storing " + key) : "");
-        s3Ops.putObject(putObjectRequest);
-        
-        putParametersMetadata(obj.getLayerName(), obj.getParametersId(), obj.getParameters());
-        
+        // the tile and its parameters metadata, if not written yet, are stored concurrently
+        Future<Void> tileStored = s3Ops.putObjectAsync(putObjectRequest);
+        Future<Void> parametersStored = putParametersMetadata(obj.getLayerName(),
+                obj.getParametersId(), obj.getParameters());
+        S3Ops.await(tileStored);
+        if (parametersStored != null) {
+            S3Ops.await(parametersStored);
+        }
+
         /*
          * This is important because listeners may be tracking tile existence
          */
         if (!listeners.isEmpty()) {
-            if (existed) {
-                long oldSize = oldObj.getContentLength();
+            if (cacheSizes) {
+                tileSizes.put(key, blob.getSize());
+            } else {
+                tileSizes.invalidate(key);
+            }
+            if (oldSize != MISSING) {
                 listeners.sendTileUpdated(obj, oldSize);
             } else {
                 listeners.sendTileStored(obj);
@@ -188,6 +229,31 @@ public class S3BlobStore implements BlobStore {
         }
     }
 
+    /**
+     * @return whether {@link #tileSizes} is used: there are listeners and the calling thread is not
+     *         seeding
+     */
+    private boolean cacheTileSizes() {
+        if (listeners.isEmpty()) {
+            return false;
+        }
+        GWCTask.TYPE task = GWCTask.currentType();
+        return task != GWCTask.TYPE.SEED && task != GWCTask.TYPE.RESEED;
+    }
+
+    /**
+     * @param cached whether to look the size up in {@link #tileSizes} first
+     * @return the size of the stored tile, or {@link #MISSING} if it doesn't exist
+     */
+    private long getTileSize(final String key, final boolean cached) throws StorageException {
+        Long size = cached ? tileSizes.getIfPresent(key) : null;
+        if (size == null) {
+            ObjectMetadata oldObj = s3Ops.getObjectMetadata(key);
+            size = oldObj == null ? MISSING : oldObj.getContentLength();
+        }
+        return size;
+    }
+
     private ByteArrayInputStream toByteArray(final Resource blob) throws StorageException {
         final byte[] bytes;
         if (blob instanceof ByteArrayResource) {
@@ -211,6 +277,9 @@ public class S3BlobStore implements BlobStore {
         final String key = keyBuilder.forTile(obj);
         final S3Object object = s3Ops.getObject(key);
         if (object == null) {
+            if (cacheTileSizes()) {
+                tileSizes.put(key, MISSING);
+            }
             return false;
         }
         try (S3ObjectInputStream in = object.getObjectContent()) {
@@ -218,6 +287,9 @@ public class S3BlobStore implements BlobStore {
             obj.setBlobSize(bytes.length);
             obj.setBlob(new ByteArrayResource(bytes));
             obj.setCreated(object.getObjectMetadata().getLastModified().getTime());
+            if (cacheTileSizes()) {
+                tileSizes.put(key, (long) bytes.length);
+            }
         } catch (IOException e) {
             throw new StorageException("Error getting " + key, e);
         }
@@ -255,6 +327,23 @@ public class S3BlobStore implements BlobStore {
             return false;
         }
 
+        if (listeners.isEmpty()) {
+            // if there are no listeners, don't bother listing the tiles to notify the listeners
+            deleteAll(tileRange, coordsPrefix);
+        } else {
+            deleteListed(tileRange, coordsPrefix);
+        }
+
+        return true;
+    }
+
+    /**
+     * Deletes every tile location in the range, in batches of 1000 keys, whether the tiles exist
+     * or not
+     */
+    private void deleteAll(final TileRange tileRange, final String coordsPrefix)
+            throws StorageException {
+
         final Iterator<long[]> tileLocations = new AbstractIterator<long[]>() {
 
             // TileRange iterator with 1x1 meta tiling factor
@@ -267,39 +356,101 @@ public class S3BlobStore implements BlobStore {
             }
         };
 
-        if (listeners.isEmpty()) {
-            // if there are no listeners, don't bother requesting every tile
-            // metadata to notify the listeners
-            Iterator<List<long[]>> partition = Iterators.partition(tileLocations, 1000);
-            final TileToKey tileToKey = new TileToKey(coordsPrefix, tileRange.getMimeType());
+        Iterator<List<long[]>> partition = Iterators.partition(tileLocations, 1000);
+        final TileToKey tileToKey = new TileToKey(coordsPrefix, tileRange.getMimeType());
+
+        List<Future<Void>> deletes = new ArrayList<>();
+        while (partition.hasNext() && !shutDown) {
+            List<long[]> locations = partition.next();
+            final List<KeyVersion> keys = new ArrayList<>(Lists.transform(locations, tileToKey));
+            deletes.add(s3Ops.submit(() -> {
+                s3Ops.deleteObjects(keys);
+                return null;
+            }));
+        }
+        S3Ops.awaitAll(deletes);
+        tileSizes.invalidateAll();
+    }
 
-            while (partition.hasNext() && !shutDown) {
-                List<long[]> locations = partition.next();
-                List<KeyVersion> keys = Lists.transform(locations, tileToKey);
+    /**
+     * Lists the tiles stored in the range and deletes them, in batches of 1000 keys, telling the
+     * listeners the size of each deleted tile as found in the listing. Zoom levels whose range
+     * spans up to {@link #MAX_LISTED_COLUMNS} columns are listed column by column, wider ones as a
+     * whole.
+     */
+    private void deleteListed(final TileRange tileRange, final String coordsPrefix)
+            throws StorageException {
 
-                DeleteObjectsRequest req = new DeleteObjectsRequest(bucketName);
-                req.setQuiet(true);
-                req.setKeys(keys);
-                conn.deleteObjects(req);
+        final String layerName = tileRange.getLayerName();
+        final String gridSetId = tileRange.getGridSetId();
+        final String format = tileRange.getMimeType().getFormat();
+        final String parametersId = tileRange.getParametersId();
+        final String extension = "." + tileRange.getMimeType().getInternalName();
+
+        List<Future<Void>> deletes = new ArrayList<>();
+        for (int z = tileRange.getZoomStart(); z <= tileRange.getZoomStop() && !shutDown; z++) {
+            final String levelPrefix = coordsPrefix + z + "/";
+            final int zoomLevel = z;
+            final long[] bounds = tileRange.rangeBounds(z);
+            final Stream<S3ObjectSummary> listing;
+            if (bounds[2] - bounds[0] < MAX_LISTED_COLUMNS) {
+                listing = LongStream.rangeClosed(bounds[0], bounds[2]).boxed()
+                        .flatMap(x -> s3Ops.objectStream(levelPrefix + x + "/"));
+            } else {
+                listing = s3Ops.objectStream(levelPrefix);
             }
+            Iterator<S3ObjectSummary> tiles = listing.filter(summary -> {
+                long[] xyz = tileIndex(summary.getKey(), levelPrefix, extension, zoomLevel);
+                return xyz != null && tileRange.contains(xyz);
+            }).iterator();
 
-        } else {
-            long[] xyz;
-            String layerName = tileRange.getLayerName();
-            String gridSetId = tileRange.getGridSetId();
-            String format = tileRange.getMimeType().getFormat();
-            Map<String, String> parameters = tileRange.getParameters();
-
-            while (tileLocations.hasNext()) {
-                xyz = tileLocations.next();
-                TileObject tile = TileObject.createQueryTileObject(layerName, xyz, gridSetId,
-                        format, parameters);
-                tile.setParametersId(tileRange.getParametersId());
-                delete(tile);
+            Iterator<List<S3ObjectSummary>> partition = Iterators.partition(tiles, 1000);
+            while (partition.hasNext() && !shutDown) {
+                final List<S3ObjectSummary> batch = partition.next();
+                deletes.add(s3Ops.submit(() -> {
+                    Map<String, S3ObjectSummary> summaries = new HashMap<>();
+                    List<KeyVersion> keys = new ArrayList<>(batch.size());
+                    for (S3ObjectSummary summary : batch) {
+                        summaries.put(summary.getKey(), summary);
+                        keys.add(new KeyVersion(summary.getKey()));
+                    }
+                    // the deleted tiles are notified even if some others couldn't be deleted
+                    s3Ops.deleteObjects(keys, key -> {
+                        long[] xyz = tileIndex(key, levelPrefix, extension, zoomLevel);
+                        tileSizes.put(key, MISSING);
+                        listeners.sendTileDeleted(layerName, gridSetId, format, parametersId,
+                                xyz[0], xyz[1], zoomLevel, summaries.get(key).getSize());
+                    });
+                    return null;
+                }));
             }
         }
+        S3Ops.awaitAll(deletes);
+    }
 
-        return true;
+    /**
+     * Parses the tile index out of a key of the form {@code <levelPrefix><x>/<y><extension>}
+     * 
+     * @return the tile index, or {@code null} if the key isn't a tile key with that form
+     */
+    @Nullable
+    private static long[] tileIndex(final String key, final String levelPrefix,
+            final String extension, final int z) {
+        if (!key.startsWith(levelPrefix) || !key.endsWith(extension)) {
+            return null;
+        }
+        final String xy = key.substring(levelPrefix.length(), key.length() - extension.length());
+        final int separator = xy.indexOf('/');
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            long x = Long.parseLong(xy.substring(0, separator));
+            long y = Long.parseLong(xy.substring(separator + 1));
+            return new long[] { x, y, z };
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     @Override
@@ -310,6 +461,8 @@ public class S3BlobStore implements BlobStore {
         final String layerPrefix = keyBuilder.forLayer(layerName);
 
         s3Ops.deleteObject(metadataKey);
+        // the parameters metadata lives under the layer prefix
+        storedParametersMetadata.invalidateAll();
 
         boolean layerExists;
         try {
@@ -317,6 +470,8 @@ public class S3BlobStore implements BlobStore {
         } catch (GeoWebCacheException e) {
             throw Throwables.propagate(e);
         }
+        // the tiles under the prefix are being deleted in the background
+        tileSizes.invalidateAll();
         if (layerExists) {
             listeners.sendLayerDeleted(layerName);
         }
@@ -338,6 +493,7 @@ public class S3BlobStore implements BlobStore {
         } catch (GeoWebCacheException e) {
             throw Throwables.propagate(e);
         }
+        tileSizes.invalidateAll();
         if (prefixExists) {
             listeners.sendGridSubsetDeleted(layerName, gridSetId);
         }
@@ -353,14 +509,19 @@ public class S3BlobStore implements BlobStore {
             return s3Ops.deleteObject(key);
         }
 
-        ObjectMetadata oldObj = s3Ops.getObjectMetadata(key);
-
-        if (oldObj == null) {
+        final boolean cacheSizes = cacheTileSizes();
+        final long oldSize = getTileSize(key, cacheSizes);
+        if (oldSize == MISSING) {
             return false;
         }
 
         s3Ops.deleteObject(key);
-        obj.setBlobSize((int) oldObj.getContentLength());
+        if (cacheSizes) {
+            tileSizes.put(key, MISSING);
+        } else {
+            tileSizes.invalidate(key);
+        }
+        obj.setBlobSize((int) oldSize);
         listeners.sendTileDeleted(obj);
         return true;
     }
@@ -404,18 +565,38 @@ public class S3BlobStore implements BlobStore {
         return s3Ops.getProperties(key);
     }
     
-    private void putParametersMetadata(String layerName, String parametersId, Map<String, String> parameters) {
+    /**
+     * Writes the parameters metadata unless this store already did
+     * 
+     * @return the pending write, or {@code null} if there's nothing to write
+     */
+    @Nullable
+    private Future<Void> putParametersMetadata(String layerName, String parametersId,
+            Map<String, String> parameters) throws StorageException {
         assert(isNull(parametersId)==isNull(parameters));
         if(isNull(parametersId)) {
-            return;
+            return null;
         }
-        Properties properties = new Properties();
+        final String resourceKey = keyBuilder.parametersMetadata(layerName, parametersId);
+        if (storedParametersMetadata.asMap().putIfAbsent(resourceKey, Boolean.TRUE) != null) {
+            return null;
+        }
+        final Properties properties = new Properties();
         parameters.forEach(properties::setProperty);
-        String resourceKey = keyBuilder.parametersMetadata(layerName, parametersId);
         try {
-            s3Ops.putProperties(resourceKey, properties);
+            return s3Ops.submit(() -> {
+                try {
+                    s3Ops.putProperties(resourceKey, properties);
+                } catch (StorageException | RuntimeException e) {
+                    // let the next tile try again
+                    storedParametersMetadata.invalidate(resourceKey);
+                    throw e;
+                }
+                return null;
+            });
         } catch (StorageException e) {
-            Throwables.propagate(e);
+            storedParametersMetadata.invalidate(resourceKey);
+            throw e;
         }
     }
 
@@ -442,6 +623,7 @@ public class S3BlobStore implements BlobStore {
             })
             .reduce(Boolean::logicalOr) // Don't use Stream.anyMatch as it would short circuit
             .orElse(false);
+        tileSizes.invalidateAll();
         if (prefixExists) {
             listeners.sendParametersDeleted(layerName, parametersId);
         }
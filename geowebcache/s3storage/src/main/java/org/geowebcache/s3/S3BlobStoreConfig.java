@@ -37,6 +37,7 @@ import com.amazonaws.Protocol;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
 
 /**
  * Plain old java object representing the configuration for an S3 blob store.
@@ -73,6 +74,8 @@ public class S3BlobStoreConfig extends BlobStoreConfig {
 
     private Boolean useGzip;
 
+    private String endpoint;
+
     /**
      * @return the name of the AWS S3 bucket where to store tiles
      */
@@ -285,6 +288,23 @@ public class S3BlobStoreConfig extends BlobStoreConfig {
         this.useGzip = use;
     }
 
+    /**
+     * @return the endpoint of an S3 compatible service to use instead of AWS S3, or {@code null}
+     *         for AWS S3
+     */
+    @Nullable
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Sets the endpoint of an S3 compatible service to use instead of AWS S3, e.g.
+     * {@code http://localhost:9000}. Buckets are then addressed by path instead of by host name.
+     */
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
     @Override
     public boolean equals(Object o) {
         return EqualsBuilder.reflectionEquals(this, o);
@@ -347,7 +367,12 @@ public class S3BlobStoreConfig extends BlobStoreConfig {
             clientConfig.setUseGzip(useGzip);
         }
         log.debug("Initializing AWS S3 connection");
-        return new AmazonS3Client(awsCredentials, clientConfig);
+        AmazonS3Client client = new AmazonS3Client(awsCredentials, clientConfig);
+        if (endpoint != null && !endpoint.isEmpty()) {
+            client.setEndpoint(endpoint);
+            client.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+        }
+        return client;
     }
 
 }
@@ -23,14 +23,20 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -49,11 +55,14 @@ import com.amazonaws.services.s3.iterable.S3Objects;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -64,6 +73,12 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 class S3Ops {
 
+    /**
+     * Default limit of requests in flight through {@link #submit(Callable)}, the AWS client default
+     * maximum number of connections
+     */
+    static final int DEFAULT_MAX_IN_FLIGHT = 50;
+
     private final AmazonS3Client conn;
 
     private final String bucketName;
@@ -74,15 +89,30 @@ class S3Ops {
 
     private ExecutorService deleteExecutorService;
 
+    private ExecutorService requestExecutorService;
+
+    /**
+     * Permits for the requests in flight through {@link #submit(Callable)}, so that callers block
+     * instead of queueing an unbounded number of requests
+     */
+    private final Semaphore inFlight;
+
     private Map<String, Long> pendingDeletesKeyTime = new ConcurrentHashMap<>();
 
     public S3Ops(AmazonS3Client conn, String bucketName, TMSKeyBuilder keyBuilder,
             LockProvider locks) throws StorageException {
+        this(conn, bucketName, keyBuilder, locks, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public S3Ops(AmazonS3Client conn, String bucketName, TMSKeyBuilder keyBuilder,
+            LockProvider locks, int maxInFlight) throws StorageException {
         this.conn = conn;
         this.bucketName = bucketName;
         this.keyBuilder = keyBuilder;
         this.locks = locks == null ? new NoOpLockProvider() : locks;
+        this.inFlight = new Semaphore(maxInFlight > 0 ? maxInFlight : DEFAULT_MAX_IN_FLIGHT);
         this.deleteExecutorService = createDeleteExecutorService();
+        this.requestExecutorService = createRequestExecutorService();
         issuePendingBulkDeletes();
     }
 
@@ -93,8 +123,81 @@ class S3Ops {
         return Executors.newCachedThreadPool(tf);
     }
 
+    private ExecutorService createRequestExecutorService() {
+        ThreadFactory tf = new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("GWC S3BlobStore request thread-%d. Bucket: " + bucketName).build();
+        return Executors.newCachedThreadPool(tf);
+    }
+
     public void shutDown() {
         deleteExecutorService.shutdownNow();
+        requestExecutorService.shutdownNow();
+    }
+
+    /**
+     * Issues a request in the background, waiting for one of the in flight requests to finish first
+     * if there are as many as allowed already.
+     */
+    public <T> Future<T> submit(final Callable<T> request) throws StorageException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted waiting to issue S3 request", e);
+        }
+        try {
+            return requestExecutorService.submit(() -> {
+                try {
+                    return request.call();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw new StorageException("S3 blob store is shutting down", e);
+        }
+    }
+
+    /**
+     * Waits for a request issued through {@link #submit(Callable)} to finish
+     */
+    public static <T> T await(final Future<T> request) throws StorageException {
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            request.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted waiting for S3 request", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StorageException) {
+                throw (StorageException) cause;
+            }
+            throw new StorageException("Error performing S3 request: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Waits for all the given requests to finish, even if some of them fail
+     * 
+     * @throws StorageException the error of the first failed request, if any
+     */
+    public static void awaitAll(final Iterable<? extends Future<?>> requests)
+            throws StorageException {
+        StorageException error = null;
+        for (Future<?> request : requests) {
+            try {
+                await(request);
+            } catch (StorageException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
     }
 
     private void issuePendingBulkDeletes() throws StorageException {
@@ -224,6 +327,54 @@ class S3Ops {
         }
     }
 
+    public Future<Void> putObjectAsync(final PutObjectRequest putObjectRequest)
+            throws StorageException {
+        return submit(() -> {
+            putObject(putObjectRequest);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes up to 1000 objects with a single {@code DeleteObjects} request
+     */
+    public void deleteObjects(final List<KeyVersion> keys) throws StorageException {
+        deleteObjects(keys, key -> {
+        });
+    }
+
+    /**
+     * Deletes up to 1000 objects with a single {@code DeleteObjects} request, calling
+     * {@code deleted} with the key of each deleted object, also when some of them couldn't be
+     * deleted
+     */
+    public void deleteObjects(final List<KeyVersion> keys, final Consumer<String> deleted)
+            throws StorageException {
+        DeleteObjectsRequest req = new DeleteObjectsRequest(bucketName);
+        req.setQuiet(true);
+        req.setKeys(keys);
+        try {
+            conn.deleteObjects(req);
+        } catch (MultiObjectDeleteException e) {
+            Set<String> failed = new HashSet<>();
+            for (DeleteError error : e.getErrors()) {
+                failed.add(error.getKey());
+            }
+            for (KeyVersion key : keys) {
+                if (!failed.contains(key.getKey())) {
+                    deleted.accept(key.getKey());
+                }
+            }
+            throw new StorageException("Error deleting " + failed.size() + " of " + keys.size()
+                    + " objects", e);
+        } catch (RuntimeException e) {
+            throw new StorageException("Error deleting " + keys.size() + " objects", e);
+        }
+        for (KeyVersion key : keys) {
+            deleted.accept(key.getKey());
+        }
+    }
+
     @Nullable
     public S3Object getObject(String key) throws StorageException {
         final S3Object object;
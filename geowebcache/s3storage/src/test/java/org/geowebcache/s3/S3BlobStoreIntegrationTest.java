@@ -65,13 +65,15 @@ import org.mockito.Mockito;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Files;
 
 /**
  * Integration tests for {@link S3BlobStore}.
  * <p>
  * For the tests to be run, a properties file {@code $HOME/.gwc_s3_tests.properties} must exist and
- * contain entries for {@code bucket}, {@code accessKey}, and {@code secretKey}.
+ * contain entries for {@code bucket}, {@code accessKey}, and {@code secretKey}. An optional
+ * {@code endpoint} entry allows to run them against a local S3 compatible server.
  */
 public class S3BlobStoreIntegrationTest {
 
@@ -354,6 +356,53 @@ public class S3BlobStoreIntegrationTest {
                 anyString(), anyLong(), anyLong(), anyInt(), anyLong());
     }
 
+    /**
+     * Truncating with listeners lists the tiles instead of checking them one by one, and only
+     * deletes and reports the ones inside the range bounds, with their stored size
+     */
+    @Test
+    public void testTruncateWithListenerRespectsBounds() throws StorageException, MimeException {
+        seed(0, 2);
+
+        BlobStoreListener listener = mock(BlobStoreListener.class);
+        blobStore.addListener(listener);
+
+        long[][] rangeBounds = {//
+        { 0, 0, 0, 0, 0 },//
+                { 0, 0, 1, 1, 1 },//
+                { 1, 1, 2, 2, 2 } //
+        };
+        MimeType mimeType = MimeType.createFromExtension(DEFAULT_FORMAT);
+        TileRange tileRange = tileRange(DEFAULT_LAYER, DEFAULT_GRIDSET, 2, 2, rangeBounds,
+                mimeType, null);
+
+        blobStore = Mockito.spy(blobStore);
+        assertTrue(blobStore.delete(tileRange));
+
+        verify(blobStore, times(0)).delete(Mockito.any(TileObject.class));
+        verify(listener, times(4)).tileDeleted(anyString(), anyString(), anyString(), anyString(),
+                anyLong(), anyLong(), eq(2), eq(256L));
+        verify(listener).tileDeleted(anyString(), anyString(), anyString(), anyString(), eq(1L),
+                eq(2L), eq(2), eq(256L));
+
+        assertTrue(blobStore.get(queryTile(0, 0, 2)));
+        assertFalse(blobStore.get(queryTile(1, 1, 2)));
+        assertFalse(blobStore.get(queryTile(2, 2, 2)));
+        assertTrue(blobStore.get(queryTile(3, 3, 2)));
+        assertTrue(blobStore.get(queryTile(0, 0, 1)));
+    }
+
+    @Test
+    public void testPutParametersMetadata() throws StorageException {
+        Map<String, String> parameters = ImmutableMap.of("STYLES", "polygon");
+        put(0, 0, 0, DEFAULT_GRIDSET, DEFAULT_FORMAT, parameters);
+        put(0, 0, 1, DEFAULT_GRIDSET, DEFAULT_FORMAT, parameters);
+        put(0, 1, 1, DEFAULT_GRIDSET, DEFAULT_FORMAT, ImmutableMap.of("STYLES", "line"));
+
+        assertEquals(ImmutableSet.of(parameters, ImmutableMap.of("STYLES", "line")),
+                blobStore.getParameters(DEFAULT_LAYER));
+    }
+
     /**
      * If there are not {@link BlobStoreListener}s, use an optimized code path (not calling delete()
      * for each tile)
@@ -0,0 +1,230 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.s3;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.locks.NoOpLockProvider;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.seed.GWCTask;
+import org.geowebcache.storage.BlobStoreListener;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AccessControlList;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult.DeletedObject;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Unit tests for {@link S3BlobStore} against a mocked S3 client, see
+ * {@link S3BlobStoreIntegrationTest} for the tests against an actual bucket.
+ */
+public class S3BlobStoreTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    private static final String LAYER = "topp:world";
+
+    private static final String GRIDSET = "EPSG:4326";
+
+    private AmazonS3Client conn;
+
+    private TMSKeyBuilder keyBuilder;
+
+    private S3BlobStore blobStore;
+
+    private BlobStoreListener listener;
+
+    private List<S3ObjectSummary> objects;
+
+    @Before
+    public void before() throws Exception {
+        TileLayerDispatcher layers = mock(TileLayerDispatcher.class);
+        TileLayer layer = mock(TileLayer.class);
+        when(layers.getTileLayer(eq(LAYER))).thenReturn(layer);
+        when(layer.getName()).thenReturn(LAYER);
+        when(layer.getId()).thenReturn(LAYER);
+        keyBuilder = new TMSKeyBuilder("prefix", layers);
+
+        conn = mock(AmazonS3Client.class);
+        when(conn.getBucketAcl(BUCKET)).thenReturn(new AccessControlList());
+        // every object is missing, except the listed ones
+        when(conn.getObject(eq(BUCKET), anyString())).thenThrow(notFound());
+        when(conn.getObjectMetadata(eq(BUCKET), anyString())).thenThrow(notFound());
+        objects = new ArrayList<>();
+        when(conn.listObjects(any(ListObjectsRequest.class))).thenAnswer(
+                new Answer<ObjectListing>() {
+                    @Override
+                    public ObjectListing answer(InvocationOnMock invocation) {
+                        String prefix = ((ListObjectsRequest) invocation.getArguments()[0])
+                                .getPrefix();
+                        ObjectListing listing = new ObjectListing();
+                        listing.setBucketName(BUCKET);
+                        for (S3ObjectSummary summary : objects) {
+                            if (summary.getKey().startsWith(prefix)) {
+                                listing.getObjectSummaries().add(summary);
+                            }
+                        }
+                        return listing;
+                    }
+                });
+
+        S3BlobStoreConfig config = mock(S3BlobStoreConfig.class);
+        when(config.getBucket()).thenReturn(BUCKET);
+        when(config.getPrefix()).thenReturn("prefix");
+        when(config.getAwsAccessKey()).thenReturn("access");
+        when(config.getAwsSecretKey()).thenReturn("secret");
+        when(config.buildClient()).thenReturn(conn);
+        blobStore = new S3BlobStore(config, layers, new NoOpLockProvider());
+
+        listener = mock(BlobStoreListener.class);
+        blobStore.addListener(listener);
+    }
+
+    @After
+    public void after() {
+        blobStore.destroy();
+    }
+
+    @Test
+    public void testPutAfterReadMissSkipsMetadataRequest() throws Exception {
+        assertFalse(blobStore.get(tile(1, 2, 3, null)));
+        blobStore.put(tile(1, 2, 3, new byte[100]));
+
+        verify(conn, never()).getObjectMetadata(eq(BUCKET), anyString());
+        verify(listener).tileStored(eq(LAYER), eq(GRIDSET), eq("image/png"), anyString(), eq(1L),
+                eq(2L), eq(3), eq(100L));
+
+        // the stored size is known too
+        blobStore.put(tile(1, 2, 3, new byte[50]));
+        verify(conn, never()).getObjectMetadata(eq(BUCKET), anyString());
+        verify(listener).tileUpdated(eq(LAYER), eq(GRIDSET), eq("image/png"), anyString(),
+                eq(1L), eq(2L), eq(3), eq(50L), eq(100L));
+    }
+
+    @Test
+    public void testSeedingDoesNotUseTileSizes() throws Exception {
+        new GWCTask() {
+            {
+                parsedType = GWCTask.TYPE.SEED;
+            }
+
+            @Override
+            protected void doActionInternal() throws GeoWebCacheException {
+                try {
+                    assertFalse(blobStore.get(tile(1, 2, 3, null)));
+                    blobStore.put(tile(1, 2, 3, new byte[100]));
+                } catch (IOException e) {
+                    throw new GeoWebCacheException(e);
+                }
+            }
+
+            @Override
+            protected void dispose() {
+            }
+        }.doAction();
+
+        // asked S3 instead of the read miss
+        verify(conn, times(1)).getObjectMetadata(eq(BUCKET), anyString());
+        verify(listener).tileStored(eq(LAYER), eq(GRIDSET), eq("image/png"), anyString(), eq(1L),
+                eq(2L), eq(3), eq(100L));
+
+        // nor were the seeded sizes kept for later puts
+        blobStore.put(tile(1, 2, 3, new byte[50]));
+        verify(conn, times(2)).getObjectMetadata(eq(BUCKET), anyString());
+    }
+
+    @Test
+    public void testPartialDeleteNotifiesDeletedTiles() throws Exception {
+        for (long x = 0; x < 3; x++) {
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(BUCKET);
+            summary.setKey(keyBuilder.forTile(tile(x, 0, 2, null)));
+            summary.setSize(10 + x);
+            objects.add(summary);
+        }
+        DeleteError error = new DeleteError();
+        error.setKey(objects.get(1).getKey());
+        error.setCode("AccessDenied");
+        when(conn.deleteObjects(any(DeleteObjectsRequest.class))).thenThrow(
+                new MultiObjectDeleteException(Arrays.asList(error),
+                        new ArrayList<DeletedObject>()));
+
+        long[][] bounds = { { 0, 0, 3, 0, 2 } };
+        TileRange range = new TileRange(LAYER, GRIDSET, 2, 2, bounds, ImageMime.png,
+                (Map<String, String>) null);
+        try {
+            blobStore.delete(range);
+            fail("Expected a StorageException");
+        } catch (StorageException e) {
+            // expected
+        }
+
+        // the tiles that were deleted are notified, the one that wasn't is not
+        verify(listener).tileDeleted(eq(LAYER), eq(GRIDSET), eq("image/png"), anyString(),
+                eq(0L), eq(0L), eq(2), eq(10L));
+        verify(listener).tileDeleted(eq(LAYER), eq(GRIDSET), eq("image/png"), anyString(),
+                eq(2L), eq(0L), eq(2), eq(12L));
+        verify(listener, never()).tileDeleted(eq(LAYER), eq(GRIDSET), eq("image/png"),
+                anyString(), eq(1L), eq(0L), eq(2), eq(11L));
+    }
+
+    private static TileObject tile(long x, long y, long z, byte[] contents) {
+        long[] xyz = { x, y, z };
+        if (contents == null) {
+            return TileObject.createQueryTileObject(LAYER, xyz, GRIDSET, "image/png", null);
+        }
+        return TileObject.createCompleteTileObject(LAYER, xyz, GRIDSET, "image/png", null,
+                new ByteArrayResource(contents));
+    }
+
+    private static AmazonS3Exception notFound() {
+        AmazonS3Exception e = new AmazonS3Exception("Not Found");
+        e.setStatusCode(404);
+        return e;
+    }
+}
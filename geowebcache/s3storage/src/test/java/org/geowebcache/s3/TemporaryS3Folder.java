@@ -122,6 +122,9 @@ public class TemporaryS3Folder extends ExternalResource {
         } else {
             config.setUseGzip(Boolean.valueOf(properties.getProperty("useGzip")));
         }
+        if (properties.getProperty("endpoint") != null) {
+            config.setEndpoint(properties.getProperty("endpoint"));
+        }
         return config;
     }
 
@@ -36,22 +36,52 @@ import java.util.Properties;
 import java.util.concurrent.Executor;
 
 /**
- * Extended connection that allow us to keep track if a connection was closed or not.
+ * Extended connection that allow us to keep track if a connection was closed or not, and gives
+ * access to the prepared statements cached for the underlying connection.
  */
 final class ExtendedConnection implements Connection {
 
     private final Connection connection;
 
+    private final StatementCache statements;
+
     private boolean closed = false;
 
     public ExtendedConnection(Connection connection) {
+        this(connection, null);
+    }
+
+    ExtendedConnection(Connection connection, StatementCache statements) {
         this.connection = connection;
+        this.statements = statements;
     }
 
     boolean closeInvoked() {
         return closed;
     }
 
+    /**
+     * Returns a cached prepared statement for the SQL query, it has to be given back with
+     * {@link #releaseStatement(String, PreparedStatement)} and not closed.
+     */
+    PreparedStatement borrowStatement(String sql) throws SQLException {
+        if (statements == null) {
+            return connection.prepareStatement(sql);
+        }
+        return statements.borrow(sql);
+    }
+
+    /**
+     * Gives back a statement obtained with {@link #borrowStatement(String)}.
+     */
+    void releaseStatement(String sql, PreparedStatement statement) throws SQLException {
+        if (statements == null) {
+            statement.close();
+        } else {
+            statements.release(sql, statement);
+        }
+    }
+
     @Override
     public void close() throws SQLException {
         closed = true;
@@ -23,7 +23,6 @@ import org.geotools.mbtiles.GeoToolsMbtilesUtils;
 import org.geotools.mbtiles.MBTilesFile;
 import org.geotools.mbtiles.MBTilesMetadata;
 import org.geotools.mbtiles.MBTilesMetadata.t_format;
-import org.geotools.mbtiles.MBTilesTile;
 import org.geotools.sql.SqlUtil;
 import org.geowebcache.filter.parameters.ParametersUtils;
 import org.geowebcache.mime.ApplicationMime;
@@ -41,10 +40,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.sql.Connection;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -94,8 +95,7 @@ public final class MbtilesBlobStore extends SqliteBlobStore {
     
     MbtilesBlobStore(MbtilesConfiguration configuration) {
         // caution this constructor will create a new connection pool
-        this(configuration, new SqliteConnectionManager(
-                configuration.getPoolSize(), configuration.getPoolReaperIntervalMs()));
+        this(configuration, new SqliteConnectionManager(configuration));
     }
 
     public MbtilesBlobStore(MbtilesConfiguration configuration, SqliteConnectionManager connectionManager) {
@@ -125,49 +125,18 @@ public final class MbtilesBlobStore extends SqliteBlobStore {
         initDatabaseFileIfNeeded(file, tile.getLayerName(), tile.getBlobFormat());
         // do work in write mode
         connectionManager.doWork(file, false, connection -> {
-            // instantiating geotools needed objects
-            MBTilesFile mbtiles = GeoToolsMbtilesUtils.getMBTilesFile(connection, file);
-            MBTilesTile gtTile = new MBTilesTile(tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1]);
             try {
-                final boolean gzipped = tileIsGzipped(tile);
-                
-                byte[] bytes;
-                if (gzipped) {
-                    try (
-                            ByteArrayOutputStream byteStream  = new ByteArrayOutputStream();
-                            GZIPOutputStream gzOut = new GZIPOutputStream(byteStream);
-                    ) {
-                        bytes = byteStream.toByteArray();
-                    }
-                } else {
-                    bytes = Utils.resourceToByteArray(tile.getBlob());
-                }
-                gtTile.setData(bytes);
-                
-                // if necessary getting old data size for listeners
-                byte[] olData = null;
-                if (!listeners.isEmpty()) {
-                    olData = mbtiles.loadTile(tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1]).getData();
-                }
-                // saving the tile
-                mbtiles.saveTile(gtTile);
-                if (useCreateTime) {
-                    // we need to store this tile create time
-                    putTileCreateTime(connection, tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1], System.currentTimeMillis());
-                }
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug(String.format("Tile '%s' saved in file '%s'.", tile, file));
-                }
+                Long oldSize = saveTile(connection, tile, file);
                 if (listeners.isEmpty()) {
                     // no listeners to update we are done
                     return;
                 }
-                if (olData == null) {
+                if (oldSize == null) {
                     // this was new tile
                     listeners.sendTileStored(tile);
                 } else {
                     // this an update
-                    listeners.sendTileUpdated(tile, olData.length);
+                    listeners.sendTileUpdated(tile, oldSize);
                 }
             } catch (Exception exception) {
                 throw Utils.exception(exception, "Error saving tile '%s' in file '%s'.", tile, file);
@@ -177,7 +146,105 @@ public final class MbtilesBlobStore extends SqliteBlobStore {
         persistParameterMap(tile);
     }
 
-    
+    /**
+     * Saves the tiles of each file in a single transaction, the new tiles are notified to the
+     * listeners with a single event per file.
+     */
+    @Override
+    public void putAll(List<TileObject> tiles) throws StorageException {
+        // grouping the tiles per database file
+        Map<File, List<TileObject>> tilesPerFile = new LinkedHashMap<>();
+        for (TileObject tile : tiles) {
+            tilesPerFile.computeIfAbsent(fileManager.getFile(tile), file -> new ArrayList<>()).add(tile);
+        }
+        for (Map.Entry<File, List<TileObject>> entry : tilesPerFile.entrySet()) {
+            File file = entry.getKey();
+            List<TileObject> fileTiles = entry.getValue();
+            TileObject first = fileTiles.get(0);
+            initDatabaseFileIfNeeded(file, first.getLayerName(), first.getBlobFormat());
+            List<TileObject> stored = new ArrayList<>();
+            List<TileObject> updated = new ArrayList<>();
+            List<Long> oldSizes = new ArrayList<>();
+            // do work in write mode
+            connectionManager.doWork(file, false, connection -> {
+                try {
+                    connection.setAutoCommit(false);
+                    try {
+                        for (TileObject tile : fileTiles) {
+                            Long oldSize = saveTile(connection, tile, file);
+                            if (oldSize == null) {
+                                stored.add(tile);
+                            } else {
+                                updated.add(tile);
+                                oldSizes.add(oldSize);
+                            }
+                        }
+                        connection.commit();
+                    } catch (Exception exception) {
+                        connection.rollback();
+                        throw exception;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                } catch (Exception exception) {
+                    throw Utils.exception(exception, "Error saving %d tiles in file '%s'.", fileTiles.size(), file);
+                }
+            });
+            // only told about once committed, a rolled back batch changes nothing
+            if (!listeners.isEmpty()) {
+                listeners.sendTilesStored(stored);
+                for (int i = 0; i < updated.size(); i++) {
+                    listeners.sendTileUpdated(updated.get(i), oldSizes.get(i));
+                }
+            }
+            // the parameters map only needs to be persisted once per parameters id
+            Set<String> parametersIds = new HashSet<>();
+            for (TileObject tile : fileTiles) {
+                if (parametersIds.add(String.valueOf(tile.getParametersId()))) {
+                    persistParameterMap(tile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves a tile with the provided connection.
+     *
+     * @return the size of the replaced tile, NULL if the tile is new or nobody is listening
+     */
+    private Long saveTile(Connection connection, TileObject tile, File file) throws Exception {
+        final boolean gzipped = tileIsGzipped(tile);
+
+        byte[] bytes;
+        if (gzipped) {
+            try (
+                    ByteArrayOutputStream byteStream  = new ByteArrayOutputStream();
+                    GZIPOutputStream gzOut = new GZIPOutputStream(byteStream);
+            ) {
+                bytes = byteStream.toByteArray();
+            }
+        } else {
+            bytes = Utils.resourceToByteArray(tile.getBlob());
+        }
+
+        // if necessary getting old data size for listeners
+        Long oldSize = null;
+        if (!listeners.isEmpty()) {
+            oldSize = getTileSize(connection, tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1]);
+        }
+        // saving the tile, the same way geotools does but with a cached statement
+        connectionManager.executeCachedSql(connection, "INSERT OR REPLACE INTO tiles (zoom_level, tile_column, tile_row, tile_data) " +
+                "VALUES (?, ?, ?, ?);", tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1], bytes);
+        if (useCreateTime) {
+            // we need to store this tile create time
+            putTileCreateTime(connection, tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1], System.currentTimeMillis());
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Tile '%s' saved in file '%s'.", tile, file));
+        }
+        return oldSize;
+    }
+
     @Override
     public boolean get(final TileObject tile) throws StorageException {
         File file = fileManager.getFile(tile);
@@ -187,28 +254,26 @@ public final class MbtilesBlobStore extends SqliteBlobStore {
         initDatabaseFileIfNeeded(file, tile.getLayerName(), tile.getBlobFormat());
         // do work in readonly mode
         boolean exists = connectionManager.doWork(file, true, connection -> {
-            // instantiating geotools mbtiles reader
-            MBTilesFile mbtiles = GeoToolsMbtilesUtils.getMBTilesFile(connection, file);
             try {
                 
                 final boolean gzipped = tileIsGzipped(tile);
                 
-                // loading the tile using geotools reader
-                MBTilesTile gtTile = mbtiles.loadTile(tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1]);
+                // loading the tile the same way geotools reader does but with a cached statement
+                byte[] data = loadTileData(connection, tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1]);
                 
-                byte[] bytes = gtTile.getData();
-                if (gtTile.getData() != null) {
+                byte[] bytes;
+                if (data != null) {
                     if (gzipped) {
                         try (
                                 ByteArrayOutputStream byteOut  = new ByteArrayOutputStream();
-                                ByteArrayInputStream byteIn  = new ByteArrayInputStream(gtTile.getData());
+                                ByteArrayInputStream byteIn  = new ByteArrayInputStream(data);
                                 GZIPInputStream gzIn = new GZIPInputStream(byteIn);
                         ) {
                             IOUtils.copy(gzIn, byteOut);
                             bytes = byteOut.toByteArray();
                         }
                     } else {
-                        bytes = gtTile.getData();
+                        bytes = data;
                     }
                     tile.setBlob(Utils.byteArrayToResource(bytes));
                     
@@ -257,16 +322,14 @@ public final class MbtilesBlobStore extends SqliteBlobStore {
         }
         // do work on write mode
         return connectionManager.doWork(file, false, connection -> {
-            // instantiating geotools objects without setting the tile data (this way geotools will try to remove the tile)
-            MBTilesFile mbtiles = GeoToolsMbtilesUtils.getMBTilesFile(connection, file);
-            MBTilesTile gtTile = new MBTilesTile(tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1]);
             try {
-                // getting tile old data and checking if the tile exists
-                byte[] olData = mbtiles.loadTile(tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1]).getData();
-                if (olData != null) {
+                // getting tile old size and checking if the tile exists
+                Long oldSize = getTileSize(connection, tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1]);
+                if (oldSize != null) {
                     // tile exists so let's remove the tile
-                    tile.setBlobSize(olData.length);
-                    mbtiles.saveTile(gtTile);
+                    tile.setBlobSize(oldSize.intValue());
+                    connectionManager.executeCachedSql(connection, "DELETE FROM tiles " +
+                            "WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?;", tile.getXYZ()[2], tile.getXYZ()[0], tile.getXYZ()[1]);
                     // updating the listener if any
                     listeners.sendTileDeleted(tile);
                     if (useCreateTime) {
@@ -485,12 +548,38 @@ public final class MbtilesBlobStore extends SqliteBlobStore {
         return true;
     }
 
+    /**
+     * Helper method that retrieves the size of a stored tile, NULL if the tile doesn't exists. The
+     * size is computed by SQLite from the row header, so unlike loading the tile the data is not read.
+     */
+    private Long getTileSize(Connection connection, long z, long x, long y) {
+        return connectionManager.executeCachedQuery(connection, resultSet -> {
+            if (resultSet.next()) {
+                long size = resultSet.getLong(1);
+                return resultSet.wasNull() ? null : size;
+            }
+            return null;
+        }, "SELECT length(tile_data) FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?", z, x, y);
+    }
+
+    /**
+     * Helper method that loads the data of a stored tile, NULL if the tile doesn't exists.
+     */
+    private byte[] loadTileData(Connection connection, long z, long x, long y) {
+        return connectionManager.executeCachedQuery(connection, resultSet -> {
+            if (resultSet.next()) {
+                return resultSet.getBytes(1);
+            }
+            return null;
+        }, "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?;", z, x, y);
+    }
+
     /**
      * Helper method that deletes the create time of a tile.
      */
     private void deleteTileCreateTime(Connection connection, long z, long x, long y) throws StorageException {
         try {
-            connectionManager.executeSql(connection, "DELETE FROM tiles_metadata " +
+            connectionManager.executeCachedSql(connection, "DELETE FROM tiles_metadata " +
                     "WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?", z, x, y);
         } catch (Exception exception) {
             // probably the table doesn't exists
@@ -507,12 +596,14 @@ public final class MbtilesBlobStore extends SqliteBlobStore {
         String query = "SELECT create_time FROM tiles_metadata WHERE zoom_level = ? " +
                 "AND tile_column = ? AND tile_row = ?";
         try {
-            return connectionManager.executeQuery(file, resultSet -> {
-                if (resultSet.next()) {
-                    return resultSet.getLong(1);
-                }
-                return null;
-            }, query, z, x, y);
+            return connectionManager.doWork(file, true, connection -> {
+                return connectionManager.executeCachedQuery(connection, resultSet -> {
+                    if (resultSet.next()) {
+                        return resultSet.getLong(1);
+                    }
+                    return null;
+                }, query, z, x, y);
+            });
         } catch (Exception exception) {
             // probably the table doesn't exists
             if(LOGGER.isErrorEnabled()) {
@@ -536,12 +627,12 @@ public final class MbtilesBlobStore extends SqliteBlobStore {
      */
     private void putTileCreateTime(Connection connection, long z, long x, long y, long createTime) {
         createTilesMetadataTable(connection);
-        connectionManager.executeSql(connection,
+        connectionManager.executeCachedSql(connection,
                 "INSERT OR REPLACE INTO tiles_metadata VALUES (?, ?, ?, ?);", z, x, y, createTime);
     }
 
     private void createTilesMetadataTable(Connection connection) {
-        connectionManager.executeSql(connection,
+        connectionManager.executeCachedSql(connection,
                 "CREATE TABLE IF NOT EXISTS tiles_metadata (zoom_level integer, tile_column integer, " +
                         "tile_row integer, create_time integer, " +
                         "CONSTRAINT pk_tiles PRIMARY KEY(zoom_level, tile_column,tile_row));");
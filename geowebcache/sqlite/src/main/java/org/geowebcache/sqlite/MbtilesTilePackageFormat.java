@@ -0,0 +1,344 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.sqlite;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.mbtiles.GeoToolsMbtilesUtils;
+import org.geotools.mbtiles.MBTilesFile;
+import org.geotools.mbtiles.MBTilesMetadata;
+import org.geotools.sql.SqlUtil;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSet;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridUtil;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.seed.TilePackageFormat;
+import org.geowebcache.seed.TilePackageReader;
+import org.geowebcache.seed.TilePackageWriter;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Exports tiles to an mbtiles file, writing each batch of tiles in a single transaction, and imports
+ * them from mbtiles files, reading them in batches ordered by zoom level, column and row.
+ * <p>
+ * When deduplication is requested the tiles are stored in the mbtiles {@code map} and
+ * {@code images} tables, joined by the {@code tiles} view, so identical tiles (typically empty
+ * sea or land tiles) are stored once.
+ * </p>
+ */
+public final class MbtilesTilePackageFormat implements TilePackageFormat {
+
+    private static Log LOGGER = LogFactory.getLog(MbtilesTilePackageFormat.class);
+
+    public static final String NAME = "mbtiles";
+
+    private static final String[] DEDUPLICATED_SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS metadata (name TEXT, value TEXT);",
+            "CREATE TABLE IF NOT EXISTS images (tile_data BLOB, tile_id TEXT);",
+            "CREATE TABLE IF NOT EXISTS map (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_id TEXT);",
+            "CREATE UNIQUE INDEX IF NOT EXISTS images_id ON images (tile_id);",
+            "CREATE UNIQUE INDEX IF NOT EXISTS map_index ON map (zoom_level, tile_column, tile_row);",
+            "CREATE VIEW IF NOT EXISTS tiles AS SELECT map.zoom_level AS zoom_level, map.tile_column AS tile_column, "
+                    + "map.tile_row AS tile_row, images.tile_data AS tile_data FROM map JOIN images ON images.tile_id = map.tile_id;"};
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "mbtiles";
+    }
+
+    /**
+     * @return {@code true}, mbtiles tiles are always in the spherical mercator tiling
+     */
+    @Override
+    public boolean declaresGridSet() {
+        return true;
+    }
+
+    @Override
+    public TilePackageWriter createWriter(File output, TileLayer layer, TileRange range, boolean deduplicate) throws IOException {
+        if (output.length() > 0) {
+            // the export task hands over a new empty file, never overwrite anything else
+            throw new IOException(String.format("File '%s' is not empty.", output));
+        }
+        SqliteConnectionManager connectionManager = new SqliteConnectionManager(10, 2000);
+        try {
+            connectionManager.doWork(output, false, connection -> {
+                try {
+                    if (deduplicate) {
+                        try (Statement statement = connection.createStatement()) {
+                            for (String sql : DEDUPLICATED_SCHEMA) {
+                                statement.execute(sql);
+                            }
+                        }
+                    } else {
+                        SqlUtil.runScript(getClass().getResourceAsStream("/org/geotools/mbtiles/mbtiles.sql"), connection);
+                    }
+                    MBTilesFile mbtiles = GeoToolsMbtilesUtils.getMBTilesFile(connection, output);
+                    mbtiles.saveMetaData(metadata(layer, range));
+                } catch (Exception exception) {
+                    throw Utils.exception(exception, "Error initiating mbtiles file '%s'.", output);
+                }
+            });
+        } catch (RuntimeException exception) {
+            close(connectionManager);
+            throw new IOException(exception.getMessage(), exception);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Exporting tiles to mbtiles file '%s' [deduplicate='%b'].", output, deduplicate));
+        }
+        return new MbtilesTileWriter(connectionManager, output, deduplicate);
+    }
+
+    @Override
+    public TilePackageReader createReader(File input, TileLayer layer, TileRange range) throws IOException {
+        if (!input.isFile()) {
+            throw new IOException(String.format("File '%s' doesn't exist.", input));
+        }
+        return new MbtilesTileReader(new SqliteConnectionManager(10, 2000), input, layer.getName(), range);
+    }
+
+    private static MBTilesMetadata metadata(TileLayer layer, TileRange range) {
+        MBTilesMetadata metadata = new MBTilesMetadata();
+        metadata.setName(layer.getName());
+        metadata.setMinZoom(range.getZoomStart());
+        metadata.setMaxZoom(range.getZoomStop());
+        String format = range.getMimeType().getFormat();
+        if (format.contains("png")) {
+            metadata.setFormat(MBTilesMetadata.t_format.PNG);
+        } else if (format.contains("jpeg")) {
+            metadata.setFormat(MBTilesMetadata.t_format.JPEG);
+        } else if (format.contains("protobuf")) {
+            metadata.setFormat(MBTilesMetadata.t_format.PBF);
+        }
+        return metadata;
+    }
+
+    private static void close(SqliteConnectionManager connectionManager) {
+        connectionManager.reapAllConnections();
+        connectionManager.stopPoolReaper();
+    }
+
+    private static final class MbtilesTileWriter implements TilePackageWriter {
+
+        private final SqliteConnectionManager connectionManager;
+
+        private final File file;
+
+        private final boolean deduplicate;
+
+        MbtilesTileWriter(SqliteConnectionManager connectionManager, File file, boolean deduplicate) {
+            this.connectionManager = connectionManager;
+            this.file = file;
+            this.deduplicate = deduplicate;
+        }
+
+        @Override
+        public void write(List<TileObject> tiles) throws IOException {
+            try {
+                connectionManager.doWork(file, false, connection -> {
+                    try {
+                        connection.setAutoCommit(false);
+                        try {
+                            if (deduplicate) {
+                                writeDeduplicated(connection, tiles);
+                            } else {
+                                writeTiles(connection, tiles);
+                            }
+                            connection.commit();
+                        } catch (SQLException exception) {
+                            connection.rollback();
+                            throw exception;
+                        } finally {
+                            connection.setAutoCommit(true);
+                        }
+                    } catch (SQLException exception) {
+                        throw Utils.exception(exception, "Error writing %d tiles to file '%s'.", tiles.size(), file);
+                    }
+                });
+            } catch (RuntimeException exception) {
+                throw new IOException(exception.getMessage(), exception);
+            }
+        }
+
+        private void writeTiles(Connection connection, List<TileObject> tiles) throws SQLException {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "INSERT OR REPLACE INTO tiles (zoom_level, tile_column, tile_row, tile_data) VALUES (?, ?, ?, ?);")) {
+                for (TileObject tile : tiles) {
+                    setTileIndex(statement, tile);
+                    statement.setBytes(4, Utils.resourceToByteArray(tile.getBlob()));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        }
+
+        private void writeDeduplicated(Connection connection, List<TileObject> tiles) throws SQLException {
+            Set<String> batchImages = new HashSet<>();
+            try (PreparedStatement images = connection.prepareStatement(
+                    "INSERT OR IGNORE INTO images (tile_data, tile_id) VALUES (?, ?);");
+                 PreparedStatement map = connection.prepareStatement(
+                         "INSERT OR REPLACE INTO map (zoom_level, tile_column, tile_row, tile_id) VALUES (?, ?, ?, ?);")) {
+                for (TileObject tile : tiles) {
+                    byte[] data = Utils.resourceToByteArray(tile.getBlob());
+                    String tileId = Hashing.sha1().hashBytes(data).toString();
+                    // contents stored by previous batches are skipped by the insert itself
+                    if (batchImages.add(tileId)) {
+                        images.setBytes(1, data);
+                        images.setString(2, tileId);
+                        images.addBatch();
+                    }
+                    setTileIndex(map, tile);
+                    map.setString(4, tileId);
+                    map.addBatch();
+                }
+                images.executeBatch();
+                map.executeBatch();
+            }
+        }
+
+        private static void setTileIndex(PreparedStatement statement, TileObject tile) throws SQLException {
+            long[] xyz = tile.getXYZ();
+            statement.setLong(1, xyz[2]);
+            statement.setLong(2, xyz[0]);
+            statement.setLong(3, xyz[1]);
+        }
+
+        @Override
+        public void close() throws IOException {
+            MbtilesTilePackageFormat.close(connectionManager);
+        }
+    }
+
+    private static final class MbtilesTileReader implements TilePackageReader {
+
+        private final SqliteConnectionManager connectionManager;
+
+        private final File file;
+
+        private final String layerName;
+
+        private final TileRange range;
+
+        // index of the last read tile, the next batch starts after it
+        private long[] last = {-1, -1, -1};
+
+        MbtilesTileReader(SqliteConnectionManager connectionManager, File file, String layerName, TileRange range) {
+            this.connectionManager = connectionManager;
+            this.file = file;
+            this.layerName = layerName;
+            this.range = range;
+        }
+
+        @Override
+        public long getTileCount() throws IOException {
+            try {
+                return connectionManager.executeQuery(file, resultSet -> {
+                    resultSet.next();
+                    return resultSet.getLong(1);
+                }, "SELECT COUNT(*) FROM tiles;");
+            } catch (RuntimeException exception) {
+                throw new IOException(exception.getMessage(), exception);
+            }
+        }
+
+        @Override
+        public void checkGridSubset(GridSubset gridSubset) throws IOException {
+            GridSet gridSet = gridSubset.getGridSet();
+            if (!GridUtil.isWebMercatorCompatible(gridSet)) {
+                throw new IOException(String.format("Grid set '%s' doesn't match the spherical mercator tiling " +
+                        "of mbtiles file '%s'.", gridSet.getName(), file));
+            }
+            BoundingBox bounds = readBounds();
+            if (bounds != null && !GridUtil.toWebMercator(bounds).intersects(gridSubset.getOriginalExtent())) {
+                throw new IOException(String.format("Bounds '%s' of mbtiles file '%s' are outside of grid subset '%s'.",
+                        bounds, file, gridSubset.getName()));
+            }
+        }
+
+        /**
+         * Reads the optional longitude and latitude bounds of the metadata table.
+         */
+        private BoundingBox readBounds() throws IOException {
+            String bounds;
+            try {
+                bounds = connectionManager.executeQuery(file, resultSet -> resultSet.next() ? resultSet.getString(1) : null,
+                        "SELECT value FROM metadata WHERE name = ?;", "bounds");
+            } catch (RuntimeException exception) {
+                throw new IOException(exception.getMessage(), exception);
+            }
+            if (bounds == null || bounds.trim().isEmpty()) {
+                return null;
+            }
+            String[] values = bounds.split(",");
+            try {
+                if (values.length == 4) {
+                    return new BoundingBox(Double.parseDouble(values[0].trim()), Double.parseDouble(values[1].trim()),
+                            Double.parseDouble(values[2].trim()), Double.parseDouble(values[3].trim()));
+                }
+            } catch (NumberFormatException exception) {
+                // reported below
+            }
+            throw new IOException(String.format("Invalid bounds '%s' in mbtiles file '%s'.", bounds, file));
+        }
+
+        @Override
+        public List<TileObject> read(int max) throws IOException {
+            try {
+                // keyset pagination, so each batch is read by a fresh query using the tiles index
+                return connectionManager.executeQuery(file, resultSet -> {
+                    List<TileObject> tiles = new ArrayList<>(max);
+                    while (resultSet.next()) {
+                        long[] xyz = {resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(1)};
+                        tiles.add(TileObject.createCompleteTileObject(layerName, xyz, range.getGridSetId(),
+                                range.getMimeType().getFormat(), range.getParameters(),
+                                Utils.byteArrayToResource(resultSet.getBytes(4))));
+                        last = new long[]{xyz[2], xyz[0], xyz[1]};
+                    }
+                    return tiles;
+                }, "SELECT zoom_level, tile_column, tile_row, tile_data FROM tiles "
+                        + "WHERE zoom_level > ? OR (zoom_level = ? AND (tile_column > ? OR (tile_column = ? AND tile_row > ?))) "
+                        + "ORDER BY zoom_level, tile_column, tile_row LIMIT ?;",
+                        last[0], last[0], last[1], last[1], last[2], max);
+            } catch (RuntimeException exception) {
+                throw new IOException(exception.getMessage(), exception);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            MbtilesTilePackageFormat.close(connectionManager);
+        }
+    }
+}
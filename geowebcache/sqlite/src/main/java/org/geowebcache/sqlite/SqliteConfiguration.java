@@ -52,6 +52,14 @@ public abstract class SqliteConfiguration extends BlobStoreConfig {
 
     private boolean useCreateTime = true;
 
+    private Integer cacheSize;
+
+    private Long mmapSize;
+
+    private String synchronous;
+
+    private String tempStore;
+
     public File getRootDirectoryFile() {
         File file = new File(rootDirectory);
         if (!file.exists()) {
@@ -124,6 +132,54 @@ public abstract class SqliteConfiguration extends BlobStoreConfig {
         this.useCreateTime = useCreateTime;
     }
 
+    /**
+     * @return the SQLite {@code cache_size} pragma of the connections, pages if positive or kibibytes
+     *         if negative, NULL for SQLite default
+     */
+    public Integer getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(Integer cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @return the SQLite {@code mmap_size} pragma of the connections, in bytes, NULL for SQLite
+     *         default
+     */
+    public Long getMmapSize() {
+        return mmapSize;
+    }
+
+    public void setMmapSize(Long mmapSize) {
+        this.mmapSize = mmapSize;
+    }
+
+    /**
+     * @return the SQLite {@code synchronous} pragma of the connections (OFF, NORMAL, FULL or EXTRA),
+     *         NULL for SQLite default
+     */
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    public void setSynchronous(String synchronous) {
+        this.synchronous = synchronous;
+    }
+
+    /**
+     * @return the SQLite {@code temp_store} pragma of the connections (DEFAULT, FILE or MEMORY), NULL
+     *         for SQLite default
+     */
+    public String getTempStore() {
+        return tempStore;
+    }
+
+    public void setTempStore(String tempStore) {
+        this.tempStore = tempStore;
+    }
+
     @Override
     public String getLocation() {
         return rootDirectory;
@@ -26,10 +26,12 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Locale;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -47,15 +49,23 @@ public final class SqliteConnectionManager {
 
     private volatile boolean stopPoolReaper = false;
 
+    // pragmas executed on every new connection
+    private final List<String> pragmas;
+
     public SqliteConnectionManager(SqliteConfiguration configuration) {
-        this(configuration.getPoolSize(), configuration.getPoolReaperIntervalMs());
+        this(configuration.getPoolSize(), configuration.getPoolReaperIntervalMs(), buildPragmas(configuration));
     }
 
     SqliteConnectionManager(long poolSize, long poolReaperIntervalMs) {
+        this(poolSize, poolReaperIntervalMs, Collections.emptyList());
+    }
+
+    SqliteConnectionManager(long poolSize, long poolReaperIntervalMs, List<String> pragmas) {
         if (LOGGER.isInfoEnabled()) {
-            LOGGER.info(String.format("Initiating connection poll: [poolSize='%d', poolReaperIntervalMs='%d'].",
-                    poolSize, poolReaperIntervalMs));
+            LOGGER.info(String.format("Initiating connection poll: [poolSize='%d', poolReaperIntervalMs='%d', pragmas='%s'].",
+                    poolSize, poolReaperIntervalMs, pragmas));
         }
+        this.pragmas = pragmas;
         // let's load the sqlite driver
         try {
             Class.forName("org.sqlite.JDBC");
@@ -97,6 +107,42 @@ public final class SqliteConnectionManager {
         }).start();
     }
 
+    /**
+     * Builds the pragmas to execute on new connections from the tuning options of the configuration,
+     * the options that are not set are left to SQLite defaults.
+     */
+    static List<String> buildPragmas(SqliteConfiguration configuration) {
+        List<String> pragmas = new ArrayList<>();
+        if (configuration.getCacheSize() != null) {
+            pragmas.add("PRAGMA cache_size = " + configuration.getCacheSize() + ";");
+        }
+        if (configuration.getMmapSize() != null) {
+            pragmas.add("PRAGMA mmap_size = " + configuration.getMmapSize() + ";");
+        }
+        if (configuration.getSynchronous() != null) {
+            pragmas.add("PRAGMA synchronous = " + checkPragmaValue("synchronous",
+                    configuration.getSynchronous(), "OFF", "NORMAL", "FULL", "EXTRA") + ";");
+        }
+        if (configuration.getTempStore() != null) {
+            pragmas.add("PRAGMA temp_store = " + checkPragmaValue("temp_store",
+                    configuration.getTempStore(), "DEFAULT", "FILE", "MEMORY") + ";");
+        }
+        return Collections.unmodifiableList(pragmas);
+    }
+
+    /**
+     * Pragma values can't be bound as parameters, so only the known ones are accepted.
+     */
+    private static String checkPragmaValue(String pragma, String value, String... allowed) {
+        String normalized = value.trim().toUpperCase(Locale.ENGLISH);
+        for (String candidate : allowed) {
+            if (candidate.equals(normalized)) {
+                return candidate;
+            }
+        }
+        throw Utils.exception("Invalid value '%s' for pragma '%s'.", value, pragma);
+    }
+
     /**
      * Helper interface to submit work.
      */
@@ -144,6 +190,76 @@ public final class SqliteConnectionManager {
         }
     }
 
+    /**
+     * Submit an SQL statement to be executed with the provided connection, the prepared statement is
+     * kept by the connection to be reused. Meant for statements executed very often.
+     */
+    int executeCachedSql(Connection connection, String sql, Object... parameters) {
+        if (!(connection instanceof ExtendedConnection)) {
+            executeSql(connection, sql, parameters);
+            return -1;
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Executing cached SQL '%s'.", sql));
+        }
+        ExtendedConnection extendedConnection = (ExtendedConnection) connection;
+        PreparedStatement statement = null;
+        try {
+            statement = extendedConnection.borrowStatement(sql);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            int updated = statement.executeUpdate();
+            extendedConnection.releaseStatement(sql, statement);
+            return updated;
+        } catch (Exception exception) {
+            closeQuietly(statement);
+            throw Utils.exception(exception, "Error executing SQL '%s'.", sql);
+        }
+    }
+
+    /**
+     * Submit a query to be executed with the provided connection, the prepared statement is kept by
+     * the connection to be reused. Meant for queries executed very often.
+     */
+    <T> T executeCachedQuery(Connection connection, ResultExtractor<T> extractor, String query, Object... parameters) {
+        if (!(connection instanceof ExtendedConnection)) {
+            return executeQuery(connection, extractor, query, parameters);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Executing cached query '%s'.", query));
+        }
+        ExtendedConnection extendedConnection = (ExtendedConnection) connection;
+        PreparedStatement statement = null;
+        try {
+            statement = extendedConnection.borrowStatement(query);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            T result;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                result = extractor.extract(resultSet);
+            }
+            extendedConnection.releaseStatement(query, statement);
+            return result;
+        } catch (Exception exception) {
+            closeQuietly(statement);
+            throw Utils.exception(exception, "Error executing query '%s'.", query);
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (Exception exception) {
+                if (LOGGER.isWarnEnabled()) {
+                    LOGGER.warn("Error closing statement.", exception);
+                }
+            }
+        }
+    }
+
     /**
      * Submit a query to be executed.
      */
@@ -344,6 +460,7 @@ public final class SqliteConnectionManager {
 
         private final File file;
         private Connection connection;
+        private StatementCache statements;
 
         private final ReentrantReadWriteLock lock;
 
@@ -358,6 +475,7 @@ public final class SqliteConnectionManager {
 
         void init() {
             connection = openConnection(file);
+            statements = new StatementCache(connection);
             lastAccess = System.currentTimeMillis();
             closed = false;
         }
@@ -372,7 +490,7 @@ public final class SqliteConnectionManager {
 
         ExtendedConnection getExtendedConnection() {
             lastAccess = System.currentTimeMillis();
-            return new ExtendedConnection(connection);
+            return new ExtendedConnection(connection, statements);
         }
 
         void reapConnection() {
@@ -389,6 +507,7 @@ public final class SqliteConnectionManager {
             if (!closed) {
                 // this connection is open let's close it
                 try {
+                    statements.close();
                     connection.close();
                     closed = true;
                 } catch (Exception exception) {
@@ -482,7 +601,18 @@ public final class SqliteConnectionManager {
             }
             Utils.createFileParents(file);
             try {
-                return DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+                Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+                if (!pragmas.isEmpty()) {
+                    try (Statement statement = connection.createStatement()) {
+                        for (String pragma : pragmas) {
+                            statement.execute(pragma);
+                        }
+                    } catch (Exception exception) {
+                        connection.close();
+                        throw exception;
+                    }
+                }
+                return connection;
             } catch (Exception exception) {
                 throw Utils.exception(exception, "Error opening connection to file '%s'.", file);
             }
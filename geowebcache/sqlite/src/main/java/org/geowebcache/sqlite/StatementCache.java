@@ -0,0 +1,88 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.sqlite;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps the prepared statements of a connection so the frequently executed ones are prepared only
+ * once. Several threads may work with the same connection in read mode, so a statement is borrowed
+ * while in use and given back afterwards, each SQL query having as many statements as the threads
+ * that ran it concurrently.
+ */
+final class StatementCache {
+
+    private static Log LOGGER = LogFactory.getLog(StatementCache.class);
+
+    private final Connection connection;
+
+    private final ConcurrentHashMap<String, Queue<PreparedStatement>> statements = new ConcurrentHashMap<>();
+
+    StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Returns an idle statement for the SQL query, preparing a new one if none is available.
+     */
+    PreparedStatement borrow(String sql) throws SQLException {
+        Queue<PreparedStatement> idle = statements.get(sql);
+        PreparedStatement statement = idle == null ? null : idle.poll();
+        if (statement != null) {
+            return statement;
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Preparing statement '%s'.", sql));
+        }
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Gives back a statement obtained with {@link #borrow(String)}, it should not be used anymore by
+     * the caller.
+     */
+    void release(String sql, PreparedStatement statement) throws SQLException {
+        statement.clearParameters();
+        statements.computeIfAbsent(sql, key -> new ConcurrentLinkedQueue<>()).offer(statement);
+    }
+
+    /**
+     * Closes all the idle statements, invoked before closing the connection while no work is using
+     * it.
+     */
+    void close() {
+        for (Queue<PreparedStatement> idle : statements.values()) {
+            PreparedStatement statement;
+            while ((statement = idle.poll()) != null) {
+                try {
+                    statement.close();
+                } catch (Exception exception) {
+                    if (LOGGER.isWarnEnabled()) {
+                        LOGGER.warn("Error closing prepared statement.", exception);
+                    }
+                }
+            }
+        }
+        statements.clear();
+    }
+}
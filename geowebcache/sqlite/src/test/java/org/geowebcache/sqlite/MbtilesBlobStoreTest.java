@@ -19,6 +19,7 @@ package org.geowebcache.sqlite;
 import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.io.Resource;
 import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.BlobStoreListener;
 import org.geowebcache.storage.TileObject;
 import org.geowebcache.storage.TileRange;
 import org.junit.Test;
@@ -37,6 +38,8 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 public final class MbtilesBlobStoreTest extends TestSupport {
 
@@ -71,6 +74,29 @@ public final class MbtilesBlobStoreTest extends TestSupport {
         assertThat(getTile.getBlob(), nullValue());
     }
 
+    @Test
+    public void testListenersGetStoredTileSizes() throws Exception {
+        // instantiating the store with a listener
+        MbtilesConfiguration configuration = getDefaultConfiguration();
+        MbtilesBlobStore store = new MbtilesBlobStore(configuration);
+        addStoresToClean(store);
+        BlobStoreListener listener = mock(BlobStoreListener.class);
+        store.addListener(listener);
+        // storing a new tile
+        TileObject putTile = TileObject.createCompleteTileObject("africa",
+                new long[]{10, 50, 5}, "EPSG:4326", "image/png", null, stringToResource("IMAGE-10-50-5"));
+        store.put(putTile);
+        verify(listener).tileStored("africa", "EPSG:4326", "image/png", null, 10, 50, 5, 13);
+        // replacing the tile, the listener should get the previous size
+        TileObject updateTile = TileObject.createCompleteTileObject("africa",
+                new long[]{10, 50, 5}, "EPSG:4326", "image/png", null, stringToResource("IMAGE-10-50-5-UPDATED"));
+        store.put(updateTile);
+        verify(listener).tileUpdated("africa", "EPSG:4326", "image/png", null, 10, 50, 5, 21, 13);
+        // deleting the tile, the listener should get the size of the deleted tile
+        assertThat(store.delete(updateTile), is(true));
+        verify(listener).tileDeleted("africa", "EPSG:4326", "image/png", null, 10, 50, 5, 21);
+    }
+
     @Test
     public void testTileMetadataOperations() throws Exception {
         // instantiating the store
@@ -0,0 +1,147 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.sqlite;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.storage.TileObject;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Measures the latency of the {@link MbtilesBlobStore} get and put operations for each MBTiles
+ * file, with SQLite default settings and with tuned connection pragmas.
+ */
+final class MbtilesPerf {
+
+    private static Log LOGGER = LogFactory.getLog(MbtilesPerf.class);
+
+    // number of tiles to store and retrieve
+    final static int TILES = 100000;
+
+    // tiles are spread among this number of files, one column range per file
+    final static int FILES = 4;
+
+    // number of tiles in a column or row range
+    final static int RANGE = 250;
+
+    public static void main(String[] args) throws Exception {
+        long[][] tiles = randomTiles();
+        byte[] data = new byte[2024];
+        new Random().nextBytes(data);
+        // SQLite defaults
+        measure("default", new MbtilesConfiguration(), tiles, data);
+        // tuned pragmas
+        MbtilesConfiguration tuned = new MbtilesConfiguration();
+        tuned.setCacheSize(-64000);
+        tuned.setMmapSize(256L * 1024 * 1024);
+        tuned.setSynchronous("NORMAL");
+        tuned.setTempStore("MEMORY");
+        measure("tuned", tuned, tiles, data);
+    }
+
+    /**
+     * Puts and gets all the tiles with the provided configuration, logging the latencies per file.
+     */
+    private static void measure(String name, MbtilesConfiguration configuration, long[][] tiles, byte[] data) throws Exception {
+        File rootDirectory = Files.createTempDirectory("gwc-").toFile();
+        configuration.setRootDirectory(rootDirectory.getPath());
+        configuration.setUseCreateTime(true);
+        configuration.setColumnRangeCount(RANGE);
+        configuration.setRowRangeCount(RANGE);
+        SqliteConnectionManager connectionManager = new SqliteConnectionManager(configuration);
+        MbtilesBlobStore store = new MbtilesBlobStore(configuration, connectionManager);
+        FileManager fileManager = new FileManager(rootDirectory, configuration.getTemplatePath(),
+                configuration.getRowRangeCount(), configuration.getColumnRangeCount());
+        Map<String, Latencies> putLatencies = new TreeMap<>();
+        Map<String, Latencies> getLatencies = new TreeMap<>();
+        try {
+            for (long[] tile : tiles) {
+                TileObject tileObject = TileObject.createCompleteTileObject("layer", tile, "EPSG:4326",
+                        "image/png", null, Utils.byteArrayToResource(data));
+                String file = fileManager.getFile(tileObject).getName();
+                long start = System.nanoTime();
+                store.put(tileObject);
+                putLatencies.computeIfAbsent(file, key -> new Latencies()).add(System.nanoTime() - start);
+            }
+            for (long[] tile : tiles) {
+                TileObject tileObject = TileObject.createQueryTileObject("layer", tile, "EPSG:4326",
+                        "image/png", null);
+                String file = fileManager.getFile(tileObject).getName();
+                long start = System.nanoTime();
+                store.get(tileObject);
+                getLatencies.computeIfAbsent(file, key -> new Latencies()).add(System.nanoTime() - start);
+            }
+            for (Map.Entry<String, Latencies> entry : putLatencies.entrySet()) {
+                String file = entry.getKey();
+                if (LOGGER.isInfoEnabled()) {
+                    LOGGER.info(String.format("[%s] File '%s' with %d tiles, put %s, get %s.",
+                            name, file, entry.getValue().size, entry.getValue(), getLatencies.get(file)));
+                }
+            }
+        } finally {
+            store.destroy();
+            connectionManager.reapAllConnections();
+            connectionManager.stopPoolReaper();
+            FileUtils.deleteQuietly(rootDirectory);
+        }
+    }
+
+    /**
+     * Helper class that collects the latencies of the operations on a file, in nanoseconds.
+     */
+    private final static class Latencies {
+
+        long[] values = new long[1024];
+        int size;
+
+        void add(long latency) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = latency;
+        }
+
+        /**
+         * Average and percentiles of the latencies, in microseconds.
+         */
+        @Override
+        public String toString() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            double average = Arrays.stream(sorted).average().orElse(0) / 1000;
+            return String.format("avg %.1fus p50 %.1fus p99 %.1fus", average,
+                    sorted[size / 2] / 1000.0, sorted[(int) (size * 0.99)] / 1000.0);
+        }
+    }
+
+    /**
+     * Random tiles at zoom level 10 spread among {@link #FILES} column ranges.
+     */
+    private static long[][] randomTiles() {
+        Random random = new Random();
+        long[][] tiles = new long[TILES][];
+        for (int i = 0; i < TILES; i++) {
+            tiles[i] = new long[]{random.nextInt(FILES * RANGE), random.nextInt(RANGE), 10};
+        }
+        return tiles;
+    }
+}
@@ -43,6 +43,7 @@ import static org.geowebcache.sqlite.Utils.Tuple.tuple;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 public final class SqliteConnectionManagerTest extends TestSupport {
@@ -140,6 +141,68 @@ public final class SqliteConnectionManagerTest extends TestSupport {
         });
     }
 
+    @Test
+    public void testPragmasAreAppliedToNewConnections() throws Exception {
+        MbtilesConfiguration configuration = new MbtilesConfiguration();
+        configuration.setRootDirectory(buildRootFile("tiles").getPath());
+        configuration.setSynchronous("off");
+        configuration.setTempStore("MEMORY");
+        configuration.setCacheSize(-4096);
+        SqliteConnectionManager connectionManager = new SqliteConnectionManager(configuration);
+        connectionManagersToClean.add(connectionManager);
+        connectionManager.doWork(buildRootFile("tiles", "data_base.sqlite"), true, connection -> {
+            assertThat(getPragma(connectionManager, connection, "synchronous"), is(0));
+            assertThat(getPragma(connectionManager, connection, "temp_store"), is(2));
+            assertThat(getPragma(connectionManager, connection, "cache_size"), is(-4096));
+        });
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidPragmaValue() throws Exception {
+        MbtilesConfiguration configuration = new MbtilesConfiguration();
+        configuration.setSynchronous("NORMAL; DROP TABLE tiles");
+        SqliteConnectionManager.buildPragmas(configuration);
+    }
+
+    @Test
+    public void testCachedStatementsAreReused() throws Exception {
+        SqliteConnectionManager connectionManager = new SqliteConnectionManager(Integer.MAX_VALUE, 1000);
+        connectionManagersToClean.add(connectionManager);
+        File file = buildRootFile("tiles", "data_base.sqlite");
+        String sql = "SELECT value FROM test WHERE key = ?;";
+        connectionManager.doWork(file, false, connection -> {
+            insertInTestTable(connection, "name", "europe");
+        });
+        PreparedStatement[] statements = new PreparedStatement[2];
+        for (int i = 0; i < statements.length; i++) {
+            int index = i;
+            connectionManager.doWork(file, true, connection -> {
+                ExtendedConnection extendedConnection = (ExtendedConnection) connection;
+                try {
+                    statements[index] = extendedConnection.borrowStatement(sql);
+                    extendedConnection.releaseStatement(sql, statements[index]);
+                } catch (Exception exception) {
+                    throw Utils.exception(exception, "Error borrowing statement.");
+                }
+                String value = connectionManager.executeCachedQuery(connection, resultSet -> {
+                    return resultSet.next() ? resultSet.getString(1) : null;
+                }, sql, "name");
+                assertThat(value, is("europe"));
+            });
+        }
+        assertThat(statements[1], sameInstance(statements[0]));
+        // the cached statements are closed along with the connection
+        connectionManager.reapAllConnections();
+        assertThat(statements[0].isClosed(), is(true));
+    }
+
+    private static int getPragma(SqliteConnectionManager connectionManager, Connection connection, String pragma) {
+        return connectionManager.executeQuery(connection, resultSet -> {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }, "PRAGMA " + pragma + ";");
+    }
+
     private void genericMultiThreadsTest(int threadsNumber, int workersNumber,
                                                 long poolSize, File... files) throws Exception {
         SqliteConnectionManager connectionManager = new SqliteConnectionManager(poolSize, 10);